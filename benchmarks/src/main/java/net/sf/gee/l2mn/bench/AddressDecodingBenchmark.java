@@ -0,0 +1,119 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.util.StunUtil;
+
+/**
+ * Decoding of XOR-MAPPED-ADDRESS with {@link XorMappedAddress} and {@link MessageView}, and the
+ * {@link StunUtil#subArray(byte[], int, int)} copy used by the legacy parser.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressDecodingBenchmark {
+
+  private byte[] datagram;
+
+  private byte[] key;
+
+  private XorMappedAddress attribute;
+
+  private final MessageView view = new MessageView();
+
+  @Setup
+  public void setup() throws IOException {
+    final byte[] address = InetAddress.getByName("192.0.2.1").getAddress();
+    final int port = 32853;
+
+    final ByteBuffer buffer = ByteBuffer.allocate(32);
+    buffer.putShort((short) MessageTypeEnum.BINDINGRESPONSE.getValue());
+    buffer.putShort((short) 12);
+    buffer.putInt((int) MessageHeader.MAGIC_COOKIE);
+    buffer.putLong(0x0102030405060708L);
+    buffer.putInt(0x090A0B0C);
+
+    buffer.putShort((short) MessageAttributeType.XOR_MAPPED_ADDRESS.getCode());
+    buffer.putShort((short) 8);
+    buffer.put((byte) 0);
+    buffer.put((byte) 0x01);
+    buffer.putShort((short) (port ^ (MessageHeader.MAGIC_COOKIE >>> 16)));
+    buffer.putInt((int) (ByteBuffer.wrap(address).getInt() ^ MessageHeader.MAGIC_COOKIE));
+
+    datagram = buffer.array();
+    key = StunUtil.longToFourBytes(MessageHeader.MAGIC_COOKIE);
+    attribute = new XorMappedAddress(8, StunUtil.subArray(datagram, 24, 31));
+  }
+
+  @Benchmark
+  public InetAddress xorMappedAddressGetAddress() throws UnknownHostException {
+    return attribute.getAddress(key);
+  }
+
+  @Benchmark
+  public int xorMappedAddressGetPort() {
+    return attribute.getPort(key);
+  }
+
+  @Benchmark
+  public int viewGetIPv4Address() {
+    view.wrap(datagram, 0, datagram.length);
+
+    return view.getXorIPv4Address(view.findXorMappedAddress());
+  }
+
+  @Benchmark
+  public int viewGetPort() {
+    view.wrap(datagram, 0, datagram.length);
+
+    return view.getXorPort(view.findXorMappedAddress());
+  }
+
+  @Benchmark
+  public byte[] subArray() {
+    return StunUtil.subArray(datagram, 20, 31);
+  }
+
+}
@@ -0,0 +1,55 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. It accepts the usual JMH command line and always adds the GC
+ * profiler, so every result reports the allocation rate ({@code gc.alloc.rate.norm} is the number
+ * of bytes allocated per operation).
+ * 
+ * <pre>
+ * {@code
+ *   mvn install                        (in the project root)
+ *   mvn package                        (in benchmarks/)
+ *   java -jar target/benchmarks.jar [JMH options] [benchmark regexp]
+ * }
+ * </pre>
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {
+    super();
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    final Options options = new OptionsBuilder().parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class).build();
+
+    new Runner(options).run();
+  }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTemplate;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.message.attribute.Software;
+import net.sf.gee.l2mn.stun.message.attribute.Username;
+
+/**
+ * Encoding and decoding of {@link MessageHeader} and {@link Message}: the legacy byte array API
+ * against the {@link ByteBuffer} API, and the encoding of a request with FINGERPRINT against its
+ * {@link MessageTemplate}.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+  private Message message;
+
+  private byte[] headerBytes;
+
+  private ByteBuffer buffer;
+
+  private ByteBuffer encoded;
+
+  private Message fingerprinted;
+
+  private MessageTemplate template;
+
+  private long transactionId = 0L;
+
+  @Setup
+  public void setup() throws IOException {
+    message = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    message.getHeader().randomTransactionId();
+    message.addAttribute(new Username("benchmark"));
+    message.addAttribute(new Software());
+
+    headerBytes = message.getHeader().getBytes();
+
+    buffer = ByteBuffer.allocateDirect(1024);
+
+    encoded = ByteBuffer.allocateDirect(1024);
+    message.encodeTo(encoded);
+    encoded.flip();
+
+    fingerprinted = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    fingerprinted.addAttribute(new Software());
+    fingerprinted.addAttribute(new FingerPrint());
+
+    template = new MessageTemplate(fingerprinted);
+  }
+
+  @Benchmark
+  public byte[] headerGetBytes() throws IOException {
+    return message.getHeader().getBytes();
+  }
+
+  @Benchmark
+  public MessageHeader headerParse() throws IOException {
+    return MessageHeader.parse(headerBytes);
+  }
+
+  @Benchmark
+  public ByteBuffer headerEncodeTo() throws IOException {
+    buffer.clear();
+    message.getHeader().encodeTo(buffer);
+
+    return buffer;
+  }
+
+  @Benchmark
+  public MessageHeader headerDecode() throws IOException {
+    encoded.rewind();
+
+    return MessageHeader.decode(encoded);
+  }
+
+  @Benchmark
+  public byte[] messageGetAttributesAsBytes() throws IOException {
+    return message.getAttributesAsBytes();
+  }
+
+  @Benchmark
+  public int messageEncodeTo() throws IOException {
+    buffer.clear();
+
+    return message.encodeTo(buffer);
+  }
+
+  @Benchmark
+  public int fingerprintEncodeTo() throws IOException {
+    buffer.clear();
+    fingerprinted.getHeader().setTransactionId(++transactionId, 0);
+
+    return fingerprinted.encodeTo(buffer);
+  }
+
+  @Benchmark
+  public int fingerprintTemplate() throws IOException {
+    buffer.clear();
+
+    return template.encodeTo(buffer, ++transactionId, 0);
+  }
+
+  @Benchmark
+  public Message messageDecode() throws IOException {
+    encoded.rewind();
+
+    return Message.decode(encoded);
+  }
+
+}
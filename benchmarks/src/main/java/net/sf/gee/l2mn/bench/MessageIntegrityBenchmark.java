@@ -0,0 +1,74 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.MessageIntegrity;
+import net.sf.gee.l2mn.stun.message.attribute.Software;
+import net.sf.gee.l2mn.stun.message.attribute.Username;
+
+/**
+ * Construction of {@link MessageIntegrity} with long-term and short-term credentials.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageIntegrityBenchmark {
+
+  private Message message;
+
+  @Setup
+  public void setup() throws IOException {
+    message = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    message.getHeader().randomTransactionId();
+    message.addAttribute(new Username("benchmark"));
+    message.addAttribute(new Software());
+  }
+
+  @Benchmark
+  public MessageIntegrity longTerm() {
+    return new MessageIntegrity("benchmark", "password", "example.org", message);
+  }
+
+  @Benchmark
+  public MessageIntegrity shortTerm() {
+    return new MessageIntegrity("password", message);
+  }
+
+}
@@ -19,10 +19,13 @@ package net.sf.gee.l2mn.stun.message;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.sf.gee.l2mn.stun.message.attribute.AttributeParser;
 import net.sf.gee.l2mn.stun.message.attribute.MessageAttribute;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
 import net.sf.gee.logger.factory.GLogFactory;
 import net.sf.gee.logger.log.SimpleGLogger;
 
@@ -63,6 +66,23 @@ public class Message implements Serializable {
     return attributes;
   }
 
+  /**
+   * @param type attribute type
+   * 
+   * @return the first attribute of the type, null if the message does not contain it
+   */
+  public MessageAttribute getAttribute(MessageAttributeType type) {
+    final int code = type.getCode();
+
+    for (MessageAttribute current : this.attributes) {
+      if (current.getType() == code) {
+        return current;
+      }
+    }
+
+    return null;
+  }
+
   public byte[] getAttributesAsBytes() throws IOException {
 
     final SimpleGLogger logger =
@@ -86,6 +106,67 @@ public class Message implements Serializable {
     }
   }
 
+  /**
+   * @return length of the attributes section, padding included
+   */
+  public int getAttributesLength() {
+    int size = 0;
+
+    // indexed loops: no iterator on the encode path
+    for (int i = 0; i < attributes.size(); i++) {
+      size += attributes.get(i).getEncodedLength();
+    }
+
+    return size;
+  }
+
+  /**
+   * Encode the whole message (header and attributes) at the current position of the buffer. The
+   * length of the header is updated with the real length of the attributes.
+   * 
+   * @param buffer destination buffer
+   * 
+   * @return number of bytes written
+   * 
+   * @throws IOException if the buffer has not enough space or the header is not valid
+   */
+  public int encodeTo(ByteBuffer buffer) throws IOException {
+
+    final int start = buffer.position();
+
+    // header
+    header.setLength(getAttributesLength());
+    header.encodeTo(buffer);
+
+    // attributes
+    for (int i = 0; i < attributes.size(); i++) {
+      attributes.get(i).encodeTo(buffer, start);
+    }
+
+    return buffer.position() - start;
+  }
+
+  /**
+   * Decode a whole message (header and attributes) from the current position of the buffer. On
+   * return the position of the buffer is at the end of the message.
+   * 
+   * @param buffer source buffer
+   * 
+   * @return {@link Message}
+   * 
+   * @throws IOException if the buffer does not contain a valid STUN message
+   */
+  public static Message decode(ByteBuffer buffer) throws IOException {
+
+    final MessageHeader header = MessageHeader.decode(buffer);
+
+    final Message message = new Message(header);
+
+    AttributeParser.parse(buffer, header.getLength(), message);
+
+    return message;
+  }
+
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
@@ -16,14 +16,11 @@
  **/
 package net.sf.gee.l2mn.stun.message;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-
-import net.sf.gee.l2mn.stun.util.StunUtil;
-import net.sf.gee.logger.factory.GLogFactory;
-import net.sf.gee.logger.log.SimpleGLogger;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * RFC-5389 - https://tools.ietf.org/html/rfc5389#section-6
@@ -58,6 +55,21 @@ public final class MessageHeader implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  /**
+   * Size in bytes of the fixed STUN header.
+   */
+  public static final int HEADER_LENGTH = 20;
+
+  /**
+   * Fixed value of the magic cookie field (RFC-5389 section 6).
+   */
+  public static final long MAGIC_COOKIE = 0x2112A442;
+
+  /**
+   * Size in bytes of the transaction id.
+   */
+  public static final int TRANSACTION_ID_LENGTH = 12;
+
   private MessageTypeEnum type = null;
 
   private int length = 0;
@@ -71,9 +83,15 @@ public final class MessageHeader implements Serializable {
    * from packets of other protocols when STUN is multiplexed with those other protocols on the same
    * port.
    */
-  private long magicCookie = 0x2112A442;
+  private long magicCookie = MAGIC_COOKIE;
+
+  /**
+   * The transaction ID is a 96-bit identifier, kept as primitives: the first 8 bytes in network
+   * order are {@link #transactionIdHigh}, the last 4 bytes are {@link #transactionIdLow}.
+   */
+  private long transactionIdHigh = 0L;
 
-  private String transactionId = null;
+  private int transactionIdLow = 0;
 
   public MessageHeader() {
     super();
@@ -87,12 +105,29 @@ public final class MessageHeader implements Serializable {
     this.type = type;
   }
 
+  /**
+   * Hash of a transaction id, suitable for primitive-keyed correlation tables. It does not
+   * allocate.
+   * 
+   * @param high first 8 bytes of the transaction id
+   * @param low last 4 bytes of the transaction id
+   * 
+   * @return hash code
+   */
+  public static int hashTransactionId(long high, int low) {
+    long h = high * 0x9E3779B97F4A7C15L + low;
+    h ^= (h >>> 32);
+    h *= 0x9E3779B97F4A7C15L;
+
+    return (int) (h ^ (h >>> 29));
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
     result = prime * result + (int) (magicCookie ^ (magicCookie >>> 32));
-    result = prime * result + ((transactionId == null) ? 0 : transactionId.hashCode());
+    result = prime * result + hashTransactionId(transactionIdHigh, transactionIdLow);
     return result;
   }
 
@@ -107,11 +142,9 @@ public final class MessageHeader implements Serializable {
     MessageHeader other = (MessageHeader) obj;
     if (magicCookie != other.magicCookie)
       return false;
-    if (transactionId == null) {
-      if (other.transactionId != null)
-        return false;
-    }
-    else if (!transactionId.equals(other.transactionId))
+    if (transactionIdHigh != other.transactionIdHigh)
+      return false;
+    if (transactionIdLow != other.transactionIdLow)
       return false;
     return true;
   }
@@ -123,7 +156,9 @@ public final class MessageHeader implements Serializable {
     if (type != null)
       builder.append("type=").append(type).append(", ");
     builder.append("length=").append(length).append(", magicCookie=").append(magicCookie)
-        .append(", transactionId=").append(transactionId).append("]");
+        .append(", transactionId=").append(String.format("%016x%08x", transactionIdHigh,
+            transactionIdLow))
+        .append("]");
     return builder.toString();
   }
 
@@ -151,52 +186,103 @@ public final class MessageHeader implements Serializable {
     this.magicCookie = magicCookie;
   }
 
-  public String getTransactionId() {
-    return transactionId;
+  /**
+   * @return first 8 bytes of the transaction id, in network order
+   */
+  public long getTransactionIdHigh() {
+    return transactionIdHigh;
   }
 
-  public void setTransactionId(String transactionId) {
-    this.transactionId = transactionId;
+  /**
+   * @return last 4 bytes of the transaction id, in network order
+   */
+  public int getTransactionIdLow() {
+    return transactionIdLow;
   }
 
-  public byte[] getBytes() throws IOException {
+  /**
+   * @param high first 8 bytes of the transaction id, in network order
+   * @param low last 4 bytes of the transaction id, in network order
+   */
+  public void setTransactionId(long high, int low) {
+    this.transactionIdHigh = high;
+    this.transactionIdLow = low;
+  }
 
-    final SimpleGLogger logger =
-        GLogFactory.getInstance().getLogger(SimpleGLogger.class, Message.class);
+  /**
+   * Set a new random transaction id. It uses {@link ThreadLocalRandom}, which is fast and does not
+   * contend between threads, but is not a secure generator.
+   * 
+   * @return this header
+   */
+  public MessageHeader randomTransactionId() {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
 
-    // write message
-    try (ByteArrayOutputStream bout = new ByteArrayOutputStream();) {
-      // header
-      bout.write(0);
-      bout.write(StunUtil.integerToOneByte(this.type.getValue()));
-      bout.write(StunUtil.integerToTwoBytes(this.length));
-      bout.write(StunUtil.longToFourBytes(this.magicCookie));
-      bout.write(this.transactionId.getBytes(StandardCharsets.UTF_8));
+    this.transactionIdHigh = random.nextLong();
+    this.transactionIdLow = random.nextInt();
 
-      // right size
-      if (bout.size() == 20) {
-        return bout.toByteArray();
+    return this;
+  }
 
-      } // less than 20 bytes
-      else if (bout.size() < 20) {
+  /**
+   * @return the 12 bytes of the transaction id
+   */
+  public byte[] getTransactionIdBytes() {
+    final byte[] txId = new byte[TRANSACTION_ID_LENGTH];
 
-        for (int i = bout.size(); i < 20; i++) {
-          bout.write(0);
-        }
+    ByteBuffer.wrap(txId).putLong(transactionIdHigh).putInt(transactionIdLow);
 
-        return bout.toByteArray();
+    return txId;
+  }
 
-      } // more than 20 bytes
-      else {
-        return StunUtil.subArray(bout.toByteArray(), 0, 20);
-      }
+  /**
+   * @param txId transaction id, zero padded or truncated to 12 bytes
+   */
+  public void setTransactionIdBytes(byte[] txId) {
+    final byte[] value = new byte[TRANSACTION_ID_LENGTH];
 
-    }
-    catch (IOException e) {
-      logger.logError(e);
+    System.arraycopy(txId, 0, value, 0, Math.min(txId.length, TRANSACTION_ID_LENGTH));
 
-      throw e;
+    final ByteBuffer buffer = ByteBuffer.wrap(value);
+
+    this.transactionIdHigh = buffer.getLong();
+    this.transactionIdLow = buffer.getInt();
+  }
+
+  /**
+   * Transaction id as text: the UTF-8 decoding of the 12 bytes, zero bytes removed. It is a lossy
+   * view, use {@link #getTransactionIdHigh()} and {@link #getTransactionIdLow()} to compare ids.
+   * 
+   * @return transaction id as text
+   */
+  public String getTransactionId() {
+    final byte[] txId = getTransactionIdBytes();
+    int size = 0;
+
+    for (int i = 0; i < txId.length; i++) {
+      if (txId[i] != 0x0) {
+        txId[size++] = txId[i];
+      }
     }
+
+    return new String(txId, 0, size, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param transactionId text encoded in UTF-8, zero padded or truncated to 12 bytes
+   */
+  public void setTransactionId(String transactionId) {
+    setTransactionIdBytes((transactionId == null) ? new byte[0]
+        : transactionId.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public byte[] getBytes() throws IOException {
+
+    final byte[] data = new byte[HEADER_LENGTH];
+
+    encodeTo(ByteBuffer.wrap(data));
+
+    return data;
   }
 
   /**
@@ -210,36 +296,65 @@ public final class MessageHeader implements Serializable {
       return null;
     }
 
-    final MessageHeader msgHeader = new MessageHeader();
-
-    // type
-    msgHeader.type = MessageTypeEnum
-        .getValueByValue(StunUtil.twoBytesToInteger(new byte[] {header[0], header[1]}));
+    return decode(ByteBuffer.wrap(header));
+  }
 
-    // length
-    msgHeader.length = StunUtil.twoBytesToInteger(new byte[] {header[2], header[3]});
+  /**
+   * Write the 20 bytes of the header at the current position of the buffer, without any
+   * intermediate array. The position of the buffer is advanced by {@link #HEADER_LENGTH}.
+   * 
+   * @param buffer destination buffer
+   * 
+   * @throws IOException if the type is not set or the buffer has not enough space
+   */
+  public void encodeTo(ByteBuffer buffer) throws IOException {
 
-    // magic cookie
-    msgHeader.magicCookie =
-        StunUtil.fourBytesToLong(new byte[] {header[4], header[5], header[6], header[7]});
+    if (this.type == null) {
+      throw new IOException("Message type is null");
+    }
 
-    // transaction id
-    try (ByteArrayOutputStream out = new ByteArrayOutputStream();) {
+    if (buffer.remaining() < HEADER_LENGTH) {
+      throw new IOException("Buffer too short!");
+    }
 
-      // iterate
-      for (int i = 8; i < header.length; i++) {
+    buffer.putShort((short) this.type.getValue());
+    buffer.putShort((short) this.length);
+    buffer.putInt((int) this.magicCookie);
+    buffer.putLong(this.transactionIdHigh);
+    buffer.putInt(this.transactionIdLow);
+  }
 
-        if (header[i] != 0x0) {
-          out.write(header[i]);
-        }
-      }
+  /**
+   * Read the 20 bytes of the header from the current position of the buffer. The position of the
+   * buffer is advanced by {@link #HEADER_LENGTH}.
+   * 
+   * @param buffer source buffer
+   * 
+   * @return {@link MessageHeader}
+   * 
+   * @throws IOException if the buffer is too short or it is not a STUN header
+   */
+  public static MessageHeader decode(ByteBuffer buffer) throws IOException {
 
-      // to byte array
-      msgHeader.transactionId = new String(out.toByteArray(), StandardCharsets.UTF_8);
+    if (buffer.remaining() < HEADER_LENGTH) {
+      throw new IOException("Byte array too short!");
     }
-    catch (Exception e) {
+
+    final int rawType = buffer.getShort() & 0xFFFF;
+
+    // the most significant 2 bits of every STUN message MUST be zeroes
+    if ((rawType & 0xC000) != 0) {
+      throw new IOException("Not a STUN message");
     }
 
+    final MessageHeader msgHeader = new MessageHeader();
+
+    msgHeader.type = MessageTypeEnum.getValueByValue(rawType);
+    msgHeader.length = buffer.getShort() & 0xFFFF;
+    msgHeader.magicCookie = buffer.getInt() & 0xFFFFFFFFL;
+    msgHeader.transactionIdHigh = buffer.getLong();
+    msgHeader.transactionIdLow = buffer.getInt();
+
     return msgHeader;
   }
 
@@ -0,0 +1,187 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttribute;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.MessageIntegrity;
+import net.sf.gee.l2mn.stun.util.CredentialKey;
+
+/**
+ * Pre-encoded image of a {@link Message} that is sent many times with different transaction ids,
+ * for example the Binding requests of a keepalive.
+ * 
+ * The message is encoded once in an immutable array. Every {@link #encodeTo(ByteBuffer, long, int)}
+ * copies the image, writes the transaction id over the one of the image and then computes again
+ * only what depends on it: the HMAC of MESSAGE-INTEGRITY, with the key of the attribute, and the
+ * CRC of FINGERPRINT. Nothing else of the message is encoded again.
+ * 
+ * A template is immutable and can be shared between threads.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class MessageTemplate {
+
+  /**
+   * Scratch array of the HMAC, one per thread.
+   */
+  private static final ThreadLocal<byte[]> HMAC =
+      ThreadLocal.withInitial(() -> new byte[CredentialKey.HMAC_LENGTH]);
+
+  private final byte[] image;
+
+  private final MessageTypeEnum type;
+
+  /**
+   * Offset of MESSAGE-INTEGRITY in the image, -1 if absent.
+   */
+  private final int integrity;
+
+  /**
+   * Offset of FINGERPRINT in the image, -1 if absent.
+   */
+  private final int fingerprint;
+
+  private final CredentialKey credential;
+
+  /**
+   * Encode the message. Its transaction id is only a placeholder.
+   * 
+   * @param message message to encode
+   * 
+   * @throws IOException if the message cannot be encoded
+   * @throws IllegalArgumentException if the MESSAGE-INTEGRITY of the message has no key
+   */
+  public MessageTemplate(Message message) throws IOException {
+    super();
+
+    final ByteBuffer buffer = ByteBuffer
+        .allocate(MessageHeader.HEADER_LENGTH + message.getAttributesLength());
+    message.encodeTo(buffer);
+
+    this.image = buffer.array();
+    this.type = message.getHeader().getType();
+
+    int integrityOffset = -1;
+    int fingerprintOffset = -1;
+    CredentialKey key = null;
+
+    int offset = MessageHeader.HEADER_LENGTH;
+
+    for (int i = 0; i < message.getAttributes().size(); i++) {
+      final MessageAttribute current = message.getAttributes().get(i);
+
+      if (current.getType() == MessageAttributeType.MESSAGE_INTEGRITY.getCode()) {
+        key = ((MessageIntegrity) current).getCredential();
+
+        if (key == null) {
+          throw new IllegalArgumentException("MESSAGE-INTEGRITY without key");
+        }
+
+        integrityOffset = offset;
+      }
+      else if (current.getType() == MessageAttributeType.FINGERPRINT.getCode()) {
+        fingerprintOffset = offset;
+      }
+
+      offset += current.getEncodedLength();
+    }
+
+    this.integrity = integrityOffset;
+    this.fingerprint = fingerprintOffset;
+    this.credential = key;
+  }
+
+  /**
+   * Copy the image at the current position of the buffer, with a new transaction id. On return
+   * the position is at the end of the message.
+   * 
+   * @param buffer destination buffer
+   * @param transactionIdHigh first 8 bytes of the transaction id
+   * @param transactionIdLow last 4 bytes of the transaction id
+   * 
+   * @return number of bytes written
+   * 
+   * @throws IOException if the buffer has not enough space
+   */
+  public int encodeTo(ByteBuffer buffer, long transactionIdHigh, int transactionIdLow)
+      throws IOException {
+
+    if (buffer.remaining() < image.length) {
+      throw new IOException("Buffer too short!");
+    }
+
+    final int start = buffer.position();
+
+    buffer.put(image);
+    buffer.putLong(start + 8, transactionIdHigh);
+    buffer.putInt(start + 16, transactionIdLow);
+
+    if (integrity >= 0) {
+      // the length covers the message up to and including MESSAGE-INTEGRITY
+      final int lengthIndex = start + 2;
+      final short length = buffer.getShort(lengthIndex);
+
+      buffer.putShort(lengthIndex, (short) (integrity + 4 + CredentialKey.HMAC_LENGTH
+          - MessageHeader.HEADER_LENGTH));
+
+      final byte[] hmac = HMAC.get();
+      credential.hmac(buffer, start, start + integrity, hmac, 0);
+
+      buffer.putShort(lengthIndex, length);
+
+      final int end = buffer.position();
+
+      buffer.position(start + integrity + 4);
+      buffer.put(hmac);
+      buffer.position(end);
+    }
+
+    if (fingerprint >= 0) {
+      buffer.putInt(start + fingerprint + 4,
+          (int) (FingerPrint.compute(buffer, start, start + fingerprint) ^ FingerPrint.XOR_VALUE));
+    }
+
+    return image.length;
+  }
+
+  /**
+   * @return the message type
+   */
+  public MessageTypeEnum getType() {
+    return type;
+  }
+
+  /**
+   * @return length of the encoded message
+   */
+  public int getLength() {
+    return image.length;
+  }
+
+  @Override
+  public String toString() {
+    return "MessageTemplate [type=" + type + ", length=" + image.length + ", integrity="
+        + (integrity >= 0) + ", fingerprint=" + (fingerprint >= 0) + "]";
+  }
+
+}
@@ -42,6 +42,10 @@ package net.sf.gee.l2mn.stun.message;
  * is encoded into the first 16 bits as 0x0001. A Binding response has class=0b10 (success response)
  * and method=0b000000000001, and is encoded into the first 16 bits as 0x0101.
  * 
+ * The TURN methods (https://tools.ietf.org/html/rfc5766#section-13) are Allocate (0x003), Refresh
+ * (0x004), Send (0x006, indication only), Data (0x007, indication only), CreatePermission (0x008)
+ * and ChannelBind (0x009).
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
@@ -51,8 +55,44 @@ public enum MessageTypeEnum {
 
   SHAREDSECRETREQUEST(0x0002), SHAREDSECRETRESPONSE(0x0102), SHAREDSECRETERRORRESPONSE(0x0112),
 
+  // TURN, RFC-5766
+  ALLOCATEREQUEST(0x0003), ALLOCATERESPONSE(0x0103), ALLOCATEERRORRESPONSE(0x0113),
+
+  REFRESHREQUEST(0x0004), REFRESHRESPONSE(0x0104), REFRESHERRORRESPONSE(0x0114),
+
+  SENDINDICATION(0x0016), DATAINDICATION(0x0017),
+
+  CREATEPERMISSIONREQUEST(0x0008), CREATEPERMISSIONRESPONSE(0x0108),
+  CREATEPERMISSIONERRORRESPONSE(0x0118),
+
+  CHANNELBINDREQUEST(0x0009), CHANNELBINDRESPONSE(0x0109), CHANNELBINDERRORRESPONSE(0x0119),
+
   ;
 
+  /**
+   * Mask of the class bits C1 and C0.
+   */
+  private static final int CLASS_MASK = 0x0110;
+
+  /**
+   * Dense lookup table indexed by the message type value.
+   */
+  private static final MessageTypeEnum[] BY_VALUE;
+
+  static {
+    int max = 0;
+
+    for (MessageTypeEnum current : values()) {
+      max = Math.max(max, current.value);
+    }
+
+    BY_VALUE = new MessageTypeEnum[max + 1];
+
+    for (MessageTypeEnum current : values()) {
+      BY_VALUE[current.value] = current;
+    }
+  }
+
   private int value = -1;
 
   private MessageTypeEnum(int value) {
@@ -63,22 +103,41 @@ public enum MessageTypeEnum {
     return value;
   }
 
+  /**
+   * Return the enumeration value according the integer type, null if not match. It is a table
+   * lookup: no iteration and no allocation.
+   * 
+   * @param value integer type
+   * 
+   * @return {@link MessageTypeEnum}
+   */
   public static MessageTypeEnum getValueByValue(int value) {
 
-    for (MessageTypeEnum current : MessageTypeEnum.values()) {
-      if (current.getValue() == value) {
-        return current;
-      }
+    if (value < 0 || value >= BY_VALUE.length) {
+      return null;
     }
 
-    return null;
+    return BY_VALUE[value];
   }
 
+  /**
+   * @return <code>true</code> for the error response class (0b11)
+   */
   public boolean isError() {
-    if (value == BINDINGERRORRESPONSE.value || value == SHAREDSECRETERRORRESPONSE.value) {
-      return true;
-    }
+    return (value & CLASS_MASK) == 0x0110;
+  }
+
+  /**
+   * @return <code>true</code> for the success response class (0b10)
+   */
+  public boolean isSuccess() {
+    return (value & CLASS_MASK) == 0x0100;
+  }
 
-    return false;
+  /**
+   * @return <code>true</code> for the indication class (0b01)
+   */
+  public boolean isIndication() {
+    return (value & CLASS_MASK) == 0x0010;
   }
 }
@@ -0,0 +1,377 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.util.StunUtil;
+
+/**
+ * Read-only flyweight over a received datagram. It exposes the header fields and iterates on the
+ * attributes by offset, reading directly from the wrapped buffer: no {@link Message} or
+ * {@link net.sf.gee.l2mn.stun.message.attribute.MessageAttribute} object is created.
+ * 
+ * <pre>
+ * {@code
+ *   MessageView view = new MessageView();
+ *
+ *   if (view.wrap(data, 0, length).isStun()) {
+ *     for (int attr = view.firstAttribute(); attr >= 0; attr = view.nextAttribute(attr)) {
+ *       int type = view.getAttributeType(attr);
+ *       ...
+ *     }
+ *   }
+ * }
+ * </pre>
+ * 
+ * An instance can be re-wrapped on every received packet. It is not thread safe.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class MessageView {
+
+  private byte[] array = null;
+
+  private ByteBuffer buffer = null;
+
+  private int offset = 0;
+
+  private int size = 0;
+
+  public MessageView() {
+    super();
+  }
+
+  /**
+   * Wrap a portion of a byte array. The array is not copied.
+   * 
+   * @param data byte array
+   * @param offset start of the message
+   * @param length number of valid bytes
+   * 
+   * @return this view
+   */
+  public MessageView wrap(byte[] data, int offset, int length) {
+
+    // re-use the buffer when the same receive array is wrapped again
+    if (this.array != data) {
+      this.array = data;
+      this.buffer = ByteBuffer.wrap(data);
+    }
+
+    this.offset = offset;
+    this.size = length;
+
+    return this;
+  }
+
+  /**
+   * Wrap the bytes between position and limit of the buffer. Position and limit of the buffer are
+   * not modified.
+   * 
+   * @param buffer buffer with the received datagram
+   * 
+   * @return this view
+   */
+  public MessageView wrap(ByteBuffer buffer) {
+
+    this.array = null;
+    this.buffer = buffer;
+    this.offset = buffer.position();
+    this.size = buffer.remaining();
+
+    return this;
+  }
+
+  /**
+   * @return the wrapped buffer, for absolute reads of attribute values
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * @return offset of the message inside the wrapped buffer
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return number of valid bytes wrapped
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Check that the wrapped bytes are a complete STUN message: first two bits zero, magic cookie
+   * present, length multiple of 4 and not greater than the wrapped bytes.
+   * 
+   * @return <code>true</code> if the bytes look like a STUN message
+   */
+  public boolean isStun() {
+    return buffer != null && isStun(buffer, offset, size);
+  }
+
+  /**
+   * Same check as {@link #isStun()}, directly on a buffer and without a view.
+   * 
+   * @param buffer source buffer
+   * @param offset start of the message
+   * @param size number of valid bytes from the offset
+   * 
+   * @return <code>true</code> if the bytes look like a STUN message
+   */
+  public static boolean isStun(ByteBuffer buffer, int offset, int size) {
+
+    if (size < MessageHeader.HEADER_LENGTH || (buffer.get(offset) & 0xC0) != 0) {
+      return false;
+    }
+
+    final int length = buffer.getShort(offset + 2) & 0xFFFF;
+
+    return (length & 0x3) == 0 && MessageHeader.HEADER_LENGTH + length <= size
+        && buffer.getInt(offset + 4) == (int) MessageHeader.MAGIC_COOKIE;
+  }
+
+  /**
+   * @return raw message type
+   */
+  public int getType() {
+    return u16(offset);
+  }
+
+  /**
+   * @return message type enumeration, null if unknown
+   */
+  public MessageTypeEnum getMessageType() {
+    return MessageTypeEnum.getValueByValue(getType());
+  }
+
+  /**
+   * @return length of the attributes section, as declared in the header
+   */
+  public int getLength() {
+    return u16(offset + 2);
+  }
+
+  public long getMagicCookie() {
+    return u32(offset + 4);
+  }
+
+  /**
+   * @return first 8 bytes of the transaction id, see {@link MessageHeader#getTransactionIdHigh()}
+   */
+  public long getTransactionIdHigh() {
+    return (u32(offset + 8) << 32) | u32(offset + 12);
+  }
+
+  /**
+   * @return last 4 bytes of the transaction id, see {@link MessageHeader#getTransactionIdLow()}
+   */
+  public int getTransactionIdLow() {
+    return (int) u32(offset + 16);
+  }
+
+  /**
+   * @param index index of the byte, from 0 to 11
+   * @return byte of the transaction id
+   */
+  public byte getTransactionIdByte(int index) {
+    return buffer.get(offset + 8 + index);
+  }
+
+  /**
+   * Copy the 12 bytes of the transaction id.
+   * 
+   * @param dest destination array
+   * @param destOffset destination offset
+   */
+  public void copyTransactionId(byte[] dest, int destOffset) {
+    for (int i = 0; i < MessageHeader.TRANSACTION_ID_LENGTH; i++) {
+      dest[destOffset + i] = buffer.get(offset + 8 + i);
+    }
+  }
+
+  /**
+   * @return offset of the first attribute, -1 if the message has no attribute
+   */
+  public int firstAttribute() {
+    return attributeAt(offset + MessageHeader.HEADER_LENGTH);
+  }
+
+  /**
+   * @param attr offset of the current attribute
+   * @return offset of the following attribute, -1 at the end of the message
+   */
+  public int nextAttribute(int attr) {
+    final int valueLength = getAttributeLength(attr);
+
+    return attributeAt(attr + 4 + valueLength + StunUtil.padding(valueLength));
+  }
+
+  /**
+   * @param type attribute type code
+   * @return offset of the first attribute of the given type, -1 if not present
+   */
+  public int findAttribute(int type) {
+    for (int attr = firstAttribute(); attr >= 0; attr = nextAttribute(attr)) {
+      if (getAttributeType(attr) == type) {
+        return attr;
+      }
+    }
+
+    return -1;
+  }
+
+  public int getAttributeType(int attr) {
+    return u16(attr);
+  }
+
+  /**
+   * @param attr offset of the attribute
+   * @return length of the value, without padding
+   */
+  public int getAttributeLength(int attr) {
+    return u16(attr + 2);
+  }
+
+  /**
+   * @param attr offset of the attribute
+   * @return offset of the first byte of the value
+   */
+  public int getAttributeValueOffset(int attr) {
+    return attr + 4;
+  }
+
+  /**
+   * Port of a XOR-MAPPED-ADDRESS (or any XOR address attribute), decoded in place.
+   * 
+   * @param attr offset of the attribute
+   * @return the port
+   */
+  public int getXorPort(int attr) {
+    return u16(attr + 6) ^ (int) (MessageHeader.MAGIC_COOKIE >>> 16);
+  }
+
+  /**
+   * IPv4 address of a XOR-MAPPED-ADDRESS (or any XOR address attribute), decoded in place.
+   * 
+   * @param attr offset of the attribute
+   * @return the address as integer, in network order
+   */
+  public int getXorIPv4Address(int attr) {
+    return (int) (u32(attr + 8) ^ MessageHeader.MAGIC_COOKIE);
+  }
+
+  /**
+   * Family of a XOR-MAPPED-ADDRESS (or any XOR address attribute), decoded in place.
+   * 
+   * @param attr offset of the attribute
+   * @return 0x01 for IPv4, 0x02 for IPv6
+   */
+  public int getXorFamily(int attr) {
+    return buffer.get(attr + 5) & 0xFF;
+  }
+
+  /**
+   * Address of a XOR-MAPPED-ADDRESS (or any XOR address attribute).
+   * 
+   * @param attr offset of the attribute
+   * @return {@link InetAddress}
+   * 
+   * @throws IOException if the family is unknown or the length does not match the family
+   */
+  public InetAddress getXorAddress(int attr) throws IOException {
+
+    final int family = getXorFamily(attr);
+    final byte[] address;
+
+    if (family == 0x01) {
+      address = new byte[4];
+    }
+    else if (family == 0x02) {
+      address = new byte[16];
+    }
+    else {
+      throw new IOException("Unknown address family " + family);
+    }
+
+    // the family comes from the peer: never read past the attribute
+    if (getAttributeLength(attr) != 4 + address.length) {
+      throw new IOException("Malformed address attribute");
+    }
+
+    // IPv4 is XOR-ed with the magic cookie, IPv6 with magic cookie and transaction id
+    for (int i = 0; i < address.length; i++) {
+      address[i] = (byte) (buffer.get(attr + 8 + i) ^ buffer.get(offset + 4 + i));
+    }
+
+    return (family == 0x01) ? Inet4Address.getByAddress(address)
+        : Inet6Address.getByAddress(address);
+  }
+
+  /**
+   * @return offset of the XOR-MAPPED-ADDRESS attribute, -1 if not present
+   */
+  public int findXorMappedAddress() {
+    return findAttribute(MessageAttributeType.XOR_MAPPED_ADDRESS.getCode());
+  }
+
+  /**
+   * Code of the ERROR-CODE attribute (RFC-5389 section 15.6), decoded in place.
+   * 
+   * @return class * 100 + number, -1 if the attribute is not present
+   */
+  public int getErrorCode() {
+    final int attr = findAttribute(MessageAttributeType.ERROR_CODE.getCode());
+
+    if (attr < 0 || getAttributeLength(attr) < 4) {
+      return -1;
+    }
+
+    final int value = getAttributeValueOffset(attr);
+
+    return (buffer.get(value + 2) & 0x07) * 100 + (buffer.get(value + 3) & 0xFF);
+  }
+
+  private int attributeAt(int attr) {
+    final int end = offset + MessageHeader.HEADER_LENGTH + getLength();
+
+    if (attr + 4 > end || attr + 4 + getAttributeLength(attr) > end) {
+      return -1;
+    }
+
+    return attr;
+  }
+
+  private int u16(int index) {
+    return ((buffer.get(index) & 0xFF) << 8) | (buffer.get(index + 1) & 0xFF);
+  }
+
+  private long u32(int index) {
+    return ((long) u16(index) << 16) | u16(index + 2);
+  }
+
+}
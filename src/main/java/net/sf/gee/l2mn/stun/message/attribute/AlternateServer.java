@@ -16,11 +16,20 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+
 /**
+ * https://tools.ietf.org/html/rfc5389#section-15.11
+ * 
+ * The alternate server represents an alternate transport address identifying a different STUN
+ * server that the STUN client should try. It is encoded in the same way as MAPPED-ADDRESS.
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
-public class AlternateServer extends MessageAttribute {
+public class AlternateServer extends MappedAddress {
 
   /**
    * 
@@ -31,7 +40,49 @@ public class AlternateServer extends MessageAttribute {
    * 
    */
   public AlternateServer() {
-    super();
+    super(MessageAttributeType.ALTERNATE_SERVER);
+  }
+
+  /**
+   * @param address
+   * @param port
+   */
+  public AlternateServer(Inet4Address address, int port) {
+    this();
+
+    setFamily(0x01);
+    setPort(port);
+    setAddress(address);
+
+    init();
+  }
+
+  /**
+   * @param address
+   * @param port
+   */
+  public AlternateServer(Inet6Address address, int port) {
+    this();
+
+    setFamily(0x02);
+    setPort(port);
+    setAddress(address);
+
+    init();
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the family or the length are not valid
+   */
+  public AlternateServer(int attrLength, byte[] data) throws IOException {
+    this();
+
+    decode(attrLength, data);
   }
 
 }
@@ -0,0 +1,41 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+import java.io.IOException;
+
+/**
+ * Decoder of the value of a received attribute. The decoding constructors of the attribute classes,
+ * for example {@code XorMappedAddress::new}, are decoders.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+@FunctionalInterface
+public interface AttributeDecoder {
+
+  /**
+   * @param attrLength length of the value, without padding
+   * @param data value of the attribute
+   * 
+   * @return the decoded {@link MessageAttribute}
+   * 
+   * @throws IOException if the value is not valid
+   */
+  MessageAttribute decode(int attrLength, byte[] data) throws IOException;
+
+}
@@ -0,0 +1,155 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.util.StunUtil;
+
+/**
+ * Table-driven parser of the attributes section of a STUN message.
+ * 
+ * Every TLV is visited, with its 32-bit padding, and decoded by the {@link AttributeDecoder}
+ * registered for its type. The decoders are kept in two dense tables indexed by type code, one for
+ * the comprehension-required range and one for the comprehension-optional range. Unknown
+ * comprehension-optional attributes are skipped without allocating; unknown comprehension-required
+ * attributes are kept as {@link RawAttribute}, so that the caller can answer with a 420 error.
+ * 
+ * As required by RFC-5389 section 15.4, the attributes that follow MESSAGE-INTEGRITY are ignored,
+ * except FINGERPRINT.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class AttributeParser {
+
+  private static final AttributeDecoder[] REQUIRED = new AttributeDecoder[0x40];
+
+  private static final AttributeDecoder[] OPTIONAL = new AttributeDecoder[0x40];
+
+  static {
+    register(MessageAttributeType.MAPPED_ADDRESS, MappedAddress::new);
+    register(MessageAttributeType.USERNAME, Username::new);
+    register(MessageAttributeType.MESSAGE_INTEGRITY, MessageIntegrity::new);
+    register(MessageAttributeType.ERROR_CODE, ErrorCode::new);
+    register(MessageAttributeType.UNKNOWN_ATTRIBUTE, UnknowAttribute::new);
+    register(MessageAttributeType.REALM, Realm::new);
+    register(MessageAttributeType.NONCE, Nonce::new);
+    register(MessageAttributeType.XOR_MAPPED_ADDRESS, XorMappedAddress::new);
+    register(MessageAttributeType.SOFTWARE, Software::new);
+    register(MessageAttributeType.ALTERNATE_SERVER, AlternateServer::new);
+    register(MessageAttributeType.FINGERPRINT, FingerPrint::new);
+
+    // TURN
+    register(MessageAttributeType.CHANNEL_NUMBER, ChannelNumber::new);
+    register(MessageAttributeType.LIFETIME, Lifetime::new);
+    register(MessageAttributeType.XOR_PEER_ADDRESS, XorPeerAddress::new);
+    register(MessageAttributeType.DATA, Data::new);
+    register(MessageAttributeType.XOR_RELAYED_ADDRESS, XorRelayedAddress::new);
+    register(MessageAttributeType.REQUESTED_TRANSPORT, RequestedTransport::new);
+
+    // NAT behavior discovery
+    register(MessageAttributeType.CHANGE_ADDRES, ChangeRequest::new);
+    register(MessageAttributeType.RESPONSE_ORIGIN, ResponseOrigin::new);
+    register(MessageAttributeType.OTHER_ADDRESS, OtherAddress::new);
+  }
+
+  private AttributeParser() {
+    super();
+  }
+
+  private static void register(MessageAttributeType type, AttributeDecoder decoder) {
+    final int code = type.getCode();
+
+    if (MessageAttributeType.isComprehensionOptional(code)) {
+      OPTIONAL[code & 0x7FFF] = decoder;
+    }
+    else {
+      REQUIRED[code] = decoder;
+    }
+  }
+
+  /**
+   * @param type attribute type code
+   * 
+   * @return the decoder of the type, null if the type is unknown
+   */
+  public static AttributeDecoder getDecoder(int type) {
+    final AttributeDecoder[] table =
+        MessageAttributeType.isComprehensionOptional(type) ? OPTIONAL : REQUIRED;
+    final int index = type & 0x7FFF;
+
+    return (index < table.length) ? table[index] : null;
+  }
+
+  /**
+   * Parse the attributes section, from the current position of the buffer, and add the attributes
+   * to the message. On return the position is at the end of the section.
+   * 
+   * @param buffer source buffer
+   * @param length length of the attributes section
+   * @param message destination message
+   * 
+   * @throws IOException if an attribute is malformed
+   */
+  public static void parse(ByteBuffer buffer, int length, Message message) throws IOException {
+
+    if (buffer.remaining() < length) {
+      throw new IOException("Message length exceeds the buffer");
+    }
+
+    final int end = buffer.position() + length;
+    boolean integrity = false;
+
+    while (end - buffer.position() >= 4) {
+
+      final int attrType = buffer.getShort() & 0xFFFF;
+      final int attrLength = buffer.getShort() & 0xFFFF;
+      final int next = buffer.position() + attrLength + StunUtil.padding(attrLength);
+
+      if (end - buffer.position() < attrLength) {
+        throw new IOException("Attribute length exceeds the message");
+      }
+
+      final AttributeDecoder decoder = getDecoder(attrType);
+      final boolean ignored = integrity && attrType != MessageAttributeType.FINGERPRINT.getCode();
+
+      if (ignored || (decoder == null && MessageAttributeType.isComprehensionOptional(attrType))) {
+        // skip, no allocation
+        buffer.position(Math.min(end, next));
+        continue;
+      }
+
+      final byte[] data = new byte[attrLength];
+      buffer.get(data);
+
+      message.addAttribute((decoder == null) ? new RawAttribute(attrType, data)
+          : decoder.decode(attrLength, data));
+
+      if (attrType == MessageAttributeType.MESSAGE_INTEGRITY.getCode()) {
+        integrity = true;
+      }
+
+      buffer.position(Math.min(end, next));
+    }
+
+    buffer.position(end);
+  }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+import java.io.IOException;
+
+/**
+ * https://tools.ietf.org/html/rfc5780#section-7.2
+ * 
+ * The CHANGE-REQUEST attribute contains two flags to control the IP address and port that the
+ * server uses to send the response. It uses the type code 0x0003, reserved by RFC-5389 for the
+ * CHANGE-ADDRESS of RFC-3489. The value is 4 bytes long.
+ * 
+ * <pre>
+ * {@code
+ *    0                   1                   2                   3
+ *    0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *   |0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 A B 0|
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * }
+ * </pre>
+ * 
+ * A is the "change IP" flag, B is the "change port" flag.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class ChangeRequest extends MessageAttribute {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * "change IP" flag.
+   */
+  public static final int CHANGE_IP = 0x04;
+
+  /**
+   * "change port" flag.
+   */
+  public static final int CHANGE_PORT = 0x02;
+
+  private int flags = 0;
+
+  /**
+   * 
+   */
+  public ChangeRequest() {
+    super(MessageAttributeType.CHANGE_ADDRES.getCode());
+  }
+
+  /**
+   * @param changeIp ask the server to answer from its alternate IP address
+   * @param changePort ask the server to answer from its alternate port
+   */
+  public ChangeRequest(boolean changeIp, boolean changePort) {
+    this();
+
+    this.flags = (changeIp ? CHANGE_IP : 0) | (changePort ? CHANGE_PORT : 0);
+
+    setValue(new byte[] {0, 0, 0, (byte) flags});
+    setLength(4);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is not 4 bytes long
+   */
+  public ChangeRequest(int attrLength, byte[] data) throws IOException {
+    this();
+
+    if (attrLength != 4) {
+      throw new IOException("CHANGE-REQUEST must be 4 bytes long");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+
+    this.flags = data[3] & (CHANGE_IP | CHANGE_PORT);
+  }
+
+  public boolean isChangeIp() {
+    return (flags & CHANGE_IP) != 0;
+  }
+
+  public boolean isChangePort() {
+    return (flags & CHANGE_PORT) != 0;
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+import java.io.IOException;
+
+/**
+ * https://tools.ietf.org/html/rfc5766#section-14.1
+ * 
+ * The CHANNEL-NUMBER attribute contains the number of the channel. The value portion of this
+ * attribute is 4 bytes long and consists of a 16-bit unsigned integer, followed by a two-octet
+ * RFFU (Reserved For Future Use) field, which MUST be set to 0 on transmission and MUST be ignored
+ * on reception.
+ * 
+ * <pre>
+ * {@code
+ *    0                   1                   2                   3
+ *    0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *   |        Channel Number         |         RFFU = 0              |
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * }
+ * </pre>
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class ChannelNumber extends MessageAttribute {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * First channel number a client can bind.
+   */
+  public static final int MIN_CHANNEL = 0x4000;
+
+  /**
+   * Last channel number a client can bind.
+   */
+  public static final int MAX_CHANNEL = 0x7FFF;
+
+  private int channel = 0;
+
+  /**
+   * 
+   */
+  public ChannelNumber() {
+    super(MessageAttributeType.CHANNEL_NUMBER.getCode());
+  }
+
+  /**
+   * @param channel channel number, from 0x4000 to 0x7FFF
+   * 
+   * @throws IOException if the number is out of range
+   */
+  public ChannelNumber(int channel) throws IOException {
+    this();
+
+    if (!isValid(channel)) {
+      throw new IOException("Channel number out of range: " + channel);
+    }
+
+    this.channel = channel;
+
+    setValue(new byte[] {(byte) (channel >>> 8), (byte) channel, 0, 0});
+    setLength(4);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is not 4 bytes long
+   */
+  public ChannelNumber(int attrLength, byte[] data) throws IOException {
+    this();
+
+    if (attrLength != 4) {
+      throw new IOException("CHANNEL-NUMBER must be 4 bytes long");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+
+    this.channel = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+  }
+
+  /**
+   * @param channel channel number
+   * 
+   * @return <code>true</code> if the number is in the range a client can bind
+   */
+  public static boolean isValid(int channel) {
+    return channel >= MIN_CHANNEL && channel <= MAX_CHANNEL;
+  }
+
+  public int getChannel() {
+    return channel;
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+/**
+ * https://tools.ietf.org/html/rfc5766#section-14.4
+ * 
+ * The DATA attribute is present in all Send and Data indications. The value portion of this
+ * attribute is variable length and consists of the application data (that is, the data that would
+ * immediately follow the UDP header if the data was been sent directly between the client and the
+ * peer).
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class Data extends MessageAttribute {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * 
+   */
+  public Data() {
+    super(MessageAttributeType.DATA.getCode());
+  }
+
+  /**
+   * Attribute to send, or decoded from a received message.
+   * 
+   * @param attrLength length of the value
+   * @param data application data
+   */
+  public Data(int attrLength, byte[] data) {
+    this();
+
+    setValue(data);
+    setLength(attrLength);
+  }
+
+  /**
+   * @param data application data
+   */
+  public Data(byte[] data) {
+    this(data.length, data);
+  }
+
+}
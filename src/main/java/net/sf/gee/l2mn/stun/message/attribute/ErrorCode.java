@@ -16,7 +16,30 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 /**
+ * https://tools.ietf.org/html/rfc5389#section-15.6
+ * 
+ * The ERROR-CODE attribute is used in error response messages. It contains a numeric error code
+ * value in the range of 300 to 699 plus a textual reason phrase encoded in UTF-8.
+ * 
+ * <pre>
+ * {@code
+ *    0                   1                   2                   3
+ *    0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *   |           Reserved, should be 0         |Class|     Number    |
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *   |      Reason Phrase (variable)                                ..
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * }
+ * </pre>
+ * 
+ * The Class represents the hundreds digit of the error code (3 to 6), the Number represents the
+ * error code modulo 100.
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
@@ -27,11 +50,99 @@ public class ErrorCode extends MessageAttribute {
    */
   private static final long serialVersionUID = 1L;
 
+  public static final int TRY_ALTERNATE = 300;
+
+  public static final int BAD_REQUEST = 400;
+
+  public static final int UNAUTHORIZED = 401;
+
+  public static final int FORBIDDEN = 403;
+
+  public static final int UNKNOWN_ATTRIBUTE = 420;
+
+  public static final int ALLOCATION_MISMATCH = 437;
+
+  public static final int STALE_NONCE = 438;
+
+  public static final int WRONG_CREDENTIALS = 441;
+
+  public static final int UNSUPPORTED_TRANSPORT_PROTOCOL = 442;
+
+  public static final int PEER_ADDRESS_FAMILY_MISMATCH = 443;
+
+  public static final int SERVER_ERROR = 500;
+
+  public static final int INSUFFICIENT_CAPACITY = 508;
+
+  private int code = 0;
+
+  private String reason = null;
+
   /**
    * 
    */
   public ErrorCode() {
-    super();
+    super(MessageAttributeType.ERROR_CODE.getCode());
+  }
+
+  /**
+   * @param code error code, from 300 to 699
+   * @param reason reason phrase
+   * 
+   * @throws IOException if the code is out of range
+   */
+  public ErrorCode(int code, String reason) throws IOException {
+    this();
+
+    if (code < 300 || code > 699) {
+      throw new IOException("Error code " + code + " out of range");
+    }
+
+    this.code = code;
+    this.reason = (reason == null) ? "" : reason;
+
+    final byte[] text = this.reason.getBytes(StandardCharsets.UTF_8);
+    final byte[] data = new byte[4 + text.length];
+
+    data[2] = (byte) (code / 100);
+    data[3] = (byte) (code % 100);
+    System.arraycopy(text, 0, data, 4, text.length);
+
+    setValue(data);
+    setLength(data.length);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is too short
+   */
+  public ErrorCode(int attrLength, byte[] data) throws IOException {
+    this();
+
+    if (attrLength < 4) {
+      throw new IOException("ERROR-CODE too short");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+
+    this.code = (data[2] & 0x07) * 100 + (data[3] & 0xFF);
+    this.reason = new String(data, 4, attrLength - 4, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return error code, class * 100 + number
+   */
+  public int getCode() {
+    return code;
+  }
+
+  public String getReason() {
+    return reason;
   }
 
 }
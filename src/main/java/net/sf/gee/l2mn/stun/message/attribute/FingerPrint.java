@@ -16,7 +16,25 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageView;
+
 /**
+ * https://tools.ietf.org/html/rfc5389#section-15.5
+ * 
+ * The FINGERPRINT attribute MAY be present in all STUN messages. The value of the attribute is
+ * computed as the CRC-32 of the STUN message up to (but excluding) the FINGERPRINT attribute
+ * itself, XOR'ed with the 32-bit value 0x5354554e.
+ * 
+ * The CRC is computed with {@link CRC32}, which the JVM implements with hardware instructions
+ * where available. When the attribute is encoded as part of a message, the CRC is fed directly
+ * from the encode buffer; the verification runs directly on the receive buffer. Both do not copy
+ * and do not allocate.
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
@@ -28,10 +46,167 @@ public class FingerPrint extends MessageAttribute {
   private static final long serialVersionUID = 1L;
 
   /**
-   * 
+   * Value XOR'ed with the CRC-32.
+   */
+  public static final long XOR_VALUE = 0x5354554eL;
+
+  /**
+   * Size of the encoded attribute: header and 4 bytes value.
+   */
+  public static final int ENCODED_LENGTH = 8;
+
+  private static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
+
+  /**
+   * The value is computed when the message is encoded. FINGERPRINT must be the last attribute.
    */
   public FingerPrint() {
-    super();
+    super(MessageAttributeType.FINGERPRINT.getCode());
+
+    setValue(new byte[4]);
+    setLength(4);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the length is not 4
+   */
+  public FingerPrint(int attrLength, byte[] data) throws IOException {
+    this();
+
+    if (attrLength != 4) {
+      throw new IOException("FINGERPRINT must be 4 bytes");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.message.attribute.MessageAttribute#encodeTo(java.nio.ByteBuffer,
+   * int)
+   */
+  @Override
+  public void encodeTo(ByteBuffer buffer, int messageOffset) throws IOException {
+
+    if (buffer.remaining() < ENCODED_LENGTH) {
+      throw new IOException("Buffer too short!");
+    }
+
+    final int start = buffer.position();
+    final int crc = (int) (compute(buffer, messageOffset, start) ^ XOR_VALUE);
+
+    byte[] value = getValue();
+
+    if (value == null || value.length != 4) {
+      value = new byte[4];
+      setValue(value);
+    }
+
+    value[0] = (byte) (crc >>> 24);
+    value[1] = (byte) (crc >>> 16);
+    value[2] = (byte) (crc >>> 8);
+    value[3] = (byte) crc;
+
+    buffer.putShort((short) getType());
+    buffer.putShort((short) 4);
+    buffer.putInt(crc);
+  }
+
+  /**
+   * CRC-32 of the bytes between <code>from</code> (inclusive) and <code>to</code> (exclusive) of
+   * the buffer. Position and limit of the buffer are not modified.
+   * 
+   * @param buffer source buffer
+   * @param from first byte
+   * @param to end of the range
+   * 
+   * @return CRC-32, not XOR'ed
+   */
+  public static long compute(ByteBuffer buffer, int from, int to) {
+
+    final CRC32 crc = CRC.get();
+    crc.reset();
+
+    if (buffer.hasArray()) {
+      crc.update(buffer.array(), buffer.arrayOffset() + from, to - from);
+    }
+    else {
+      final int position = buffer.position();
+      final int limit = buffer.limit();
+
+      buffer.limit(to).position(from);
+      crc.update(buffer);
+      buffer.limit(limit).position(position);
+    }
+
+    return crc.getValue();
+  }
+
+  /**
+   * Verify the FINGERPRINT of a datagram, directly on the receive buffer. The datagram must be a
+   * STUN message whose last attribute is FINGERPRINT and whose length matches the header. It is a
+   * cheap filter to drop non-STUN traffic before any parse.
+   * 
+   * @param buffer receive buffer
+   * @param offset start of the datagram
+   * @param length length of the datagram
+   * 
+   * @return <code>true</code> if the datagram carries a valid FINGERPRINT
+   */
+  public static boolean verify(ByteBuffer buffer, int offset, int length) {
+
+    if (length < MessageHeader.HEADER_LENGTH + ENCODED_LENGTH || (length & 0x3) != 0) {
+      return false;
+    }
+
+    // first two bits, length and magic cookie
+    if ((buffer.get(offset) & 0xC0) != 0
+        || (buffer.getShort(offset + 2) & 0xFFFF) != length - MessageHeader.HEADER_LENGTH
+        || buffer.getInt(offset + 4) != (int) MessageHeader.MAGIC_COOKIE) {
+      return false;
+    }
+
+    final int attr = offset + length - ENCODED_LENGTH;
+
+    if ((buffer.getShort(attr) & 0xFFFF) != MessageAttributeType.FINGERPRINT.getCode()
+        || buffer.getShort(attr + 2) != 4) {
+      return false;
+    }
+
+    return (int) (compute(buffer, offset, attr) ^ XOR_VALUE) == buffer.getInt(attr + 4);
+  }
+
+  /**
+   * Verify the FINGERPRINT of the message wrapped by the view.
+   * 
+   * @param view view over the received message
+   * 
+   * @return <code>true</code> if the message carries a valid FINGERPRINT
+   */
+  public static boolean verify(MessageView view) {
+    return verify(view.getBuffer(), view.getOffset(),
+        Math.min(view.getSize(), MessageHeader.HEADER_LENGTH + view.getLength()));
+  }
+
+  /**
+   * @return the received value, as unsigned 32-bit integer
+   */
+  public long getCrc() {
+    final byte[] data = getValue();
+
+    if (data == null) {
+      return -1L;
+    }
+
+    return ((data[0] & 0xFFL) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8)
+        | (data[3] & 0xFF);
   }
 
 }
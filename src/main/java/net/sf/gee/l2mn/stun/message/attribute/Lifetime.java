@@ -0,0 +1,88 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * https://tools.ietf.org/html/rfc5766#section-14.2
+ * 
+ * The LIFETIME attribute represents the duration for which the server will maintain an allocation
+ * in the absence of a refresh. The value portion of this attribute is 4-bytes long and consists of
+ * a 32-bit unsigned integral value representing the number of seconds remaining until expiration.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class Lifetime extends MessageAttribute {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  private long seconds = 0L;
+
+  /**
+   * 
+   */
+  public Lifetime() {
+    super(MessageAttributeType.LIFETIME.getCode());
+  }
+
+  /**
+   * @param seconds lifetime in seconds, 0 to delete the allocation
+   */
+  public Lifetime(long seconds) {
+    this();
+
+    this.seconds = seconds & 0xFFFFFFFFL;
+
+    setValue(ByteBuffer.allocate(4).putInt((int) seconds).array());
+    setLength(4);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is not 4 bytes long
+   */
+  public Lifetime(int attrLength, byte[] data) throws IOException {
+    this();
+
+    if (attrLength != 4) {
+      throw new IOException("LIFETIME must be 4 bytes long");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+
+    this.seconds = ByteBuffer.wrap(data).getInt() & 0xFFFFFFFFL;
+  }
+
+  /**
+   * @return lifetime in seconds
+   */
+  public long getSeconds() {
+    return seconds;
+  }
+
+}
@@ -21,6 +21,9 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import net.sf.gee.l2mn.stun.util.StunUtil;
 import net.sf.gee.logger.factory.GLogFactory;
@@ -81,14 +84,37 @@ public class MappedAddress extends MessageAttribute {
    * 
    */
   public MappedAddress() {
+    this(MessageAttributeType.MAPPED_ADDRESS);
+  }
+
+  /**
+   * Constructor for the attributes that share the MAPPED-ADDRESS format.
+   * 
+   * @param type attribute type
+   */
+  protected MappedAddress(MessageAttributeType type) {
     super();
 
-    super.setType(MessageAttributeType.MAPPED_ADDRESS.getCode());
+    super.setType(type.getCode());
 
     // starter
     this.start = 0;
   }
 
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the family or the length are not valid
+   */
+  public MappedAddress(int attrLength, byte[] data) throws IOException {
+    this();
+
+    decode(attrLength, data);
+  }
+
   /**
    * @param address
    * @param port
@@ -127,6 +153,65 @@ public class MappedAddress extends MessageAttribute {
     init();
   }
 
+  /**
+   * Read family, port and address from the value of a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the family or the length are not valid
+   */
+  protected void decode(int attrLength, byte[] data) throws IOException {
+
+    if (attrLength < 4) {
+      throw new IOException("Address attribute too short");
+    }
+
+    setLength(attrLength);
+    setValue(data);
+
+    this.start = StunUtil.oneByteToInteger(data[0]);
+    this.family = StunUtil.oneByteToInteger(data[1]);
+    this.port = StunUtil.twoBytesToInteger(new byte[] {data[2], data[3]});
+
+    if ((family == 0x01 && attrLength != 8) || (family == 0x02 && attrLength != 20)) {
+      throw new IOException("Address length does not match family " + family);
+    }
+    else if (family != 0x01 && family != 0x02) {
+      throw new IOException("Unknown address family " + family);
+    }
+
+    this.address = InetAddress.getByAddress(Arrays.copyOfRange(data, 4, attrLength));
+  }
+
+  /**
+   * Write an attribute with the MAPPED-ADDRESS format at the current position of the buffer,
+   * without creating the attribute object.
+   * 
+   * @param buffer destination buffer
+   * @param type attribute type
+   * @param address IPv4 or IPv6 address
+   * @param port port
+   * 
+   * @throws IOException if the buffer has not enough space
+   */
+  public static void encode(ByteBuffer buffer, int type, InetAddress address, int port)
+      throws IOException {
+
+    final byte[] raw = address.getAddress();
+
+    if (buffer.remaining() < 8 + raw.length) {
+      throw new IOException("Buffer too short!");
+    }
+
+    buffer.putShort((short) type);
+    buffer.putShort((short) (4 + raw.length));
+    buffer.put((byte) 0);
+    buffer.put((byte) ((raw.length == 4) ? 0x01 : 0x02));
+    buffer.putShort((short) port);
+    buffer.put(raw);
+  }
+
   protected void init() {
 
     final SimpleGLogger logger =
@@ -179,4 +264,11 @@ public class MappedAddress extends MessageAttribute {
     this.address = address;
   }
 
+  /**
+   * @return address and port, null if the address is not set
+   */
+  public InetSocketAddress getSocketAddress() {
+    return (address == null) ? null : new InetSocketAddress(address, port);
+  }
+
 }
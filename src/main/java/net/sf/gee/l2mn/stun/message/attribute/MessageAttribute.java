@@ -16,9 +16,13 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import net.sf.gee.l2mn.stun.util.StunUtil;
+
 /**
  * https://tools.ietf.org/html/rfc5389#section-15
  * 
@@ -100,6 +104,57 @@ public abstract class MessageAttribute implements Serializable {
     this.value = value;
   }
 
+  /**
+   * @return number of bytes written by {@link #encodeTo(ByteBuffer)}: type, length, value and
+   *         padding
+   */
+  public int getEncodedLength() {
+    final int valueLength = (value == null) ? 0 : value.length;
+
+    return 4 + valueLength + StunUtil.padding(valueLength);
+  }
+
+  /**
+   * Write the attribute as TLV at the current position of the buffer, padded on a 32-bit boundary.
+   * 
+   * @param buffer destination buffer
+   * 
+   * @throws IOException if the buffer has not enough space
+   */
+  public void encodeTo(ByteBuffer buffer) throws IOException {
+
+    if (buffer.remaining() < getEncodedLength()) {
+      throw new IOException("Buffer too short!");
+    }
+
+    final int valueLength = (value == null) ? 0 : value.length;
+
+    buffer.putShort((short) type);
+    buffer.putShort((short) valueLength);
+
+    if (valueLength > 0) {
+      buffer.put(value);
+    }
+
+    for (int i = StunUtil.padding(valueLength); i > 0; i--) {
+      buffer.put((byte) 0);
+    }
+  }
+
+  /**
+   * Write the attribute as part of a message being encoded. Attributes whose value depends on the
+   * preceding bytes of the message (MESSAGE-INTEGRITY, FINGERPRINT) override this method; the
+   * default writes the TLV as {@link #encodeTo(ByteBuffer)}.
+   * 
+   * @param buffer destination buffer, positioned where the attribute starts
+   * @param messageOffset offset of the message header in the buffer
+   * 
+   * @throws IOException if the buffer has not enough space
+   */
+  public void encodeTo(ByteBuffer buffer, int messageOffset) throws IOException {
+    encodeTo(buffer);
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
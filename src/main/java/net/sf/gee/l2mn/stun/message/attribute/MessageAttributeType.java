@@ -41,10 +41,26 @@ public enum MessageAttributeType {
   // 0x0015: NONCE
   // 0x0020: XOR-MAPPED-ADDRESS
   //
+  // https://tools.ietf.org/html/rfc5766#section-14 (TURN)
+  // 0x000C: CHANNEL-NUMBER
+  // 0x000D: LIFETIME
+  // 0x0012: XOR-PEER-ADDRESS
+  // 0x0013: DATA
+  // 0x0016: XOR-RELAYED-ADDRESS
+  // 0x0018: EVEN-PORT
+  // 0x0019: REQUESTED-TRANSPORT
+  // 0x001A: DONT-FRAGMENT
+  // 0x0022: RESERVATION-TOKEN
+  //
   // Comprehension-optional range (0x8000-0xFFFF)
   // 0x8022: SOFTWARE
   // 0x8023: ALTERNATE-SERVER
   // 0x8028: FINGERPRINT
+  //
+  // https://tools.ietf.org/html/rfc5780#section-9.1 (NAT behavior discovery)
+  // 0x0003: CHANGE-REQUEST, the code reserved by RFC-5389 for CHANGE-ADDRESS
+  // 0x802B: RESPONSE-ORIGIN
+  // 0x802C: OTHER-ADDRESS
 
   MAPPED_ADDRESS(0x0001), RESPONSE_ADDRES(0x0002), CHANGE_ADDRES(0x0003), SOURCE_ADDRES(
       0x0004), CHANGED_ADDRES(0x0005),
@@ -57,10 +73,52 @@ public enum MessageAttributeType {
 
   REALM(0x0014), NONCE(0x0015), XOR_MAPPED_ADDRESS(0x0020),
 
+  CHANNEL_NUMBER(0x000C), LIFETIME(0x000D), XOR_PEER_ADDRESS(0x0012), DATA(0x0013),
+
+  XOR_RELAYED_ADDRESS(0x0016), EVEN_PORT(0x0018), REQUESTED_TRANSPORT(0x0019),
+
+  DONT_FRAGMENT(0x001A), RESERVATION_TOKEN(0x0022),
+
   SOFTWARE(0x8022), ALTERNATE_SERVER(0x8023), FINGERPRINT(0x8028),
 
+  RESPONSE_ORIGIN(0x802B), OTHER_ADDRESS(0x802C),
+
   ;
 
+  /**
+   * Dense lookup tables indexed by type code: comprehension-required range (0x0000-0x7FFF) and
+   * comprehension-optional range (0x8000-0xFFFF, indexed by code - 0x8000).
+   */
+  private static final MessageAttributeType[] REQUIRED_TYPES;
+
+  private static final MessageAttributeType[] OPTIONAL_TYPES;
+
+  static {
+    int maxRequired = 0;
+    int maxOptional = 0;
+
+    for (MessageAttributeType current : values()) {
+      if (isComprehensionOptional(current.code)) {
+        maxOptional = Math.max(maxOptional, current.code & 0x7FFF);
+      }
+      else {
+        maxRequired = Math.max(maxRequired, current.code);
+      }
+    }
+
+    REQUIRED_TYPES = new MessageAttributeType[maxRequired + 1];
+    OPTIONAL_TYPES = new MessageAttributeType[maxOptional + 1];
+
+    for (MessageAttributeType current : values()) {
+      if (isComprehensionOptional(current.code)) {
+        OPTIONAL_TYPES[current.code & 0x7FFF] = current;
+      }
+      else {
+        REQUIRED_TYPES[current.code] = current;
+      }
+    }
+  }
+
   private int code = -1;
 
   /**
@@ -84,13 +142,28 @@ public enum MessageAttributeType {
    */
   public static MessageAttributeType getAttributeType(int type) {
 
-    for (MessageAttributeType current : MessageAttributeType.values()) {
-      if (current.getCode() == type) {
-        return current;
-      }
+    if (type < 0 || type > 0xFFFF) {
+      return null;
     }
 
-    return null;
+    final MessageAttributeType[] table =
+        isComprehensionOptional(type) ? OPTIONAL_TYPES : REQUIRED_TYPES;
+    final int index = type & 0x7FFF;
+
+    return (index < table.length) ? table[index] : null;
+  }
+
+  /**
+   * Attributes with type values between 0x8000 and 0xFFFF are comprehension-optional attributes,
+   * which means that those attributes can be ignored by the STUN agent if it does not understand
+   * them.
+   * 
+   * @param type integer type
+   * 
+   * @return <code>true</code> if the type is in the comprehension-optional range
+   */
+  public static boolean isComprehensionOptional(int type) {
+    return (type & 0x8000) != 0;
   }
 
 
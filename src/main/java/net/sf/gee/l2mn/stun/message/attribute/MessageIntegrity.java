@@ -16,16 +16,17 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
-import java.io.ByteArrayOutputStream;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import javax.crypto.ShortBufferException;
 
 import net.sf.gee.l2mn.stun.message.Message;
-import net.sf.gee.l2mn.stun.util.StunUtil;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.util.CredentialKey;
 import net.sf.gee.logger.factory.GLogFactory;
 import net.sf.gee.logger.log.SimpleGLogger;
 
@@ -52,6 +53,10 @@ import net.sf.gee.logger.log.SimpleGLogger;
  * 
  * where MD5 is defined in RFC 1321 [RFC1321] and SASLprep() is defined in RFC 4013 [RFC4013].
  * 
+ * The keys come from the {@link CredentialKey} cache. When the attribute is encoded as part of a
+ * {@link Message}, the HMAC is computed over the encoded bytes that precede it, with the length
+ * field of the header covering MESSAGE-INTEGRITY, as the RFC requires.
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
@@ -65,7 +70,13 @@ public class MessageIntegrity extends MessageAttribute {
   private static final SimpleGLogger LOGGER =
       GLogFactory.getInstance().getLogger(SimpleGLogger.class, MessageIntegrity.class);
 
-  private String key = null;
+  /**
+   * Scratch array for the verification, one per thread.
+   */
+  private static final ThreadLocal<byte[]> EXPECTED =
+      ThreadLocal.withInitial(() -> new byte[CredentialKey.HMAC_LENGTH]);
+
+  private CredentialKey credential = null;
 
   private String username = null;
 
@@ -88,30 +99,13 @@ public class MessageIntegrity extends MessageAttribute {
     this.password = password;
     this.realm = realm;
 
-    initLongTermKey();
+    // key = MD5(username ":" realm ":" SASLprep(password))
+    this.credential = CredentialKey.longTerm(username, realm, password);
 
     // calculate
     calculate(message);
   }
 
-  private void initLongTermKey() {
-    // key = MD5(username ":" realm ":" SASLprep(password))
-
-    String plainTextKey = String.format("%s:%s:%s", username, realm, StunUtil.saslPrep(password));
-
-    try {
-      final MessageDigest md5Hash = MessageDigest.getInstance("MD5");
-      md5Hash.update(plainTextKey.getBytes(), 0, plainTextKey.length());
-
-      // this is the key
-      this.key = new BigInteger(1, md5Hash.digest()).toString(16);
-
-    }
-    catch (NoSuchAlgorithmException e) {
-      LOGGER.logError(e);
-    }
-  }
-
   /**
    * Constructor with password. Short-term credentials
    * 
@@ -123,12 +117,45 @@ public class MessageIntegrity extends MessageAttribute {
     this.password = password;
 
     // for short term need only SASLPrep(password)
-    this.key = StunUtil.saslPrep(password);
+    this.credential = CredentialKey.shortTerm(password);
 
     // calculate
     calculate(message);
   }
 
+  /**
+   * Constructor with a key: the HMAC is computed when the message is encoded.
+   * 
+   * @param credential long-term or short-term key
+   */
+  public MessageIntegrity(CredentialKey credential) {
+    super(MessageAttributeType.MESSAGE_INTEGRITY.getCode());
+
+    this.credential = credential;
+
+    super.setValue(new byte[CredentialKey.HMAC_LENGTH]);
+    super.setLength(CredentialKey.HMAC_LENGTH);
+  }
+
+  /**
+   * Decode a received attribute: the value is the 20 bytes HMAC-SHA1.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the length is not 20
+   */
+  public MessageIntegrity(int attrLength, byte[] data) throws IOException {
+    super(MessageAttributeType.MESSAGE_INTEGRITY.getCode());
+
+    if (attrLength != CredentialKey.HMAC_LENGTH) {
+      throw new IOException("MESSAGE-INTEGRITY must be 20 bytes");
+    }
+
+    super.setValue(data);
+    super.setLength(attrLength);
+  }
+
   /**
    * Calculate the HMAC-SHA1 of the message.
    * 
@@ -136,21 +163,15 @@ public class MessageIntegrity extends MessageAttribute {
    */
   protected void calculate(Message message) {
 
-    try (ByteArrayOutputStream bout = new ByteArrayOutputStream();) {
+    try {
+      final Mac mac = credential.getMac();
 
       // iterate on payload of packet
       for (MessageAttribute current : message.getAttributes()) {
-        bout.write(current.getValue());
+        mac.update(current.getValue());
       }
 
-      byte[] data = bout.toByteArray();
-
-      SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), "HmacSHA1");
-
-      Mac mac = Mac.getInstance("HmacSHA1");
-      mac.init(signingKey);
-
-      super.setValue(mac.doFinal(data));
+      super.setValue(mac.doFinal());
       super.setLength(super.getValue().length);
     }
     catch (Exception e) {
@@ -158,8 +179,116 @@ public class MessageIntegrity extends MessageAttribute {
     }
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.message.attribute.MessageAttribute#encodeTo(java.nio.ByteBuffer,
+   * int)
+   */
+  @Override
+  public void encodeTo(ByteBuffer buffer, int messageOffset) throws IOException {
+
+    if (credential == null) {
+      encodeTo(buffer);
+
+      return;
+    }
+
+    if (buffer.remaining() < 4 + CredentialKey.HMAC_LENGTH) {
+      throw new IOException("Buffer too short!");
+    }
+
+    final int start = buffer.position();
+    final int lengthIndex = messageOffset + 2;
+    final int messageLength = buffer.getShort(lengthIndex) & 0xFFFF;
+
+    // the length covers the message up to and including MESSAGE-INTEGRITY
+    final int length = start + 4 + CredentialKey.HMAC_LENGTH - messageOffset;
+    buffer.putShort(lengthIndex, (short) (length - MessageHeader.HEADER_LENGTH));
+
+    byte[] value = getValue();
+
+    if (value == null || value.length != CredentialKey.HMAC_LENGTH) {
+      value = new byte[CredentialKey.HMAC_LENGTH];
+    }
+
+    credential.hmac(buffer, messageOffset, start, value, 0);
+
+    super.setValue(value);
+    super.setLength(CredentialKey.HMAC_LENGTH);
+
+    buffer.putShort((short) getType());
+    buffer.putShort((short) CredentialKey.HMAC_LENGTH);
+    buffer.put(value);
+
+    // restore the length of the whole message
+    buffer.putShort(lengthIndex, (short) messageLength);
+  }
+
+  /**
+   * Verify the MESSAGE-INTEGRITY of a received message in place: one HMAC pass over the receive
+   * buffer, with no copy and no modification of the buffer.
+   * 
+   * @param view view over the received message
+   * @param credential expected key
+   * 
+   * @return <code>true</code> if the message has a MESSAGE-INTEGRITY and it matches the key
+   */
+  public static boolean verify(MessageView view, CredentialKey credential) {
+
+    final int attr = view.findAttribute(MessageAttributeType.MESSAGE_INTEGRITY.getCode());
+
+    if (attr < 0 || view.getAttributeLength(attr) != CredentialKey.HMAC_LENGTH) {
+      return false;
+    }
+
+    final ByteBuffer buffer = view.getBuffer();
+    final int offset = view.getOffset();
+    final int adjusted =
+        attr + 4 + CredentialKey.HMAC_LENGTH - offset - MessageHeader.HEADER_LENGTH;
+
+    final Mac mac = credential.getMac();
+
+    // type, adjusted length, then the rest of the message up to MESSAGE-INTEGRITY
+    CredentialKey.update(mac, buffer, offset, offset + 2);
+    mac.update((byte) (adjusted >>> 8));
+    mac.update((byte) adjusted);
+    CredentialKey.update(mac, buffer, offset + 4, attr);
+
+    final byte[] expected = EXPECTED.get();
+
+    try {
+      mac.doFinal(expected, 0);
+    }
+    catch (ShortBufferException e) {
+      return false;
+    }
+
+    // constant time comparison
+    int diff = 0;
+
+    for (int i = 0; i < expected.length; i++) {
+      diff |= expected[i] ^ buffer.get(attr + 4 + i);
+    }
+
+    return diff == 0;
+  }
+
+  /**
+   * @return the key as text: hexadecimal MD5 for long-term credentials, SASLprep(password) for
+   *         short-term credentials
+   */
   public String getKey() {
-    return key;
+    if (credential == null) {
+      return null;
+    }
+
+    return (username == null) ? new String(credential.getKey(), StandardCharsets.UTF_8)
+        : credential.toHex();
+  }
+
+  public CredentialKey getCredential() {
+    return credential;
   }
 
   public String getUsername() {
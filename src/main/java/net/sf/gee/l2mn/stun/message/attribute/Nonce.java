@@ -16,7 +16,16 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 /**
+ * https://tools.ietf.org/html/rfc5389#section-15.8
+ * 
+ * The NONCE attribute may be present in requests and responses. It contains a sequence of qdtext or
+ * quoted-pair, which are defined in RFC 3261. It MUST be less than 128 characters (which can be as
+ * long as 763 bytes).
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
@@ -31,7 +40,51 @@ public class Nonce extends MessageAttribute {
    * 
    */
   public Nonce() {
-    super();
+    super(MessageAttributeType.NONCE.getCode());
+  }
+
+  /**
+   * @param text value of the attribute
+   * 
+   * @throws IOException if the value is too long
+   */
+  public Nonce(String text) throws IOException {
+    this();
+
+    final byte[] realValue = text.getBytes(StandardCharsets.UTF_8);
+
+    if (realValue.length > 763) {
+      throw new IOException("Nonce too long ( 763 byte in UTF-8 )");
+    }
+
+    setValue(realValue);
+    setLength(realValue.length);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is too long
+   */
+  public Nonce(int attrLength, byte[] data) throws IOException {
+    this();
+
+    if (attrLength > 763) {
+      throw new IOException("Nonce too long ( 763 byte in UTF-8 )");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+  }
+
+  /**
+   * @return the value, decoded from UTF-8
+   */
+  public String getNonce() {
+    return (getValue() == null) ? null : new String(getValue(), StandardCharsets.UTF_8);
   }
 
 }
@@ -0,0 +1,89 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+
+/**
+ * https://tools.ietf.org/html/rfc5780#section-7.4
+ * 
+ * The OTHER-ADDRESS attribute is used in Binding responses. It informs the client of the source IP
+ * address and port that would be used if the client requested the "change IP" and "change port"
+ * behavior. It is encoded in the same way as MAPPED-ADDRESS.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class OtherAddress extends MappedAddress {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * 
+   */
+  public OtherAddress() {
+    super(MessageAttributeType.OTHER_ADDRESS);
+  }
+
+  /**
+   * @param address
+   * @param port
+   */
+  public OtherAddress(Inet4Address address, int port) {
+    this();
+
+    setFamily(0x01);
+    setPort(port);
+    setAddress(address);
+
+    init();
+  }
+
+  /**
+   * @param address
+   * @param port
+   */
+  public OtherAddress(Inet6Address address, int port) {
+    this();
+
+    setFamily(0x02);
+    setPort(port);
+    setAddress(address);
+
+    init();
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the family or the length are not valid
+   */
+  public OtherAddress(int attrLength, byte[] data) throws IOException {
+    this();
+
+    decode(attrLength, data);
+  }
+
+}
@@ -16,7 +16,17 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 /**
+ * https://tools.ietf.org/html/rfc5389#section-15.7
+ * 
+ * The REALM attribute may be present in requests and responses. It contains text that meets the
+ * grammar for "realm-value" as described in RFC 3261 but without the double quotes and their
+ * surrounding whitespace. It MUST be a UTF-8 encoded sequence of less than 128 characters (which
+ * can be as long as 763 bytes).
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
@@ -31,7 +41,51 @@ public class Realm extends MessageAttribute {
    * 
    */
   public Realm() {
-    super();
+    super(MessageAttributeType.REALM.getCode());
+  }
+
+  /**
+   * @param text value of the attribute
+   * 
+   * @throws IOException if the value is too long
+   */
+  public Realm(String text) throws IOException {
+    this();
+
+    final byte[] realValue = text.getBytes(StandardCharsets.UTF_8);
+
+    if (realValue.length > 763) {
+      throw new IOException("Realm too long ( 763 byte in UTF-8 )");
+    }
+
+    setValue(realValue);
+    setLength(realValue.length);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is too long
+   */
+  public Realm(int attrLength, byte[] data) throws IOException {
+    this();
+
+    if (attrLength > 763) {
+      throw new IOException("Realm too long ( 763 byte in UTF-8 )");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+  }
+
+  /**
+   * @return the value, decoded from UTF-8
+   */
+  public String getRealm() {
+    return (getValue() == null) ? null : new String(getValue(), StandardCharsets.UTF_8);
   }
 
 }
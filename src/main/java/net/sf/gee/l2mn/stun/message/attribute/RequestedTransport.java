@@ -0,0 +1,100 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+import java.io.IOException;
+
+/**
+ * https://tools.ietf.org/html/rfc5766#section-14.7
+ * 
+ * This attribute is used by the client to request a specific transport protocol for the allocated
+ * transport address. The Protocol field specifies the desired protocol, its codepoints are taken
+ * from the Protocol field in the IPv4 header: 17 is UDP. The RFFU field MUST be set to zero on
+ * transmission and MUST be ignored on reception.
+ * 
+ * <pre>
+ * {@code
+ *    0                   1                   2                   3
+ *    0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *   |    Protocol   |                    RFFU                       |
+ *   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * }
+ * </pre>
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class RequestedTransport extends MessageAttribute {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Protocol number of UDP.
+   */
+  public static final int UDP = 17;
+
+  private int protocol = 0;
+
+  /**
+   * 
+   */
+  public RequestedTransport() {
+    this(UDP);
+  }
+
+  /**
+   * @param protocol protocol number
+   */
+  public RequestedTransport(int protocol) {
+    super(MessageAttributeType.REQUESTED_TRANSPORT.getCode());
+
+    this.protocol = protocol & 0xFF;
+
+    setValue(new byte[] {(byte) protocol, 0, 0, 0});
+    setLength(4);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is not 4 bytes long
+   */
+  public RequestedTransport(int attrLength, byte[] data) throws IOException {
+    super(MessageAttributeType.REQUESTED_TRANSPORT.getCode());
+
+    if (attrLength != 4) {
+      throw new IOException("REQUESTED-TRANSPORT must be 4 bytes long");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+
+    this.protocol = data[0] & 0xFF;
+  }
+
+  public int getProtocol() {
+    return protocol;
+  }
+
+}
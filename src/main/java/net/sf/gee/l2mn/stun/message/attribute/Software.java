@@ -1,7 +1,7 @@
 /**
  * ------------------------------------------------------------------------------------------------
  *
- * w * Copyright 2015 - Giorgio Desideri
+ * Copyright 2015 - Giorgio Desideri
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
  * in compliance with the License. You may obtain a copy of the License at
@@ -16,6 +16,7 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -44,4 +45,30 @@ public class Software extends MessageAttribute {
     super.setLength(1 + getValue().length);
   }
 
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is too long
+   */
+  public Software(int attrLength, byte[] data) throws IOException {
+    super(MessageAttributeType.SOFTWARE.getCode());
+
+    if (attrLength > 763) {
+      throw new IOException("Software too long ( 763 byte in UTF-8 )");
+    }
+
+    super.setValue(data);
+    super.setLength(attrLength);
+  }
+
+  /**
+   * @return the description, decoded from UTF-8
+   */
+  public String getDescription() {
+    return new String(getValue(), StandardCharsets.UTF_8);
+  }
+
 }
@@ -16,7 +16,15 @@
  **/
 package net.sf.gee.l2mn.stun.message.attribute;
 
+import java.io.IOException;
+
 /**
+ * https://tools.ietf.org/html/rfc5389#section-15.9
+ * 
+ * The UNKNOWN-ATTRIBUTES attribute is present only in an error response when the response code in
+ * the ERROR-CODE attribute is 420. The attribute contains a list of 16-bit values, each of which
+ * represents an attribute type that was not understood by the server.
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
@@ -27,11 +35,64 @@ public class UnknowAttribute extends MessageAttribute {
    */
   private static final long serialVersionUID = 1L;
 
+  private int[] types = new int[0];
+
   /**
    * 
    */
   public UnknowAttribute() {
-    super();
+    super(MessageAttributeType.UNKNOWN_ATTRIBUTE.getCode());
+  }
+
+  /**
+   * @param types attribute types not understood
+   */
+  public UnknowAttribute(int... types) {
+    this();
+
+    this.types = types.clone();
+
+    final byte[] data = new byte[types.length * 2];
+
+    for (int i = 0; i < types.length; i++) {
+      data[2 * i] = (byte) (types[i] >>> 8);
+      data[2 * i + 1] = (byte) types[i];
+    }
+
+    setValue(data);
+    setLength(data.length);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the length is odd
+   */
+  public UnknowAttribute(int attrLength, byte[] data) throws IOException {
+    this();
+
+    if ((attrLength & 0x1) != 0) {
+      throw new IOException("UNKNOWN-ATTRIBUTES length must be even");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+
+    this.types = new int[attrLength / 2];
+
+    for (int i = 0; i < types.length; i++) {
+      types[i] = ((data[2 * i] & 0xFF) << 8) | (data[2 * i + 1] & 0xFF);
+    }
+  }
+
+  /**
+   * @return attribute types not understood
+   */
+  public int[] getTypes() {
+    return types.clone();
   }
 
 }
@@ -57,4 +57,30 @@ public class Username extends MessageAttribute {
     }
   }
 
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the username is too long
+   */
+  public Username(int attrLength, byte[] data) throws IOException {
+    super(MessageAttributeType.USERNAME.getCode());
+
+    if (attrLength >= 514) {
+      throw new IOException("Username too long ( 513 byte in UTF-8 )");
+    }
+
+    setValue(data);
+    setLength(attrLength);
+  }
+
+  /**
+   * @return the username, decoded from UTF-8
+   */
+  public String getUsername() {
+    return new String(getValue(), StandardCharsets.UTF_8);
+  }
+
 }
@@ -20,8 +20,13 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
 import net.sf.gee.l2mn.stun.util.StunUtil;
 
 /**
@@ -63,15 +68,79 @@ public class XorMappedAddress extends MessageAttribute {
 
   private byte[] xorAddress = null;
 
+  /**
+   * Address to encode, the XOR is applied when the message is encoded.
+   */
+  private InetSocketAddress address = null;
+
   /**
    * 
    */
   public XorMappedAddress() {
-    super(MessageAttributeType.XOR_MAPPED_ADDRESS.getCode());
+    this(MessageAttributeType.XOR_MAPPED_ADDRESS);
+  }
+
+  /**
+   * Attribute to send: the XOR with the magic cookie and the transaction id is applied when the
+   * message is encoded.
+   * 
+   * @param address IPv4 or IPv6 address and port
+   */
+  public XorMappedAddress(InetSocketAddress address) {
+    this(MessageAttributeType.XOR_MAPPED_ADDRESS, address);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is too short
+   */
+  public XorMappedAddress(int attrLength, byte[] data) throws IOException {
+    this(MessageAttributeType.XOR_MAPPED_ADDRESS, attrLength, data);
   }
 
-  public XorMappedAddress(int attrLength, byte[] data) {
-    this();
+  /**
+   * Constructor of the attributes with the XOR-MAPPED-ADDRESS format.
+   * 
+   * @param type attribute type
+   */
+  protected XorMappedAddress(MessageAttributeType type) {
+    super(type.getCode());
+  }
+
+  /**
+   * @param type attribute type
+   * @param address IPv4 or IPv6 address and port
+   */
+  protected XorMappedAddress(MessageAttributeType type, InetSocketAddress address) {
+    this(type);
+
+    this.address = address;
+    this.family = (byte) ((address.getAddress() instanceof Inet4Address) ? 0x01 : 0x02);
+
+    // placeholder of the right size
+    final int valueLength = (family == 0x01) ? 8 : 20;
+    setValue(new byte[valueLength]);
+    setLength(valueLength);
+  }
+
+  /**
+   * @param type attribute type
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is too short
+   */
+  protected XorMappedAddress(MessageAttributeType type, int attrLength, byte[] data)
+      throws IOException {
+    this(type);
+
+    if (attrLength < 8 || data.length < attrLength) {
+      throw new IOException("XOR address attribute too short");
+    }
 
     setLength(attrLength);
     setValue(data);
@@ -83,7 +152,123 @@ public class XorMappedAddress extends MessageAttribute {
 
     this.xorPort = new byte[] {data[2], data[3]};
 
-    this.xorAddress = StunUtil.subArray(data, 4, (attrLength - 1));
+    this.xorAddress = Arrays.copyOfRange(data, 4, attrLength);
+  }
+
+  /**
+   * Encode a XOR address attribute (XOR-MAPPED-ADDRESS or any attribute with the same format)
+   * directly in the buffer, with no intermediate attribute object.
+   * 
+   * @param buffer destination buffer
+   * @param type attribute type
+   * @param address IPv4 or IPv6 address
+   * @param port port
+   * @param transactionIdHigh first 8 bytes of the transaction id, used for IPv6
+   * @param transactionIdLow last 4 bytes of the transaction id, used for IPv6
+   * 
+   * @throws IOException if the buffer has not enough space
+   */
+  public static void encode(ByteBuffer buffer, int type, InetAddress address, int port,
+      long transactionIdHigh, int transactionIdLow) throws IOException {
+
+    final byte[] raw = address.getAddress();
+
+    if (buffer.remaining() < 8 + raw.length) {
+      throw new IOException("Buffer too short!");
+    }
+
+    buffer.putShort((short) type);
+    buffer.putShort((short) (4 + raw.length));
+    buffer.put((byte) 0);
+    buffer.put((byte) ((raw.length == 4) ? 0x01 : 0x02));
+    buffer.putShort((short) (port ^ (MessageHeader.MAGIC_COOKIE >>> 16)));
+
+    // magic cookie, then transaction id for IPv6
+    buffer.putInt(((raw[0] & 0xFF) << 24 | (raw[1] & 0xFF) << 16 | (raw[2] & 0xFF) << 8
+        | (raw[3] & 0xFF)) ^ (int) MessageHeader.MAGIC_COOKIE);
+
+    if (raw.length == 16) {
+      long high = 0L;
+      int low = 0;
+
+      for (int i = 4; i < 12; i++) {
+        high = (high << 8) | (raw[i] & 0xFF);
+      }
+
+      for (int i = 12; i < 16; i++) {
+        low = (low << 8) | (raw[i] & 0xFF);
+      }
+
+      buffer.putLong(high ^ transactionIdHigh);
+      buffer.putInt(low ^ transactionIdLow);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.message.attribute.MessageAttribute#encodeTo(java.nio.ByteBuffer,
+   * int)
+   */
+  @Override
+  public void encodeTo(ByteBuffer buffer, int messageOffset) throws IOException {
+
+    if (address == null) {
+      super.encodeTo(buffer, messageOffset);
+
+      return;
+    }
+
+    // transaction id of the message being encoded
+    encode(buffer, getType(), address.getAddress(), address.getPort(),
+        buffer.getLong(messageOffset + 8), buffer.getInt(messageOffset + 16));
+  }
+
+  /**
+   * Decode the address with the magic cookie and the transaction id of the message.
+   * 
+   * @param header header of the message carrying the attribute
+   * 
+   * @return address and port
+   * 
+   * @throws UnknownHostException if the address is malformed
+   */
+  public InetSocketAddress getSocketAddress(MessageHeader header) throws UnknownHostException {
+
+    if (address != null) {
+      return address;
+    }
+
+    final byte[] key = new byte[4 + MessageHeader.TRANSACTION_ID_LENGTH];
+    ByteBuffer.wrap(key).putInt((int) MessageHeader.MAGIC_COOKIE)
+        .putLong(header.getTransactionIdHigh()).putInt(header.getTransactionIdLow());
+
+    return new InetSocketAddress(getAddress(key), getPort(key));
+  }
+
+  /**
+   * Mapped address of a Binding success response.
+   * 
+   * @param response Binding response
+   * 
+   * @return the XOR-MAPPED-ADDRESS of the response
+   * 
+   * @throws IOException if the response is an error or has no XOR-MAPPED-ADDRESS
+   */
+  public static InetSocketAddress fromResponse(Message response) throws IOException {
+
+    if (response.getHeader().getType() == null || !response.getHeader().getType().isSuccess()) {
+      throw new IOException("Binding error response");
+    }
+
+    final XorMappedAddress mapped =
+        (XorMappedAddress) response.getAttribute(MessageAttributeType.XOR_MAPPED_ADDRESS);
+
+    if (mapped == null) {
+      throw new IOException("No XOR-MAPPED-ADDRESS in the response");
+    }
+
+    return mapped.getSocketAddress(response.getHeader());
   }
 
   private byte[] xorWithKey(byte[] a, byte[] key) {
@@ -0,0 +1,65 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.message.attribute;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * https://tools.ietf.org/html/rfc5766#section-14.5
+ * 
+ * The XOR-RELAYED-ADDRESS attribute is present in Allocate responses. It specifies the address
+ * and port that the server allocated to the client. It is encoded in the same way as
+ * XOR-MAPPED-ADDRESS.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class XorRelayedAddress extends XorMappedAddress {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * 
+   */
+  public XorRelayedAddress() {
+    super(MessageAttributeType.XOR_RELAYED_ADDRESS);
+  }
+
+  /**
+   * @param address IPv4 or IPv6 address and port
+   */
+  public XorRelayedAddress(InetSocketAddress address) {
+    super(MessageAttributeType.XOR_RELAYED_ADDRESS, address);
+  }
+
+  /**
+   * Decode a received attribute.
+   * 
+   * @param attrLength length of the value
+   * @param data value of the attribute
+   * 
+   * @throws IOException if the value is too short
+   */
+  public XorRelayedAddress(int attrLength, byte[] data) throws IOException {
+    super(MessageAttributeType.XOR_RELAYED_ADDRESS, attrLength, data);
+  }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of round trip times with fixed buckets, from 100 microseconds to the 39.5 seconds of
+ * a STUN transaction.
+ * 
+ * Recording a sample is lock free and allocates nothing: a search in the static bounds and one
+ * atomic increment. The percentiles are estimated by the upper bound of their bucket, which is
+ * precise enough to watch a server and cheap enough to keep one histogram per server.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class RttHistogram implements RttHistogramMXBean {
+
+  /**
+   * Upper bounds of the buckets in microseconds, inclusive. A last bucket collects the samples
+   * above the last bound.
+   */
+  private static final long[] BOUNDS = {100L, 250L, 500L, 1000L, 2000L, 5000L, 10000L, 20000L,
+      50000L, 100000L, 200000L, 500000L, 1000000L, 2000000L, 5000000L, 10000000L, 20000000L,
+      40000000L};
+
+  private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+
+  private final LongAdder sum = new LongAdder();
+
+  private final AtomicLong max = new AtomicLong();
+
+  public RttHistogram() {
+    super();
+  }
+
+  /**
+   * Record a sample.
+   * 
+   * @param nanos round trip time in nanoseconds
+   */
+  public void record(long nanos) {
+    final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0L, nanos));
+
+    counts.incrementAndGet(bucket(micros));
+    sum.add(micros);
+
+    long current = max.get();
+
+    while (micros > current && !max.compareAndSet(current, micros)) {
+      current = max.get();
+    }
+  }
+
+  private static int bucket(long micros) {
+    int low = 0;
+    int high = BOUNDS.length;
+
+    // first bound not lower than the sample
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+
+      if (BOUNDS[middle] < micros) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.metrics.RttHistogramMXBean#getCount()
+   */
+  @Override
+  public long getCount() {
+    long count = 0L;
+
+    for (int i = 0; i < counts.length(); i++) {
+      count += counts.get(i);
+    }
+
+    return count;
+  }
+
+  @Override
+  public long getMeanMicros() {
+    final long count = getCount();
+
+    return (count == 0L) ? 0L : sum.sum() / count;
+  }
+
+  @Override
+  public long getMaxMicros() {
+    return max.get();
+  }
+
+  @Override
+  public long getP50Micros() {
+    return getPercentileMicros(50.0);
+  }
+
+  @Override
+  public long getP90Micros() {
+    return getPercentileMicros(90.0);
+  }
+
+  @Override
+  public long getP99Micros() {
+    return getPercentileMicros(99.0);
+  }
+
+  /**
+   * @param percentile percentile, between 0 and 100
+   * 
+   * @return upper bound of the bucket of the percentile, the maximum for the last bucket, 0
+   *         without samples
+   */
+  public long getPercentileMicros(double percentile) {
+    final long[] snapshot = getBucketCounts();
+
+    long count = 0L;
+
+    for (long current : snapshot) {
+      count += current;
+    }
+
+    if (count == 0L) {
+      return 0L;
+    }
+
+    final long rank = Math.max(1L, (long) Math.ceil(count * percentile / 100.0));
+    long seen = 0L;
+
+    for (int i = 0; i < BOUNDS.length; i++) {
+      seen += snapshot[i];
+
+      if (seen >= rank) {
+        return Math.min(BOUNDS[i], max.get());
+      }
+    }
+
+    return max.get();
+  }
+
+  @Override
+  public long[] getBucketBoundsMicros() {
+    return BOUNDS.clone();
+  }
+
+  @Override
+  public long[] getBucketCounts() {
+    final long[] snapshot = new long[counts.length()];
+
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+    }
+
+    return snapshot;
+  }
+
+}
@@ -0,0 +1,49 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.metrics;
+
+/**
+ * JMX view of a {@link RttHistogram}. All the times are in microseconds.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public interface RttHistogramMXBean {
+
+  long getCount();
+
+  long getMeanMicros();
+
+  long getMaxMicros();
+
+  long getP50Micros();
+
+  long getP90Micros();
+
+  long getP99Micros();
+
+  /**
+   * @return upper bound of every bucket; the last bucket has no bound
+   */
+  long[] getBucketBoundsMicros();
+
+  /**
+   * @return number of samples of every bucket, one more than the bounds
+   */
+  long[] getBucketCounts();
+
+}
@@ -0,0 +1,386 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * Counters and round trip times of the transactions of a transporter: requests, retransmissions,
+ * timeouts, responses by ERROR-CODE, and one {@link RttHistogram} per server.
+ * 
+ * The counters are {@link LongAdder}s and the error codes an atomic array indexed by code, so
+ * recording takes no lock and allocates nothing; only the first response of a new server creates
+ * its histogram. An instance can be shared by many transporters.
+ * 
+ * The number of per-server histograms is bounded: with many destinations, as with ICE checks or
+ * any-source transactions, a server beyond {@link #getMaxServers()} is recorded in the aggregate
+ * only.
+ * 
+ * {@link #register(String)} publishes the metrics as MXBeans of the platform server, under
+ * <code>net.sf.gee.l2mn.stun:type=Transporter,name=&lt;name&gt;</code>, with one more bean per
+ * server.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class StunMetrics implements StunMetricsMXBean {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, StunMetrics.class);
+
+  /**
+   * JMX domain of the beans.
+   */
+  public static final String DOMAIN = "net.sf.gee.l2mn.stun";
+
+  /**
+   * ERROR-CODE values go from 300 to 699 (RFC-5389 section 15.6).
+   */
+  private static final int MIN_ERROR_CODE = 300;
+
+  private static final int MAX_ERROR_CODE = 699;
+
+  /**
+   * Default maximum number of servers with a histogram.
+   */
+  public static final int DEFAULT_MAX_SERVERS = 64;
+
+  private final LongAdder requests = new LongAdder();
+
+  private final LongAdder retransmits = new LongAdder();
+
+  private final LongAdder timeouts = new LongAdder();
+
+  private final LongAdder responses = new LongAdder();
+
+  private final LongAdder errorResponses = new LongAdder();
+
+  private final AtomicLongArray errorCodes =
+      new AtomicLongArray(MAX_ERROR_CODE - MIN_ERROR_CODE + 1);
+
+  private final RttHistogram rtt = new RttHistogram();
+
+  private final ConcurrentHashMap<InetSocketAddress, RttHistogram> servers =
+      new ConcurrentHashMap<>();
+
+  private final int maxServers;
+
+  /**
+   * Histograms created or reserved, never more than maxServers.
+   */
+  private final AtomicInteger serverCount = new AtomicInteger();
+
+  private volatile ObjectName name = null;
+
+  public StunMetrics() {
+    this(DEFAULT_MAX_SERVERS);
+  }
+
+  /**
+   * @param maxServers maximum number of servers with a histogram (and a bean), 0 for the
+   *        aggregate only
+   */
+  public StunMetrics(int maxServers) {
+    super();
+
+    if (maxServers < 0) {
+      throw new IllegalArgumentException("The maximum number of servers must not be negative");
+    }
+
+    this.maxServers = maxServers;
+  }
+
+  /**
+   * A transaction is started.
+   */
+  public void onRequest() {
+    requests.increment();
+  }
+
+  /**
+   * A request is sent again.
+   */
+  public void onRetransmit() {
+    retransmits.increment();
+  }
+
+  /**
+   * A transaction ends without response.
+   */
+  public void onTimeout() {
+    timeouts.increment();
+  }
+
+  /**
+   * A transaction ends with a response.
+   * 
+   * @param server server of the transaction
+   * @param rttNanos time since the first request, in nanoseconds
+   * @param errorCode ERROR-CODE of an error response, a negative value for a success response
+   */
+  public void onResponse(InetSocketAddress server, long rttNanos, int errorCode) {
+    responses.increment();
+
+    if (errorCode >= 0) {
+      errorResponses.increment();
+
+      if (errorCode >= MIN_ERROR_CODE && errorCode <= MAX_ERROR_CODE) {
+        errorCodes.incrementAndGet(errorCode - MIN_ERROR_CODE);
+      }
+    }
+
+    rtt.record(rttNanos);
+
+    if (server != null) {
+      RttHistogram histogram = servers.get(server);
+
+      if (histogram == null) {
+        histogram = newServer(server);
+      }
+
+      if (histogram != null) {
+        histogram.record(rttNanos);
+      }
+    }
+  }
+
+  /**
+   * @return the histogram of the server, null if the maximum number of servers is reached
+   */
+  private RttHistogram newServer(InetSocketAddress server) {
+
+    if (serverCount.incrementAndGet() > maxServers) {
+      serverCount.decrementAndGet();
+
+      return servers.get(server);
+    }
+
+    final RttHistogram created = new RttHistogram();
+    final RttHistogram previous = servers.putIfAbsent(server, created);
+
+    if (previous != null) {
+      serverCount.decrementAndGet();
+
+      return previous;
+    }
+
+    final ObjectName parent = name;
+
+    if (parent != null) {
+      registerServer(parent, server, created);
+    }
+
+    return created;
+  }
+
+  /**
+   * @return round trip times of all the servers
+   */
+  public RttHistogram getRtt() {
+    return rtt;
+  }
+
+  /**
+   * @param server server address
+   * 
+   * @return round trip times of the server, null without responses from it or beyond the
+   *         maximum number of servers
+   */
+  public RttHistogram getRtt(InetSocketAddress server) {
+    return servers.get(server);
+  }
+
+  /**
+   * @return maximum number of servers with a histogram
+   */
+  public int getMaxServers() {
+    return maxServers;
+  }
+
+  /**
+   * @param code ERROR-CODE value
+   * 
+   * @return number of error responses with the code
+   */
+  public long getErrorCodeCount(int code) {
+    if (code < MIN_ERROR_CODE || code > MAX_ERROR_CODE) {
+      return 0L;
+    }
+
+    return errorCodes.get(code - MIN_ERROR_CODE);
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  @Override
+  public long getRetransmitCount() {
+    return retransmits.sum();
+  }
+
+  @Override
+  public long getTimeoutCount() {
+    return timeouts.sum();
+  }
+
+  @Override
+  public long getResponseCount() {
+    return responses.sum();
+  }
+
+  @Override
+  public long getErrorResponseCount() {
+    return errorResponses.sum();
+  }
+
+  @Override
+  public Map<Integer, Long> getErrorCodeCounts() {
+    final Map<Integer, Long> counts = new TreeMap<>();
+
+    for (int i = 0; i < errorCodes.length(); i++) {
+      final long count = errorCodes.get(i);
+
+      if (count > 0L) {
+        counts.put(MIN_ERROR_CODE + i, count);
+      }
+    }
+
+    return counts;
+  }
+
+  @Override
+  public long getRttP99Micros() {
+    return rtt.getP99Micros();
+  }
+
+  @Override
+  public String[] getServers() {
+    return servers.keySet().stream().map(StunMetrics::format).sorted().toArray(String[]::new);
+  }
+
+  /**
+   * Numeric form of the address, so that the name of a server does not depend on resolution.
+   */
+  private static String format(InetSocketAddress server) {
+    final InetAddress address = server.getAddress();
+
+    if (address == null) {
+      return server.getHostString() + ":" + server.getPort();
+    }
+
+    if (address instanceof Inet6Address) {
+      return "[" + address.getHostAddress() + "]:" + server.getPort();
+    }
+
+    return address.getHostAddress() + ":" + server.getPort();
+  }
+
+  /**
+   * Publish the metrics on the platform MBean server.
+   * 
+   * @param transporter name of the transporter, unique in the JVM
+   * 
+   * @throws JMException if the name is invalid or already registered
+   */
+  public synchronized void register(String transporter) throws JMException {
+
+    if (name != null) {
+      throw new IllegalStateException("already registered as " + name);
+    }
+
+    final ObjectName parent =
+        new ObjectName(DOMAIN + ":type=Transporter,name=" + ObjectName.quote(transporter));
+
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, parent);
+    name = parent;
+
+    for (Map.Entry<InetSocketAddress, RttHistogram> entry : servers.entrySet()) {
+      registerServer(parent, entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Remove the beans of the metrics from the platform MBean server.
+   */
+  public synchronized void unregister() {
+    final ObjectName parent = name;
+
+    if (parent == null) {
+      return;
+    }
+
+    name = null;
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    try {
+      for (ObjectName current : server.queryNames(serverPattern(parent), null)) {
+        server.unregisterMBean(current);
+      }
+
+      server.unregisterMBean(parent);
+    }
+    catch (JMException e) {
+      LOGGER.logError(e);
+    }
+  }
+
+  /**
+   * @return name of the bean, null if not registered
+   */
+  public ObjectName getObjectName() {
+    return name;
+  }
+
+  private static ObjectName serverPattern(ObjectName parent) throws JMException {
+    return new ObjectName(parent.getCanonicalName() + ",server=*");
+  }
+
+  private static void registerServer(ObjectName parent, InetSocketAddress server,
+      RttHistogram histogram) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(histogram, new ObjectName(
+          parent.getCanonicalName() + ",server=" + ObjectName.quote(format(server))));
+    }
+    catch (InstanceAlreadyExistsException e) {
+      // registered concurrently by register(String)
+    }
+    catch (JMException e) {
+      LOGGER.logError(e);
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link StunMetrics} of a transporter. The round trip times of every server are
+ * published by a separate {@link RttHistogramMXBean}.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public interface StunMetricsMXBean {
+
+  /**
+   * @return number of transactions started
+   */
+  long getRequestCount();
+
+  /**
+   * @return number of requests sent again
+   */
+  long getRetransmitCount();
+
+  /**
+   * @return number of transactions without response
+   */
+  long getTimeoutCount();
+
+  /**
+   * @return number of responses, success and error
+   */
+  long getResponseCount();
+
+  /**
+   * @return number of error responses
+   */
+  long getErrorResponseCount();
+
+  /**
+   * @return number of error responses by ERROR-CODE
+   */
+  Map<Integer, Long> getErrorCodeCounts();
+
+  /**
+   * @return round trip time of all the servers, 99th percentile in microseconds
+   */
+  long getRttP99Micros();
+
+  /**
+   * @return servers with at least one response
+   */
+  String[] getServers();
+
+}
@@ -0,0 +1,48 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.monitor;
+
+/**
+ * Receiver of the results of a {@link BindingWatch}, with the signals of a reactive-streams
+ * subscriber: any number of {@link #onResult(BindingResult)}, never more than requested, then at
+ * most one of {@link #onError(Throwable)} or {@link #onComplete()}.
+ * 
+ * The signals are serialized, and run on the threads of the transporter: they must not block.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public interface BindingListener {
+
+  /**
+   * @param result result of one transaction; a failed transaction is a result, not an error
+   */
+  void onResult(BindingResult result);
+
+  /**
+   * The watch ends because of an error, for example the transporter is closed.
+   * 
+   * @param error cause
+   */
+  void onError(Throwable error);
+
+  /**
+   * The watch ends because the monitor is closed.
+   */
+  void onComplete();
+
+}
@@ -0,0 +1,267 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.monitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * Continuous monitoring of the NAT mappings towards many STUN servers, for example to keep NAT
+ * bindings alive and detect rebinding.
+ * 
+ * Every {@link BindingWatch} sends a Binding request to its server at a fixed interval, as long as
+ * its listener requests results. All the watches share one {@link AsyncStunTransporter} and one
+ * periodic tick on a {@link HashedTimerWheel}: every tick starts the due transactions of all the
+ * targets in one pass, so monitoring thousands of targets costs no thread per target.
+ * 
+ * On Java 9 and later, {@link #publisher(InetSocketAddress, long)} exposes the watches of a server
+ * as a <code>java.util.concurrent.Flow.Publisher</code>.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class BindingMonitor implements Closeable {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, BindingMonitor.class);
+
+  /**
+   * Flow publisher, in the Java 9 entries of the multi-release jar.
+   */
+  private static final String PUBLISHER = "net.sf.gee.l2mn.stun.monitor.BindingPublisher";
+
+  /**
+   * Default tick, in milliseconds.
+   */
+  public static final long DEFAULT_TICK = 50L;
+
+  private final AsyncStunTransporter transporter;
+
+  private final boolean ownTransporter;
+
+  private final HashedTimerWheel timer;
+
+  private final long tick;
+
+  private final Set<BindingWatch> watches = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean closed = false;
+
+  private volatile HashedTimerWheel.Timeout next = null;
+
+  /**
+   * Monitor with its own transporter, on an ephemeral local port.
+   * 
+   * @throws IOException
+   */
+  public BindingMonitor() throws IOException {
+    this(new AsyncStunTransporter(null, null), true, HashedTimerWheel.getDefault(),
+        DEFAULT_TICK);
+  }
+
+  /**
+   * @param transporter transporter of the transactions, not closed by the monitor
+   * @param timer timer wheel of the tick
+   * @param tickMillis period of the tick, in milliseconds
+   */
+  public BindingMonitor(AsyncStunTransporter transporter, HashedTimerWheel timer,
+      long tickMillis) {
+    this(transporter, false, timer, tickMillis);
+  }
+
+  private BindingMonitor(AsyncStunTransporter transporter, boolean ownTransporter,
+      HashedTimerWheel timer, long tickMillis) {
+    super();
+
+    this.transporter = transporter;
+    this.ownTransporter = ownTransporter;
+    this.timer = timer;
+    this.tick = tickMillis;
+
+    scheduleTick();
+  }
+
+  /**
+   * Start watching a server. No transaction starts before {@link BindingWatch#request(long)}.
+   * 
+   * @param target STUN server
+   * @param intervalMillis interval between two transactions, in milliseconds
+   * @param listener receiver of the results
+   * 
+   * @return the watch
+   * 
+   * @throws IllegalStateException if the monitor is closed
+   */
+  public BindingWatch watch(InetSocketAddress target, long intervalMillis,
+      BindingListener listener) {
+
+    if (closed) {
+      throw new IllegalStateException("monitor closed");
+    }
+
+    final BindingWatch watch = new BindingWatch(this, target, intervalMillis, listener);
+    watches.add(watch);
+
+    // closed concurrently: complete the watch here if close() missed it
+    if (closed && watches.remove(watch)) {
+      watch.complete();
+    }
+
+    return watch;
+  }
+
+  /**
+   * Publisher of the results of a server, on Java 9 and later: a
+   * <code>java.util.concurrent.Flow.Publisher&lt;BindingResult&gt;</code> where every subscriber
+   * gets its own {@link BindingWatch}, driven by its demand. The type is passed as a token because
+   * this class is compiled for Java 8; the raw type gives an unchecked conversion.
+   * 
+   * <pre>
+   * {@code
+   *   Flow.Publisher<BindingResult> publisher =
+   *       monitor.publisher(Flow.Publisher.class, server, 1000L);
+   * }
+   * </pre>
+   * 
+   * @param <P> <code>Flow.Publisher</code>
+   * @param type <code>Flow.Publisher.class</code>, or a supertype
+   * @param target STUN server
+   * @param intervalMillis interval between two transactions, in milliseconds
+   * 
+   * @return the publisher
+   * 
+   * @throws IllegalArgumentException if the publisher is not an instance of the type
+   * @throws UnsupportedOperationException on Java 8
+   */
+  public <P> P publisher(Class<P> type, InetSocketAddress target, long intervalMillis) {
+
+    try {
+      final Class<?> publisher = Class.forName(PUBLISHER);
+
+      if (!type.isAssignableFrom(publisher)) {
+        throw new IllegalArgumentException(
+            "The publisher is a java.util.concurrent.Flow.Publisher, not a " + type.getName());
+      }
+
+      return type.cast(publisher
+          .getDeclaredConstructor(BindingMonitor.class, InetSocketAddress.class, long.class)
+          .newInstance(this, target, intervalMillis));
+    }
+    catch (ClassNotFoundException e) {
+      throw new UnsupportedOperationException("Flow publisher requires Java 9", e);
+    }
+    catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw new IllegalStateException(e.getCause());
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return number of active watches
+   */
+  public int getWatchCount() {
+    return watches.size();
+  }
+
+  public AsyncStunTransporter getTransporter() {
+    return transporter;
+  }
+
+  void remove(BindingWatch watch) {
+    watches.remove(watch);
+  }
+
+  private void scheduleTick() {
+    next = timer.schedule(this::tick, tick, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Start the due transactions of all the watches.
+   */
+  private void tick() {
+
+    if (closed) {
+      return;
+    }
+
+    final long now = System.nanoTime();
+
+    try {
+      for (BindingWatch watch : watches) {
+        if (watch.isDue(now)) {
+          watch.probe(transporter, now);
+        }
+      }
+    }
+    catch (RuntimeException e) {
+      LOGGER.logError(e);
+    }
+    finally {
+      if (!closed) {
+        scheduleTick();
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    final HashedTimerWheel.Timeout current = next;
+
+    if (current != null) {
+      current.cancel();
+    }
+
+    for (BindingWatch watch : watches) {
+      if (watches.remove(watch)) {
+        watch.complete();
+      }
+    }
+
+    if (ownTransporter) {
+      transporter.close();
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.monitor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Result of one Binding transaction of a {@link BindingWatch}: the mapped address seen by the
+ * server, or the failure of the transaction.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class BindingResult {
+
+  private final InetSocketAddress target;
+
+  private final InetSocketAddress mappedAddress;
+
+  private final IOException error;
+
+  private final long rttNanos;
+
+  private final long timestamp;
+
+  private final boolean changed;
+
+  BindingResult(InetSocketAddress target, InetSocketAddress mappedAddress, IOException error,
+      long rttNanos, boolean changed) {
+    super();
+
+    this.target = target;
+    this.mappedAddress = mappedAddress;
+    this.error = error;
+    this.rttNanos = rttNanos;
+    this.timestamp = System.currentTimeMillis();
+    this.changed = changed;
+  }
+
+  /**
+   * @return server of the transaction
+   */
+  public InetSocketAddress getTarget() {
+    return target;
+  }
+
+  /**
+   * @return XOR-MAPPED-ADDRESS of the response, null on failure
+   */
+  public InetSocketAddress getMappedAddress() {
+    return mappedAddress;
+  }
+
+  /**
+   * @return failure of the transaction, null on success
+   */
+  public IOException getError() {
+    return error;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /**
+   * @return round trip time of the transaction, in nanoseconds
+   */
+  public long getRttNanos() {
+    return rttNanos;
+  }
+
+  /**
+   * @return time of the result, in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * @return <code>true</code> if the mapped address differs from the previous successful result of
+   *         the same watch, for example after a NAT rebinding
+   */
+  public boolean isChanged() {
+    return changed;
+  }
+
+  @Override
+  public String toString() {
+    return "BindingResult [target=" + target + ", mappedAddress=" + mappedAddress + ", error="
+        + error + ", rttNanos=" + rttNanos + ", changed=" + changed + "]";
+  }
+
+}
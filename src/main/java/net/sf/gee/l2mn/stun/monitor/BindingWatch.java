@@ -0,0 +1,269 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.monitor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTemplate;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+
+/**
+ * Periodic Binding transactions towards one server, created by
+ * {@link BindingMonitor#watch(InetSocketAddress, long, BindingListener)}.
+ * 
+ * The watch follows the demand of its listener, as a reactive-streams subscription: a transaction
+ * is started only when results are requested and the previous transaction is over. A listener
+ * that falls behind pauses the transactions of its target instead of queuing results.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class BindingWatch {
+
+  /**
+   * Binding request of every probe, encoded once.
+   */
+  private static final MessageTemplate REQUEST = bindingRequest();
+
+  private final BindingMonitor monitor;
+
+  private final InetSocketAddress target;
+
+  private final long intervalNanos;
+
+  private final BindingListener listener;
+
+  private final AtomicLong demand = new AtomicLong();
+
+  private final AtomicBoolean done = new AtomicBoolean();
+
+  /**
+   * Serializes the signals to the listener.
+   */
+  private final ReentrantLock signal = new ReentrantLock();
+
+  private volatile boolean inFlight = false;
+
+  /**
+   * Time of the next transaction, by {@link System#nanoTime()}. Written by the tick only.
+   */
+  private volatile long nextDue;
+
+  /**
+   * Last mapped address, guarded by the signal lock.
+   */
+  private InetSocketAddress lastMapped = null;
+
+  BindingWatch(BindingMonitor monitor, InetSocketAddress target, long intervalMillis,
+      BindingListener listener) {
+    super();
+
+    this.monitor = monitor;
+    this.target = target;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.listener = listener;
+    this.nextDue = System.nanoTime();
+  }
+
+  public InetSocketAddress getTarget() {
+    return target;
+  }
+
+  /**
+   * @return number of results requested and not delivered yet
+   */
+  public long getDemand() {
+    return demand.get();
+  }
+
+  /**
+   * @return <code>true</code> after cancel, error or completion
+   */
+  public boolean isDone() {
+    return done.get();
+  }
+
+  /**
+   * Request more results. {@link Long#MAX_VALUE} requests an unbounded stream.
+   * 
+   * @param n number of results, greater than 0
+   */
+  public void request(long n) {
+
+    if (n <= 0L) {
+      error(new IllegalArgumentException("non-positive request: " + n));
+
+      return;
+    }
+
+    long current;
+    long next;
+
+    do {
+      current = demand.get();
+      next = current + n;
+
+      // saturate on overflow
+      if (next < 0L) {
+        next = Long.MAX_VALUE;
+      }
+    }
+    while (!demand.compareAndSet(current, next));
+  }
+
+  /**
+   * Stop the transactions. No signal follows, except a result already being delivered.
+   */
+  public void cancel() {
+    if (done.compareAndSet(false, true)) {
+      monitor.remove(this);
+    }
+  }
+
+  /**
+   * @param now current time, by {@link System#nanoTime()}
+   * 
+   * @return <code>true</code> if a transaction must start now
+   */
+  boolean isDue(long now) {
+    return !inFlight && !done.get() && demand.get() > 0L && now - nextDue >= 0L;
+  }
+
+  /**
+   * Start a transaction. Called by the tick of the monitor.
+   */
+  void probe(AsyncStunTransporter transporter, long now) {
+    inFlight = true;
+    nextDue = now + intervalNanos;
+
+    transporter.doBindAsync(REQUEST, target)
+        .whenComplete((response, failure) -> complete(response, failure, now));
+  }
+
+  private void complete(Message response, Throwable failure, long start) {
+    final long rtt = System.nanoTime() - start;
+
+    Throwable cause = failure;
+
+    if (cause instanceof CompletionException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+
+    // the transporter is gone: the watch cannot go on
+    if (cause instanceof ClosedChannelException) {
+      inFlight = false;
+      error(cause);
+
+      return;
+    }
+
+    InetSocketAddress mapped = null;
+    IOException error = null;
+
+    if (cause != null) {
+      error = (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+    }
+    else {
+      try {
+        mapped = XorMappedAddress.fromResponse(response);
+      }
+      catch (IOException e) {
+        error = e;
+      }
+    }
+
+    signal.lock();
+    try {
+      if (!done.get()) {
+        final boolean changed = mapped != null && lastMapped != null && !mapped.equals(lastMapped);
+
+        if (mapped != null) {
+          lastMapped = mapped;
+        }
+
+        if (demand.get() != Long.MAX_VALUE) {
+          demand.decrementAndGet();
+        }
+
+        listener.onResult(new BindingResult(target, mapped, error, rtt, changed));
+      }
+    }
+    catch (RuntimeException e) {
+      error(e);
+    }
+    finally {
+      inFlight = false;
+
+      signal.unlock();
+    }
+  }
+
+  private static MessageTemplate bindingRequest() {
+
+    try {
+      return new MessageTemplate(new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST)));
+    }
+    catch (IOException e) {
+      // a header without attributes always fits
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * End the watch with {@link BindingListener#onComplete()}.
+   */
+  void complete() {
+    if (done.compareAndSet(false, true)) {
+      signal.lock();
+      try {
+        listener.onComplete();
+      }
+      finally {
+        signal.unlock();
+      }
+    }
+  }
+
+  /**
+   * End the watch with {@link BindingListener#onError(Throwable)}.
+   */
+  void error(Throwable cause) {
+    if (done.compareAndSet(false, true)) {
+      monitor.remove(this);
+
+      signal.lock();
+      try {
+        listener.onError(cause);
+      }
+      finally {
+        signal.unlock();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,319 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.nat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * Discovery of the public mapping of a local socket with several STUN servers at once.
+ * 
+ * The Binding requests go to all the servers together from the single socket of an
+ * {@link AsyncStunTransporter}, so every server sees the same mapping. The discovery ends as soon
+ * as <code>quorum</code> servers report the same XOR-MAPPED-ADDRESS: the transactions still
+ * running are cancelled. It fails as soon as the quorum cannot be reached any more, for example
+ * behind a NAT that maps every destination to a different port.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class MappingDiscovery {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, MappingDiscovery.class);
+
+  private final AsyncStunTransporter transporter;
+
+  /**
+   * @param transporter transporter of the requests; its local socket is the one discovered
+   */
+  public MappingDiscovery(AsyncStunTransporter transporter) {
+    super();
+
+    this.transporter = transporter;
+  }
+
+  /**
+   * Blocking form of {@link #discoverAsync(List, int)}.
+   * 
+   * @param servers STUN servers
+   * @param quorum number of servers that must agree
+   * 
+   * @return the mapping
+   * 
+   * @throws IOException if the quorum is not reached
+   */
+  public MappingResult discover(List<InetSocketAddress> servers, int quorum) throws IOException {
+
+    try {
+      return discoverAsync(servers, quorum).get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new IOException("interrupted", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Send a Binding request to every server at once.
+   * 
+   * @param servers STUN servers
+   * @param quorum number of servers that must agree, between 1 and the number of servers
+   * 
+   * @return future completed with the mapping, or exceptionally with an {@link IOException} when
+   *         the quorum cannot be reached
+   */
+  public CompletableFuture<MappingResult> discoverAsync(List<InetSocketAddress> servers,
+      int quorum) {
+
+    if (quorum < 1 || quorum > servers.size()) {
+      throw new IllegalArgumentException(
+          "quorum " + quorum + " out of range for " + servers.size() + " servers");
+    }
+
+    final Round round = new Round(servers.size(), quorum);
+
+    for (InetSocketAddress server : servers) {
+
+      if (server.isUnresolved()) {
+        round.onFailure(server, new IOException("Unresolved server " + server));
+        continue;
+      }
+
+      final Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      request.getHeader().randomTransactionId();
+
+      final CompletableFuture<Message> transaction = transporter.doBindAsync(request, server);
+
+      if (!round.add(transaction)) {
+        // already decided by the previous servers
+        transaction.cancel(false);
+        break;
+      }
+
+      transaction.whenComplete((response, failure) -> {
+        if (failure != null) {
+          round.onFailure(server, failure);
+        }
+        else {
+          round.onResponse(server, response);
+        }
+      });
+    }
+
+    return round.result;
+  }
+
+  /**
+   * State of one discovery.
+   */
+  private static final class Round {
+
+    final CompletableFuture<MappingResult> result = new CompletableFuture<>();
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final long start = System.nanoTime();
+
+    final int servers;
+
+    final int quorum;
+
+    final List<CompletableFuture<Message>> transactions = new ArrayList<>();
+
+    final Map<InetSocketAddress, List<InetSocketAddress>> votes = new HashMap<>();
+
+    int responses = 0;
+
+    int failures = 0;
+
+    /**
+     * The discovery is decided: the outcome is set once the other transactions are cancelled.
+     */
+    boolean done = false;
+
+    Round(int servers, int quorum) {
+      super();
+
+      this.servers = servers;
+      this.quorum = quorum;
+    }
+
+    /**
+     * @return <code>false</code> if the discovery is over
+     */
+    boolean add(CompletableFuture<Message> transaction) {
+      lock.lock();
+      try {
+        if (done) {
+          return false;
+        }
+
+        transactions.add(transaction);
+
+        return true;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    void onResponse(InetSocketAddress server, Message response) {
+      final InetSocketAddress mapped;
+
+      try {
+        mapped = XorMappedAddress.fromResponse(response);
+      }
+      catch (IOException e) {
+        onFailure(server, e);
+
+        return;
+      }
+
+      MappingResult decided = null;
+      IOException failed = null;
+
+      lock.lock();
+      try {
+        if (done) {
+          return;
+        }
+
+        responses++;
+
+        final List<InetSocketAddress> agreeing =
+            votes.computeIfAbsent(mapped, key -> new ArrayList<>());
+        agreeing.add(server);
+
+        if (agreeing.size() >= quorum) {
+          done = true;
+          decided = new MappingResult(mapped, new ArrayList<>(agreeing), responses,
+              System.nanoTime() - start);
+        }
+        else {
+          failed = checkReachable();
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+
+      if (decided != null) {
+        cancelAll();
+        result.complete(decided);
+      }
+      else if (failed != null) {
+        cancelAll();
+        result.completeExceptionally(failed);
+      }
+    }
+
+    void onFailure(InetSocketAddress server, Throwable failure) {
+      IOException failed;
+
+      lock.lock();
+      try {
+        if (done) {
+          return;
+        }
+
+        failures++;
+
+        failed = checkReachable();
+      }
+      finally {
+        lock.unlock();
+      }
+
+      LOGGER.logDebug("Binding to %s failed: %s", server, failure);
+
+      if (failed != null) {
+        cancelAll();
+        result.completeExceptionally(failed);
+      }
+    }
+
+    /**
+     * Decide the failure of the discovery if the servers still running cannot make a quorum.
+     * Called under the lock.
+     * 
+     * @return the failure, null if the quorum is still reachable
+     */
+    private IOException checkReachable() {
+      final int pending = servers - responses - failures;
+
+      int best = 0;
+
+      for (List<InetSocketAddress> agreeing : votes.values()) {
+        best = Math.max(best, agreeing.size());
+      }
+
+      if (best + pending >= quorum) {
+        return null;
+      }
+
+      done = true;
+
+      return new IOException("No quorum of " + quorum + " on the mapping: " + votes.keySet()
+          + " from " + responses + " responses, " + failures + " failures");
+    }
+
+    /**
+     * Cancel the transactions still running, before the outcome is visible to the caller.
+     */
+    private void cancelAll() {
+      final List<CompletableFuture<Message>> running;
+
+      lock.lock();
+      try {
+        running = new ArrayList<>(transactions);
+      }
+      finally {
+        lock.unlock();
+      }
+
+      for (CompletableFuture<Message> transaction : running) {
+        transaction.cancel(false);
+      }
+    }
+
+  }
+
+}
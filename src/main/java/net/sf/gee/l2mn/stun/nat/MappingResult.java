@@ -0,0 +1,83 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.nat;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Public mapping agreed by a quorum of STUN servers, see {@link MappingDiscovery}.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class MappingResult {
+
+  private final InetSocketAddress mappedAddress;
+
+  private final List<InetSocketAddress> servers;
+
+  private final int responses;
+
+  private final long elapsedNanos;
+
+  MappingResult(InetSocketAddress mappedAddress, List<InetSocketAddress> servers, int responses,
+      long elapsedNanos) {
+    super();
+
+    this.mappedAddress = mappedAddress;
+    this.servers = Collections.unmodifiableList(servers);
+    this.responses = responses;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * @return the public address and port of the local socket
+   */
+  public InetSocketAddress getMappedAddress() {
+    return mappedAddress;
+  }
+
+  /**
+   * @return the servers that reported the mapping
+   */
+  public List<InetSocketAddress> getServers() {
+    return servers;
+  }
+
+  /**
+   * @return number of responses received before the quorum, agreeing or not
+   */
+  public int getResponses() {
+    return responses;
+  }
+
+  /**
+   * @return time from the first request to the quorum, in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "MappingResult [mappedAddress=" + mappedAddress + ", servers=" + servers
+        + ", responses=" + responses + ", elapsedNanos=" + elapsedNanos + "]";
+  }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.nat;
+
+import java.net.InetSocketAddress;
+
+/**
+ * NAT mapping and filtering behavior found by {@link NatBehaviorDiscovery}, as defined by RFC-4787
+ * and classified with the tests of RFC-5780 section 4.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class NatBehavior {
+
+  /**
+   * Mapping behavior, RFC-5780 section 4.3.
+   */
+  public enum Mapping {
+    /**
+     * The mapped address is a local address: no NAT.
+     */
+    NO_NAT,
+    /**
+     * The same mapping is reused for every destination.
+     */
+    ENDPOINT_INDEPENDENT,
+    /**
+     * The same mapping is reused for the same destination IP address.
+     */
+    ADDRESS_DEPENDENT,
+    /**
+     * The same mapping is reused only for the same destination IP address and port.
+     */
+    ADDRESS_AND_PORT_DEPENDENT,
+    /**
+     * The server does not support RFC-5780 or a test failed.
+     */
+    UNKNOWN
+  }
+
+  /**
+   * Filtering behavior, RFC-5780 section 4.4.
+   */
+  public enum Filtering {
+    /**
+     * Packets from any address reach the mapping.
+     */
+    ENDPOINT_INDEPENDENT,
+    /**
+     * Only packets from the IP addresses already contacted reach the mapping.
+     */
+    ADDRESS_DEPENDENT,
+    /**
+     * Only packets from the IP addresses and ports already contacted reach the mapping.
+     */
+    ADDRESS_AND_PORT_DEPENDENT,
+    /**
+     * The server does not support RFC-5780 or a test failed.
+     */
+    UNKNOWN
+  }
+
+  private final Mapping mapping;
+
+  private final Filtering filtering;
+
+  private final InetSocketAddress mappedAddress;
+
+  private final InetSocketAddress otherAddress;
+
+  private final long elapsedNanos;
+
+  NatBehavior(Mapping mapping, Filtering filtering, InetSocketAddress mappedAddress,
+      InetSocketAddress otherAddress, long elapsedNanos) {
+    super();
+
+    this.mapping = mapping;
+    this.filtering = filtering;
+    this.mappedAddress = mappedAddress;
+    this.otherAddress = otherAddress;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  public Mapping getMapping() {
+    return mapping;
+  }
+
+  public Filtering getFiltering() {
+    return filtering;
+  }
+
+  /**
+   * @return mapped address of the first test, on the primary address of the server
+   */
+  public InetSocketAddress getMappedAddress() {
+    return mappedAddress;
+  }
+
+  /**
+   * @return OTHER-ADDRESS of the server, null if the server does not support RFC-5780
+   */
+  public InetSocketAddress getOtherAddress() {
+    return otherAddress;
+  }
+
+  /**
+   * @return duration of the whole classification, in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "NatBehavior [mapping=" + mapping + ", filtering=" + filtering + ", mappedAddress="
+        + mappedAddress + ", otherAddress=" + otherAddress + ", elapsedNanos=" + elapsedNanos
+        + "]";
+  }
+
+}
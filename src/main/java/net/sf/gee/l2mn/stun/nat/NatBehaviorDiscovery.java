@@ -0,0 +1,394 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.nat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.ChangeRequest;
+import net.sf.gee.l2mn.stun.message.attribute.MappedAddress;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * NAT behavior discovery, RFC-5780 section 4.
+ * 
+ * The tests of the RFC flowchart do not wait for each other when they are independent:
+ * <ul>
+ * <li>mapping test I and filtering tests II and III start together, all sent to the primary
+ * address of the server;</li>
+ * <li>mapping tests II and III start together as soon as test I returns the OTHER-ADDRESS.</li>
+ * </ul>
+ * The filtering tests run on their own local socket, so that the mapping tests sent to the
+ * alternate address of the server do not open the NAT filter for them. A whole classification
+ * then takes about one filtering timeout, given by the {@link RetransmissionPolicy} of the
+ * filtering transporter, instead of a sequence of timeouts.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class NatBehaviorDiscovery implements Closeable {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, NatBehaviorDiscovery.class);
+
+  /**
+   * Policy of the filtering tests: a missing response is an expected answer, not a failure, so
+   * there is no reason to wait the 39.5 seconds of the default policy.
+   */
+  public static final RetransmissionPolicy FILTERING_POLICY = new RetransmissionPolicy(500, 2, 2);
+
+  private final AsyncStunTransporter mapping;
+
+  private final AsyncStunTransporter filtering;
+
+  private final boolean owned;
+
+  /**
+   * Create the mapping and filtering transporters on ephemeral local ports.
+   * 
+   * @throws IOException
+   */
+  public NatBehaviorDiscovery() throws IOException {
+    super();
+
+    this.mapping = new AsyncStunTransporter(null, null);
+
+    try {
+      this.filtering = new AsyncStunTransporter(null, null);
+    }
+    catch (IOException e) {
+      mapping.close();
+
+      throw e;
+    }
+
+    this.filtering.setRetransmissionPolicy(FILTERING_POLICY);
+    this.owned = true;
+  }
+
+  /**
+   * @param mapping transporter of the mapping tests
+   * @param filtering transporter of the filtering tests, on another local socket
+   */
+  public NatBehaviorDiscovery(AsyncStunTransporter mapping, AsyncStunTransporter filtering) {
+    super();
+
+    if (mapping == filtering) {
+      throw new IllegalArgumentException("mapping and filtering tests need two sockets");
+    }
+
+    this.mapping = mapping;
+    this.filtering = filtering;
+    this.owned = false;
+  }
+
+  /**
+   * Blocking form of {@link #discoverAsync(InetSocketAddress)}.
+   * 
+   * @param server primary address of the server
+   * 
+   * @return the behavior
+   * 
+   * @throws IOException if the server does not answer
+   */
+  public NatBehavior discover(InetSocketAddress server) throws IOException {
+
+    try {
+      return discoverAsync(server).get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new IOException("interrupted", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Run the mapping and filtering tests against a server.
+   * 
+   * @param server primary address of the server
+   * 
+   * @return future completed with the behavior, or exceptionally with an {@link IOException} when
+   *         the server does not answer the first test
+   */
+  public CompletableFuture<NatBehavior> discoverAsync(InetSocketAddress server) {
+
+    final CompletableFuture<NatBehavior> result = new CompletableFuture<>();
+
+    if (server.isUnresolved()) {
+      result.completeExceptionally(new IOException("Unresolved server " + server));
+
+      return result;
+    }
+
+    final long start = System.nanoTime();
+
+    final CompletableFuture<Message> primary = mapping.doBindAsync(bindingRequest(null), server);
+    final CompletableFuture<Message> changeBoth =
+        filtering.doBindAsync(bindingRequest(new ChangeRequest(true, true)), server, true);
+    final CompletableFuture<Message> changePort =
+        filtering.doBindAsync(bindingRequest(new ChangeRequest(false, true)), server, true);
+
+    primary.whenComplete((response, failure) -> {
+
+      final InetSocketAddress mapped = (failure == null) ? mappedAddress(response) : null;
+
+      if (mapped == null) {
+        changeBoth.cancel(false);
+        changePort.cancel(false);
+
+        result.completeExceptionally((failure instanceof IOException) ? failure
+            : new IOException("No mapping from " + server, failure));
+
+        return;
+      }
+
+      final InetSocketAddress other = address(response, MessageAttributeType.OTHER_ADDRESS);
+
+      mappingTests(server, mapped, other)
+          .thenCombine(filteringTests(server, other, changeBoth, changePort),
+              (m, f) -> new NatBehavior(m, f, mapped, other, System.nanoTime() - start))
+          .whenComplete((behavior, error) -> {
+            if (error != null) {
+              result.completeExceptionally(error);
+            }
+            else {
+              result.complete(behavior);
+            }
+          });
+    });
+
+    return result;
+  }
+
+  /**
+   * Mapping tests II and III, sent together.
+   */
+  private CompletableFuture<NatBehavior.Mapping> mappingTests(InetSocketAddress server,
+      InetSocketAddress mapped, InetSocketAddress other) {
+
+    if (isLocal(mapped)) {
+      return CompletableFuture.completedFuture(NatBehavior.Mapping.NO_NAT);
+    }
+
+    if (other == null) {
+      return CompletableFuture.completedFuture(NatBehavior.Mapping.UNKNOWN);
+    }
+
+    final CompletableFuture<Message> alternateIp = mapping.doBindAsync(bindingRequest(null),
+        new InetSocketAddress(other.getAddress(), server.getPort()));
+    final CompletableFuture<Message> alternateBoth =
+        mapping.doBindAsync(bindingRequest(null), other);
+
+    return alternateIp.thenCombine(alternateBoth, (second, third) -> {
+      final InetSocketAddress mapped2 = mappedAddress(second);
+      final InetSocketAddress mapped3 = mappedAddress(third);
+
+      if (mapped2 == null || mapped3 == null) {
+        return NatBehavior.Mapping.UNKNOWN;
+      }
+      else if (mapped2.equals(mapped)) {
+        return NatBehavior.Mapping.ENDPOINT_INDEPENDENT;
+      }
+      else if (mapped3.equals(mapped2)) {
+        return NatBehavior.Mapping.ADDRESS_DEPENDENT;
+      }
+
+      return NatBehavior.Mapping.ADDRESS_AND_PORT_DEPENDENT;
+    }).exceptionally(error -> {
+      LOGGER.logDebug("Mapping tests with %s failed: %s", other, error);
+
+      return NatBehavior.Mapping.UNKNOWN;
+    });
+  }
+
+  /**
+   * Filtering tests II and III, already running since the start of the discovery.
+   */
+  private static CompletableFuture<NatBehavior.Filtering> filteringTests(InetSocketAddress server,
+      InetSocketAddress other, CompletableFuture<Message> changeBoth,
+      CompletableFuture<Message> changePort) {
+
+    if (other == null) {
+      changeBoth.cancel(false);
+      changePort.cancel(false);
+
+      return CompletableFuture.completedFuture(NatBehavior.Filtering.UNKNOWN);
+    }
+
+    final CompletableFuture<Answer> testII =
+        changeBoth.handle((response, error) -> answer(server, true, response, error));
+
+    return testII.thenCompose(both -> {
+
+      if (both == Answer.RESPONSE) {
+        // no need to wait for test III
+        changePort.cancel(false);
+
+        return CompletableFuture.completedFuture(NatBehavior.Filtering.ENDPOINT_INDEPENDENT);
+      }
+
+      return changePort.handle((response, error) -> {
+        final Answer port = answer(server, false, response, error);
+
+        if (both == Answer.TIMEOUT && port == Answer.RESPONSE) {
+          return NatBehavior.Filtering.ADDRESS_DEPENDENT;
+        }
+        else if (both == Answer.TIMEOUT && port == Answer.TIMEOUT) {
+          return NatBehavior.Filtering.ADDRESS_AND_PORT_DEPENDENT;
+        }
+
+        return NatBehavior.Filtering.UNKNOWN;
+      });
+    });
+  }
+
+  /**
+   * Outcome of a filtering test.
+   */
+  private enum Answer {
+    RESPONSE, TIMEOUT, INVALID
+  }
+
+  /**
+   * @param server primary address of the server
+   * @param changeIp the test asked to change IP and port, otherwise only the port
+   */
+  private static Answer answer(InetSocketAddress server, boolean changeIp, Message response,
+      Throwable error) {
+
+    if (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+
+    if (error instanceof SocketTimeoutException) {
+      return Answer.TIMEOUT;
+    }
+
+    if (error != null || mappedAddress(response) == null) {
+      return Answer.INVALID;
+    }
+
+    // a server that ignores CHANGE-REQUEST answers from the primary address
+    final InetSocketAddress origin = address(response, MessageAttributeType.RESPONSE_ORIGIN);
+
+    if (origin == null || origin.getPort() == server.getPort()
+        || changeIp == origin.getAddress().equals(server.getAddress())) {
+      return Answer.INVALID;
+    }
+
+    return Answer.RESPONSE;
+  }
+
+  /**
+   * @return <code>true</code> if the address is the local address of the mapping socket
+   */
+  private boolean isLocal(InetSocketAddress mapped) {
+
+    try {
+      final InetSocketAddress local = mapping.getLocalAddress();
+
+      if (local.getPort() != mapped.getPort()) {
+        return false;
+      }
+
+      return local.getAddress().equals(mapped.getAddress())
+          || (local.getAddress().isAnyLocalAddress()
+              && NetworkInterface.getByInetAddress(mapped.getAddress()) != null);
+    }
+    catch (IOException e) {
+      LOGGER.logError(e);
+
+      return false;
+    }
+  }
+
+  private static Message bindingRequest(ChangeRequest change) {
+    final Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    request.getHeader().randomTransactionId();
+
+    if (change != null) {
+      request.addAttribute(change);
+    }
+
+    return request;
+  }
+
+  /**
+   * @return XOR-MAPPED-ADDRESS of a success response, null if missing
+   */
+  private static InetSocketAddress mappedAddress(Message response) {
+
+    try {
+      return XorMappedAddress.fromResponse(response);
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return address of an attribute with the MAPPED-ADDRESS format, null if missing
+   */
+  private static InetSocketAddress address(Message response, MessageAttributeType type) {
+    final MappedAddress attribute = (MappedAddress) response.getAttribute(type);
+
+    return (attribute == null) ? null : attribute.getSocketAddress();
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+
+    if (!owned) {
+      return;
+    }
+
+    try {
+      mapping.close();
+    }
+    finally {
+      filtering.close();
+    }
+  }
+
+}
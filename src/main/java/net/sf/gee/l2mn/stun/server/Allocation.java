@@ -0,0 +1,249 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.DatagramChannel;
+
+import net.sf.gee.l2mn.stun.util.CredentialKey;
+import net.sf.gee.l2mn.stun.util.LongMap;
+
+/**
+ * Allocation of {@link TurnServer} (RFC-5766 section 5): relayed transport address, permissions
+ * and channels of one client 5-tuple.
+ * 
+ * The permissions are keyed by the IPv4 address of the peer, the channels by the peer address and
+ * port packed in a <code>long</code> (see {@link #peerKey(int, int)}) and by the channel number.
+ * An allocation is confined to the event loop of the server.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+final class Allocation {
+
+  final InetSocketAddress client;
+
+  final long keyHigh;
+
+  final int keyLow;
+
+  final DatagramChannel relay;
+
+  final InetSocketAddress relayAddress;
+
+  final String username;
+
+  final CredentialKey credential;
+
+  /**
+   * Transaction id of the Allocate request, to answer its retransmissions.
+   */
+  final long txHigh;
+
+  final int txLow;
+
+  /**
+   * Lifetime granted by the Allocate response, in seconds.
+   */
+  final long lifetime;
+
+  final LongMap<Permission> permissions = new LongMap<>(4);
+
+  final LongMap<ChannelBinding> channelsByPeer = new LongMap<>(4);
+
+  final LongMap<ChannelBinding> channelsByNumber = new LongMap<>(4);
+
+  /**
+   * Expiration time, in milliseconds.
+   */
+  long expiration = 0L;
+
+  /**
+   * Position in the list of the allocations of the server.
+   */
+  int index = -1;
+
+  /**
+   * @param client client transport address
+   * @param keyHigh 5-tuple, first part
+   * @param keyLow 5-tuple, second part
+   * @param relay relay socket
+   * @param relayAddress relayed transport address
+   * @param username username of the long-term credentials
+   * @param credential key of the long-term credentials
+   * @param txHigh transaction id of the Allocate request, first 8 bytes
+   * @param txLow transaction id of the Allocate request, last 4 bytes
+   * @param lifetime granted lifetime, in seconds
+   */
+  Allocation(InetSocketAddress client, long keyHigh, int keyLow, DatagramChannel relay,
+      InetSocketAddress relayAddress, String username, CredentialKey credential, long txHigh,
+      int txLow, long lifetime) {
+    super();
+
+    this.client = client;
+    this.keyHigh = keyHigh;
+    this.keyLow = keyLow;
+    this.relay = relay;
+    this.relayAddress = relayAddress;
+    this.username = username;
+    this.credential = credential;
+    this.txHigh = txHigh;
+    this.txLow = txLow;
+    this.lifetime = lifetime;
+  }
+
+  /**
+   * @return <code>true</code> if the transaction id is the one of the Allocate request
+   */
+  boolean isAllocateTransaction(long high, int low) {
+    return txHigh == high && txLow == low;
+  }
+
+  /**
+   * @param peerAddress IPv4 address of the peer
+   * @param now current time, in milliseconds
+   * 
+   * @return <code>true</code> if a permission of the peer is installed and not expired
+   */
+  boolean isPermitted(int peerAddress, long now) {
+    final Permission permission = permissions.get(peerAddress & 0xFFFFFFFFL);
+
+    return permission != null && permission.expiration > now;
+  }
+
+  /**
+   * Install or refresh the permission of a peer.
+   */
+  void permit(int peerAddress, long expiration) {
+    final Permission permission = permissions.get(peerAddress & 0xFFFFFFFFL);
+
+    if (permission == null) {
+      permissions.put(peerAddress & 0xFFFFFFFFL, new Permission(expiration));
+    }
+    else {
+      permission.expiration = expiration;
+    }
+  }
+
+  /**
+   * Remove the expired permissions and channels.
+   */
+  void purge(long now) {
+    permissions.removeIf(p -> p.expiration <= now);
+
+    if (channelsByNumber.removeIf(c -> c.expiration <= now) > 0) {
+      channelsByPeer.removeIf(c -> c.expiration <= now);
+    }
+  }
+
+  /**
+   * First part of the 5-tuple key: client address, client port and server port. The second part
+   * is the server address, the protocol is always UDP.
+   * 
+   * @param address client IPv4 address
+   * @param port client port
+   * @param serverPort server port
+   * 
+   * @return client address and ports packed in a long
+   */
+  static long keyHigh(int address, int port, int serverPort) {
+    return ((address & 0xFFFFFFFFL) << 32) | ((port & 0xFFFFL) << 16) | (serverPort & 0xFFFFL);
+  }
+
+  /**
+   * @param address peer IPv4 address
+   * @param port peer port
+   * 
+   * @return address and port packed in a long
+   */
+  static long peerKey(int address, int port) {
+    return ((address & 0xFFFFFFFFL) << 16) | (port & 0xFFFFL);
+  }
+
+  /**
+   * IPv4 address as an int, in network byte order, from {@link InetAddress#getAddress()}. The
+   * tables keep the int computed when the allocation or the binding is created; on the relay path
+   * it is computed once per datagram, the array does not escape.
+   * 
+   * @param address IPv4 address
+   * 
+   * @return address as an int
+   */
+  static int ipv4(InetAddress address) {
+    final byte[] bytes = address.getAddress();
+
+    return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8)
+        | (bytes[3] & 0xFF);
+  }
+
+  /**
+   * Inverse of {@link #ipv4(InetAddress)}.
+   * 
+   * @param address address as an int, in network byte order
+   * 
+   * @return IPv4 address
+   * 
+   * @throws UnknownHostException never, the array has 4 bytes
+   */
+  static InetAddress ipv4(int address) throws UnknownHostException {
+    return InetAddress.getByAddress(new byte[] {(byte) (address >>> 24), (byte) (address >>> 16),
+        (byte) (address >>> 8), (byte) address});
+  }
+
+  /**
+   * Permission of a peer address (RFC-5766 section 8).
+   */
+  static final class Permission {
+
+    long expiration;
+
+    Permission(long expiration) {
+      super();
+
+      this.expiration = expiration;
+    }
+  }
+
+  /**
+   * Channel bound to a peer transport address (RFC-5766 section 11).
+   */
+  static final class ChannelBinding {
+
+    final int channel;
+
+    final InetSocketAddress peer;
+
+    final int peerAddress;
+
+    final long peerKey;
+
+    long expiration;
+
+    ChannelBinding(int channel, InetSocketAddress peer, int peerAddress, long expiration) {
+      super();
+
+      this.channel = channel;
+      this.peer = peer;
+      this.peerAddress = peerAddress;
+      this.peerKey = peerKey(peerAddress, peer.getPort());
+      this.expiration = expiration;
+    }
+  }
+
+}
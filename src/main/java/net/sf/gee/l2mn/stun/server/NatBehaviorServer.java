@@ -0,0 +1,346 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.ChangeRequest;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.message.attribute.MappedAddress;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.util.BufferPool;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * STUN Binding server for NAT behavior discovery on UDP (RFC-5780 section 6).
+ * 
+ * The server listens on two IP addresses and two ports, that is four {@link DatagramChannel}s
+ * served by a single selector loop. A Binding request is answered like {@link StunServer} does,
+ * plus RESPONSE-ORIGIN and OTHER-ADDRESS, from the channel selected by the CHANGE-REQUEST flags
+ * of the request. The response is encoded directly in the send buffer, with no
+ * {@link net.sf.gee.l2mn.stun.message.Message} object.
+ * 
+ * The channels are indexed by <code>(ip &lt;&lt; 1) | port</code>, so that a change of IP or port
+ * is a flip of one bit of the index.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class NatBehaviorServer implements Closeable {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, NatBehaviorServer.class);
+
+  private static final int CHANGE_IP = 0x02;
+
+  private static final int CHANGE_PORT = 0x01;
+
+  private final DatagramChannel[] channels = new DatagramChannel[4];
+
+  private final InetSocketAddress[] addresses = new InetSocketAddress[4];
+
+  private final Selector selector;
+
+  private final BufferPool pool;
+
+  private final LongAdder requests = new LongAdder();
+
+  private final LongAdder responses = new LongAdder();
+
+  private volatile boolean closed = false;
+
+  private Thread thread = null;
+
+  /**
+   * @param primary primary address and port
+   * @param alternate alternate address and port; the port can be 0 for an ephemeral one
+   * 
+   * @throws IOException
+   */
+  public NatBehaviorServer(InetSocketAddress primary, InetSocketAddress alternate)
+      throws IOException {
+    this(primary, alternate, BufferPool.DEFAULT_DIRECT);
+  }
+
+  /**
+   * @param primary primary address and port
+   * @param alternate alternate address and port; the port can be 0 for an ephemeral one
+   * @param pool pool of the receive and send buffers
+   * 
+   * @throws IOException
+   */
+  public NatBehaviorServer(InetSocketAddress primary, InetSocketAddress alternate,
+      BufferPool pool) throws IOException {
+    super();
+
+    if (primary.getAddress().equals(alternate.getAddress())) {
+      throw new IllegalArgumentException("primary and alternate addresses must differ");
+    }
+
+    this.pool = pool;
+    this.selector = Selector.open();
+
+    try {
+      bind(0, primary);
+      bind(CHANGE_IP | CHANGE_PORT, alternate);
+
+      final int primaryPort = addresses[0].getPort();
+      final int alternatePort = addresses[CHANGE_IP | CHANGE_PORT].getPort();
+
+      if (primaryPort == alternatePort) {
+        throw new IllegalArgumentException("primary and alternate ports must differ");
+      }
+
+      bind(CHANGE_PORT, new InetSocketAddress(primary.getAddress(), alternatePort));
+      bind(CHANGE_IP, new InetSocketAddress(alternate.getAddress(), primaryPort));
+    }
+    catch (IOException | RuntimeException e) {
+      close();
+
+      throw e;
+    }
+  }
+
+  private void bind(int index, InetSocketAddress address) throws IOException {
+    final DatagramChannel channel = DatagramChannel.open();
+    channels[index] = channel;
+
+    channel.bind(address);
+    channel.configureBlocking(false);
+    channel.register(selector, SelectionKey.OP_READ, Integer.valueOf(index));
+
+    addresses[index] = (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  /**
+   * Start the selector loop.
+   */
+  public synchronized void start() {
+
+    if (thread != null) {
+      return;
+    }
+
+    thread = new Thread(this::run, "stun-behavior-server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return primary address and port, where the clients send the first request
+   */
+  public InetSocketAddress getPrimaryAddress() {
+    return addresses[0];
+  }
+
+  /**
+   * @return alternate address and port, the OTHER-ADDRESS of the primary
+   */
+  public InetSocketAddress getAlternateAddress() {
+    return addresses[CHANGE_IP | CHANGE_PORT];
+  }
+
+  /**
+   * @return number of Binding requests received
+   */
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /**
+   * @return number of Binding responses sent
+   */
+  public long getResponseCount() {
+    return responses.sum();
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public synchronized void close() throws IOException {
+
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    selector.wakeup();
+
+    if (thread != null) {
+      try {
+        thread.join(1000);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    selector.close();
+
+    for (DatagramChannel current : channels) {
+      if (current != null) {
+        current.close();
+      }
+    }
+  }
+
+  /**
+   * @param request view over the request
+   * 
+   * @return index of the channel that answers the request received on <code>index</code>
+   */
+  static int responseIndex(MessageView request, int index) {
+    final int attr = request.findAttribute(MessageAttributeType.CHANGE_ADDRES.getCode());
+
+    if (attr < 0 || request.getAttributeLength(attr) != 4) {
+      return index;
+    }
+
+    final int flags = request.getBuffer().get(request.getAttributeValueOffset(attr) + 3);
+
+    return index ^ (((flags & ChangeRequest.CHANGE_IP) != 0) ? CHANGE_IP : 0)
+        ^ (((flags & ChangeRequest.CHANGE_PORT) != 0) ? CHANGE_PORT : 0);
+  }
+
+  /**
+   * Encode the Binding success response of the request wrapped by the view.
+   * 
+   * @param request view over the request
+   * @param source source address of the request
+   * @param origin address the response is sent from
+   * @param other address with both IP and port different from the receiving one
+   * @param out destination buffer, cleared
+   * 
+   * @throws IOException
+   */
+  static void encodeBindingResponse(MessageView request, InetSocketAddress source,
+      InetSocketAddress origin, InetSocketAddress other, ByteBuffer out) throws IOException {
+
+    final long txHigh = request.getTransactionIdHigh();
+    final int txLow = request.getTransactionIdLow();
+    final boolean fingerprint =
+        request.findAttribute(MessageAttributeType.FINGERPRINT.getCode()) >= 0;
+
+    out.putShort((short) MessageTypeEnum.BINDINGRESPONSE.getValue());
+    out.putShort((short) 0);
+    out.putInt((int) MessageHeader.MAGIC_COOKIE);
+    out.putLong(txHigh);
+    out.putInt(txLow);
+
+    XorMappedAddress.encode(out, MessageAttributeType.XOR_MAPPED_ADDRESS.getCode(),
+        source.getAddress(), source.getPort(), txHigh, txLow);
+    MappedAddress.encode(out, MessageAttributeType.RESPONSE_ORIGIN.getCode(),
+        origin.getAddress(), origin.getPort());
+    MappedAddress.encode(out, MessageAttributeType.OTHER_ADDRESS.getCode(), other.getAddress(),
+        other.getPort());
+
+    if (fingerprint) {
+      final int attr = out.position();
+
+      out.putShort(2, (short) (attr + FingerPrint.ENCODED_LENGTH - MessageHeader.HEADER_LENGTH));
+      out.putShort((short) MessageAttributeType.FINGERPRINT.getCode());
+      out.putShort((short) 4);
+      out.putInt((int) (FingerPrint.compute(out, 0, attr) ^ FingerPrint.XOR_VALUE));
+    }
+    else {
+      out.putShort(2, (short) (out.position() - MessageHeader.HEADER_LENGTH));
+    }
+  }
+
+  private void run() {
+
+    final ByteBuffer receive = pool.acquire();
+    final ByteBuffer send = pool.acquire();
+    final MessageView view = new MessageView();
+
+    while (!closed) {
+      try {
+        selector.select();
+
+        for (SelectionKey key : selector.selectedKeys()) {
+          drain((Integer) key.attachment(), receive, send, view);
+        }
+
+        selector.selectedKeys().clear();
+      }
+      catch (ClosedChannelException | ClosedSelectorException e) {
+        break;
+      }
+      catch (IOException e) {
+        LOGGER.logError(e);
+      }
+    }
+
+    pool.release(receive);
+    pool.release(send);
+  }
+
+  private void drain(int index, ByteBuffer receive, ByteBuffer send, MessageView view)
+      throws IOException {
+
+    for (int i = 0; i < StunServer.DEFAULT_BATCH_SIZE && !closed; i++) {
+      receive.clear();
+
+      final SocketAddress source = channels[index].receive(receive);
+
+      if (source == null) {
+        // no more datagrams
+        return;
+      }
+
+      receive.flip();
+
+      if (!view.wrap(receive).isStun()
+          || view.getType() != MessageTypeEnum.BINDINGREQUEST.getValue()) {
+        continue;
+      }
+
+      requests.increment();
+
+      final int response = responseIndex(view, index);
+
+      send.clear();
+      encodeBindingResponse(view, (InetSocketAddress) source, addresses[response],
+          addresses[index ^ (CHANGE_IP | CHANGE_PORT)], send);
+      send.flip();
+
+      if (channels[response].send(send, source) > 0) {
+        responses.increment();
+      }
+    }
+  }
+
+}
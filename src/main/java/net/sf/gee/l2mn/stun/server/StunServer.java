@@ -0,0 +1,330 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.util.BufferPool;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * STUN Binding server on UDP (RFC-5389 section 10.1 and 7.3.1).
+ * 
+ * A single non-blocking {@link DatagramChannel} is registered with one {@link Selector} per
+ * worker loop. On every wakeup a worker drains up to <code>batchSize</code> datagrams. Each worker
+ * takes its receive and send buffers from a {@link BufferPool} for its whole life: a Binding
+ * request is checked in place with a {@link MessageView} and answered with a XOR-MAPPED-ADDRESS
+ * encoded directly in the send buffer, with no {@link net.sf.gee.l2mn.stun.message.Message}
+ * object. A FINGERPRINT is added when the request carries one.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class StunServer implements Closeable {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, StunServer.class);
+
+  /**
+   * Default number of datagrams drained per wakeup.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 64;
+
+  /**
+   * Size of the receive and send buffers of a worker.
+   */
+  public static final int BUFFER_SIZE = BufferPool.DEFAULT_BUFFER_SIZE;
+
+  private final DatagramChannel channel;
+
+  private final int workers;
+
+  private final int batchSize;
+
+  private final BufferPool pool;
+
+  private final List<Worker> loops = new ArrayList<>();
+
+  private final LongAdder requests = new LongAdder();
+
+  private final LongAdder responses = new LongAdder();
+
+  private volatile boolean closed = false;
+
+  /**
+   * @param bindAddress local address of the server
+   * @param workers number of worker loops
+   * 
+   * @throws IOException
+   */
+  public StunServer(InetSocketAddress bindAddress, int workers) throws IOException {
+    this(bindAddress, workers, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param bindAddress local address of the server
+   * @param workers number of worker loops
+   * @param batchSize maximum number of datagrams drained per wakeup
+   * 
+   * @throws IOException
+   */
+  public StunServer(InetSocketAddress bindAddress, int workers, int batchSize)
+      throws IOException {
+    this(bindAddress, workers, batchSize, BufferPool.DEFAULT_DIRECT);
+  }
+
+  /**
+   * @param bindAddress local address of the server
+   * @param workers number of worker loops
+   * @param batchSize maximum number of datagrams drained per wakeup
+   * @param pool pool of the worker buffers
+   * 
+   * @throws IOException
+   */
+  public StunServer(InetSocketAddress bindAddress, int workers, int batchSize, BufferPool pool)
+      throws IOException {
+    super();
+
+    if (workers <= 0 || batchSize <= 0) {
+      throw new IllegalArgumentException("workers and batch size must be positive");
+    }
+
+    this.workers = workers;
+    this.batchSize = batchSize;
+    this.pool = pool;
+
+    this.channel = DatagramChannel.open();
+    this.channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+    this.channel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024 * 1024);
+    this.channel.bind(bindAddress);
+    this.channel.configureBlocking(false);
+  }
+
+  /**
+   * Start the worker loops.
+   * 
+   * @throws IOException
+   */
+  public synchronized void start() throws IOException {
+
+    if (!loops.isEmpty()) {
+      return;
+    }
+
+    for (int i = 0; i < workers; i++) {
+      final Worker worker = new Worker(Selector.open());
+      channel.register(worker.selector, SelectionKey.OP_READ);
+
+      final Thread thread = new Thread(worker, "stun-server-worker-" + i);
+      thread.setDaemon(true);
+      worker.thread = thread;
+
+      loops.add(worker);
+      thread.start();
+    }
+  }
+
+  /**
+   * @return local address of the server
+   * 
+   * @throws IOException
+   */
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  /**
+   * @return number of Binding requests received
+   */
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /**
+   * @return number of Binding responses sent
+   */
+  public long getResponseCount() {
+    return responses.sum();
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public synchronized void close() throws IOException {
+
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    for (Worker current : loops) {
+      current.selector.wakeup();
+    }
+
+    for (Worker current : loops) {
+      try {
+        current.thread.join(1000);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      current.selector.close();
+    }
+
+    channel.close();
+  }
+
+  /**
+   * Encode the Binding success response of the request wrapped by the view.
+   * 
+   * @param request view over the request
+   * @param source source address of the request
+   * @param out destination buffer, cleared
+   * 
+   * @throws IOException
+   */
+  static void encodeBindingResponse(MessageView request, InetSocketAddress source, ByteBuffer out)
+      throws IOException {
+
+    final long txHigh = request.getTransactionIdHigh();
+    final int txLow = request.getTransactionIdLow();
+    final boolean fingerprint =
+        request.findAttribute(MessageAttributeType.FINGERPRINT.getCode()) >= 0;
+
+    out.putShort((short) MessageTypeEnum.BINDINGRESPONSE.getValue());
+    out.putShort((short) 0);
+    out.putInt((int) MessageHeader.MAGIC_COOKIE);
+    out.putLong(txHigh);
+    out.putInt(txLow);
+
+    XorMappedAddress.encode(out, MessageAttributeType.XOR_MAPPED_ADDRESS.getCode(),
+        source.getAddress(), source.getPort(), txHigh, txLow);
+
+    if (fingerprint) {
+      final int attr = out.position();
+
+      out.putShort(2, (short) (attr + FingerPrint.ENCODED_LENGTH - MessageHeader.HEADER_LENGTH));
+      out.putShort((short) MessageAttributeType.FINGERPRINT.getCode());
+      out.putShort((short) 4);
+      out.putInt((int) (FingerPrint.compute(out, 0, attr) ^ FingerPrint.XOR_VALUE));
+    }
+    else {
+      out.putShort(2, (short) (out.position() - MessageHeader.HEADER_LENGTH));
+    }
+  }
+
+  /**
+   * Worker loop: one selector, one receive buffer and one send buffer.
+   */
+  private final class Worker implements Runnable {
+
+    private final Selector selector;
+
+    private final ByteBuffer receive = pool.acquire();
+
+    private final ByteBuffer send = pool.acquire();
+
+    private final MessageView view = new MessageView();
+
+    private Thread thread = null;
+
+    private Worker(Selector selector) {
+      super();
+
+      this.selector = selector;
+    }
+
+    @Override
+    public void run() {
+
+      while (!closed) {
+        try {
+          selector.select();
+          selector.selectedKeys().clear();
+
+          drain();
+        }
+        catch (ClosedChannelException | ClosedSelectorException e) {
+          break;
+        }
+        catch (IOException e) {
+          LOGGER.logError(e);
+        }
+      }
+
+      pool.release(receive);
+      pool.release(send);
+    }
+
+    private void drain() throws IOException {
+
+      for (int i = 0; i < batchSize && !closed; i++) {
+        receive.clear();
+
+        final SocketAddress source = channel.receive(receive);
+
+        if (source == null) {
+          // no more datagrams
+          return;
+        }
+
+        receive.flip();
+
+        if (!view.wrap(receive).isStun()
+            || view.getType() != MessageTypeEnum.BINDINGREQUEST.getValue()) {
+          continue;
+        }
+
+        requests.increment();
+
+        send.clear();
+        encodeBindingResponse(view, (InetSocketAddress) source, send);
+        send.flip();
+
+        if (channel.send(send, source) > 0) {
+          responses.increment();
+        }
+      }
+    }
+  }
+
+}
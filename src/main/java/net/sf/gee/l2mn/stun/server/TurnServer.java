@@ -0,0 +1,897 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.sf.gee.l2mn.stun.message.ChannelData;
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.ChannelNumber;
+import net.sf.gee.l2mn.stun.message.attribute.ErrorCode;
+import net.sf.gee.l2mn.stun.message.attribute.Lifetime;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttribute;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.MessageIntegrity;
+import net.sf.gee.l2mn.stun.message.attribute.Nonce;
+import net.sf.gee.l2mn.stun.message.attribute.Realm;
+import net.sf.gee.l2mn.stun.message.attribute.RequestedTransport;
+import net.sf.gee.l2mn.stun.message.attribute.Username;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.message.attribute.XorPeerAddress;
+import net.sf.gee.l2mn.stun.message.attribute.XorRelayedAddress;
+import net.sf.gee.l2mn.stun.server.Allocation.ChannelBinding;
+import net.sf.gee.l2mn.stun.util.BufferPool;
+import net.sf.gee.l2mn.stun.util.CredentialKey;
+import net.sf.gee.l2mn.stun.util.NonceIssuer;
+import net.sf.gee.l2mn.stun.util.StunUtil;
+import net.sf.gee.l2mn.stun.util.TransactionMap;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * TURN relay server over UDP (https://tools.ietf.org/html/rfc5766), IPv4 only. It also answers
+ * Binding requests like {@link StunServer}.
+ * 
+ * The allocations are kept in a {@link TransactionMap} keyed by the client 5-tuple packed in a
+ * <code>long</code> (client address, client port, server port) and an <code>int</code> (server
+ * address); the protocol is always UDP. Each allocation has its relay socket and its permission
+ * and channel tables keyed by primitives (see {@link Allocation}).
+ * 
+ * The listening socket and all the relay sockets are served by one event loop on one
+ * {@link Selector}, which owns every table: no lock is needed. The relay path (allocation lookup,
+ * permission check, forward) works in place in one receive buffer and allocates nothing: the data
+ * of a peer is received after a headroom, where the ChannelData header or the Data indication
+ * header is written before sending it to the client.
+ * 
+ * Allocate, Refresh, CreatePermission and ChannelBind requests are authenticated with the
+ * long-term credentials of the users added with {@link #addUser(String, String)}. The nonces are
+ * issued and validated by a {@link NonceIssuer}, without state per client: the servers of a cluster
+ * sharing its keys accept the nonces of each other.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class TurnServer implements Closeable {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, TurnServer.class);
+
+  /**
+   * Default lifetime of an allocation, in seconds.
+   */
+  public static final long DEFAULT_LIFETIME = 600L;
+
+  /**
+   * Maximum lifetime of an allocation, in seconds.
+   */
+  public static final long MAX_LIFETIME = 3600L;
+
+  /**
+   * Lifetime of a permission, in seconds.
+   */
+  public static final long PERMISSION_LIFETIME = 300L;
+
+  /**
+   * Lifetime of a channel binding, in seconds.
+   */
+  public static final long CHANNEL_LIFETIME = 600L;
+
+  /**
+   * Default maximum number of allocations.
+   */
+  public static final int DEFAULT_MAX_ALLOCATIONS = 65536;
+
+  /**
+   * Maximum number of datagrams drained from a socket per wakeup.
+   */
+  public static final int BATCH_SIZE = 64;
+
+  /**
+   * Room for the Data indication header before the relayed data: STUN header, XOR-PEER-ADDRESS
+   * (IPv4) and DATA header.
+   */
+  private static final int HEADROOM = MessageHeader.HEADER_LENGTH + 12 + 4;
+
+  private static final long SWEEP_INTERVAL = 1000L;
+
+  private final DatagramChannel listener;
+
+  private final InetAddress relayAddress;
+
+  private final String realm;
+
+  private final int maxAllocations;
+
+  private final BufferPool pool;
+
+  private final Selector selector;
+
+  private final ConcurrentHashMap<String, String> users = new ConcurrentHashMap<>();
+
+  private final NonceIssuer nonceIssuer;
+
+  private final int serverAddress;
+
+  private final int serverPort;
+
+  private final TransactionMap<Allocation> allocations = new TransactionMap<>(1024);
+
+  private final List<Allocation> allocationList = new ArrayList<>();
+
+  private final MessageView view = new MessageView();
+
+  private ByteBuffer receive = null;
+
+  private ByteBuffer send = null;
+
+  private Thread loop = null;
+
+  private long now = 0L;
+
+  private long nextSweep = 0L;
+
+  private volatile int allocationCount = 0;
+
+  private volatile boolean closed = false;
+
+  /**
+   * @param bindAddress local address of the server, IPv4
+   * @param relayAddress IPv4 address of the relay sockets
+   * @param realm realm of the long-term credentials
+   * 
+   * @throws IOException
+   */
+  public TurnServer(InetSocketAddress bindAddress, InetAddress relayAddress, String realm)
+      throws IOException {
+    this(bindAddress, relayAddress, realm, DEFAULT_MAX_ALLOCATIONS, BufferPool.DEFAULT_DIRECT);
+  }
+
+  /**
+   * @param bindAddress local address of the server, IPv4
+   * @param relayAddress IPv4 address of the relay sockets
+   * @param realm realm of the long-term credentials
+   * @param maxAllocations maximum number of allocations
+   * @param pool pool of the receive and send buffers
+   * 
+   * @throws IOException
+   */
+  public TurnServer(InetSocketAddress bindAddress, InetAddress relayAddress, String realm,
+      int maxAllocations, BufferPool pool) throws IOException {
+    this(bindAddress, relayAddress, realm, maxAllocations, pool, new NonceIssuer());
+  }
+
+  /**
+   * @param bindAddress local address of the server, IPv4
+   * @param relayAddress IPv4 address of the relay sockets
+   * @param realm realm of the long-term credentials
+   * @param maxAllocations maximum number of allocations
+   * @param pool pool of the receive and send buffers
+   * @param nonceIssuer issuer of the nonces, shared keys for a cluster
+   * 
+   * @throws IOException
+   */
+  public TurnServer(InetSocketAddress bindAddress, InetAddress relayAddress, String realm,
+      int maxAllocations, BufferPool pool, NonceIssuer nonceIssuer) throws IOException {
+    super();
+
+    if (!(relayAddress instanceof Inet4Address)) {
+      throw new IllegalArgumentException("relay address must be IPv4");
+    }
+
+    this.relayAddress = relayAddress;
+    this.realm = realm;
+    this.maxAllocations = maxAllocations;
+    this.pool = pool;
+    this.nonceIssuer = nonceIssuer;
+
+    this.selector = Selector.open();
+    this.listener = DatagramChannel.open();
+    this.listener.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+    this.listener.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024 * 1024);
+    this.listener.bind(bindAddress);
+    this.listener.configureBlocking(false);
+    this.listener.register(selector, SelectionKey.OP_READ);
+
+    final InetSocketAddress local = (InetSocketAddress) listener.getLocalAddress();
+    this.serverAddress = Allocation.ipv4(local.getAddress());
+    this.serverPort = local.getPort();
+  }
+
+  /**
+   * Add or replace a user of the long-term credentials.
+   * 
+   * @param username username
+   * @param password password
+   */
+  public void addUser(String username, String password) {
+    users.put(username, password);
+  }
+
+  /**
+   * @param username username to remove
+   */
+  public void removeUser(String username) {
+    users.remove(username);
+  }
+
+  /**
+   * @return issuer of the nonces, for the key rotation
+   */
+  public NonceIssuer getNonceIssuer() {
+    return nonceIssuer;
+  }
+
+  /**
+   * @return local address of the server
+   * 
+   * @throws IOException
+   */
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return (InetSocketAddress) listener.getLocalAddress();
+  }
+
+  /**
+   * @return number of allocations
+   */
+  public int getAllocationCount() {
+    return allocationCount;
+  }
+
+  /**
+   * Start the event loop.
+   */
+  public synchronized void start() {
+
+    if (loop != null) {
+      return;
+    }
+
+    loop = new Thread(this::run, "turn-server");
+    loop.setDaemon(true);
+    loop.start();
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public synchronized void close() throws IOException {
+
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    selector.wakeup();
+
+    if (loop != null) {
+      try {
+        loop.join(1000);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    for (Allocation current : allocationList) {
+      current.relay.close();
+    }
+
+    allocationList.clear();
+    allocations.removeAll();
+    allocationCount = 0;
+
+    selector.close();
+    listener.close();
+  }
+
+  private void run() {
+    receive = pool.acquire();
+    send = pool.acquire();
+
+    while (!closed) {
+      try {
+        selector.select(SWEEP_INTERVAL);
+        now = System.currentTimeMillis();
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+
+          if (!key.isValid()) {
+            continue;
+          }
+
+          if (key.attachment() == null) {
+            drainListener();
+          }
+          else {
+            drainRelay((Allocation) key.attachment());
+          }
+        }
+
+        if (now >= nextSweep) {
+          sweep();
+          nextSweep = now + SWEEP_INTERVAL;
+        }
+      }
+      catch (ClosedChannelException | ClosedSelectorException e) {
+        break;
+      }
+      catch (IOException e) {
+        LOGGER.logError(e);
+      }
+    }
+
+    pool.release(receive);
+    pool.release(send);
+  }
+
+  /**
+   * Datagrams of the clients.
+   */
+  private void drainListener() throws IOException {
+
+    for (int i = 0; i < BATCH_SIZE && !closed; i++) {
+      receive.clear();
+
+      final InetSocketAddress source = (InetSocketAddress) listener.receive(receive);
+
+      if (source == null) {
+        return;
+      }
+
+      receive.flip();
+
+      if (!(source.getAddress() instanceof Inet4Address)) {
+        continue;
+      }
+
+      try {
+        onClient(source);
+      }
+      catch (IOException e) {
+        LOGGER.logDebug("Discard datagram from %s: %s", source, e.getMessage());
+      }
+      catch (RuntimeException e) {
+        // a malformed datagram must not stop the event loop
+        LOGGER.logError(e);
+      }
+    }
+  }
+
+  private void onClient(InetSocketAddress source) throws IOException {
+    final long keyHigh =
+        Allocation.keyHigh(Allocation.ipv4(source.getAddress()), source.getPort(), serverPort);
+
+    // relay path: ChannelData to a bound peer
+    if (ChannelData.isChannelData(receive, 0)) {
+      final Allocation allocation = allocations.get(keyHigh, serverAddress);
+
+      if (allocation == null) {
+        return;
+      }
+
+      final ChannelBinding binding = allocation.channelsByNumber.get(ChannelData.decode(receive));
+
+      if (binding != null && binding.expiration > now
+          && allocation.isPermitted(binding.peerAddress, now)) {
+        allocation.relay.send(receive, binding.peer);
+      }
+
+      return;
+    }
+
+    if (!view.wrap(receive).isStun()) {
+      return;
+    }
+
+    final int type = view.getType();
+
+    if (type == MessageTypeEnum.BINDINGREQUEST.getValue()) {
+      send.clear();
+      StunServer.encodeBindingResponse(view, source, send);
+      send.flip();
+
+      listener.send(send, source);
+    }
+    else if (type == MessageTypeEnum.SENDINDICATION.getValue()) {
+      onSendIndication(allocations.get(keyHigh, serverAddress));
+    }
+    else {
+      onRequest(source, keyHigh);
+    }
+  }
+
+  /**
+   * Send indication (RFC-5766 section 10.2): forward the DATA to the peer, if permitted.
+   */
+  private void onSendIndication(Allocation allocation) throws IOException {
+
+    if (allocation == null) {
+      return;
+    }
+
+    final int peerAttr = view.findAttribute(MessageAttributeType.XOR_PEER_ADDRESS.getCode());
+    final int dataAttr = view.findAttribute(MessageAttributeType.DATA.getCode());
+
+    // the relay is IPv4 only
+    if (peerAttr < 0 || dataAttr < 0 || view.getAttributeLength(peerAttr) != 8
+        || view.getXorFamily(peerAttr) != 0x01) {
+      return;
+    }
+
+    final int peerAddress = view.getXorIPv4Address(peerAttr);
+
+    if (!allocation.isPermitted(peerAddress, now)) {
+      return;
+    }
+
+    final InetSocketAddress peer =
+        new InetSocketAddress(Allocation.ipv4(peerAddress), view.getXorPort(peerAttr));
+    final int valueOffset = view.getAttributeValueOffset(dataAttr);
+
+    receive.limit(valueOffset + view.getAttributeLength(dataAttr));
+    receive.position(valueOffset);
+
+    allocation.relay.send(receive, peer);
+  }
+
+  /**
+   * Datagrams of the peers, sent to the client as ChannelData or Data indication.
+   */
+  private void drainRelay(Allocation allocation) throws IOException {
+
+    for (int i = 0; i < BATCH_SIZE && !closed; i++) {
+      receive.clear();
+      receive.position(HEADROOM);
+      // room for the padding of the Data indication
+      receive.limit(receive.capacity() - 3);
+
+      final InetSocketAddress peer = (InetSocketAddress) allocation.relay.receive(receive);
+
+      if (peer == null) {
+        return;
+      }
+
+      if (!(peer.getAddress() instanceof Inet4Address)) {
+        continue;
+      }
+
+      try {
+        onPeer(allocation, peer);
+      }
+      catch (RuntimeException e) {
+        // a malformed datagram must not stop the event loop
+        LOGGER.logError(e);
+      }
+    }
+  }
+
+  private void onPeer(Allocation allocation, InetSocketAddress peer) throws IOException {
+    final int peerAddress = Allocation.ipv4(peer.getAddress());
+
+    if (!allocation.isPermitted(peerAddress, now)) {
+      return;
+    }
+
+    final int end = receive.position();
+    final int length = end - HEADROOM;
+    final ChannelBinding binding =
+        allocation.channelsByPeer.get(Allocation.peerKey(peerAddress, peer.getPort()));
+
+    final int start;
+
+    if (binding != null && binding.expiration > now) {
+      start = HEADROOM - ChannelData.HEADER_LENGTH;
+
+      receive.putShort(start, (short) binding.channel);
+      receive.putShort(start + 2, (short) length);
+      receive.limit(end);
+    }
+    else {
+      start = 0;
+
+      putDataIndication(peerAddress, peer.getPort(), length);
+      receive.limit(end + StunUtil.padding(length));
+    }
+
+    receive.position(start);
+
+    listener.send(receive, allocation.client);
+  }
+
+  /**
+   * Write the header of a Data indication (RFC-5766 section 10.3) in the headroom of the receive
+   * buffer, and the padding after the data.
+   */
+  private void putDataIndication(int peerAddress, int peerPort, int length) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final int padding = StunUtil.padding(length);
+
+    // header
+    receive.putShort(0, (short) MessageTypeEnum.DATAINDICATION.getValue());
+    receive.putShort(2, (short) (12 + 4 + length + padding));
+    receive.putInt(4, (int) MessageHeader.MAGIC_COOKIE);
+    receive.putLong(8, random.nextLong());
+    receive.putInt(16, random.nextInt());
+
+    // XOR-PEER-ADDRESS
+    receive.putShort(20, (short) MessageAttributeType.XOR_PEER_ADDRESS.getCode());
+    receive.putShort(22, (short) 8);
+    receive.putShort(24, (short) 0x0001);
+    receive.putShort(26, (short) (peerPort ^ (MessageHeader.MAGIC_COOKIE >>> 16)));
+    receive.putInt(28, peerAddress ^ (int) MessageHeader.MAGIC_COOKIE);
+
+    // DATA
+    receive.putShort(32, (short) MessageAttributeType.DATA.getCode());
+    receive.putShort(34, (short) length);
+
+    final int end = HEADROOM + length;
+
+    for (int i = 0; i < padding; i++) {
+      receive.put(end + i, (byte) 0);
+    }
+  }
+
+  /**
+   * Authenticated requests: Allocate, Refresh, CreatePermission and ChannelBind.
+   */
+  private void onRequest(InetSocketAddress source, long keyHigh) throws IOException {
+    final Message request = Message.decode(receive);
+    final MessageTypeEnum type = request.getHeader().getType();
+
+    if (type != MessageTypeEnum.ALLOCATEREQUEST && type != MessageTypeEnum.REFRESHREQUEST
+        && type != MessageTypeEnum.CREATEPERMISSIONREQUEST
+        && type != MessageTypeEnum.CHANNELBINDREQUEST) {
+      return;
+    }
+
+    final Username username = (Username) request.getAttribute(MessageAttributeType.USERNAME);
+    final Nonce requestNonce = (Nonce) request.getAttribute(MessageAttributeType.NONCE);
+
+    if (username == null || requestNonce == null
+        || request.getAttribute(MessageAttributeType.MESSAGE_INTEGRITY) == null) {
+      reply(challenge(request, ErrorCode.UNAUTHORIZED, "Unauthorized", source), null, source);
+      return;
+    }
+
+    if (!nonceIssuer.validate(requestNonce.getNonce(), source.getAddress(), now)) {
+      reply(challenge(request, ErrorCode.STALE_NONCE, "Stale Nonce", source), null, source);
+      return;
+    }
+
+    final String password = users.get(username.getUsername());
+    final CredentialKey credential =
+        (password == null) ? null : CredentialKey.longTerm(username.getUsername(), realm, password);
+
+    if (credential == null || !MessageIntegrity.verify(view, credential)) {
+      reply(challenge(request, ErrorCode.UNAUTHORIZED, "Unauthorized", source), null, source);
+      return;
+    }
+
+    final Allocation allocation = allocations.get(keyHigh, serverAddress);
+    final Message response;
+
+    if (type == MessageTypeEnum.ALLOCATEREQUEST) {
+      response =
+          allocate(request, source, keyHigh, allocation, username.getUsername(), credential);
+    }
+    else if (allocation == null) {
+      response = error(request, ErrorCode.ALLOCATION_MISMATCH, "Allocation Mismatch");
+    }
+    else if (!allocation.username.equals(username.getUsername())) {
+      response = error(request, ErrorCode.WRONG_CREDENTIALS, "Wrong Credentials");
+    }
+    else if (type == MessageTypeEnum.REFRESHREQUEST) {
+      response = refresh(request, allocation);
+    }
+    else if (type == MessageTypeEnum.CREATEPERMISSIONREQUEST) {
+      response = createPermission(request, allocation);
+    }
+    else {
+      response = channelBind(request, allocation);
+    }
+
+    reply(response, credential, source);
+  }
+
+  private Message allocate(Message request, InetSocketAddress source, long keyHigh,
+      Allocation existing, String username, CredentialKey credential) throws IOException {
+
+    if (existing != null) {
+      final MessageHeader header = request.getHeader();
+
+      // retransmission of the Allocate request whose response was lost (RFC-5766 section 6.2)
+      if (existing.isAllocateTransaction(header.getTransactionIdHigh(),
+          header.getTransactionIdLow())) {
+        return allocated(request, existing);
+      }
+
+      return error(request, ErrorCode.ALLOCATION_MISMATCH, "Allocation Mismatch");
+    }
+
+    final RequestedTransport transport =
+        (RequestedTransport) request.getAttribute(MessageAttributeType.REQUESTED_TRANSPORT);
+
+    if (transport == null) {
+      return error(request, ErrorCode.BAD_REQUEST, "Bad Request");
+    }
+
+    if (transport.getProtocol() != RequestedTransport.UDP) {
+      return error(request, ErrorCode.UNSUPPORTED_TRANSPORT_PROTOCOL,
+          "Unsupported Transport Protocol");
+    }
+
+    if (allocationList.size() >= maxAllocations) {
+      return error(request, ErrorCode.INSUFFICIENT_CAPACITY, "Insufficient Capacity");
+    }
+
+    final long lifetime = lifetime(request);
+
+    final DatagramChannel relay = DatagramChannel.open();
+    final Allocation allocation;
+
+    try {
+      relay.bind(new InetSocketAddress(relayAddress, 0));
+      relay.configureBlocking(false);
+
+      allocation = new Allocation(source, keyHigh, serverAddress, relay,
+          (InetSocketAddress) relay.getLocalAddress(), username, credential,
+          request.getHeader().getTransactionIdHigh(), request.getHeader().getTransactionIdLow(),
+          lifetime);
+      relay.register(selector, SelectionKey.OP_READ, allocation);
+    }
+    catch (IOException e) {
+      relay.close();
+
+      LOGGER.logError(e);
+
+      return error(request, ErrorCode.INSUFFICIENT_CAPACITY, "Insufficient Capacity");
+    }
+
+    allocation.expiration = now + lifetime * 1000L;
+    allocation.index = allocationList.size();
+
+    allocations.put(allocation.keyHigh, allocation.keyLow, allocation);
+    allocationList.add(allocation);
+    allocationCount = allocationList.size();
+
+    return allocated(request, allocation);
+  }
+
+  private static Message allocated(Message request, Allocation allocation) throws IOException {
+    final Message response = success(request);
+    response.addAttribute(new XorRelayedAddress(allocation.relayAddress));
+    response.addAttribute(new Lifetime(allocation.lifetime));
+    response.addAttribute(new XorMappedAddress(allocation.client));
+
+    return response;
+  }
+
+  private Message refresh(Message request, Allocation allocation) throws IOException {
+    final Lifetime requested = (Lifetime) request.getAttribute(MessageAttributeType.LIFETIME);
+    final Message response = success(request);
+
+    if (requested != null && requested.getSeconds() == 0L) {
+      delete(allocation);
+
+      response.addAttribute(new Lifetime(0L));
+
+      return response;
+    }
+
+    final long lifetime = lifetime(request);
+    allocation.expiration = now + lifetime * 1000L;
+
+    response.addAttribute(new Lifetime(lifetime));
+
+    return response;
+  }
+
+  private Message createPermission(Message request, Allocation allocation) throws IOException {
+    final List<InetSocketAddress> peers = new ArrayList<>();
+
+    for (MessageAttribute current : request.getAttributes()) {
+      if (current.getType() == MessageAttributeType.XOR_PEER_ADDRESS.getCode()) {
+        final InetSocketAddress peer =
+            ((XorPeerAddress) current).getSocketAddress(request.getHeader());
+
+        if (!(peer.getAddress() instanceof Inet4Address)) {
+          return error(request, ErrorCode.PEER_ADDRESS_FAMILY_MISMATCH,
+              "Peer Address Family Mismatch");
+        }
+
+        peers.add(peer);
+      }
+    }
+
+    if (peers.isEmpty()) {
+      return error(request, ErrorCode.BAD_REQUEST, "Bad Request");
+    }
+
+    // all or nothing
+    for (InetSocketAddress current : peers) {
+      allocation.permit(Allocation.ipv4(current.getAddress()),
+          now + PERMISSION_LIFETIME * 1000L);
+    }
+
+    return success(request);
+  }
+
+  private Message channelBind(Message request, Allocation allocation) throws IOException {
+    final ChannelNumber number =
+        (ChannelNumber) request.getAttribute(MessageAttributeType.CHANNEL_NUMBER);
+    final XorPeerAddress peerAttr =
+        (XorPeerAddress) request.getAttribute(MessageAttributeType.XOR_PEER_ADDRESS);
+
+    if (number == null || peerAttr == null || !ChannelNumber.isValid(number.getChannel())) {
+      return error(request, ErrorCode.BAD_REQUEST, "Bad Request");
+    }
+
+    final InetSocketAddress peer = peerAttr.getSocketAddress(request.getHeader());
+
+    if (!(peer.getAddress() instanceof Inet4Address)) {
+      return error(request, ErrorCode.PEER_ADDRESS_FAMILY_MISMATCH,
+          "Peer Address Family Mismatch");
+    }
+
+    final int channel = number.getChannel();
+    final int peerAddress = Allocation.ipv4(peer.getAddress());
+    final long peerKey = Allocation.peerKey(peerAddress, peer.getPort());
+
+    final ChannelBinding byNumber = allocation.channelsByNumber.get(channel);
+    final ChannelBinding byPeer = allocation.channelsByPeer.get(peerKey);
+
+    // a channel is bound to one peer, a peer to one channel
+    if ((byNumber != null && byNumber.peerKey != peerKey)
+        || (byPeer != null && byPeer.channel != channel)) {
+      return error(request, ErrorCode.BAD_REQUEST, "Bad Request");
+    }
+
+    final long expiration = now + CHANNEL_LIFETIME * 1000L;
+
+    if (byNumber == null) {
+      final ChannelBinding binding = new ChannelBinding(channel, peer, peerAddress, expiration);
+
+      allocation.channelsByNumber.put(channel, binding);
+      allocation.channelsByPeer.put(peerKey, binding);
+    }
+    else {
+      byNumber.expiration = expiration;
+    }
+
+    allocation.permit(peerAddress, now + PERMISSION_LIFETIME * 1000L);
+
+    return success(request);
+  }
+
+  /**
+   * Requested lifetime, between the default and the maximum (RFC-5766 section 6.2).
+   */
+  private static long lifetime(Message request) {
+    final Lifetime requested = (Lifetime) request.getAttribute(MessageAttributeType.LIFETIME);
+
+    if (requested == null) {
+      return DEFAULT_LIFETIME;
+    }
+
+    return Math.min(Math.max(requested.getSeconds(), DEFAULT_LIFETIME), MAX_LIFETIME);
+  }
+
+  /**
+   * Remove the expired allocations, permissions and channels.
+   */
+  private void sweep() throws IOException {
+
+    for (int i = allocationList.size() - 1; i >= 0; i--) {
+      final Allocation current = allocationList.get(i);
+
+      if (current.expiration <= now) {
+        delete(current);
+      }
+      else {
+        current.purge(now);
+      }
+    }
+  }
+
+  private void delete(Allocation allocation) throws IOException {
+    allocations.remove(allocation.keyHigh, allocation.keyLow);
+
+    // swap with the last one
+    final Allocation last = allocationList.remove(allocationList.size() - 1);
+
+    if (last != allocation) {
+      last.index = allocation.index;
+      allocationList.set(allocation.index, last);
+    }
+
+    allocationCount = allocationList.size();
+
+    allocation.relay.close();
+  }
+
+  private static Message response(Message request, int typeClass) {
+    final int method = request.getHeader().getType().getValue() & ~0x0110;
+
+    final Message response = new Message(
+        new MessageHeader(MessageTypeEnum.getValueByValue(method | typeClass)));
+    response.getHeader().setTransactionId(request.getHeader().getTransactionIdHigh(),
+        request.getHeader().getTransactionIdLow());
+
+    return response;
+  }
+
+  private static Message success(Message request) {
+    return response(request, 0x0100);
+  }
+
+  private static Message error(Message request, int code, String reason) throws IOException {
+    final Message response = response(request, 0x0110);
+    response.addAttribute(new ErrorCode(code, reason));
+
+    return response;
+  }
+
+  private Message challenge(Message request, int code, String reason, InetSocketAddress source)
+      throws IOException {
+    final Message response = error(request, code, reason);
+    response.addAttribute(new Realm(realm));
+    response.addAttribute(new Nonce(nonceIssuer.issue(source.getAddress(), now)));
+
+    return response;
+  }
+
+  private void reply(Message response, CredentialKey credential, InetSocketAddress destination)
+      throws IOException {
+
+    if (credential != null) {
+      response.addAttribute(new MessageIntegrity(credential));
+    }
+
+    send.clear();
+    response.encodeTo(send);
+    send.flip();
+
+    listener.send(send, destination);
+  }
+
+}
@@ -0,0 +1,663 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageTemplate;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.metrics.StunMetrics;
+import net.sf.gee.l2mn.stun.util.BufferPool;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+import net.sf.gee.l2mn.stun.util.TransactionMap;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * Asynchronous STUN client: many transactions are kept in flight on a single
+ * {@link DatagramChannel}. A single receiver thread reads the responses and matches them to the
+ * requests by transaction id, completing the {@link CompletableFuture} of each request.
+ * 
+ * Unlike {@link StunTransporter}, an instance is safe to share between threads. Every request must
+ * carry a unique transaction id (see {@link net.sf.gee.l2mn.stun.message.MessageHeader
+ * #randomTransactionId()}).
+ * 
+ * Requests are retransmitted according to the {@link RetransmissionPolicy} (RFC-5389 section
+ * 7.2.1). All the retransmissions and timeouts run on one {@link HashedTimerWheel}, so an
+ * outstanding transaction costs neither a thread nor a scheduled future.
+ * 
+ * The send and receive buffers come from a {@link BufferPool}. A request is encoded in a pooled
+ * buffer for every transmission instead of keeping a copy per transaction, so an outstanding
+ * transaction does not hold a buffer either.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class AsyncStunTransporter implements Transporter {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, AsyncStunTransporter.class);
+
+  /**
+   * Size of the receive and send buffers.
+   */
+  public static final int BUFFER_SIZE = BufferPool.DEFAULT_BUFFER_SIZE;
+
+  private final DatagramChannel channel;
+
+  private final InetSocketAddress server;
+
+  private final TransactionMap<StunTransaction> transactions = new TransactionMap<>(1024);
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final BufferPool pool;
+
+  private final Thread receiver;
+
+  private final HashedTimerWheel timer;
+
+  private volatile RetransmissionPolicy policy = RetransmissionPolicy.DEFAULT;
+
+  private volatile DatagramHandler handler = null;
+
+  private volatile StunMetrics metrics = null;
+
+  private volatile RtoCache rtoCache = new RtoCache();
+
+  private volatile boolean closed = false;
+
+  /**
+   * Create a transporter on an ephemeral local port, with a default server.
+   * 
+   * @param host server host
+   * @param port server port
+   * 
+   * @throws IOException
+   */
+  public AsyncStunTransporter(String host, int port) throws IOException {
+    this(null, new InetSocketAddress(host, port));
+  }
+
+  /**
+   * @param localAddress local address to bind, null for an ephemeral port
+   * @param server default server, used by {@link #doBind(Message)} and
+   *        {@link #doBindAsync(Message)}. It can be null.
+   * 
+   * @throws IOException
+   */
+  public AsyncStunTransporter(InetSocketAddress localAddress, InetSocketAddress server)
+      throws IOException {
+    this(localAddress, server, HashedTimerWheel.getDefault());
+  }
+
+  /**
+   * @param localAddress local address to bind, null for an ephemeral port
+   * @param server default server, it can be null
+   * @param timer timer wheel of the retransmissions
+   * 
+   * @throws IOException
+   */
+  public AsyncStunTransporter(InetSocketAddress localAddress, InetSocketAddress server,
+      HashedTimerWheel timer) throws IOException {
+    this(localAddress, server, timer, BufferPool.DEFAULT_DIRECT);
+  }
+
+  /**
+   * @param localAddress local address to bind, null for an ephemeral port
+   * @param server default server, it can be null
+   * @param timer timer wheel of the retransmissions
+   * @param pool pool of the send and receive buffers
+   * 
+   * @throws IOException
+   */
+  public AsyncStunTransporter(InetSocketAddress localAddress, InetSocketAddress server,
+      HashedTimerWheel timer, BufferPool pool) throws IOException {
+    super();
+
+    this.server = server;
+    this.timer = timer;
+    this.pool = pool;
+    this.channel = DatagramChannel.open();
+    this.channel.bind(localAddress);
+
+    this.receiver = new Thread(this::receiveLoop, "stun-async-receiver");
+    this.receiver.setDaemon(true);
+    this.receiver.start();
+  }
+
+  /**
+   * @return local address of the channel
+   * 
+   * @throws IOException
+   */
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  public RetransmissionPolicy getRetransmissionPolicy() {
+    return policy;
+  }
+
+  /**
+   * @param policy policy applied to the next transactions
+   */
+  public void setRetransmissionPolicy(RetransmissionPolicy policy) {
+    this.policy = policy;
+  }
+
+  public StunMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @param metrics metrics of the transactions, null to record nothing
+   */
+  public void setMetrics(StunMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public RtoCache getRtoCache() {
+    return rtoCache;
+  }
+
+  /**
+   * @param rtoCache cache of the RTO learned per server, shared or not with other transporters;
+   *        null to start every transaction with the RTO of the policy
+   */
+  public void setRtoCache(RtoCache rtoCache) {
+    this.rtoCache = rtoCache;
+  }
+
+  public DatagramHandler getDatagramHandler() {
+    return handler;
+  }
+
+  /**
+   * @param handler receiver of the datagrams that are not a response, null to discard them
+   */
+  public void setDatagramHandler(DatagramHandler handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * Send a datagram outside of any transaction, for example an indication or TURN ChannelData.
+   * 
+   * @param data datagram, from its position to its limit
+   * @param destination destination address
+   * 
+   * @throws IOException
+   */
+  public void send(ByteBuffer data, InetSocketAddress destination) throws IOException {
+    channel.send(data, destination);
+  }
+
+  /**
+   * @return number of transactions waiting for a response
+   */
+  public int getPendingCount() {
+    lock.lock();
+    try {
+      return transactions.size();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.transport.Transporter#doBind(net.sf.gee.l2mn.stun.message.Message)
+   */
+  @Override
+  public Message doBind(Message request) throws IOException {
+
+    try {
+      return doBindAsync(request).get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new IOException("interrupted", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Send the request to the default server.
+   * 
+   * @param request request message
+   * 
+   * @return future completed with the response
+   */
+  public CompletableFuture<Message> doBindAsync(Message request) {
+    return doBindAsync(request, server);
+  }
+
+  /**
+   * Send the request without waiting for the response.
+   * 
+   * @param request request message, with a unique transaction id
+   * @param destination server address
+   * 
+   * @return future completed with the response, or exceptionally with an {@link IOException}
+   */
+  public CompletableFuture<Message> doBindAsync(Message request, InetSocketAddress destination) {
+    return doBindAsync(request, destination, false);
+  }
+
+  /**
+   * Send the request without waiting for the response.
+   * 
+   * @param request request message, with a unique transaction id
+   * @param destination server address
+   * @param anySource accept the response from any source address, as needed by a request with
+   *        CHANGE-REQUEST (RFC-5780 section 7.2); otherwise only the destination can answer
+   * 
+   * @return future completed with the response, or exceptionally with an {@link IOException}
+   */
+  public CompletableFuture<Message> doBindAsync(Message request, InetSocketAddress destination,
+      boolean anySource) {
+
+    if (request == null || request.getHeader() == null || destination == null) {
+      final CompletableFuture<Message> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new IOException("request is null or header is empty"));
+
+      return failed;
+    }
+
+    return start(new StunTransaction(request, destination, anySource));
+  }
+
+  /**
+   * Send a request encoded from a template, with a new random transaction id. The per-request
+   * work is a copy of the image and the checksums, see {@link MessageTemplate}.
+   * 
+   * @param template template of the request
+   * @param destination server address
+   * 
+   * @return future completed with the response, or exceptionally with an {@link IOException}
+   */
+  public CompletableFuture<Message> doBindAsync(MessageTemplate template,
+      InetSocketAddress destination) {
+
+    if (template == null || destination == null) {
+      final CompletableFuture<Message> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new IOException("template or destination is null"));
+
+      return failed;
+    }
+
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+    return start(new StunTransaction(template, random.nextLong(), random.nextInt(), destination));
+  }
+
+  /**
+   * Register the transaction and send its first request.
+   */
+  private CompletableFuture<Message> start(StunTransaction tx) {
+
+    // register before sending: the response can arrive before send() returns
+    lock.lock();
+    try {
+      if (closed) {
+        tx.future.completeExceptionally(new ClosedChannelException());
+
+        return tx.future;
+      }
+
+      if (transactions.put(tx.transactionIdHigh, tx.transactionIdLow, tx) != null) {
+        tx.future.completeExceptionally(new IOException("duplicate transaction id"));
+
+        return tx.future;
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+
+    // a cancelled future must not keep its slot
+    tx.future.whenComplete((response, error) -> {
+      if (error instanceof CancellationException) {
+        remove(tx);
+      }
+    });
+
+    final StunMetrics recorder = metrics;
+
+    if (recorder != null) {
+      recorder.onRequest();
+    }
+
+    try {
+      final RtoCache cache = rtoCache;
+
+      // a known server starts from its learned RTO
+      tx.rto = (cache == null) ? policy.getRto() : cache.getRto(tx.destination, policy.getRto());
+      tx.attempts = 1;
+
+      send(tx);
+
+      schedule(tx);
+    }
+    catch (IOException e) {
+      LOGGER.logError(e);
+
+      remove(tx);
+      tx.future.completeExceptionally(e);
+    }
+
+    return tx.future;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+    }
+    finally {
+      lock.unlock();
+    }
+
+    channel.close();
+
+    failAll(new ClosedChannelException());
+  }
+
+  private void remove(StunTransaction tx) {
+    lock.lock();
+    try {
+      // remove only if the slot still belongs to this transaction
+      if (transactions.get(tx.transactionIdHigh, tx.transactionIdLow) == tx) {
+        transactions.remove(tx.transactionIdHigh, tx.transactionIdLow);
+      }
+
+      if (tx.timeout != null) {
+        tx.timeout.cancel();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Schedule the next retransmission, or the failure after the last request.
+   */
+  private void schedule(StunTransaction tx) {
+    final RetransmissionPolicy current = policy;
+    final long wait = current.getWait(tx.rto, tx.attempts);
+
+    lock.lock();
+    try {
+      // completed while sending
+      if (transactions.get(tx.transactionIdHigh, tx.transactionIdLow) != tx) {
+        return;
+      }
+
+      tx.timeout = timer.schedule(() -> retransmit(tx, current), wait, TimeUnit.MILLISECONDS);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Timer wheel callback: send the request again or fail the transaction.
+   */
+  private void retransmit(StunTransaction tx, RetransmissionPolicy current) {
+
+    final boolean expired;
+
+    lock.lock();
+    try {
+      if (transactions.get(tx.transactionIdHigh, tx.transactionIdLow) != tx) {
+        return;
+      }
+
+      expired = tx.attempts >= current.getRc();
+
+      if (expired) {
+        transactions.remove(tx.transactionIdHigh, tx.transactionIdLow);
+      }
+      else {
+        // before the response of the retransmission can be received
+        tx.attempts++;
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+
+    if (expired) {
+      LOGGER.logDebug("Transaction to %s timed out after %s requests", tx.destination,
+          tx.attempts);
+
+      final StunMetrics recorder = metrics;
+
+      if (recorder != null) {
+        recorder.onTimeout();
+      }
+
+      final RtoCache cache = rtoCache;
+
+      if (cache != null) {
+        cache.onTimeout(tx.destination, tx.rto);
+      }
+
+      tx.future.completeExceptionally(new SocketTimeoutException("STUN transaction timed out"));
+
+      return;
+    }
+
+    try {
+      send(tx);
+
+      final StunMetrics recorder = metrics;
+
+      if (recorder != null) {
+        recorder.onRetransmit();
+      }
+
+      schedule(tx);
+    }
+    catch (IOException e) {
+      LOGGER.logError(e);
+
+      remove(tx);
+      tx.future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Encode the request of the transaction in a pooled buffer and send it. The encoding is
+   * deterministic, so every retransmission carries the same bytes.
+   */
+  private void send(StunTransaction tx) throws IOException {
+    final ByteBuffer buffer = pool.acquire();
+
+    try {
+      if (tx.template != null) {
+        tx.template.encodeTo(buffer, tx.transactionIdHigh, tx.transactionIdLow);
+      }
+      else {
+        tx.request.encodeTo(buffer);
+      }
+
+      buffer.flip();
+
+      channel.send(buffer, tx.destination);
+    }
+    finally {
+      pool.release(buffer);
+    }
+  }
+
+  private void failAll(IOException cause) {
+    final List<StunTransaction> pending;
+
+    lock.lock();
+    try {
+      pending = transactions.removeAll();
+    }
+    finally {
+      lock.unlock();
+    }
+
+    for (StunTransaction current : pending) {
+      if (current.timeout != null) {
+        current.timeout.cancel();
+      }
+
+      current.future.completeExceptionally(cause);
+    }
+  }
+
+  private void receiveLoop() {
+
+    final ByteBuffer buffer = pool.acquire();
+    final MessageView view = new MessageView();
+
+    while (!closed) {
+      try {
+        buffer.clear();
+        final SocketAddress source = channel.receive(buffer);
+        buffer.flip();
+
+        if (!view.wrap(buffer).isStun()) {
+          unmatched(buffer, source);
+          continue;
+        }
+
+        StunTransaction tx;
+
+        lock.lock();
+        try {
+          tx = transactions.get(view.getTransactionIdHigh(), view.getTransactionIdLow());
+
+          // only the server of the request can answer it, unless asked otherwise
+          if (tx != null && !tx.anySource && !tx.destination.equals(source)) {
+            tx = null;
+          }
+
+          if (tx != null) {
+            transactions.remove(tx.transactionIdHigh, tx.transactionIdLow);
+
+            if (tx.timeout != null) {
+              tx.timeout.cancel();
+            }
+          }
+        }
+        finally {
+          lock.unlock();
+        }
+
+        if (tx == null) {
+          unmatched(buffer, source);
+          continue;
+        }
+
+        final long rtt = System.nanoTime() - tx.start;
+        final StunMetrics recorder = metrics;
+
+        if (recorder != null) {
+          recorder.onResponse(tx.destination, rtt, view.getErrorCode());
+        }
+
+        final RtoCache cache = rtoCache;
+
+        // the response of a CHANGE-REQUEST comes from another address
+        if (cache != null && !tx.anySource) {
+          cache.onResponse(tx.destination, rtt, tx.attempts, tx.rto);
+        }
+
+        try {
+          tx.future.complete(Message.decode(buffer));
+        }
+        catch (IOException e) {
+          tx.future.completeExceptionally(e);
+        }
+      }
+      catch (ClosedChannelException e) {
+        break;
+      }
+      catch (IOException e) {
+        LOGGER.logError(e);
+      }
+    }
+
+    pool.release(buffer);
+
+    failAll(new ClosedChannelException());
+  }
+
+  /**
+   * Give a datagram that is not a response to the handler, or discard it.
+   */
+  private void unmatched(ByteBuffer buffer, SocketAddress source) {
+    final DatagramHandler current = handler;
+
+    if (current == null) {
+      LOGGER.logDebug("Discard unexpected datagram from %s", source);
+
+      return;
+    }
+
+    try {
+      current.onDatagram(buffer, (InetSocketAddress) source);
+    }
+    catch (RuntimeException e) {
+      LOGGER.logError(e);
+    }
+  }
+
+}
@@ -0,0 +1,41 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of the datagrams of an {@link AsyncStunTransporter} that are not the response of a
+ * transaction: non-STUN packets (for example TURN ChannelData) and STUN indications.
+ * 
+ * The handler runs on the receiver thread and must not block. The buffer is valid only during the
+ * call, between its position and its limit.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+@FunctionalInterface
+public interface DatagramHandler {
+
+  /**
+   * @param data received datagram
+   * @param source source address
+   */
+  void onDatagram(ByteBuffer data, InetSocketAddress source);
+
+}
@@ -0,0 +1,227 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * Demultiplexer of the packets received on a port shared by STUN, ZRTP, DTLS, TURN ChannelData and
+ * RTP/RTCP (RFC-7983 section 7). Each packet is classified by its first byte and given to the
+ * handler registered for its type; a STUN packet is confirmed by the length and the magic cookie,
+ * and optionally by the FINGERPRINT.
+ * 
+ * The packet is never copied: the handler receives the receive buffer itself, so the demultiplexer
+ * can be set as the {@link DatagramHandler} of an {@link AsyncStunTransporter} in front of a media
+ * pipeline. As for any {@link DatagramHandler}, the buffer is valid only during the call.
+ * 
+ * Packets of a type without handler, and packets failing the STUN checks, go to the handler of
+ * {@link PacketType#UNKNOWN}, or are dropped.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class PacketDemultiplexer implements DatagramHandler {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, PacketDemultiplexer.class);
+
+  /**
+   * Packet types, by RFC-7983 first byte range.
+   */
+  public enum PacketType {
+
+    /** 0 - 3 */
+    STUN,
+
+    /** 16 - 19 */
+    ZRTP,
+
+    /** 20 - 63 */
+    DTLS,
+
+    /** 64 - 79 */
+    CHANNEL_DATA,
+
+    /** 128 - 191 */
+    RTP,
+
+    /** any other value, or a packet that fails the STUN checks */
+    UNKNOWN;
+  }
+
+  private static final PacketType[] TYPES = PacketType.values();
+
+  /**
+   * Type of every first byte value.
+   */
+  private static final PacketType[] BY_FIRST_BYTE = new PacketType[256];
+
+  static {
+    for (int b = 0; b < 256; b++) {
+      final PacketType type;
+
+      if (b <= 3) {
+        type = PacketType.STUN;
+      }
+      else if (b >= 16 && b <= 19) {
+        type = PacketType.ZRTP;
+      }
+      else if (b >= 20 && b <= 63) {
+        type = PacketType.DTLS;
+      }
+      else if (b >= 64 && b <= 79) {
+        type = PacketType.CHANNEL_DATA;
+      }
+      else if (b >= 128 && b <= 191) {
+        type = PacketType.RTP;
+      }
+      else {
+        type = PacketType.UNKNOWN;
+      }
+
+      BY_FIRST_BYTE[b] = type;
+    }
+  }
+
+  private final AtomicReferenceArray<DatagramHandler> handlers =
+      new AtomicReferenceArray<>(TYPES.length);
+
+  private final LongAdder dropped = new LongAdder();
+
+  private final boolean fingerprintRequired;
+
+  /**
+   * Demultiplexer that accepts STUN messages without FINGERPRINT.
+   */
+  public PacketDemultiplexer() {
+    this(false);
+  }
+
+  /**
+   * @param fingerprintRequired <code>true</code> to accept only the STUN messages with a valid
+   *        FINGERPRINT, as required by ICE when STUN shares the port with media (RFC-5389 section
+   *        8)
+   */
+  public PacketDemultiplexer(boolean fingerprintRequired) {
+    super();
+
+    this.fingerprintRequired = fingerprintRequired;
+  }
+
+  /**
+   * Classify a packet by its first byte only.
+   * 
+   * @param buffer receive buffer
+   * @param offset start of the packet
+   * 
+   * @return packet type
+   */
+  public static PacketType classify(ByteBuffer buffer, int offset) {
+    return BY_FIRST_BYTE[buffer.get(offset) & 0xFF];
+  }
+
+  /**
+   * Classify a packet and confirm the STUN messages.
+   * 
+   * @param buffer receive buffer
+   * @param offset start of the packet
+   * @param length length of the packet
+   * 
+   * @return packet type, {@link PacketType#UNKNOWN} for an empty packet or one that fails the STUN
+   *         checks
+   */
+  public PacketType classify(ByteBuffer buffer, int offset, int length) {
+
+    if (length <= 0) {
+      return PacketType.UNKNOWN;
+    }
+
+    final PacketType type = classify(buffer, offset);
+
+    if (type == PacketType.STUN) {
+      if (!MessageView.isStun(buffer, offset, length)) {
+        return PacketType.UNKNOWN;
+      }
+
+      if (fingerprintRequired && !FingerPrint.verify(buffer, offset, length)) {
+        return PacketType.UNKNOWN;
+      }
+    }
+
+    return type;
+  }
+
+  /**
+   * @param type packet type
+   * @param handler receiver of the packets of the type, null to drop them
+   * 
+   * @return this demultiplexer
+   */
+  public PacketDemultiplexer register(PacketType type, DatagramHandler handler) {
+    handlers.set(type.ordinal(), handler);
+
+    return this;
+  }
+
+  public boolean isFingerprintRequired() {
+    return fingerprintRequired;
+  }
+
+  /**
+   * @return number of packets without a handler
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.transport.DatagramHandler#onDatagram(java.nio.ByteBuffer,
+   * java.net.InetSocketAddress)
+   */
+  @Override
+  public void onDatagram(ByteBuffer data, InetSocketAddress source) {
+
+    final PacketType type = classify(data, data.position(), data.remaining());
+
+    DatagramHandler handler = handlers.get(type.ordinal());
+
+    if (handler == null && type != PacketType.UNKNOWN) {
+      handler = handlers.get(PacketType.UNKNOWN.ordinal());
+    }
+
+    if (handler == null) {
+      dropped.increment();
+
+      LOGGER.logDebug("Drop %s packet from %s", type, source);
+
+      return;
+    }
+
+    handler.onDatagram(data, source);
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.io.Serializable;
+
+/**
+ * RFC-5389 - https://tools.ietf.org/html/rfc5389#section-7.2.1
+ * 
+ * A client SHOULD retransmit a STUN request message starting with an interval of RTO
+ * ("Retransmission TimeOut"), doubling after each retransmission. Retransmissions continue until a
+ * response is received, or until a total of Rc requests have been sent. If, after the last
+ * request, a duration equal to Rm times the RTO has passed without a response, the client SHOULD
+ * consider the transaction to have failed.
+ * 
+ * <pre>
+ * {@code
+ *   RTO = 500 ms, Rc = 7, Rm = 16 :
+ *   requests sent at 0 ms, 500 ms, 1500, 3500, 7500, 15500 and 31500 ms,
+ *   failure at 39500 ms.
+ * }
+ * </pre>
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class RetransmissionPolicy implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Default values of RFC-5389: RTO = 500 ms, Rc = 7, Rm = 16.
+   */
+  public static final RetransmissionPolicy DEFAULT = new RetransmissionPolicy(500, 7, 16);
+
+  private final long rto;
+
+  private final int rc;
+
+  private final int rm;
+
+  /**
+   * @param rto initial retransmission timeout, in milliseconds
+   * @param rc total number of requests to send
+   * @param rm multiplier of RTO to wait after the last request
+   */
+  public RetransmissionPolicy(long rto, int rc, int rm) {
+    super();
+
+    if (rto <= 0 || rc <= 0 || rm <= 0) {
+      throw new IllegalArgumentException("RTO, Rc and Rm must be positive");
+    }
+
+    this.rto = rto;
+    this.rc = rc;
+    this.rm = rm;
+  }
+
+  public long getRto() {
+    return rto;
+  }
+
+  public int getRc() {
+    return rc;
+  }
+
+  public int getRm() {
+    return rm;
+  }
+
+  /**
+   * Time to wait after a request before the next retransmission, or before failing the
+   * transaction after the last one.
+   * 
+   * @param rto initial retransmission timeout of the transaction, in milliseconds
+   * @param attempt number of requests already sent, starting from 1
+   * 
+   * @return wait time in milliseconds
+   */
+  public long getWait(long rto, int attempt) {
+    if (attempt >= rc) {
+      return rm * rto;
+    }
+
+    return rto << Math.min(attempt - 1, 30);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("RetransmissionPolicy [rto=").append(rto).append(", rc=").append(rc)
+        .append(", rm=").append(rm).append("]");
+    return builder.toString();
+  }
+
+}
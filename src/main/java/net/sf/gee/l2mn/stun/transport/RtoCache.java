@@ -0,0 +1,360 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RFC-5389 - https://tools.ietf.org/html/rfc5389#section-7.2.1
+ * 
+ * The value for RTO SHOULD be cached by a client after the completion of the transaction, and used
+ * as the starting value for RTO for the next transaction to the same server (based on equality of
+ * IP address). The value SHOULD be considered stale and discarded after 10 minutes.
+ * 
+ * Each server has a {@link RtoEstimator}. As required by Karn's algorithm, only the transactions
+ * answered after their first request give a measurement: the response of a retransmitted request
+ * is ambiguous. A transaction that times out doubles the RTO of its server.
+ * 
+ * The cache is bounded and split in stripes, each with its own lock and its own least recently used
+ * order, so that transactions to different servers rarely contend. Idle entries are dropped when
+ * they are found, and when a stripe receives a new server.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class RtoCache {
+
+  /**
+   * Default maximum number of servers.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * Default time after which an unused entry is stale: 10 minutes.
+   */
+  public static final long DEFAULT_IDLE = TimeUnit.MINUTES.toMillis(10);
+
+  /**
+   * Default lower bound of a learned RTO, in milliseconds.
+   */
+  public static final long DEFAULT_MIN_RTO = 100L;
+
+  /**
+   * Default upper bound of a learned RTO, in milliseconds.
+   */
+  public static final long DEFAULT_MAX_RTO = 3000L;
+
+  private static final int STRIPES = 16;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  private final long idleNanos;
+
+  private final long minRto;
+
+  private final long maxRto;
+
+  /**
+   * Cache with the default bounds.
+   */
+  public RtoCache() {
+    this(DEFAULT_CAPACITY, DEFAULT_IDLE, DEFAULT_MIN_RTO, DEFAULT_MAX_RTO);
+  }
+
+  /**
+   * @param capacity maximum number of servers
+   * @param idleMillis time after which an unused entry is stale, in milliseconds
+   * @param minRto lower bound of a learned RTO, in milliseconds
+   * @param maxRto upper bound of a learned RTO, in milliseconds
+   */
+  public RtoCache(int capacity, long idleMillis, long minRto, long maxRto) {
+    super();
+
+    if (capacity <= 0 || idleMillis <= 0 || minRto <= 0 || maxRto < minRto) {
+      throw new IllegalArgumentException("invalid RTO cache bounds");
+    }
+
+    this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    this.minRto = minRto;
+    this.maxRto = maxRto;
+
+    final int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(perStripe);
+    }
+  }
+
+  private Stripe stripe(InetAddress address) {
+    final int hash = address.hashCode();
+
+    return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+  }
+
+  /**
+   * @param server server address
+   * @param defaultRto RTO of a server without measurements, in milliseconds
+   * 
+   * @return initial RTO of the next transaction to the server, in milliseconds
+   */
+  public long getRto(InetSocketAddress server, long defaultRto) {
+    final InetAddress address = server.getAddress();
+
+    if (address == null) {
+      return defaultRto;
+    }
+
+    final Stripe stripe = stripe(address);
+    final long now = System.nanoTime();
+
+    stripe.lock.lock();
+    try {
+      final RtoEstimator estimator = stripe.live(address, now);
+
+      return (estimator == null) ? defaultRto : estimator.rto;
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * @param server server address
+   * 
+   * @return smoothed round-trip time of the server in microseconds, -1 if unknown
+   */
+  public long getSmoothedRtt(InetSocketAddress server) {
+    final InetAddress address = server.getAddress();
+
+    if (address == null) {
+      return -1L;
+    }
+
+    final Stripe stripe = stripe(address);
+
+    stripe.lock.lock();
+    try {
+      final RtoEstimator estimator = stripe.live(address, System.nanoTime());
+
+      return (estimator == null) ? -1L : estimator.srtt;
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Record the response of a transaction.
+   * 
+   * @param server server address
+   * @param rttNanos time from the first request to the response, in nanoseconds
+   * @param attempts number of requests sent; the time is a measurement only if it is 1
+   * @param defaultRto RTO the transaction started with, in milliseconds
+   */
+  public void onResponse(InetSocketAddress server, long rttNanos, int attempts,
+      long defaultRto) {
+    final InetAddress address = server.getAddress();
+
+    if (address == null) {
+      return;
+    }
+
+    final Stripe stripe = stripe(address);
+    final long now = System.nanoTime();
+
+    stripe.lock.lock();
+    try {
+      // Karn's algorithm: which request was answered is unknown after a retransmission
+      if (attempts == 1) {
+        stripe.getOrCreate(address, defaultRto, now)
+            .sample(TimeUnit.NANOSECONDS.toMicros(rttNanos), minRto, maxRto);
+      }
+      else {
+        stripe.live(address, now);
+      }
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Record a transaction that timed out: the RTO of the server is doubled.
+   * 
+   * @param server server address
+   * @param defaultRto RTO the transaction started with, in milliseconds
+   */
+  public void onTimeout(InetSocketAddress server, long defaultRto) {
+    final InetAddress address = server.getAddress();
+
+    if (address == null) {
+      return;
+    }
+
+    final Stripe stripe = stripe(address);
+    final long now = System.nanoTime();
+
+    stripe.lock.lock();
+    try {
+      stripe.getOrCreate(address, defaultRto, now).backoff(maxRto);
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Drop the idle entries of every stripe.
+   * 
+   * @return number of entries dropped
+   */
+  public int evictIdle() {
+    final long now = System.nanoTime();
+    int evicted = 0;
+
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        evicted += stripe.evictIdle(now);
+      }
+      finally {
+        stripe.lock.unlock();
+      }
+    }
+
+    return evicted;
+  }
+
+  /**
+   * @return number of servers in the cache
+   */
+  public int size() {
+    int size = 0;
+
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        size += stripe.size();
+      }
+      finally {
+        stripe.lock.unlock();
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Drop every entry.
+   */
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        stripe.clear();
+      }
+      finally {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * One stripe: estimators in least recently used order, guarded by the lock of the stripe.
+   */
+  private final class Stripe extends LinkedHashMap<InetAddress, RtoEstimator> {
+
+    private static final long serialVersionUID = 1L;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final int capacity;
+
+    Stripe(int capacity) {
+      super(16, 0.75f, true);
+
+      this.capacity = capacity;
+    }
+
+    /**
+     * @return the estimator of the address, null if absent or idle
+     */
+    RtoEstimator live(InetAddress address, long now) {
+      final RtoEstimator estimator = get(address);
+
+      if (estimator == null) {
+        return null;
+      }
+
+      if (now - estimator.lastUsed > idleNanos) {
+        remove(address);
+
+        return null;
+      }
+
+      estimator.lastUsed = now;
+
+      return estimator;
+    }
+
+    RtoEstimator getOrCreate(InetAddress address, long defaultRto, long now) {
+      RtoEstimator estimator = live(address, now);
+
+      if (estimator == null) {
+        evictIdle(now);
+
+        estimator = new RtoEstimator(defaultRto, now);
+        put(address, estimator);
+      }
+
+      return estimator;
+    }
+
+    /**
+     * Remove the idle entries, starting from the least recently used.
+     */
+    int evictIdle(long now) {
+      int evicted = 0;
+
+      final Iterator<RtoEstimator> iterator = values().iterator();
+
+      while (iterator.hasNext()) {
+        if (now - iterator.next().lastUsed <= idleNanos) {
+          break;
+        }
+
+        iterator.remove();
+        evicted++;
+      }
+
+      return evicted;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<InetAddress, RtoEstimator> eldest) {
+      return size() > capacity;
+    }
+
+  }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+/**
+ * RFC-6298 - https://tools.ietf.org/html/rfc6298#section-2
+ * 
+ * Smoothed round-trip time (SRTT) and round-trip time variation (RTTVAR) of one server, and the
+ * RTO derived from them:
+ * 
+ * <pre>
+ * {@code
+ *   first measurement R:   SRTT <- R, RTTVAR <- R/2
+ *   next measurement R':   RTTVAR <- (1 - 1/4) * RTTVAR + 1/4 * |SRTT - R'|
+ *                          SRTT <- (1 - 1/8) * SRTT + 1/8 * R'
+ *   RTO <- SRTT + max (G, 4 * RTTVAR)
+ * }
+ * </pre>
+ * 
+ * Not thread safe: the state is guarded by the stripe lock of {@link RtoCache}.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+final class RtoEstimator {
+
+  /**
+   * Clock granularity G, in microseconds.
+   */
+  static final long GRANULARITY = 1000L;
+
+  /**
+   * Smoothed round-trip time in microseconds, -1 before the first measurement.
+   */
+  long srtt = -1L;
+
+  /**
+   * Round-trip time variation in microseconds.
+   */
+  long rttvar = 0L;
+
+  /**
+   * Current RTO in milliseconds.
+   */
+  long rto;
+
+  /**
+   * Time of the last use, by {@link System#nanoTime()}.
+   */
+  long lastUsed;
+
+  /**
+   * @param rto initial RTO, in milliseconds
+   * @param now current time, by {@link System#nanoTime()}
+   */
+  RtoEstimator(long rto, long now) {
+    super();
+
+    this.rto = rto;
+    this.lastUsed = now;
+  }
+
+  /**
+   * Add a measurement.
+   * 
+   * @param rtt round-trip time in microseconds
+   * @param minRto lower bound of the RTO, in milliseconds
+   * @param maxRto upper bound of the RTO, in milliseconds
+   */
+  void sample(long rtt, long minRto, long maxRto) {
+
+    if (srtt < 0L) {
+      srtt = rtt;
+      rttvar = rtt / 2;
+    }
+    else {
+      rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+      srtt = (7 * srtt + rtt) / 8;
+    }
+
+    // microseconds to milliseconds, rounded up
+    final long value = (srtt + Math.max(GRANULARITY, 4 * rttvar) + 999L) / 1000L;
+
+    rto = Math.max(minRto, Math.min(maxRto, value));
+  }
+
+  /**
+   * Double the RTO after a transaction timed out (RFC-6298 section 5.5). The backed off value is
+   * kept until the next valid measurement.
+   * 
+   * @param maxRto upper bound of the RTO, in milliseconds
+   */
+  void backoff(long maxRto) {
+    rto = Math.min(maxRto, rto * 2);
+  }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte stream under {@link StreamStunTransporter}: a plain TCP connection or a TLS session.
+ * 
+ * One thread reads, any thread writes: the writes must be serialized by the implementation.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+interface StreamChannel extends Closeable {
+
+  /**
+   * Blocking read.
+   * 
+   * @param dst destination buffer
+   * 
+   * @return number of bytes read, -1 at the end of the stream
+   * 
+   * @throws IOException
+   */
+  int read(ByteBuffer dst) throws IOException;
+
+  /**
+   * Write all the bytes of the buffer.
+   * 
+   * @param src source buffer
+   * 
+   * @throws IOException
+   */
+  void write(ByteBuffer src) throws IOException;
+
+}
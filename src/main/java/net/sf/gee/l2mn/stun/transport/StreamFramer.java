@@ -0,0 +1,97 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.sf.gee.l2mn.stun.message.ChannelData;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.util.StunUtil;
+
+/**
+ * Framing of STUN messages on a byte stream (RFC-5389 section 7.2.2): a message is the 20-byte
+ * header plus the attributes section, whose length is in the header. TURN ChannelData messages
+ * (RFC-5766 section 11.5) can be interleaved: over a stream they are padded to a multiple of four
+ * bytes.
+ * 
+ * The framer reads the buffer in place and never copies: the caller reads from the connection into
+ * the buffer, then calls {@link #frameLength(ByteBuffer)} until it returns 0, consuming each frame
+ * between the position and the returned length. The bytes of a partial frame are kept by
+ * compacting the buffer before the next read.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class StreamFramer {
+
+  /**
+   * Longest frame: STUN header plus the largest attributes section.
+   */
+  public static final int MAX_FRAME_LENGTH = MessageHeader.HEADER_LENGTH + 0xFFFF;
+
+  private StreamFramer() {
+    super();
+  }
+
+  /**
+   * @param buffer received bytes, between position and limit
+   * 
+   * @return length of the complete frame at the position of the buffer, 0 if more bytes are needed
+   * 
+   * @throws IOException if the stream does not start with a STUN or ChannelData message, or the
+   *         frame does not fit the buffer
+   */
+  public static int frameLength(ByteBuffer buffer) throws IOException {
+    final int offset = buffer.position();
+    final int available = buffer.remaining();
+
+    if (available < 4) {
+      return 0;
+    }
+
+    final int first = buffer.get(offset) & 0xC0;
+    final int length = buffer.getShort(offset + 2) & 0xFFFF;
+    final int frame;
+
+    if (first == 0x00) {
+      if ((length & 0x3) != 0) {
+        throw new IOException("STUN message length not multiple of 4");
+      }
+
+      if (available >= 8
+          && (buffer.getInt(offset + 4) & 0xFFFFFFFFL) != MessageHeader.MAGIC_COOKIE) {
+        throw new IOException("Wrong magic cookie in the stream");
+      }
+
+      frame = MessageHeader.HEADER_LENGTH + length;
+    }
+    else if (first == 0x40) {
+      frame = ChannelData.HEADER_LENGTH + length + StunUtil.padding(length);
+    }
+    else {
+      throw new IOException("Stream out of sync");
+    }
+
+    if (frame > buffer.capacity()) {
+      throw new IOException("Frame of " + frame + " bytes exceeds the buffer");
+    }
+
+    return (available >= frame) ? frame : 0;
+  }
+
+}
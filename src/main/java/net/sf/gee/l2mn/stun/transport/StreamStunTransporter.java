@@ -0,0 +1,581 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.metrics.StunMetrics;
+import net.sf.gee.l2mn.stun.util.BufferPool;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+import net.sf.gee.l2mn.stun.util.TransactionMap;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * STUN client over TCP or TLS (RFC-5389 section 7.2.2): many transactions are multiplexed on one
+ * connection and the responses are matched to the requests by transaction id, as in
+ * {@link AsyncStunTransporter}.
+ * 
+ * The receiver thread reads the stream into a single buffer and splits it with
+ * {@link StreamFramer}: every message is decoded in place, so partial and coalesced messages cost
+ * no copy. Only the bytes of a partial message are moved to the start of the buffer before the next
+ * read.
+ * 
+ * The transport is reliable, so the requests are never retransmitted: a transaction fails after
+ * {@link #DEFAULT_TIMEOUT} without a response. A broken connection fails all the outstanding
+ * transactions and the transporter must be recreated.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class StreamStunTransporter implements Transporter {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, StreamStunTransporter.class);
+
+  /**
+   * Transaction timeout Ti (RFC-5389 section 7.2.2), in milliseconds.
+   */
+  public static final long DEFAULT_TIMEOUT = 39500L;
+
+  /**
+   * Timeout of the connection and of the TLS handshake, in milliseconds.
+   */
+  public static final int CONNECT_TIMEOUT = 10000;
+
+  private final InetSocketAddress server;
+
+  private final StreamChannel stream;
+
+  private final SocketChannel channel;
+
+  private final TransactionMap<StunTransaction> transactions = new TransactionMap<>(1024);
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final BufferPool pool;
+
+  private final HashedTimerWheel timer;
+
+  private final Thread receiver;
+
+  private volatile long timeout = DEFAULT_TIMEOUT;
+
+  private volatile DatagramHandler handler = null;
+
+  private volatile StunMetrics metrics = null;
+
+  private volatile boolean closed = false;
+
+  /**
+   * Connect to the server over TCP, or over TLS with the default {@link SSLContext}.
+   * 
+   * @param host server host
+   * @param port server port
+   * @param tls true for TLS
+   * 
+   * @throws IOException
+   */
+  public StreamStunTransporter(String host, int port, boolean tls) throws IOException {
+    this(new InetSocketAddress(host, port), tls ? defaultContext() : null);
+  }
+
+  /**
+   * @param server server address
+   * @param sslContext context of the TLS session, null for plain TCP
+   * 
+   * @throws IOException
+   */
+  public StreamStunTransporter(InetSocketAddress server, SSLContext sslContext)
+      throws IOException {
+    this(server, sslContext, HashedTimerWheel.getDefault(), BufferPool.DEFAULT_DIRECT);
+  }
+
+  /**
+   * @param server server address
+   * @param sslContext context of the TLS session, null for plain TCP
+   * @param timer timer wheel of the transaction timeouts
+   * @param pool pool of the send buffers
+   * 
+   * @throws IOException if the connection or the TLS handshake fails
+   */
+  public StreamStunTransporter(InetSocketAddress server, SSLContext sslContext,
+      HashedTimerWheel timer, BufferPool pool) throws IOException {
+    super();
+
+    this.server = server;
+    this.timer = timer;
+    this.pool = pool;
+    this.channel = SocketChannel.open();
+
+    try {
+      channel.socket().setTcpNoDelay(true);
+      channel.socket().connect(server, CONNECT_TIMEOUT);
+
+      if (sslContext == null) {
+        this.stream = new PlainStream(channel);
+      }
+      else {
+        final SSLEngine engine =
+            sslContext.createSSLEngine(server.getHostString(), server.getPort());
+        engine.setUseClientMode(true);
+
+        // verify that the certificate matches the server name
+        final SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+
+        // a blocking read ignores SO_TIMEOUT: close the channel if the server stalls
+        final HashedTimerWheel.Timeout guard =
+            timer.schedule(this::closeChannel, CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        try {
+          this.stream = new TlsStream(channel, engine);
+        }
+        finally {
+          guard.cancel();
+        }
+      }
+    }
+    catch (IOException e) {
+      channel.close();
+
+      throw e;
+    }
+
+    this.receiver = new Thread(this::receiveLoop, "stun-stream-receiver");
+    this.receiver.setDaemon(true);
+    this.receiver.start();
+  }
+
+  private static SSLContext defaultContext() throws IOException {
+    try {
+      return SSLContext.getDefault();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void closeChannel() {
+    try {
+      channel.close();
+    }
+    catch (IOException e) {
+      LOGGER.logError(e);
+    }
+  }
+
+  public InetSocketAddress getServer() {
+    return server;
+  }
+
+  /**
+   * @return local address of the connection
+   * 
+   * @throws IOException
+   */
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @param timeout timeout of the next transactions, in milliseconds
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public StunMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @param metrics metrics of the transactions, null to record nothing
+   */
+  public void setMetrics(StunMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public DatagramHandler getDatagramHandler() {
+    return handler;
+  }
+
+  /**
+   * @param handler receiver of the messages that are not a response, for example TURN ChannelData
+   *        or indications, null to discard them. The source is always the server.
+   */
+  public void setDatagramHandler(DatagramHandler handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * Send a message outside of any transaction. The message must be framed: a STUN message, or a
+   * ChannelData message padded to a multiple of four bytes.
+   * 
+   * @param data message, from its position to its limit
+   * 
+   * @throws IOException
+   */
+  public void send(ByteBuffer data) throws IOException {
+    stream.write(data);
+  }
+
+  /**
+   * @return number of transactions waiting for a response
+   */
+  public int getPendingCount() {
+    lock.lock();
+    try {
+      return transactions.size();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.transport.Transporter#doBind(net.sf.gee.l2mn.stun.message.Message)
+   */
+  @Override
+  public Message doBind(Message request) throws IOException {
+
+    try {
+      return doBindAsync(request).get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new IOException("interrupted", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Send the request without waiting for the response.
+   * 
+   * @param request request message, with a unique transaction id
+   * 
+   * @return future completed with the response, or exceptionally with an {@link IOException}
+   */
+  public CompletableFuture<Message> doBindAsync(Message request) {
+
+    if (request == null || request.getHeader() == null) {
+      final CompletableFuture<Message> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new IOException("request is null or header is empty"));
+
+      return failed;
+    }
+
+    final StunTransaction tx = new StunTransaction(request, server);
+
+    // register before sending: the response can arrive before send() returns
+    lock.lock();
+    try {
+      if (closed) {
+        tx.future.completeExceptionally(new ClosedChannelException());
+
+        return tx.future;
+      }
+
+      if (transactions.put(tx.transactionIdHigh, tx.transactionIdLow, tx) != null) {
+        tx.future.completeExceptionally(new IOException("duplicate transaction id"));
+
+        return tx.future;
+      }
+
+      tx.attempts = 1;
+      tx.timeout = timer.schedule(() -> expire(tx), timeout, TimeUnit.MILLISECONDS);
+    }
+    finally {
+      lock.unlock();
+    }
+
+    // a cancelled future must not keep its slot
+    tx.future.whenComplete((response, error) -> {
+      if (error instanceof CancellationException) {
+        remove(tx);
+      }
+    });
+
+    final StunMetrics recorder = metrics;
+
+    if (recorder != null) {
+      recorder.onRequest();
+    }
+
+    final ByteBuffer buffer = pool.acquire();
+
+    try {
+      request.encodeTo(buffer);
+      buffer.flip();
+
+      stream.write(buffer);
+    }
+    catch (IOException e) {
+      LOGGER.logError(e);
+
+      remove(tx);
+      tx.future.completeExceptionally(e);
+    }
+    finally {
+      pool.release(buffer);
+    }
+
+    return tx.future;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+    }
+    finally {
+      lock.unlock();
+    }
+
+    stream.close();
+
+    failAll(new ClosedChannelException());
+  }
+
+  private void remove(StunTransaction tx) {
+    lock.lock();
+    try {
+      // remove only if the slot still belongs to this transaction
+      if (transactions.get(tx.transactionIdHigh, tx.transactionIdLow) == tx) {
+        transactions.remove(tx.transactionIdHigh, tx.transactionIdLow);
+      }
+
+      if (tx.timeout != null) {
+        tx.timeout.cancel();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Timer wheel callback: fail the transaction after Ti.
+   */
+  private void expire(StunTransaction tx) {
+
+    lock.lock();
+    try {
+      if (transactions.get(tx.transactionIdHigh, tx.transactionIdLow) != tx) {
+        return;
+      }
+
+      transactions.remove(tx.transactionIdHigh, tx.transactionIdLow);
+    }
+    finally {
+      lock.unlock();
+    }
+
+    LOGGER.logDebug("Transaction to %s timed out", server);
+
+    final StunMetrics recorder = metrics;
+
+    if (recorder != null) {
+      recorder.onTimeout();
+    }
+
+    tx.future.completeExceptionally(new SocketTimeoutException("STUN transaction timed out"));
+  }
+
+  private void failAll(IOException cause) {
+    final List<StunTransaction> pending;
+
+    lock.lock();
+    try {
+      pending = transactions.removeAll();
+    }
+    finally {
+      lock.unlock();
+    }
+
+    for (StunTransaction current : pending) {
+      if (current.timeout != null) {
+        current.timeout.cancel();
+      }
+
+      current.future.completeExceptionally(cause);
+    }
+  }
+
+  private void receiveLoop() {
+
+    // one frame of any size must fit, so the buffer is not pooled
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(StreamFramer.MAX_FRAME_LENGTH);
+    final MessageView view = new MessageView();
+
+    IOException cause = new ClosedChannelException();
+
+    try {
+      while (!closed) {
+
+        if (stream.read(buffer) < 0) {
+          cause = new EOFException("Connection closed by the server");
+          break;
+        }
+
+        buffer.flip();
+
+        int length;
+
+        while ((length = StreamFramer.frameLength(buffer)) > 0) {
+          final int end = buffer.position() + length;
+          final int limit = buffer.limit();
+
+          buffer.limit(end);
+          dispatch(buffer, view);
+
+          buffer.limit(limit);
+          buffer.position(end);
+        }
+
+        // keep the partial message, if any
+        buffer.compact();
+      }
+    }
+    catch (IOException e) {
+      if (!closed) {
+        LOGGER.logError(e);
+
+        cause = e;
+      }
+    }
+
+    // the connection is lost: no later request can succeed
+    closed = true;
+
+    try {
+      stream.close();
+    }
+    catch (IOException e) {
+      LOGGER.logError(e);
+    }
+
+    failAll(cause);
+  }
+
+  /**
+   * Complete the transaction of a response, or give the message to the handler.
+   * 
+   * @param buffer one frame, from position to limit
+   */
+  private void dispatch(ByteBuffer buffer, MessageView view) {
+
+    if (view.wrap(buffer).isStun()) {
+      StunTransaction tx;
+
+      lock.lock();
+      try {
+        tx = transactions.get(view.getTransactionIdHigh(), view.getTransactionIdLow());
+
+        if (tx != null) {
+          transactions.remove(tx.transactionIdHigh, tx.transactionIdLow);
+
+          if (tx.timeout != null) {
+            tx.timeout.cancel();
+          }
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+
+      if (tx != null) {
+        final StunMetrics recorder = metrics;
+
+        if (recorder != null) {
+          recorder.onResponse(tx.destination, System.nanoTime() - tx.start, view.getErrorCode());
+        }
+
+        try {
+          tx.future.complete(Message.decode(buffer));
+        }
+        catch (IOException e) {
+          tx.future.completeExceptionally(e);
+        }
+
+        return;
+      }
+    }
+
+    final DatagramHandler current = handler;
+
+    if (current == null) {
+      LOGGER.logDebug("Discard unexpected message from %s", server);
+
+      return;
+    }
+
+    try {
+      current.onDatagram(buffer, server);
+    }
+    catch (RuntimeException e) {
+      LOGGER.logError(e);
+    }
+  }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageTemplate;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+
+/**
+ * State of an outstanding client transaction of {@link AsyncStunTransporter}.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+final class StunTransaction {
+
+  /**
+   * Request message, null when the request is sent from a template.
+   */
+  final Message request;
+
+  /**
+   * Template of the request, null when the request is a message.
+   */
+  final MessageTemplate template;
+
+  final InetSocketAddress destination;
+
+  /**
+   * Accept the response from any source, see RFC-5780 CHANGE-REQUEST.
+   */
+  final boolean anySource;
+
+  final CompletableFuture<Message> future;
+
+  final long transactionIdHigh;
+
+  final int transactionIdLow;
+
+  /**
+   * Time of the first request, by {@link System#nanoTime()}.
+   */
+  final long start;
+
+  /**
+   * Initial RTO of the transaction, in milliseconds.
+   */
+  long rto = 0L;
+
+  /**
+   * Number of requests sent. Incremented under the lock of the transporter before each
+   * retransmission, read by the receiver for Karn's algorithm.
+   */
+  volatile int attempts = 0;
+
+  /**
+   * Next retransmission or failure of the transaction.
+   */
+  HashedTimerWheel.Timeout timeout = null;
+
+  /**
+   * @param request request message
+   * @param destination server address
+   */
+  StunTransaction(Message request, InetSocketAddress destination) {
+    this(request, destination, false);
+  }
+
+  /**
+   * @param request request message
+   * @param destination server address
+   * @param anySource accept the response from any source
+   */
+  StunTransaction(Message request, InetSocketAddress destination, boolean anySource) {
+    super();
+
+    this.request = request;
+    this.template = null;
+    this.destination = destination;
+    this.anySource = anySource;
+    this.future = new CompletableFuture<>();
+    this.transactionIdHigh = request.getHeader().getTransactionIdHigh();
+    this.transactionIdLow = request.getHeader().getTransactionIdLow();
+    this.start = System.nanoTime();
+  }
+
+  /**
+   * @param template template of the request
+   * @param transactionIdHigh first 8 bytes of the transaction id
+   * @param transactionIdLow last 4 bytes of the transaction id
+   * @param destination server address
+   */
+  StunTransaction(MessageTemplate template, long transactionIdHigh, int transactionIdLow,
+      InetSocketAddress destination) {
+    super();
+
+    this.request = null;
+    this.template = template;
+    this.destination = destination;
+    this.anySource = false;
+    this.future = new CompletableFuture<>();
+    this.transactionIdHigh = transactionIdHigh;
+    this.transactionIdLow = transactionIdLow;
+    this.start = System.nanoTime();
+  }
+
+}
@@ -21,15 +21,14 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.util.LinkedList;
-import java.util.List;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 import net.sf.gee.l2mn.stun.message.Message;
 import net.sf.gee.l2mn.stun.message.MessageHeader;
-import net.sf.gee.l2mn.stun.message.attribute.MessageAttribute;
-import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
-import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
-import net.sf.gee.l2mn.stun.util.StunUtil;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.metrics.StunMetrics;
+import net.sf.gee.l2mn.stun.util.BufferPool;
 import net.sf.gee.logger.factory.GLogFactory;
 import net.sf.gee.logger.log.SimpleGLogger;
 
@@ -49,16 +48,76 @@ public class StunTransporter implements Transporter {
 
   private final DatagramSocket client;
 
+  private final InetSocketAddress server;
+
+  private final MessageView view = new MessageView();
+
+  private final BufferPool pool;
+
+  private RetransmissionPolicy policy = RetransmissionPolicy.DEFAULT;
+
+  private StunMetrics metrics = null;
+
+  private RtoCache rtoCache = new RtoCache();
+
   /**
    * @throws SocketException
    * 
    */
   public StunTransporter(String host, int port) throws SocketException {
+    this(host, port, BufferPool.DEFAULT_HEAP);
+  }
+
+  /**
+   * @param host server host
+   * @param port server port
+   * @param pool pool of the send and receive buffers, it must provide heap buffers
+   * 
+   * @throws SocketException
+   */
+  public StunTransporter(String host, int port, BufferPool pool) throws SocketException {
     super();
 
-    InetSocketAddress hostAddress = new InetSocketAddress(host, port);
+    if (pool == null || pool.isDirect()) {
+      throw new IllegalArgumentException("a heap buffer pool is required");
+    }
+
+    this.pool = pool;
+
+    this.server = new InetSocketAddress(host, port);
     this.client = new DatagramSocket();
-    this.client.connect(hostAddress);
+    this.client.connect(server);
+  }
+
+  public RetransmissionPolicy getRetransmissionPolicy() {
+    return policy;
+  }
+
+  public void setRetransmissionPolicy(RetransmissionPolicy policy) {
+    this.policy = policy;
+  }
+
+  public StunMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @param metrics metrics of the transactions, null to record nothing
+   */
+  public void setMetrics(StunMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public RtoCache getRtoCache() {
+    return rtoCache;
+  }
+
+  /**
+   * @param rtoCache cache of the RTO learned per server, shared or not with other transporters;
+   *        null to start every transaction with the RTO of the policy
+   */
+  public void setRtoCache(RtoCache rtoCache) {
+    this.rtoCache = rtoCache;
   }
 
   /*
@@ -83,99 +142,150 @@ public class StunTransporter implements Transporter {
   @Override
   public Message doBind(Message request) throws IOException {
 
-    if (request == null || request.getHeader() == null || request.getHeader().getBytes() == null
-        || request.getHeader().getBytes().length == 0) {
+    if (request == null || request.getHeader() == null) {
 
       LOGGER.logError("Request is null or header is empty.");
 
       throw new IOException("request is null or header is empty");
     }
 
-    // get header
-    byte[] data = request.getHeader().getBytes();
-    DatagramPacket dp = new DatagramPacket(data, data.length);
+    final ByteBuffer sendBuffer = pool.acquire();
+    final ByteBuffer receiveBuffer = pool.acquire();
+    final Message response;
 
-    LOGGER.logDebug("Try to send .... ");
+    try {
+      // encode the whole request once
+      final int length = request.encodeTo(sendBuffer);
+      DatagramPacket dp =
+          new DatagramPacket(sendBuffer.array(), sendBuffer.arrayOffset(), length);
 
-    // send
-    client.send(dp);
+      DatagramPacket receivePacket = new DatagramPacket(receiveBuffer.array(),
+          receiveBuffer.arrayOffset(), receiveBuffer.capacity());
 
-    LOGGER.logDebug("Sent.");
+      final StunMetrics recorder = metrics;
+      final RtoCache cache = rtoCache;
+      final long start = System.nanoTime();
 
-    // prepare data
-    byte[] receiveData = new byte[1024];
-    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+      // a known server starts from its learned RTO
+      final long rto = (cache == null) ? policy.getRto() : cache.getRto(server, policy.getRto());
 
-    // receive
-    client.receive(receivePacket);
-    LOGGER.logDebug("Received: [%s]", receivePacket.getData().length);
+      if (recorder != null) {
+        recorder.onRequest();
+      }
 
-    // get header
-    byte[] header = StunUtil.subArray(receivePacket.getData(), 0, 19);
+      // send and retransmit until a response arrives (RFC-5389 section 7.2.1)
+      int attempts = 0;
+      boolean received = false;
 
-    LOGGER.logDebug("Parse header.");
+      while (!received) {
 
-    // parse header
-    MessageHeader msgHeader = MessageHeader.parse(header);
+        LOGGER.logDebug("Try to send .... ");
 
-    // check error
-    if (msgHeader.getType().isError()) {
-      LOGGER.logWarn("Message Header is an error.");
+        // send
+        client.send(dp);
+        attempts++;
 
-      return new Message(msgHeader);
-    }
+        if (recorder != null && attempts > 1) {
+          recorder.onRetransmit();
+        }
+
+        LOGGER.logDebug("Sent.");
+
+        received = receive(request.getHeader(), receivePacket, receiveBuffer.capacity(),
+            policy.getWait(rto, attempts));
+
+        if (!received && attempts >= policy.getRc()) {
+          LOGGER.logWarn("No response after " + attempts + " requests.");
 
-    LOGGER.logDebug(msgHeader.toString());
+          if (recorder != null) {
+            recorder.onTimeout();
+          }
 
-    // get body
-    byte[] body = StunUtil.subArray(receivePacket.getData(), 20, (20 + msgHeader.getLength()));
+          if (cache != null) {
+            cache.onTimeout(server, rto);
+          }
 
-    LOGGER.logDebug("Body [%s]", body.length);
+          throw new SocketTimeoutException("STUN transaction timed out");
+        }
+      }
 
-    // parse response
-    List<MessageAttribute> attrs = parseResponse(body);
+      final long rtt = System.nanoTime() - start;
 
-    // check
-    if (attrs.isEmpty()) {
-      return new Message(msgHeader);
+      // the view still wraps the response
+      if (recorder != null) {
+        recorder.onResponse(server, rtt, view.getErrorCode());
+      }
+
+      if (cache != null) {
+        cache.onResponse(server, rtt, attempts, rto);
+      }
+
+      LOGGER.logDebug("Parse message.");
+
+      // parse header and body: the attributes copy their values, the buffer goes back to the pool
+      response = Message.decode(ByteBuffer.wrap(receivePacket.getData(),
+          receivePacket.getOffset(), receivePacket.getLength()));
+    }
+    finally {
+      pool.release(sendBuffer);
+      pool.release(receiveBuffer);
     }
 
-    // response message
-    Message response = new Message(msgHeader);
+    // check error
+    if (response.getHeader().getType() != null && response.getHeader().getType().isError()) {
+      LOGGER.logWarn("Message Header is an error.");
+    }
 
-    // add all
-    response.getAttributes().addAll(attrs);
+    LOGGER.logDebug("%s", response);
 
     return response;
   }
 
   /**
-   * Parse response.
+   * Wait for the response of the request, discarding any other datagram.
    * 
-   * @param body byte array of packet body
+   * @param request header of the request
+   * @param packet receive packet
+   * @param capacity capacity of the receive packet
+   * @param wait maximum wait in milliseconds
    * 
-   * @return {@linkplain java.util.List} of {@link MessageAttribute}
+   * @return <code>true</code> if the response has been received, <code>false</code> on timeout
    * 
    * @throws IOException
    */
-  private List<MessageAttribute> parseResponse(byte[] body) throws IOException {
+  private boolean receive(MessageHeader request, DatagramPacket packet, int capacity,
+      long wait) throws IOException {
 
-    final List<MessageAttribute> attrs = new LinkedList<>();
+    final long deadline = System.currentTimeMillis() + wait;
 
-    // attribute type
-    int attrType = StunUtil.twoBytesToInteger(new byte[] {body[0], body[1]});
+    while (true) {
+      final long remaining = deadline - System.currentTimeMillis();
 
-    // attribute length
-    int attrLength = StunUtil.twoBytesToInteger(new byte[] {body[2], body[3]});
+      if (remaining <= 0) {
+        return false;
+      }
 
-    if (attrType == MessageAttributeType.XOR_MAPPED_ADDRESS.getCode()) {
+      try {
+        client.setSoTimeout((int) remaining);
 
-      // add to list
-      attrs.add(new XorMappedAddress(attrLength, StunUtil.subArray(body, 4, 4 + attrLength)));
-    }
+        packet.setLength(capacity);
+        client.receive(packet);
+      }
+      catch (SocketTimeoutException e) {
+        return false;
+      }
 
-    return attrs;
-  }
+      LOGGER.logDebug("Received: [%s]", packet.getLength());
 
+      // check the datagram in place before decoding it
+      if (view.wrap(packet.getData(), packet.getOffset(), packet.getLength()).isStun()
+          && view.getTransactionIdHigh() == request.getTransactionIdHigh()
+          && view.getTransactionIdLow() == request.getTransactionIdLow()) {
+        return true;
+      }
+
+      LOGGER.logDebug("Discard datagram, not the response of the request.");
+    }
+  }
 
 }
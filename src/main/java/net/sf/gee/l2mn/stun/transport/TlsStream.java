@@ -0,0 +1,242 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLException;
+
+/**
+ * {@link StreamChannel} on a TLS session: an {@link SSLEngine} over a blocking TCP
+ * {@link SocketChannel}. The handshake is done by the constructor.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+final class TlsStream implements StreamChannel {
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final SocketChannel channel;
+
+  private final SSLEngine engine;
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /**
+   * Encrypted bytes received, not yet unwrapped. Used by the reader only.
+   */
+  private final ByteBuffer netIn;
+
+  /**
+   * Decrypted bytes, not yet read. Used by the reader only.
+   */
+  private final ByteBuffer appIn;
+
+  /**
+   * Encrypted bytes to send, guarded by the write lock.
+   */
+  private final ByteBuffer netOut;
+
+  /**
+   * @param channel connected channel, in blocking mode
+   * @param engine engine in client mode
+   * 
+   * @throws IOException if the handshake fails
+   */
+  TlsStream(SocketChannel channel, SSLEngine engine) throws IOException {
+    super();
+
+    this.channel = channel;
+    this.engine = engine;
+    this.netIn = ByteBuffer.allocateDirect(engine.getSession().getPacketBufferSize());
+    this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    this.netOut = ByteBuffer.allocateDirect(engine.getSession().getPacketBufferSize());
+
+    handshake();
+  }
+
+  private void handshake() throws IOException {
+    engine.beginHandshake();
+
+    HandshakeStatus status = engine.getHandshakeStatus();
+
+    while (status != HandshakeStatus.FINISHED && status != HandshakeStatus.NOT_HANDSHAKING) {
+
+      switch (status) {
+        case NEED_WRAP:
+          status = wrap(EMPTY);
+          break;
+
+        case NEED_TASK:
+          runTasks();
+          status = engine.getHandshakeStatus();
+          break;
+
+        default:
+          // NEED_UNWRAP, or NEED_UNWRAP_AGAIN on recent JDKs
+          status = unwrap();
+
+          if (status == null) {
+            throw new SSLException("TLS session closed during the handshake");
+          }
+          break;
+      }
+    }
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+
+    while (appIn.position() == 0) {
+      final HandshakeStatus status = unwrap();
+
+      if (status == null) {
+        return -1;
+      }
+
+      // post-handshake messages, for example a TLS 1.3 key update
+      if (status == HandshakeStatus.NEED_WRAP) {
+        wrap(EMPTY);
+      }
+      else if (status == HandshakeStatus.NEED_TASK) {
+        runTasks();
+      }
+    }
+
+    appIn.flip();
+
+    final int count = Math.min(appIn.remaining(), dst.remaining());
+    final int limit = appIn.limit();
+
+    appIn.limit(appIn.position() + count);
+    dst.put(appIn);
+    appIn.limit(limit);
+    appIn.compact();
+
+    return count;
+  }
+
+  @Override
+  public void write(ByteBuffer src) throws IOException {
+
+    do {
+      wrap(src);
+    }
+    while (src.hasRemaining());
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      engine.closeOutbound();
+
+      if (channel.isOpen()) {
+        wrap(EMPTY);
+      }
+    }
+    catch (IOException e) {
+      // best effort close_notify
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Wrap and send one record.
+   */
+  private HandshakeStatus wrap(ByteBuffer src) throws IOException {
+    writeLock.lock();
+    try {
+      netOut.clear();
+
+      final SSLEngineResult result = engine.wrap(src, netOut);
+
+      if (result.getStatus() == Status.CLOSED && src.hasRemaining()) {
+        throw new SSLException("TLS session closed");
+      }
+
+      netOut.flip();
+
+      while (netOut.hasRemaining()) {
+        channel.write(netOut);
+      }
+
+      return result.getHandshakeStatus();
+    }
+    finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Unwrap one record, reading from the channel when more bytes are needed.
+   * 
+   * @return handshake status, null when the session is closed
+   */
+  private HandshakeStatus unwrap() throws IOException {
+
+    while (true) {
+      netIn.flip();
+
+      final SSLEngineResult result;
+
+      try {
+        result = engine.unwrap(netIn, appIn);
+      }
+      finally {
+        netIn.compact();
+      }
+
+      switch (result.getStatus()) {
+        case OK:
+          return result.getHandshakeStatus();
+
+        case CLOSED:
+          return null;
+
+        case BUFFER_UNDERFLOW:
+          if (channel.read(netIn) < 0) {
+            throw new EOFException("Connection closed by the server");
+          }
+          break;
+
+        default:
+          // BUFFER_OVERFLOW: appIn is drained by read() before the next unwrap
+          throw new SSLException("TLS application buffer overflow");
+      }
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+
+    while ((task = engine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+}
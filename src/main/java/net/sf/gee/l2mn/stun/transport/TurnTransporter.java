@@ -17,10 +17,63 @@
 package net.sf.gee.l2mn.stun.transport;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
+import net.sf.gee.l2mn.stun.message.ChannelData;
 import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.ChannelNumber;
+import net.sf.gee.l2mn.stun.message.attribute.ErrorCode;
+import net.sf.gee.l2mn.stun.message.attribute.Lifetime;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttribute;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.MessageIntegrity;
+import net.sf.gee.l2mn.stun.message.attribute.Nonce;
+import net.sf.gee.l2mn.stun.message.attribute.Realm;
+import net.sf.gee.l2mn.stun.message.attribute.RequestedTransport;
+import net.sf.gee.l2mn.stun.message.attribute.Username;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.message.attribute.XorPeerAddress;
+import net.sf.gee.l2mn.stun.message.attribute.XorRelayedAddress;
+import net.sf.gee.l2mn.stun.util.BufferPool;
+import net.sf.gee.l2mn.stun.util.CredentialKey;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
 
 /**
+ * TURN client over UDP (https://tools.ietf.org/html/rfc5766): Allocate, Refresh, CreatePermission
+ * and ChannelBind.
+ * 
+ * Every request is authenticated with the long-term credentials (RFC-5389 section 10.2): the first
+ * request is sent without them, the 401 response gives the REALM and the NONCE, the request is sent
+ * again with USERNAME, REALM, NONCE and MESSAGE-INTEGRITY. A 438 (Stale Nonce) response is
+ * answered in the same way with the new nonce.
+ * 
+ * The transactions run on an {@link AsyncStunTransporter}. The allocation, its permissions and its
+ * channels are refreshed by one task on a {@link HashedTimerWheel}, shared by default by all the
+ * instances: the refresh requests are sent without blocking the wheel, so a process can hold
+ * thousands of allocations without a refresh thread for each.
+ * 
+ * Once a channel is bound, the application data travels in ChannelData messages (RFC-5766 section
+ * 11.4): {@link #sendChannelData(int, ByteBuffer)} writes the 4-byte header and the payload in one
+ * pooled direct buffer, and the received ChannelData and Data indications are given to the
+ * {@link RelayListener} straight from the receive buffer. No {@link Message} is involved.
+ * 
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
  *
  */
@@ -28,38 +81,779 @@ public class TurnTransporter implements Transporter {
 
   private static final long serialVersionUID = 1L;
 
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, TurnTransporter.class);
+
+  /**
+   * Default lifetime of an allocation, in seconds.
+   */
+  public static final long DEFAULT_LIFETIME = 600L;
+
+  /**
+   * Lifetime of a permission, in seconds (RFC-5766 section 8).
+   */
+  public static final long PERMISSION_LIFETIME = 300L;
+
+  /**
+   * Refresh this number of seconds before the expiration; a failed refresh is sent again after a
+   * quarter of it.
+   */
+  public static final long REFRESH_MARGIN = 60L;
+
+  /**
+   * Maximum wait of the deallocation on close, in seconds.
+   */
+  private static final long CLOSE_TIMEOUT = 2L;
+
+  private final AsyncStunTransporter transport;
+
+  private final InetSocketAddress server;
+
+  private final String username;
+
+  private final String password;
+
+  private final HashedTimerWheel timer;
+
+  private final BufferPool pool;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Set<InetAddress> permissions = new LinkedHashSet<>();
+
+  /**
+   * Peers of the bound channels, indexed by channel number - 0x4000.
+   */
+  private final AtomicReferenceArray<InetSocketAddress> channels =
+      new AtomicReferenceArray<>(ChannelNumber.MAX_CHANNEL - ChannelNumber.MIN_CHANNEL + 1);
+
+  /**
+   * Only used by the receiver thread.
+   */
+  private final MessageView view = new MessageView();
+
+  private volatile RelayListener listener = null;
+
+  private String realm = null;
+
+  private String nonce = null;
+
+  private CredentialKey credential = null;
+
+  private InetSocketAddress relayedAddress = null;
+
+  private InetSocketAddress mappedAddress = null;
+
+  private long requestedLifetime = DEFAULT_LIFETIME;
+
+  private long lifetime = 0L;
+
+  private HashedTimerWheel.Timeout refresh = null;
+
+  private volatile boolean closed = false;
+
   /**
+   * @param host TURN server host
+   * @param port TURN server port
+   * @param username username of the long-term credentials
+   * @param password password of the long-term credentials
    * 
+   * @throws IOException
    */
-  public TurnTransporter() {
+  public TurnTransporter(String host, int port, String username, String password)
+      throws IOException {
+    this(null, new InetSocketAddress(host, port), username, password,
+        HashedTimerWheel.getDefault());
+  }
+
+  /**
+   * @param localAddress local address to bind, null for an ephemeral port
+   * @param server TURN server
+   * @param username username of the long-term credentials
+   * @param password password of the long-term credentials
+   * @param timer timer wheel of the retransmissions and of the refreshes
+   * 
+   * @throws IOException
+   */
+  public TurnTransporter(InetSocketAddress localAddress, InetSocketAddress server,
+      String username, String password, HashedTimerWheel timer) throws IOException {
+    this(localAddress, server, username, password, timer, BufferPool.DEFAULT_DIRECT);
+  }
+
+  /**
+   * @param localAddress local address to bind, null for an ephemeral port
+   * @param server TURN server
+   * @param username username of the long-term credentials
+   * @param password password of the long-term credentials
+   * @param timer timer wheel of the retransmissions and of the refreshes
+   * @param pool pool of the send and receive buffers
+   * 
+   * @throws IOException
+   */
+  public TurnTransporter(InetSocketAddress localAddress, InetSocketAddress server,
+      String username, String password, HashedTimerWheel timer, BufferPool pool)
+      throws IOException {
     super();
+
+    this.server = server;
+    this.username = username;
+    this.password = password;
+    this.timer = timer;
+    this.pool = pool;
+    this.transport = new AsyncStunTransporter(localAddress, server, timer, pool);
+    this.transport.setDatagramHandler(this::onDatagram);
+  }
+
+  /**
+   * @return local address of the client
+   * 
+   * @throws IOException
+   */
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return transport.getLocalAddress();
+  }
+
+  /**
+   * @return relayed transport address, null if there is no allocation
+   */
+  public InetSocketAddress getRelayedAddress() {
+    lock.lock();
+    try {
+      return relayedAddress;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return server reflexive address seen by the server, null if there is no allocation
+   */
+  public InetSocketAddress getMappedAddress() {
+    lock.lock();
+    try {
+      return mappedAddress;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return lifetime granted by the server with the last Allocate or Refresh, in seconds
+   */
+  public long getLifetime() {
+    lock.lock();
+    try {
+      return lifetime;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  public RetransmissionPolicy getRetransmissionPolicy() {
+    return transport.getRetransmissionPolicy();
+  }
+
+  /**
+   * @param policy policy applied to the next transactions
+   */
+  public void setRetransmissionPolicy(RetransmissionPolicy policy) {
+    transport.setRetransmissionPolicy(policy);
+  }
+
+  public RelayListener getRelayListener() {
+    return listener;
+  }
+
+  /**
+   * @param listener receiver of the data relayed from the peers, null to discard it
+   */
+  public void setRelayListener(RelayListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @param channel channel number
+   * 
+   * @return peer bound to the channel, null if the channel is not bound
+   */
+  public InetSocketAddress getChannelPeer(int channel) {
+    return ChannelNumber.isValid(channel) ? channels.get(channel - ChannelNumber.MIN_CHANNEL)
+        : null;
+  }
+
+  /**
+   * Send application data to the peer of a bound channel in a ChannelData message.
+   * 
+   * @param channel bound channel number
+   * @param payload application data, from its position to its limit; it is consumed
+   * 
+   * @throws IOException if the channel is not bound or the payload is too long
+   */
+  public void sendChannelData(int channel, ByteBuffer payload) throws IOException {
+
+    if (getChannelPeer(channel) == null) {
+      throw new IOException("Channel not bound: " + channel);
+    }
+
+    final ByteBuffer buffer = pool.acquire();
+
+    try {
+      ChannelData.encode(buffer, channel, payload, false);
+      buffer.flip();
+
+      transport.send(buffer, server);
+    }
+    finally {
+      pool.release(buffer);
+    }
   }
 
   /*
    * (non-Javadoc)
    * 
-   * @see java.io.Closeable#close()
+   * @see net.sf.gee.l2mn.stun.transport.Transporter#doBind(net.sf.gee.l2mn.stun.message.Message)
    */
   @Override
-  public void close() throws IOException {
-    // TODO Auto-generated method stub
+  public Message doBind(Message request) throws IOException {
+    ensureOpen();
+
+    return await(doBindAsync(request));
+  }
+
+  /**
+   * Send a request to the TURN server with the long-term credentials, answering the 401 and 438
+   * challenges of the server once.
+   * 
+   * @param request request message, USERNAME, REALM, NONCE and MESSAGE-INTEGRITY are added
+   * 
+   * @return future completed with the response
+   */
+  public CompletableFuture<Message> doBindAsync(Message request) {
+
+    return send(request).thenCompose(response -> {
+      if (challenge(response)) {
+        return send(request);
+      }
+
+      return CompletableFuture.completedFuture(response);
+    });
+  }
+
+  /**
+   * Allocate a relayed transport address with the default lifetime.
+   * 
+   * @return relayed transport address
+   * 
+   * @throws IOException
+   */
+  public InetSocketAddress allocate() throws IOException {
+    return allocate(DEFAULT_LIFETIME);
+  }
+
+  /**
+   * Allocate a relayed transport address (RFC-5766 section 6). The allocation is refreshed
+   * automatically until {@link #refresh(long)} with 0 or {@link #close()}.
+   * 
+   * @param seconds requested lifetime
+   * 
+   * @return relayed transport address
+   * 
+   * @throws IOException
+   */
+  public InetSocketAddress allocate(long seconds) throws IOException {
+    ensureOpen();
+
+    final Message request = new Message(new MessageHeader(MessageTypeEnum.ALLOCATEREQUEST));
+    request.addAttribute(new RequestedTransport(RequestedTransport.UDP));
+    request.addAttribute(new Lifetime(seconds));
+
+    final Message response = checkSuccess(await(doBindAsync(request)), "Allocate");
+
+    final XorRelayedAddress relayed =
+        (XorRelayedAddress) response.getAttribute(MessageAttributeType.XOR_RELAYED_ADDRESS);
+
+    if (relayed == null) {
+      throw new IOException("Allocate response without XOR-RELAYED-ADDRESS");
+    }
+
+    final XorMappedAddress mapped =
+        (XorMappedAddress) response.getAttribute(MessageAttributeType.XOR_MAPPED_ADDRESS);
+
+    lock.lock();
+    try {
+      this.relayedAddress = relayed.getSocketAddress(response.getHeader());
+      this.mappedAddress = (mapped == null) ? null : mapped.getSocketAddress(response.getHeader());
+      this.requestedLifetime = seconds;
+      this.lifetime = grantedLifetime(response, seconds);
+
+      scheduleRefresh(false);
+
+      return relayedAddress;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
 
+  /**
+   * Refresh the allocation (RFC-5766 section 7).
+   * 
+   * @param seconds requested lifetime, 0 to delete the allocation
+   * 
+   * @return lifetime granted by the server
+   * 
+   * @throws IOException
+   */
+  public long refresh(long seconds) throws IOException {
+    ensureOpen();
+
+    final Message response = checkSuccess(await(doBindAsync(refreshRequest(seconds))), "Refresh");
+
+    lock.lock();
+    try {
+      if (seconds == 0L) {
+        deallocated();
+
+        return 0L;
+      }
+
+      this.requestedLifetime = seconds;
+      this.lifetime = grantedLifetime(response, seconds);
+
+      scheduleRefresh(false);
+
+      return lifetime;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Install or refresh the permissions of the peers (RFC-5766 section 9). They are refreshed
+   * automatically with the allocation.
+   * 
+   * @param peers IP addresses of the peers
+   * 
+   * @throws IOException
+   */
+  public void createPermission(InetAddress... peers) throws IOException {
+    ensureOpen();
+
+    final List<InetAddress> list = new ArrayList<>(peers.length);
+
+    for (InetAddress current : peers) {
+      list.add(current);
+    }
+
+    checkSuccess(await(doBindAsync(createPermissionRequest(list))), "CreatePermission");
+
+    lock.lock();
+    try {
+      permissions.addAll(list);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Bind a channel to a peer (RFC-5766 section 11). The binding is refreshed automatically with
+   * the allocation.
+   * 
+   * @param channel channel number, from 0x4000 to 0x7FFF
+   * @param peer transport address of the peer
+   * 
+   * @throws IOException
+   */
+  public void channelBind(int channel, InetSocketAddress peer) throws IOException {
+    ensureOpen();
+
+    checkSuccess(await(doBindAsync(channelBindRequest(channel, peer))), "ChannelBind");
+
+    channels.set(channel - ChannelNumber.MIN_CHANNEL, peer);
   }
 
   /*
    * (non-Javadoc)
    * 
-   * @see net.sf.gee.l2mn.stun.transport.Transporter#doBind(net.sf.gee.l2mn.stun.message.Message)
+   * @see java.io.Closeable#close()
    */
   @Override
-  public Message doBind(Message request) throws IOException {
-    // Requested-transport : UDP
+  public void close() throws IOException {
+    final boolean allocated;
+
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      allocated = relayedAddress != null;
+
+      deallocated();
+    }
+    finally {
+      lock.unlock();
+    }
+
+    try {
+      // best effort: delete the allocation on the server
+      if (allocated) {
+        doBindAsync(refreshRequest(0L)).get(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+      }
+    }
+    catch (ExecutionException | TimeoutException e) {
+      LOGGER.logWarn("Allocation not deleted: " + e.getMessage());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      transport.close();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("TURN transporter closed");
+    }
+  }
+
+  /**
+   * Clear the state of the allocation. Called with the lock held.
+   */
+  private void deallocated() {
+    if (refresh != null) {
+      refresh.cancel();
+      refresh = null;
+    }
+
+    relayedAddress = null;
+    mappedAddress = null;
+    lifetime = 0L;
+    permissions.clear();
+
+    for (int i = 0; i < channels.length(); i++) {
+      channels.set(i, null);
+    }
+  }
+
+  /**
+   * Schedule the next refresh of the allocation, the permissions and the channels, before the
+   * first of them expires. Called with the lock held.
+   * 
+   * @param retry <code>true</code> after a failed refresh: it is sent again within the margin
+   */
+  private void scheduleRefresh(boolean retry) {
+    if (refresh != null) {
+      refresh.cancel();
+    }
+
+    final long expiration = Math.min(lifetime, PERMISSION_LIFETIME);
+    final long next = (expiration > 2 * REFRESH_MARGIN) ? expiration - REFRESH_MARGIN
+        : Math.max(1L, expiration / 2);
+    final long delay = retry ? Math.min(next, REFRESH_MARGIN / 4) : next;
+
+    refresh = timer.schedule(this::refreshAll, delay, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Timer wheel callback: send the refresh requests without waiting for the responses.
+   */
+  private void refreshAll() {
+    final List<CompletableFuture<Message>> pending = new ArrayList<>();
+
+    lock.lock();
+    try {
+      if (closed || relayedAddress == null) {
+        return;
+      }
+
+      final long seconds = requestedLifetime;
+
+      pending.add(doBindAsync(refreshRequest(seconds)).thenApply(response -> {
+        if (isSuccess(response)) {
+          lock.lock();
+          try {
+            lifetime = grantedLifetime(response, seconds);
+          }
+          finally {
+            lock.unlock();
+          }
+        }
+
+        return response;
+      }));
+
+      if (!permissions.isEmpty()) {
+        pending.add(doBindAsync(createPermissionRequest(new ArrayList<>(permissions))));
+      }
+
+      for (int i = 0; i < channels.length(); i++) {
+        final InetSocketAddress peer = channels.get(i);
+
+        if (peer != null) {
+          pending.add(doBindAsync(channelBindRequest(ChannelNumber.MIN_CHANNEL + i, peer)));
+        }
+      }
+    }
+    catch (IOException e) {
+      LOGGER.logError(e);
+    }
+    finally {
+      lock.unlock();
+    }
+
+    CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()]))
+        .whenComplete((result, error) -> {
+          boolean failed = false;
+          boolean mismatch = false;
+
+          // every request is done: a timed out one is completed exceptionally
+          for (CompletableFuture<Message> current : pending) {
+            final Message response = current.isCompletedExceptionally() ? null : current.join();
+
+            if (response == null || !isSuccess(response)) {
+              failed = true;
+              mismatch |= (response != null && isAllocationMismatch(response));
+            }
+          }
+
+          if (failed) {
+            LOGGER.logWarn("TURN refresh failed on " + server);
+          }
+
+          lock.lock();
+          try {
+            if (mismatch) {
+              // the server does not know the allocation any more
+              deallocated();
+            }
+            else if (!closed && relayedAddress != null) {
+              scheduleRefresh(failed);
+            }
+          }
+          finally {
+            lock.unlock();
+          }
+        });
+  }
+
+  /**
+   * Receiver thread: ChannelData messages and Data indications from the server.
+   */
+  private void onDatagram(ByteBuffer data, InetSocketAddress source) {
+    final RelayListener current = listener;
+
+    if (current == null || !server.equals(source)) {
+      return;
+    }
+
+    try {
+      if (ChannelData.isChannelData(data, data.position())) {
+        final int channel = ChannelData.decode(data);
+        final InetSocketAddress peer = channels.get(channel - ChannelNumber.MIN_CHANNEL);
+
+        if (peer != null) {
+          current.onData(peer, data);
+        }
+
+        return;
+      }
+
+      if (!view.wrap(data).isStun()
+          || view.getType() != MessageTypeEnum.DATAINDICATION.getValue()) {
+        return;
+      }
+
+      final int peerAttr = view.findAttribute(MessageAttributeType.XOR_PEER_ADDRESS.getCode());
+      final int dataAttr = view.findAttribute(MessageAttributeType.DATA.getCode());
+
+      if (peerAttr < 0 || dataAttr < 0) {
+        return;
+      }
+
+      final InetSocketAddress peer =
+          new InetSocketAddress(view.getXorAddress(peerAttr), view.getXorPort(peerAttr));
+      final int valueOffset = view.getAttributeValueOffset(dataAttr);
+
+      data.limit(valueOffset + view.getAttributeLength(dataAttr));
+      data.position(valueOffset);
+
+      current.onData(peer, data);
+    }
+    catch (IOException e) {
+      LOGGER.logDebug("Discard malformed relayed data: %s", e.getMessage());
+    }
+  }
+
+  private static Message refreshRequest(long seconds) {
+    final Message request = new Message(new MessageHeader(MessageTypeEnum.REFRESHREQUEST));
+    request.addAttribute(new Lifetime(seconds));
+
+    return request;
+  }
+
+  private static Message createPermissionRequest(List<InetAddress> peers) {
+    final Message request =
+        new Message(new MessageHeader(MessageTypeEnum.CREATEPERMISSIONREQUEST));
+
+    // the port is ignored by the server
+    for (InetAddress current : peers) {
+      request.addAttribute(new XorPeerAddress(new InetSocketAddress(current, 0)));
+    }
+
+    return request;
+  }
+
+  private static Message channelBindRequest(int channel, InetSocketAddress peer)
+      throws IOException {
+    final Message request = new Message(new MessageHeader(MessageTypeEnum.CHANNELBINDREQUEST));
+    request.addAttribute(new ChannelNumber(channel));
+    request.addAttribute(new XorPeerAddress(peer));
+
+    return request;
+  }
+
+  /**
+   * Send a copy of the request with a new transaction id and the current credentials.
+   */
+  private CompletableFuture<Message> send(Message request) {
+    final Message signed =
+        new Message(new MessageHeader(request.getHeader().getType()).randomTransactionId());
+
+    for (MessageAttribute current : request.getAttributes()) {
+      if (!isCredential(current.getType())) {
+        signed.addAttribute(current);
+      }
+    }
+
+    lock.lock();
+    try {
+      if (credential != null) {
+        signed.addAttribute(new Username(username));
+        signed.addAttribute(new Realm(realm));
+        signed.addAttribute(new Nonce(nonce));
+        signed.addAttribute(new MessageIntegrity(credential));
+      }
+    }
+    catch (IOException e) {
+      final CompletableFuture<Message> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+
+      return failed;
+    }
+    finally {
+      lock.unlock();
+    }
+
+    return transport.doBindAsync(signed, server);
+  }
+
+  private static boolean isCredential(int type) {
+    return type == MessageAttributeType.USERNAME.getCode()
+        || type == MessageAttributeType.REALM.getCode()
+        || type == MessageAttributeType.NONCE.getCode()
+        || type == MessageAttributeType.MESSAGE_INTEGRITY.getCode()
+        || type == MessageAttributeType.FINGERPRINT.getCode();
+  }
+
+  /**
+   * Take REALM and NONCE of a 401 or 438 response.
+   * 
+   * @return <code>true</code> if the request must be sent again
+   */
+  private boolean challenge(Message response) {
+    final MessageTypeEnum type = response.getHeader().getType();
+
+    if (type == null || !type.isError()) {
+      return false;
+    }
+
+    final ErrorCode error = (ErrorCode) response.getAttribute(MessageAttributeType.ERROR_CODE);
+    final Nonce newNonce = (Nonce) response.getAttribute(MessageAttributeType.NONCE);
+    final Realm newRealm = (Realm) response.getAttribute(MessageAttributeType.REALM);
+
+    if (error == null || newNonce == null || (error.getCode() != ErrorCode.UNAUTHORIZED
+        && error.getCode() != ErrorCode.STALE_NONCE)) {
+      return false;
+    }
+
+    lock.lock();
+    try {
+      if (newRealm != null) {
+        realm = newRealm.getRealm();
+      }
+
+      if (realm == null) {
+        return false;
+      }
+
+      nonce = newNonce.getNonce();
+      credential = CredentialKey.longTerm(username, realm, password);
+
+      return true;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private static long grantedLifetime(Message response, long requested) {
+    final Lifetime granted = (Lifetime) response.getAttribute(MessageAttributeType.LIFETIME);
+
+    return (granted == null) ? requested : granted.getSeconds();
+  }
+
+  private static boolean isSuccess(Message response) {
+    final MessageTypeEnum type = response.getHeader().getType();
+
+    return type != null && type.isSuccess();
+  }
+
+  private static boolean isAllocationMismatch(Message response) {
+    final ErrorCode error = (ErrorCode) response.getAttribute(MessageAttributeType.ERROR_CODE);
+
+    return error != null && error.getCode() == ErrorCode.ALLOCATION_MISMATCH;
+  }
+
+  private static Message checkSuccess(Message response, String method) throws IOException {
+
+    if (isSuccess(response)) {
+      return response;
+    }
+
+    final ErrorCode error = (ErrorCode) response.getAttribute(MessageAttributeType.ERROR_CODE);
+
+    if (error == null) {
+      throw new IOException(method + " failed");
+    }
+
+    throw new IOException(method + " failed: " + error.getCode() + " " + error.getReason());
+  }
+
+  private static Message await(CompletableFuture<Message> future) throws IOException {
 
-    // Lifetime
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
 
-    // fingerprint
+      throw new IOException("interrupted", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
 
-    return null;
+      throw new IOException(e.getCause());
+    }
   }
 
 }
@@ -0,0 +1,71 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of fixed size {@link ByteBuffer}s used by the transport layer for sending and receiving
+ * datagrams.
+ * 
+ * A buffer obtained with {@link #acquire()} belongs to the caller until it is given back with
+ * {@link #release(ByteBuffer)}. A buffer must not be used after its release.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public interface BufferPool {
+
+  /**
+   * Default size of the pooled buffers, enough for any STUN datagram on common MTUs.
+   */
+  int DEFAULT_BUFFER_SIZE = 2048;
+
+  /**
+   * Shared pool of heap buffers, needed by the {@link java.net.DatagramSocket} transporters.
+   */
+  BufferPool DEFAULT_HEAP = new ThreadLocalBufferPool(false, DEFAULT_BUFFER_SIZE);
+
+  /**
+   * Shared pool of direct buffers, for the {@link java.nio.channels.DatagramChannel}
+   * transporters.
+   */
+  BufferPool DEFAULT_DIRECT = new ThreadLocalBufferPool(true, DEFAULT_BUFFER_SIZE);
+
+  /**
+   * @return a cleared buffer of {@link #getBufferSize()} bytes
+   */
+  ByteBuffer acquire();
+
+  /**
+   * Give back a buffer obtained with {@link #acquire()}.
+   * 
+   * @param buffer buffer to release, ignored if null
+   */
+  void release(ByteBuffer buffer);
+
+  /**
+   * @return capacity of the buffers
+   */
+  int getBufferSize();
+
+  /**
+   * @return <code>true</code> if the buffers are direct
+   */
+  boolean isDirect();
+
+}
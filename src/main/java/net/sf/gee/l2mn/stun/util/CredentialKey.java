@@ -0,0 +1,327 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA1 key of MESSAGE-INTEGRITY (RFC-5389 section 15.4).
+ * 
+ * <pre>
+ * {@code
+ *   long-term  : key = MD5(username ":" realm ":" SASLprep(password))
+ *   short-term : key = SASLprep(password)
+ * }
+ * </pre>
+ * 
+ * The derivation (SASLprep and MD5) is done once per credential: keys are cached on (kind,
+ * username, realm, password). Every key keeps one {@link Mac} per thread, already initialized
+ * with the key, so signing or verifying a message costs one HMAC pass over its bytes.
+ * 
+ * The cache holds at most {@link #MAX_CACHED_KEYS} keys; when it is full it is cleared.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class CredentialKey {
+
+  public static final String ALGORITHM = "HmacSHA1";
+
+  /**
+   * Length of the HMAC-SHA1 output.
+   */
+  public static final int HMAC_LENGTH = 20;
+
+  /**
+   * Maximum number of cached keys.
+   */
+  public static final int MAX_CACHED_KEYS = 10000;
+
+  private static final ConcurrentMap<Credential, CredentialKey> CACHE = new ConcurrentHashMap<>();
+
+  /**
+   * Mutable lookup key, one per thread: a cache hit does not allocate.
+   */
+  private static final ThreadLocal<Credential> LOOKUP = ThreadLocal.withInitial(Credential::new);
+
+  private final byte[] key;
+
+  private final SecretKeySpec keySpec;
+
+  private final ThreadLocal<Mac> mac;
+
+  /**
+   * @param key raw key bytes
+   */
+  public CredentialKey(byte[] key) {
+    super();
+
+    this.key = key.clone();
+    this.keySpec = new SecretKeySpec(this.key, ALGORITHM);
+    this.mac = ThreadLocal.withInitial(this::newMac);
+  }
+
+  /**
+   * Long-term credential key, from the cache.
+   * 
+   * @param username username, SASLprep already applied
+   * @param realm realm
+   * @param password password, SASLprep is applied
+   * 
+   * @return {@link CredentialKey}
+   */
+  public static CredentialKey longTerm(String username, String realm, String password) {
+
+    final CredentialKey cached = lookup(true, username, realm, password);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    final String plainTextKey =
+        String.format("%s:%s:%s", username, realm, StunUtil.saslPrep(password));
+
+    try {
+      final MessageDigest md5Hash = MessageDigest.getInstance("MD5");
+
+      return cache(new Credential().set(true, username, realm, password), new CredentialKey(
+          md5Hash.digest(plainTextKey.getBytes(StandardCharsets.UTF_8))));
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Short-term credential key, from the cache.
+   * 
+   * @param password password, SASLprep is applied
+   * 
+   * @return {@link CredentialKey}
+   */
+  public static CredentialKey shortTerm(String password) {
+
+    final CredentialKey cached = lookup(false, null, null, password);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    final String prepared = StunUtil.saslPrep(password);
+
+    return cache(new Credential().set(false, null, null, password), new CredentialKey(
+        ((prepared == null) ? "" : prepared).getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Cache lookup with the key of the thread, cleared after: it does not keep the password.
+   */
+  private static CredentialKey lookup(boolean longTerm, String username, String realm,
+      String password) {
+
+    final Credential lookup = LOOKUP.get();
+
+    try {
+      return CACHE.get(lookup.set(longTerm, username, realm, password));
+    }
+    finally {
+      lookup.set(false, null, null, null);
+    }
+  }
+
+  private static CredentialKey cache(Credential credential, CredentialKey key) {
+
+    if (CACHE.size() >= MAX_CACHED_KEYS) {
+      CACHE.clear();
+    }
+
+    final CredentialKey previous = CACHE.putIfAbsent(credential, key);
+
+    return (previous == null) ? key : previous;
+  }
+
+  /**
+   * @return a copy of the raw key
+   */
+  public byte[] getKey() {
+    return key.clone();
+  }
+
+  /**
+   * @return the key as hexadecimal string
+   */
+  public String toHex() {
+    final StringBuilder builder = new StringBuilder(key.length * 2);
+
+    for (byte current : key) {
+      builder.append(String.format("%02x", current & 0xFF));
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * @return the {@link Mac} of the current thread, initialized with this key and reset
+   */
+  public Mac getMac() {
+    final Mac current = mac.get();
+    current.reset();
+
+    return current;
+  }
+
+  /**
+   * HMAC-SHA1 of the bytes between <code>from</code> (inclusive) and <code>to</code> (exclusive)
+   * of the buffer. Position and limit of the buffer are not modified.
+   * 
+   * @param buffer source buffer
+   * @param from first byte
+   * @param to end of the range
+   * @param out destination array, at least 20 bytes from <code>outOffset</code>
+   * @param outOffset offset in the destination
+   * 
+   * @throws IOException
+   */
+  public void hmac(ByteBuffer buffer, int from, int to, byte[] out, int outOffset)
+      throws IOException {
+
+    final Mac current = getMac();
+
+    update(current, buffer, from, to);
+
+    try {
+      current.doFinal(out, outOffset);
+    }
+    catch (ShortBufferException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Feed the bytes between <code>from</code> and <code>to</code> of the buffer to the MAC, without
+   * modifying position and limit of the buffer.
+   * 
+   * @param mac destination MAC
+   * @param buffer source buffer
+   * @param from first byte
+   * @param to end of the range
+   */
+  public static void update(Mac mac, ByteBuffer buffer, int from, int to) {
+
+    if (buffer.hasArray()) {
+      mac.update(buffer.array(), buffer.arrayOffset() + from, to - from);
+
+      return;
+    }
+
+    final int position = buffer.position();
+    final int limit = buffer.limit();
+
+    buffer.limit(to).position(from);
+    mac.update(buffer);
+    buffer.limit(limit).position(position);
+  }
+
+  private Mac newMac() {
+    try {
+      final Mac instance = Mac.getInstance(ALGORITHM);
+      instance.init(keySpec);
+
+      return instance;
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(key);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    CredentialKey other = (CredentialKey) obj;
+    return Arrays.equals(key, other.key);
+  }
+
+  /**
+   * Cache key: (kind, username, realm, password).
+   */
+  private static final class Credential {
+
+    private boolean longTerm = false;
+
+    private String username = null;
+
+    private String realm = null;
+
+    private String password = null;
+
+    private Credential set(boolean longTerm, String username, String realm, String password) {
+      this.longTerm = longTerm;
+      this.username = username;
+      this.realm = realm;
+      this.password = password;
+
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + (longTerm ? 1231 : 1237);
+      result = prime * result + Objects.hashCode(username);
+      result = prime * result + Objects.hashCode(realm);
+      result = prime * result + Objects.hashCode(password);
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null)
+        return false;
+      if (getClass() != obj.getClass())
+        return false;
+      Credential other = (Credential) obj;
+      return longTerm == other.longTerm && Objects.equals(username, other.username)
+          && Objects.equals(realm, other.realm) && Objects.equals(password, other.password);
+    }
+  }
+
+}
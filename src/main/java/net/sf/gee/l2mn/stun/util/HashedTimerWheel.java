@@ -0,0 +1,281 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * Hashed timer wheel: a single thread advances a circular array of buckets at a fixed tick. A
+ * timeout is put in the bucket of its expiration tick, with the number of full rounds still to
+ * wait. Scheduling and cancelling cost O(1); on each tick only the current bucket is visited.
+ * 
+ * Tasks run on the wheel thread and must be short and not blocking. The precision of a timeout is
+ * the tick duration.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class HashedTimerWheel implements Closeable {
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, HashedTimerWheel.class);
+
+  private static volatile HashedTimerWheel defaultWheel = null;
+
+  private final long tickNanos;
+
+  private final Bucket[] wheel;
+
+  private final int mask;
+
+  private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+  private final Thread worker;
+
+  private final long startTime;
+
+  private volatile boolean closed = false;
+
+  private long tick = 0;
+
+  /**
+   * @param name name of the wheel thread
+   * @param tickDuration duration of a tick
+   * @param unit unit of the tick duration
+   * @param wheelSize number of buckets, rounded to a power of 2
+   */
+  public HashedTimerWheel(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+    super();
+
+    if (tickDuration <= 0 || wheelSize <= 0) {
+      throw new IllegalArgumentException("tick duration and wheel size must be positive");
+    }
+
+    final int size = Integer.highestOneBit(wheelSize - 1) << 1;
+
+    this.tickNanos = unit.toNanos(tickDuration);
+    this.wheel = new Bucket[Math.max(1, size)];
+    this.mask = wheel.length - 1;
+
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new Bucket();
+    }
+
+    this.startTime = System.nanoTime();
+
+    this.worker = new Thread(this::run, name);
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * @return shared wheel with a 10 ms tick, created on first use
+   */
+  public static HashedTimerWheel getDefault() {
+    if (defaultWheel == null) {
+      synchronized (HashedTimerWheel.class) {
+        if (defaultWheel == null) {
+          defaultWheel = new HashedTimerWheel("stun-timer-wheel", 10, TimeUnit.MILLISECONDS, 512);
+        }
+      }
+    }
+
+    return defaultWheel;
+  }
+
+  /**
+   * Schedule a task. It can be called from any thread.
+   * 
+   * @param task task to run on the wheel thread
+   * @param delay delay before the execution
+   * @param unit unit of the delay
+   * 
+   * @return {@link Timeout} to cancel the task
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+
+    if (closed) {
+      throw new IllegalStateException("timer wheel closed");
+    }
+
+    final Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+    pending.add(timeout);
+
+    return timeout;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() {
+    closed = true;
+    worker.interrupt();
+  }
+
+  private void run() {
+
+    while (!closed) {
+      final long deadline = (tick + 1) * tickNanos;
+      final long sleep = deadline - (System.nanoTime() - startTime);
+
+      if (sleep > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleep);
+        }
+        catch (InterruptedException e) {
+          continue;
+        }
+      }
+
+      transferPending();
+      expire(wheel[(int) (tick & mask)]);
+      tick++;
+    }
+  }
+
+  private void transferPending() {
+    Timeout timeout;
+
+    while ((timeout = pending.poll()) != null) {
+      if (timeout.cancelled) {
+        continue;
+      }
+
+      // never schedule in the past: expired timeouts go in the current bucket
+      final long ticks = Math.max(timeout.deadline / tickNanos, tick);
+
+      timeout.remainingRounds = (ticks - tick) / wheel.length;
+      wheel[(int) (ticks & mask)].add(timeout);
+    }
+  }
+
+  private void expire(Bucket bucket) {
+    Timeout timeout = bucket.head;
+
+    while (timeout != null) {
+      final Timeout next = timeout.next;
+
+      if (timeout.cancelled) {
+        bucket.remove(timeout);
+      }
+      else if (timeout.remainingRounds <= 0) {
+        bucket.remove(timeout);
+
+        try {
+          timeout.task.run();
+        }
+        catch (RuntimeException e) {
+          LOGGER.logError(e);
+        }
+      }
+      else {
+        timeout.remainingRounds--;
+      }
+
+      timeout = next;
+    }
+  }
+
+  /**
+   * Handle of a scheduled task.
+   */
+  public static final class Timeout {
+
+    private final Runnable task;
+
+    private final long deadline;
+
+    private long remainingRounds = 0;
+
+    private volatile boolean cancelled = false;
+
+    private Timeout prev = null;
+
+    private Timeout next = null;
+
+    private Timeout(Runnable task, long deadline) {
+      super();
+
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancel the task. The slot is released on the next visit of its bucket.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  /**
+   * Doubly linked list of timeouts, accessed only by the wheel thread.
+   */
+  private static final class Bucket {
+
+    private Timeout head = null;
+
+    private Timeout tail = null;
+
+    private void add(Timeout timeout) {
+      timeout.prev = tail;
+      timeout.next = null;
+
+      if (tail == null) {
+        head = timeout;
+      }
+      else {
+        tail.next = timeout;
+      }
+
+      tail = timeout;
+    }
+
+    private void remove(Timeout timeout) {
+      if (timeout.prev == null) {
+        head = timeout.next;
+      }
+      else {
+        timeout.prev.next = timeout.next;
+      }
+
+      if (timeout.next == null) {
+        tail = timeout.prev;
+      }
+      else {
+        timeout.next.prev = timeout.prev;
+      }
+
+      timeout.prev = null;
+      timeout.next = null;
+    }
+  }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.util.function.Predicate;
+
+/**
+ * Open addressing hash map keyed by a primitive <code>long</code>, for example an IPv4 address and
+ * a port packed together. It has the same layout as {@link TransactionMap}: linear probing, load
+ * factor under 0.5 and backward shift deletion. Lookup, insert and remove do not allocate, except
+ * when the table grows.
+ * 
+ * The map is not thread safe: callers must guard it with their own lock, or confine it to one
+ * thread.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ * @param <V> value type
+ */
+public final class LongMap<V> {
+
+  private long[] keys;
+
+  private Object[] values;
+
+  private int mask;
+
+  private int size = 0;
+
+  /**
+   * @param expectedSize expected number of entries
+   */
+  public LongMap(int expectedSize) {
+    super();
+
+    allocate(Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param key key
+   * 
+   * @return the value, null if not present
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    final int index = indexOf(key);
+
+    return (index < 0) ? null : (V) values[index];
+  }
+
+  /**
+   * @param key key
+   * @param value not null value
+   * 
+   * @return the previous value, null if not present
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+
+    if (value == null) {
+      throw new IllegalArgumentException("value is null");
+    }
+
+    int index = hash(key) & mask;
+
+    while (values[index] != null) {
+      if (keys[index] == key) {
+        final V previous = (V) values[index];
+        values[index] = value;
+
+        return previous;
+      }
+
+      index = (index + 1) & mask;
+    }
+
+    keys[index] = key;
+    values[index] = value;
+
+    // keep load factor under 0.5
+    if (++size * 2 > values.length) {
+      rehash(values.length << 1);
+    }
+
+    return null;
+  }
+
+  /**
+   * @param key key
+   * 
+   * @return the removed value, null if not present
+   */
+  public V remove(long key) {
+    final int index = indexOf(key);
+
+    return (index < 0) ? null : removeAt(index);
+  }
+
+  /**
+   * Remove the entries whose value matches the filter.
+   * 
+   * @param filter filter of the values
+   * 
+   * @return number of removed entries
+   */
+  @SuppressWarnings("unchecked")
+  public int removeIf(Predicate<? super V> filter) {
+    int removed = 0;
+    int index = 0;
+
+    while (index < values.length) {
+      // the backward shift can move another entry in the slot: check it again
+      if (values[index] != null && filter.test((V) values[index])) {
+        removeAt(index);
+        removed++;
+      }
+      else {
+        index++;
+      }
+    }
+
+    return removed;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V removeAt(int slot) {
+    int index = slot;
+
+    final V previous = (V) values[index];
+    values[index] = null;
+    size--;
+
+    // backward shift of the following entries of the cluster
+    int next = (index + 1) & mask;
+
+    while (values[next] != null) {
+      final int home = hash(keys[next]) & mask;
+
+      if (((next - home) & mask) >= ((next - index) & mask)) {
+        keys[index] = keys[next];
+        values[index] = values[next];
+        values[next] = null;
+        index = next;
+      }
+
+      next = (next + 1) & mask;
+    }
+
+    return previous;
+  }
+
+  private int indexOf(long key) {
+    int index = hash(key) & mask;
+
+    while (values[index] != null) {
+      if (keys[index] == key) {
+        return index;
+      }
+
+      index = (index + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private void allocate(int capacity) {
+    this.keys = new long[capacity];
+    this.values = new Object[capacity];
+    this.mask = capacity - 1;
+  }
+
+  private void rehash(int capacity) {
+    final long[] oldKeys = keys;
+    final Object[] oldValues = values;
+
+    allocate(capacity);
+
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != null) {
+        int index = hash(oldKeys[i]) & mask;
+
+        while (values[index] != null) {
+          index = (index + 1) & mask;
+        }
+
+        keys[index] = oldKeys[i];
+        values[index] = oldValues[i];
+      }
+    }
+  }
+
+}
@@ -0,0 +1,359 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Stateless NONCE of the long-term credentials (RFC-5389 section 10.2). The nonce carries the time
+ * it was issued and an HMAC-SHA256, under a server key, of that time and of the client address:
+ * 
+ * <pre>
+ * {@code
+ *   nonce = hex( key id | issued seconds | HMAC-SHA256(key, key id | issued | address)[0..16] )
+ * }
+ * </pre>
+ * 
+ * Any server knowing the key validates the nonce without a table of issued nonces and without
+ * memory per client: the cost is one HMAC and a comparison in constant time. A nonce is valid from
+ * the client address it was issued to, for {@link #getLifetime()} seconds.
+ * 
+ * Keys are identified by a number in [0, 255], so that the servers of a cluster can rotate them:
+ * the new key is first added on every server with {@link #addKey(int, byte[])}, then made current
+ * with {@link #rotate(int, byte[])}; the old key is removed with {@link #removeKey(int)} after one
+ * lifetime, when the nonces issued with it are expired anyway.
+ * 
+ * The issuer is thread safe.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class NonceIssuer {
+
+  public static final String ALGORITHM = "HmacSHA256";
+
+  /**
+   * Default lifetime of a nonce, in seconds.
+   */
+  public static final long DEFAULT_LIFETIME = 600L;
+
+  /**
+   * Length of a random key.
+   */
+  public static final int KEY_LENGTH = 32;
+
+  /**
+   * Length of the truncated HMAC in the nonce.
+   */
+  private static final int MAC_LENGTH = 16;
+
+  /**
+   * Length of the nonce before the hexadecimal encoding.
+   */
+  private static final int TOKEN_LENGTH = 1 + 4 + MAC_LENGTH;
+
+  /**
+   * Nonces issued up to this many seconds in the future are accepted (clock skew of the cluster).
+   */
+  private static final long MAX_SKEW = 30L;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * Input of the HMAC and its output, one per thread.
+   */
+  private static final ThreadLocal<byte[][]> SCRATCH =
+      ThreadLocal.withInitial(() -> new byte[][] { new byte[1 + 4 + 16], new byte[32] });
+
+  private final AtomicReferenceArray<NonceKey> keys = new AtomicReferenceArray<>(256);
+
+  private final long lifetime;
+
+  private volatile int current;
+
+  /**
+   * Issuer with a random key of id 0, for a single server.
+   */
+  public NonceIssuer() {
+    this(0, randomKey(), DEFAULT_LIFETIME);
+  }
+
+  /**
+   * @param keyId id of the key, in [0, 255]
+   * @param key key shared by the servers of the cluster
+   * @param lifetime lifetime of a nonce, in seconds
+   */
+  public NonceIssuer(int keyId, byte[] key, long lifetime) {
+    super();
+
+    if (lifetime <= 0L) {
+      throw new IllegalArgumentException("lifetime must be positive");
+    }
+
+    this.lifetime = lifetime;
+    rotate(keyId, key);
+  }
+
+  /**
+   * @return a new random key
+   */
+  public static byte[] randomKey() {
+    final byte[] key = new byte[KEY_LENGTH];
+    new SecureRandom().nextBytes(key);
+
+    return key;
+  }
+
+  /**
+   * @return lifetime of a nonce, in seconds
+   */
+  public long getLifetime() {
+    return lifetime;
+  }
+
+  /**
+   * @return id of the key of the new nonces
+   */
+  public int getCurrentKeyId() {
+    return current;
+  }
+
+  /**
+   * Accept the nonces of a key, without issuing with it.
+   * 
+   * @param keyId id of the key, in [0, 255]
+   * @param key the key
+   */
+  public void addKey(int keyId, byte[] key) {
+    keys.set(checkId(keyId), new NonceKey(key));
+  }
+
+  /**
+   * Add the key and issue the new nonces with it. The nonces of the previous key stay valid until
+   * it is removed.
+   * 
+   * @param keyId id of the key, in [0, 255]
+   * @param key the key
+   */
+  public void rotate(int keyId, byte[] key) {
+    addKey(keyId, key);
+    current = keyId;
+  }
+
+  /**
+   * Reject the nonces of a key. The current key cannot be removed.
+   * 
+   * @param keyId id of the key, in [0, 255]
+   */
+  public void removeKey(int keyId) {
+
+    if (checkId(keyId) == current) {
+      throw new IllegalArgumentException("cannot remove the current key " + keyId);
+    }
+
+    keys.set(keyId, null);
+  }
+
+  /**
+   * @param client address of the client
+   * 
+   * @return a new nonce for the client
+   */
+  public String issue(InetAddress client) {
+    return issue(client, System.currentTimeMillis());
+  }
+
+  /**
+   * @param client address of the client
+   * @param now current time, in milliseconds
+   * 
+   * @return a new nonce for the client
+   */
+  public String issue(InetAddress client, long now) {
+    final int keyId = current;
+    final int issued = (int) (now / 1000L);
+    final byte[] mac = mac(keys.get(keyId), keyId, issued, client);
+
+    final char[] text = new char[TOKEN_LENGTH * 2];
+    int index = 0;
+
+    index = hex(text, index, keyId);
+
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      index = hex(text, index, issued >>> shift);
+    }
+
+    for (int i = 0; i < MAC_LENGTH; i++) {
+      index = hex(text, index, mac[i]);
+    }
+
+    return new String(text);
+  }
+
+  /**
+   * @param nonce nonce of the request
+   * @param client address of the client
+   * 
+   * @return true if the nonce was issued to the client by a known key and is not expired
+   */
+  public boolean validate(String nonce, InetAddress client) {
+    return validate(nonce, client, System.currentTimeMillis());
+  }
+
+  /**
+   * @param nonce nonce of the request
+   * @param client address of the client
+   * @param now current time, in milliseconds
+   * 
+   * @return true if the nonce was issued to the client by a known key and is not expired
+   */
+  public boolean validate(String nonce, InetAddress client, long now) {
+
+    if (nonce == null || nonce.length() != TOKEN_LENGTH * 2) {
+      return false;
+    }
+
+    final int keyId = unhex(nonce, 0);
+    int issued = 0;
+    int invalid = keyId;
+
+    for (int i = 1; i < 5; i++) {
+      final int value = unhex(nonce, i);
+      invalid |= value;
+      issued = (issued << 8) | (value & 0xFF);
+    }
+
+    final NonceKey key = (invalid < 0) ? null : keys.get(keyId);
+
+    if (key == null) {
+      return false;
+    }
+
+    // unsigned seconds: valid until 2106
+    final long age = now / 1000L - (issued & 0xFFFFFFFFL);
+
+    if (age < -MAX_SKEW || age >= lifetime) {
+      return false;
+    }
+
+    final byte[] mac = mac(key, keyId, issued, client);
+
+    // no early exit on the first different byte; an invalid digit sets the high bits
+    int diff = 0;
+
+    for (int i = 0; i < MAC_LENGTH; i++) {
+      diff |= unhex(nonce, 5 + i) ^ (mac[i] & 0xFF);
+    }
+
+    return diff == 0;
+  }
+
+  private static byte[] mac(NonceKey key, int keyId, int issued, InetAddress client) {
+    final byte[][] scratch = SCRATCH.get();
+    final byte[] input = scratch[0];
+
+    input[0] = (byte) keyId;
+    input[1] = (byte) (issued >>> 24);
+    input[2] = (byte) (issued >>> 16);
+    input[3] = (byte) (issued >>> 8);
+    input[4] = (byte) issued;
+
+    final byte[] address = client.getAddress();
+    System.arraycopy(address, 0, input, 5, address.length);
+
+    final Mac current = key.mac.get();
+    current.reset();
+    current.update(input, 0, 5 + address.length);
+
+    try {
+      current.doFinal(scratch[1], 0);
+    }
+    catch (ShortBufferException e) {
+      throw new IllegalStateException(e);
+    }
+
+    return scratch[1];
+  }
+
+  private static int hex(char[] text, int index, int value) {
+    text[index] = HEX[(value >>> 4) & 0x0F];
+    text[index + 1] = HEX[value & 0x0F];
+
+    return index + 2;
+  }
+
+  /**
+   * @return the byte at <code>index</code>, negative if the digits are not lower case hexadecimal
+   */
+  private static int unhex(String text, int index) {
+    return (digit(text.charAt(index * 2)) << 4) | digit(text.charAt(index * 2 + 1));
+  }
+
+  private static int digit(char value) {
+
+    if (value >= '0' && value <= '9') {
+      return value - '0';
+    }
+
+    if (value >= 'a' && value <= 'f') {
+      return value - 'a' + 10;
+    }
+
+    return 0xFFFFFF00;
+  }
+
+  private static int checkId(int keyId) {
+
+    if (keyId < 0 || keyId > 255) {
+      throw new IllegalArgumentException("key id must be in [0, 255]: " + keyId);
+    }
+
+    return keyId;
+  }
+
+  /**
+   * Key with one initialized {@link Mac} per thread.
+   */
+  private static final class NonceKey {
+
+    private final ThreadLocal<Mac> mac;
+
+    private NonceKey(byte[] key) {
+      final SecretKeySpec keySpec = new SecretKeySpec(key.clone(), ALGORITHM);
+
+      this.mac = ThreadLocal.withInitial(() -> {
+        try {
+          final Mac instance = Mac.getInstance(ALGORITHM);
+          instance.init(keySpec);
+
+          return instance;
+        }
+        catch (GeneralSecurityException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for blocking STUN checks, for example with
+ * {@link net.sf.gee.l2mn.stun.transport.ChannelStunTransporter}.
+ * 
+ * This is the Java 8 implementation: daemon platform threads. The multi-release jar carries a
+ * Java 21 implementation with the same API that creates virtual threads, so that the same code
+ * runs many thousands of concurrent checks on a recent JVM.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class StunThreads {
+
+  private StunThreads() {
+    super();
+  }
+
+  /**
+   * @return <code>true</code> if the threads of this class are virtual threads
+   */
+  public static boolean isVirtual() {
+    return false;
+  }
+
+  /**
+   * @param prefix prefix of the thread names, followed by a counter
+   * 
+   * @return factory of daemon threads
+   */
+  public static ThreadFactory newThreadFactory(String prefix) {
+    final AtomicInteger counter = new AtomicInteger();
+
+    return task -> {
+      final Thread thread = new Thread(task, prefix + "-" + counter.getAndIncrement());
+      thread.setDaemon(true);
+
+      return thread;
+    };
+  }
+
+  /**
+   * @param prefix prefix of the thread names
+   * 
+   * @return executor that runs every task in its own thread, reused when idle
+   */
+  public static ExecutorService newPerTaskExecutor(String prefix) {
+    return Executors.newCachedThreadPool(newThreadFactory(prefix));
+  }
+
+}
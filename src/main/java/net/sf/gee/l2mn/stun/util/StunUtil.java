@@ -165,6 +165,16 @@ public final class StunUtil implements Serializable {
     return result;
   }
 
+  /**
+   * Number of padding bytes needed to align a value of the given length on a 32-bit boundary.
+   * 
+   * @param length length of the value
+   * @return 0, 1, 2 or 3
+   */
+  public static final int padding(int length) {
+    return (4 - (length & 0x3)) & 0x3;
+  }
+
   /**
    * @param source
    * @return
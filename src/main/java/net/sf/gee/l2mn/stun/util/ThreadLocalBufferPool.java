@@ -0,0 +1,184 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link BufferPool} with a small cache per thread and a bounded shared queue behind it.
+ * 
+ * A thread that acquires and releases its buffers, as a transporter does for every request, only
+ * touches its own cache: no lock and no allocation. The shared queue takes the buffers released
+ * by a thread with a full cache (for example a buffer acquired by one thread and released by
+ * another) and gives them to threads with an empty one. When both are full a released buffer is
+ * left to the garbage collector.
+ * 
+ * With a thread cache size of 0 only the shared queue is used. This is the pool for virtual
+ * threads: a cache per virtual thread would allocate its own buffers and strand them when the
+ * thread ends.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class ThreadLocalBufferPool implements BufferPool {
+
+  /**
+   * Default number of buffers cached by each thread.
+   */
+  public static final int DEFAULT_THREAD_CACHE_SIZE = 8;
+
+  /**
+   * Default number of buffers of the shared queue.
+   */
+  public static final int DEFAULT_SHARED_CAPACITY = 256;
+
+  private final boolean direct;
+
+  private final int bufferSize;
+
+  private final int threadCacheSize;
+
+  private final int sharedCapacity;
+
+  private final ThreadLocal<ArrayDeque<ByteBuffer>> cache;
+
+  private final ConcurrentLinkedQueue<ByteBuffer> shared = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger sharedSize = new AtomicInteger();
+
+  private final LongAdder allocated = new LongAdder();
+
+  /**
+   * @param direct <code>true</code> for direct buffers
+   * @param bufferSize capacity of the buffers
+   */
+  public ThreadLocalBufferPool(boolean direct, int bufferSize) {
+    this(direct, bufferSize, DEFAULT_THREAD_CACHE_SIZE, DEFAULT_SHARED_CAPACITY);
+  }
+
+  /**
+   * @param direct <code>true</code> for direct buffers
+   * @param bufferSize capacity of the buffers
+   * @param threadCacheSize number of buffers cached by each thread
+   * @param sharedCapacity number of buffers of the shared queue
+   */
+  public ThreadLocalBufferPool(boolean direct, int bufferSize, int threadCacheSize,
+      int sharedCapacity) {
+    super();
+
+    if (bufferSize <= 0 || threadCacheSize < 0 || sharedCapacity < 0) {
+      throw new IllegalArgumentException("invalid pool size");
+    }
+
+    this.direct = direct;
+    this.bufferSize = bufferSize;
+    this.threadCacheSize = threadCacheSize;
+    this.sharedCapacity = sharedCapacity;
+    this.cache = ThreadLocal.withInitial(() -> new ArrayDeque<>(Math.max(threadCacheSize, 1)));
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.util.BufferPool#acquire()
+   */
+  @Override
+  public ByteBuffer acquire() {
+
+    ByteBuffer buffer = (threadCacheSize == 0) ? null : cache.get().pollLast();
+
+    if (buffer == null) {
+      buffer = shared.poll();
+
+      if (buffer != null) {
+        sharedSize.decrementAndGet();
+      }
+      else {
+        allocated.increment();
+        buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+      }
+    }
+
+    buffer.clear();
+
+    return buffer;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.util.BufferPool#release(java.nio.ByteBuffer)
+   */
+  @Override
+  public void release(ByteBuffer buffer) {
+
+    // foreign buffers are not pooled
+    if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct
+        || buffer.isReadOnly()) {
+      return;
+    }
+
+    if (threadCacheSize > 0) {
+      final ArrayDeque<ByteBuffer> local = cache.get();
+
+      if (local.size() < threadCacheSize) {
+        local.addLast(buffer);
+
+        return;
+      }
+    }
+
+    if (sharedSize.incrementAndGet() <= sharedCapacity) {
+      shared.offer(buffer);
+    }
+    else {
+      sharedSize.decrementAndGet();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.util.BufferPool#getBufferSize()
+   */
+  @Override
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.util.BufferPool#isDirect()
+   */
+  @Override
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * @return number of buffers allocated by the pool since its creation
+   */
+  public long getAllocatedCount() {
+    return allocated.sum();
+  }
+
+}
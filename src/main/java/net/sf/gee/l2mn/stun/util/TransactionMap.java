@@ -0,0 +1,219 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+
+/**
+ * Open addressing hash map keyed by a 96-bit transaction id kept as primitives (see
+ * {@link MessageHeader#getTransactionIdHigh()} and {@link MessageHeader#getTransactionIdLow()}).
+ * Lookup, insert and remove do not allocate, except when the table grows.
+ * 
+ * The map is not thread safe: callers must guard it with their own lock.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ * @param <V> value type
+ */
+public final class TransactionMap<V> {
+
+  private long[] highs;
+
+  private int[] lows;
+
+  private Object[] values;
+
+  private int mask;
+
+  private int size = 0;
+
+  /**
+   * @param expectedSize expected number of entries
+   */
+  public TransactionMap(int expectedSize) {
+    super();
+
+    allocate(Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param high first 8 bytes of the transaction id
+   * @param low last 4 bytes of the transaction id
+   * 
+   * @return the value, null if not present
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long high, int low) {
+    final int index = indexOf(high, low);
+
+    return (index < 0) ? null : (V) values[index];
+  }
+
+  /**
+   * @param high first 8 bytes of the transaction id
+   * @param low last 4 bytes of the transaction id
+   * @param value not null value
+   * 
+   * @return the previous value, null if not present
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long high, int low, V value) {
+
+    if (value == null) {
+      throw new IllegalArgumentException("value is null");
+    }
+
+    int index = MessageHeader.hashTransactionId(high, low) & mask;
+
+    while (values[index] != null) {
+      if (highs[index] == high && lows[index] == low) {
+        final V previous = (V) values[index];
+        values[index] = value;
+
+        return previous;
+      }
+
+      index = (index + 1) & mask;
+    }
+
+    highs[index] = high;
+    lows[index] = low;
+    values[index] = value;
+
+    // keep load factor under 0.5
+    if (++size * 2 > values.length) {
+      rehash(values.length << 1);
+    }
+
+    return null;
+  }
+
+  /**
+   * @param high first 8 bytes of the transaction id
+   * @param low last 4 bytes of the transaction id
+   * 
+   * @return the removed value, null if not present
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(long high, int low) {
+    int index = indexOf(high, low);
+
+    if (index < 0) {
+      return null;
+    }
+
+    final V previous = (V) values[index];
+    values[index] = null;
+    size--;
+
+    // backward shift of the following entries of the cluster
+    int next = (index + 1) & mask;
+
+    while (values[next] != null) {
+      final int home = MessageHeader.hashTransactionId(highs[next], lows[next]) & mask;
+
+      if (((next - home) & mask) >= ((next - index) & mask)) {
+        highs[index] = highs[next];
+        lows[index] = lows[next];
+        values[index] = values[next];
+        values[next] = null;
+        index = next;
+      }
+
+      next = (next + 1) & mask;
+    }
+
+    return previous;
+  }
+
+  /**
+   * Remove all the entries.
+   * 
+   * @return the removed values
+   */
+  @SuppressWarnings("unchecked")
+  public List<V> removeAll() {
+    final List<V> removed = new ArrayList<>(size);
+
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        removed.add((V) values[i]);
+      }
+    }
+
+    Arrays.fill(values, null);
+    size = 0;
+
+    return removed;
+  }
+
+  private int indexOf(long high, int low) {
+    int index = MessageHeader.hashTransactionId(high, low) & mask;
+
+    while (values[index] != null) {
+      if (highs[index] == high && lows[index] == low) {
+        return index;
+      }
+
+      index = (index + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  private void allocate(int capacity) {
+    this.highs = new long[capacity];
+    this.lows = new int[capacity];
+    this.values = new Object[capacity];
+    this.mask = capacity - 1;
+  }
+
+  private void rehash(int capacity) {
+    final long[] oldHighs = highs;
+    final int[] oldLows = lows;
+    final Object[] oldValues = values;
+
+    allocate(capacity);
+
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != null) {
+        int index = MessageHeader.hashTransactionId(oldHighs[i], oldLows[i]) & mask;
+
+        while (values[index] != null) {
+          index = (index + 1) & mask;
+        }
+
+        highs[index] = oldHighs[i];
+        lows[index] = oldLows[i];
+        values[index] = oldValues[i];
+      }
+    }
+  }
+
+}
@@ -0,0 +1,333 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.metrics.StunMetrics;
+import net.sf.gee.l2mn.stun.util.BufferPool;
+import net.sf.gee.l2mn.stun.util.ThreadLocalBufferPool;
+import net.sf.gee.logger.factory.GLogFactory;
+import net.sf.gee.logger.log.SimpleGLogger;
+
+/**
+ * Blocking STUN client on a {@link DatagramChannel}: the same contract as {@link StunTransporter},
+ * with NIO underneath and a {@link ReentrantLock} instead of monitors, so that it can be called
+ * from virtual threads.
+ * 
+ * This is the Java 21 implementation, loaded from the multi-release jar. The channel is blocking
+ * and the timed wait of the response goes through the socket adaptor of the channel: on a virtual
+ * thread the wait parks the thread and releases its carrier, with no {@link
+ * java.nio.channels.Selector} per instance.
+ * 
+ * An instance runs one transaction at a time: concurrent callers wait for the lock. Many
+ * concurrent checks use one instance per caller, or {@link AsyncStunTransporter}.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class ChannelStunTransporter implements Transporter {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final SimpleGLogger LOGGER =
+      GLogFactory.getInstance().getLogger(SimpleGLogger.class, ChannelStunTransporter.class);
+
+  /**
+   * Default RTO cache, shared: a check usually opens its own transporter and would learn nothing
+   * with a cache per instance.
+   */
+  private static final RtoCache SHARED_RTO_CACHE = new RtoCache();
+
+  /**
+   * Number of buffers kept by the default pool.
+   */
+  private static final int SHARED_CAPACITY = 1024;
+
+  /**
+   * Default pool: the shared queue alone, a thread cache would be lost with each virtual thread.
+   */
+  private static final BufferPool SHARED_HEAP =
+      new ThreadLocalBufferPool(false, BufferPool.DEFAULT_BUFFER_SIZE, 0, SHARED_CAPACITY);
+
+  private final InetSocketAddress server;
+
+  private final DatagramChannel channel;
+
+  /**
+   * Adaptor of the channel, for the receive with timeout.
+   */
+  private final DatagramSocket socket;
+
+  private final BufferPool pool;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Guarded by the lock.
+   */
+  private final MessageView view = new MessageView();
+
+  private volatile RetransmissionPolicy policy = RetransmissionPolicy.DEFAULT;
+
+  private volatile StunMetrics metrics = null;
+
+  private volatile RtoCache rtoCache = SHARED_RTO_CACHE;
+
+  /**
+   * @param host server host
+   * @param port server port
+   * 
+   * @throws IOException
+   */
+  public ChannelStunTransporter(String host, int port) throws IOException {
+    this(new InetSocketAddress(host, port));
+  }
+
+  /**
+   * @param server server address
+   * 
+   * @throws IOException
+   */
+  public ChannelStunTransporter(InetSocketAddress server) throws IOException {
+    this(server, SHARED_HEAP);
+  }
+
+  /**
+   * @param server server address
+   * @param pool pool of heap buffers, shared by the transporters
+   * 
+   * @throws IOException
+   */
+  public ChannelStunTransporter(InetSocketAddress server, BufferPool pool) throws IOException {
+    super();
+
+    if (pool == null || pool.isDirect()) {
+      throw new IllegalArgumentException("a heap buffer pool is required");
+    }
+
+    this.pool = pool;
+    this.server = server;
+    this.channel = DatagramChannel.open();
+
+    try {
+      channel.connect(server);
+    }
+    catch (IOException e) {
+      channel.close();
+
+      throw e;
+    }
+
+    this.socket = channel.socket();
+  }
+
+  /**
+   * @return local address of the channel
+   * 
+   * @throws IOException
+   */
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  public RetransmissionPolicy getRetransmissionPolicy() {
+    return policy;
+  }
+
+  public void setRetransmissionPolicy(RetransmissionPolicy policy) {
+    this.policy = policy;
+  }
+
+  public StunMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @param metrics metrics of the transactions, null to record nothing
+   */
+  public void setMetrics(StunMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public RtoCache getRtoCache() {
+    return rtoCache;
+  }
+
+  /**
+   * @param rtoCache cache of the RTO learned per server, shared by default by all the
+   *        {@link ChannelStunTransporter}s; null to start every transaction with the RTO of the
+   *        policy
+   */
+  public void setRtoCache(RtoCache rtoCache) {
+    this.rtoCache = rtoCache;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see net.sf.gee.l2mn.stun.transport.Transporter#doBind(net.sf.gee.l2mn.stun.message.Message)
+   */
+  @Override
+  public Message doBind(Message request) throws IOException {
+
+    if (request == null || request.getHeader() == null) {
+      throw new IOException("request is null or header is empty");
+    }
+
+    try {
+      lock.lockInterruptibly();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new IOException("interrupted", e);
+    }
+
+    final ByteBuffer sendBuffer = pool.acquire();
+    final ByteBuffer receiveBuffer = pool.acquire();
+
+    try {
+      request.encodeTo(sendBuffer);
+      sendBuffer.flip();
+
+      final DatagramPacket packet = new DatagramPacket(receiveBuffer.array(),
+          receiveBuffer.arrayOffset(), receiveBuffer.capacity());
+
+      final RetransmissionPolicy current = policy;
+      final StunMetrics recorder = metrics;
+      final RtoCache cache = rtoCache;
+      final long start = System.nanoTime();
+
+      // a known server starts from its learned RTO
+      final long rto =
+          (cache == null) ? current.getRto() : cache.getRto(server, current.getRto());
+
+      if (recorder != null) {
+        recorder.onRequest();
+      }
+
+      int attempts = 1;
+
+      // send and retransmit until a response arrives (RFC-5389 section 7.2.1)
+      for (;; attempts++) {
+        sendBuffer.rewind();
+        channel.write(sendBuffer);
+
+        if (recorder != null && attempts > 1) {
+          recorder.onRetransmit();
+        }
+
+        if (receive(request.getHeader(), packet, receiveBuffer.capacity(),
+            current.getWait(rto, attempts))) {
+          break;
+        }
+
+        if (attempts >= current.getRc()) {
+          if (recorder != null) {
+            recorder.onTimeout();
+          }
+
+          if (cache != null) {
+            cache.onTimeout(server, rto);
+          }
+
+          throw new SocketTimeoutException("STUN transaction timed out");
+        }
+      }
+
+      final long rtt = System.nanoTime() - start;
+
+      // the view still wraps the response
+      if (recorder != null) {
+        recorder.onResponse(server, rtt, view.getErrorCode());
+      }
+
+      // Karn's rule: only a response to the first request is a sample
+      if (cache != null) {
+        cache.onResponse(server, rtt, attempts, rto);
+      }
+
+      return Message.decode(
+          ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
+    }
+    finally {
+      pool.release(sendBuffer);
+      pool.release(receiveBuffer);
+
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait for the response of the request, discarding any other datagram.
+   * 
+   * @return <code>true</code> if the response is in the packet, <code>false</code> on timeout
+   */
+  private boolean receive(MessageHeader request, DatagramPacket packet, int capacity, long wait)
+      throws IOException {
+
+    final long deadline = System.nanoTime() + wait * 1000000L;
+
+    while (true) {
+      final long remaining = (deadline - System.nanoTime()) / 1000000L;
+
+      if (remaining <= 0) {
+        return false;
+      }
+
+      try {
+        socket.setSoTimeout((int) remaining);
+
+        packet.setLength(capacity);
+        socket.receive(packet);
+      }
+      catch (SocketTimeoutException e) {
+        return false;
+      }
+
+      if (view.wrap(packet.getData(), packet.getOffset(), packet.getLength()).isStun()
+          && view.getTransactionIdHigh() == request.getTransactionIdHigh()
+          && view.getTransactionIdLow() == request.getTransactionIdLow()) {
+        return true;
+      }
+
+      LOGGER.logDebug("Discard datagram, not the response of the request.");
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads for blocking STUN checks, for example with
+ * {@link net.sf.gee.l2mn.stun.transport.ChannelStunTransporter}.
+ * 
+ * This is the Java 21 implementation, loaded from the multi-release jar: virtual threads.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public final class StunThreads {
+
+  private StunThreads() {
+    super();
+  }
+
+  /**
+   * @return <code>true</code> if the threads of this class are virtual threads
+   */
+  public static boolean isVirtual() {
+    return true;
+  }
+
+  /**
+   * @param prefix prefix of the thread names, followed by a counter
+   * 
+   * @return factory of virtual threads
+   */
+  public static ThreadFactory newThreadFactory(String prefix) {
+    return Thread.ofVirtual().name(prefix + "-", 0L).factory();
+  }
+
+  /**
+   * @param prefix prefix of the thread names
+   * 
+   * @return executor that runs every task in a new virtual thread
+   */
+  public static ExecutorService newPerTaskExecutor(String prefix) {
+    return Executors.newThreadPerTaskExecutor(newThreadFactory(prefix));
+  }
+
+}
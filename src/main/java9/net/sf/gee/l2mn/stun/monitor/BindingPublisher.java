@@ -0,0 +1,208 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.stun.monitor;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Flow.Publisher} of the {@link BindingResult}s of one server, over a
+ * {@link BindingMonitor}, created by
+ * {@link BindingMonitor#publisher(Class, InetSocketAddress, long)}.
+ * The class is not public: a versioned entry of the multi-release jar adds no API.
+ * 
+ * Every subscriber gets its own {@link BindingWatch}: the transactions follow the demand of the
+ * subscriber, so a subscriber that falls behind pauses the transactions of its target instead of
+ * buffering results. The signals run on the threads of the transporter and must not block.
+ * 
+ * {@link Flow.Subscriber#onSubscribe(Flow.Subscription)} is always the first signal: the watch is
+ * created after it, and the demand or the cancel of the subscriber in the meantime is handed to
+ * the watch when it exists.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+final class BindingPublisher implements Flow.Publisher<BindingResult> {
+
+  private final BindingMonitor monitor;
+
+  private final InetSocketAddress target;
+
+  private final long intervalMillis;
+
+  /**
+   * @param monitor monitor of the transactions
+   * @param target STUN server
+   * @param intervalMillis interval between two transactions, in milliseconds
+   */
+  BindingPublisher(BindingMonitor monitor, InetSocketAddress target, long intervalMillis) {
+    super();
+
+    this.monitor = Objects.requireNonNull(monitor);
+    this.target = Objects.requireNonNull(target);
+    this.intervalMillis = intervalMillis;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.util.concurrent.Flow.Publisher#subscribe(java.util.concurrent.Flow.Subscriber)
+   */
+  @Override
+  public void subscribe(Flow.Subscriber<? super BindingResult> subscriber) {
+    Objects.requireNonNull(subscriber);
+
+    final WatchSubscription subscription = new WatchSubscription();
+
+    // no result before the first request
+    subscriber.onSubscribe(subscription);
+
+    if (subscription.isCancelled()) {
+      return;
+    }
+
+    final BindingWatch watch;
+
+    try {
+      watch = monitor.watch(target, intervalMillis, new BindingListener() {
+
+        @Override
+        public void onResult(BindingResult result) {
+          subscriber.onNext(result);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+          subscriber.onError(error);
+        }
+
+        @Override
+        public void onComplete() {
+          subscriber.onComplete();
+        }
+      });
+    }
+    catch (IllegalStateException e) {
+      subscriber.onError(e);
+
+      return;
+    }
+
+    subscription.attach(watch);
+  }
+
+  /**
+   * Subscription given before the watch exists: it keeps the demand and the cancel until then.
+   */
+  private static final class WatchSubscription implements Flow.Subscription {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Guarded by the lock.
+     */
+    private BindingWatch watch = null;
+
+    /**
+     * Demand before the watch, guarded by the lock. Negative after an invalid request.
+     */
+    private long pending = 0L;
+
+    private volatile boolean cancelled = false;
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.util.concurrent.Flow.Subscription#request(long)
+     */
+    @Override
+    public void request(long n) {
+      final BindingWatch current;
+
+      lock.lock();
+      try {
+        current = watch;
+
+        if (current == null && pending >= 0L) {
+          final long next = pending + n;
+
+          // an invalid request is reported by the watch; saturate on overflow
+          pending = (n <= 0L) ? -1L : ((next < 0L) ? Long.MAX_VALUE : next);
+
+          return;
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+
+      if (current != null) {
+        current.request(n);
+      }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.util.concurrent.Flow.Subscription#cancel()
+     */
+    @Override
+    public void cancel() {
+      final BindingWatch current;
+
+      lock.lock();
+      try {
+        cancelled = true;
+        current = watch;
+      }
+      finally {
+        lock.unlock();
+      }
+
+      if (current != null) {
+        current.cancel();
+      }
+    }
+
+    private boolean isCancelled() {
+      return cancelled;
+    }
+
+    private void attach(BindingWatch created) {
+      final long demand;
+
+      lock.lock();
+      try {
+        watch = created;
+        demand = pending;
+      }
+      finally {
+        lock.unlock();
+      }
+
+      if (cancelled) {
+        created.cancel();
+      }
+      else if (demand != 0L) {
+        created.request(demand);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,308 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTemplate;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.message.attribute.Software;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.StunTransporter;
+
+/**
+ * Allocation budgets of the binding hot path, measured with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)} after a warm up.
+ * 
+ * Each test fails when the bytes allocated per operation exceed the budget. The budgets can be
+ * changed with system properties, in bytes:
+ * <ul>
+ * <li><code>stun.alloc.encode</code>: encode of a request with FINGERPRINT (default 0)</li>
+ * <li><code>stun.alloc.template</code>: the same request copied from a {@link MessageTemplate}
+ * (default 0)</li>
+ * <li><code>stun.alloc.view</code>: in place parse of a response with {@link MessageView} (default
+ * 0)</li>
+ * <li><code>stun.alloc.decode</code>: {@link Message#decode(ByteBuffer)} of a response (default
+ * 512)</li>
+ * <li><code>stun.alloc.sync</code>: round trip of {@link StunTransporter}, client thread (default
+ * 1024)</li>
+ * <li><code>stun.alloc.async</code>: round trip of {@link AsyncStunTransporter}, client and
+ * receiver threads (default 1536)</li>
+ * <li><code>stun.alloc.server</code>: request served by {@link StunServer} (default 128)</li>
+ * <li><code>stun.alloc.server.fingerprint</code>: bytes added by a request with FINGERPRINT
+ * (default 16)</li>
+ * </ul>
+ * 
+ * The tests are skipped on a JVM without per-thread allocation counters.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class AllocationBudgetTest {
+
+  private static final int WARMUP = 20000;
+
+  private static final int ITERATIONS = 50000;
+
+  private static final int ROUND_TRIP_WARMUP = 2000;
+
+  private static final int ROUND_TRIPS = 5000;
+
+  private static com.sun.management.ThreadMXBean threads;
+
+  @FunctionalInterface
+  private interface Operation {
+
+    void run() throws Exception;
+
+  }
+
+  @BeforeClass
+  public static void setUpClass() {
+    Assume.assumeTrue(
+        ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  /**
+   * @return bytes allocated per operation by the current thread and the other given threads
+   */
+  private static long measure(int warmup, int iterations, Operation operation, long... others)
+      throws Exception {
+
+    for (int i = 0; i < warmup; i++) {
+      operation.run();
+    }
+
+    final long[] ids = new long[others.length + 1];
+    ids[0] = currentThreadId();
+    System.arraycopy(others, 0, ids, 1, others.length);
+
+    final long[] before = threads.getThreadAllocatedBytes(ids);
+
+    for (int i = 0; i < iterations; i++) {
+      operation.run();
+    }
+
+    final long[] after = threads.getThreadAllocatedBytes(ids);
+
+    long total = 0L;
+
+    for (int i = 0; i < ids.length; i++) {
+      total += after[i] - before[i];
+    }
+
+    return total / iterations;
+  }
+
+  /**
+   * @return id of the current thread; Thread.threadId() is not available on Java 8
+   */
+  @SuppressWarnings("deprecation")
+  private static long currentThreadId() {
+    return Thread.currentThread().getId();
+  }
+
+  /**
+   * @return id of the live thread with the name prefix, started last
+   */
+  private static long threadId(String prefix) {
+    long id = -1L;
+
+    for (ThreadInfo current : threads.getThreadInfo(threads.getAllThreadIds())) {
+      if (current != null && current.getThreadName().startsWith(prefix)) {
+        id = Math.max(id, current.getThreadId());
+      }
+    }
+
+    Assert.assertTrue("no thread " + prefix, id >= 0L);
+
+    return id;
+  }
+
+  private static void assertBudget(String property, long defaultBudget, long perOperation) {
+    final long budget = Long.getLong(property, defaultBudget);
+
+    Assert.assertTrue(
+        property + ": " + perOperation + " bytes per operation, budget " + budget + " bytes",
+        perOperation <= budget);
+  }
+
+  private static Message request() {
+    Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    request.getHeader().randomTransactionId();
+
+    return request;
+  }
+
+  private static ByteBuffer response() throws Exception {
+    Message response = new Message(new MessageHeader(MessageTypeEnum.BINDINGRESPONSE));
+    response.getHeader().randomTransactionId();
+    response.addAttribute(new XorMappedAddress(new InetSocketAddress("192.0.2.1", 40000)));
+    response.addAttribute(new FingerPrint());
+
+    ByteBuffer buffer = ByteBuffer.allocate(128);
+    response.encodeTo(buffer);
+    buffer.flip();
+
+    return buffer;
+  }
+
+  @Test
+  public void testEncode() throws Exception {
+    final Message request = request();
+    request.addAttribute(new Software());
+    request.addAttribute(new FingerPrint());
+
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+
+    assertBudget("stun.alloc.encode", 0L, measure(WARMUP, ITERATIONS, () -> {
+      buffer.clear();
+      request.encodeTo(buffer);
+    }));
+  }
+
+  @Test
+  public void testTemplate() throws Exception {
+    final Message request = request();
+    request.addAttribute(new Software());
+    request.addAttribute(new FingerPrint());
+
+    final MessageTemplate template = new MessageTemplate(request);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+
+    assertBudget("stun.alloc.template", 0L, measure(WARMUP, ITERATIONS, () -> {
+      buffer.clear();
+      template.encodeTo(buffer, System.nanoTime(), 0x5354554e);
+    }));
+  }
+
+  @Test
+  public void testView() throws Exception {
+    final ByteBuffer buffer = response();
+    final MessageView view = new MessageView();
+
+    assertBudget("stun.alloc.view", 0L, measure(WARMUP, ITERATIONS, () -> {
+      if (!view.wrap(buffer).isStun() || !FingerPrint.verify(view)) {
+        Assert.fail("not a valid response");
+      }
+
+      final int attr = view.findXorMappedAddress();
+
+      if (view.getXorPort(attr) != 40000 || view.getXorIPv4Address(attr) != 0xC0000201) {
+        Assert.fail("wrong mapped address");
+      }
+    }));
+  }
+
+  @Test
+  public void testDecode() throws Exception {
+    final ByteBuffer buffer = response();
+
+    assertBudget("stun.alloc.decode", 512L, measure(WARMUP, ITERATIONS, () -> {
+      buffer.rewind();
+      Message.decode(buffer);
+    }));
+  }
+
+  @Test
+  public void testSyncRoundTrip() throws Exception {
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1)) {
+      server.start();
+
+      try (StunTransporter st =
+          new StunTransporter("127.0.0.1", server.getLocalAddress().getPort())) {
+        final Message request = request();
+
+        assertBudget("stun.alloc.sync", 1024L, measure(ROUND_TRIP_WARMUP, ROUND_TRIPS, () -> {
+          request.getHeader().randomTransactionId();
+          st.doBind(request);
+        }));
+      }
+    }
+  }
+
+  @Test
+  public void testAsyncRoundTrip() throws Exception {
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1)) {
+      server.start();
+
+      try (AsyncStunTransporter st = new AsyncStunTransporter(null,
+          new InetSocketAddress(InetAddress.getLoopbackAddress(),
+              server.getLocalAddress().getPort()))) {
+        final Message request = request();
+        final Operation bind = () -> {
+          request.getHeader().randomTransactionId();
+          st.doBindAsync(request).get();
+        };
+
+        assertBudget("stun.alloc.async", 1536L, measure(ROUND_TRIP_WARMUP, ROUND_TRIPS, bind,
+            threadId("stun-async-receiver")));
+
+        // the server side alone
+        final long worker = threadId("stun-server-worker");
+        final long before = threads.getThreadAllocatedBytes(worker);
+
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+          bind.run();
+        }
+
+        final long plain = (threads.getThreadAllocatedBytes(worker) - before) / ROUND_TRIPS;
+
+        assertBudget("stun.alloc.server", 128L, plain);
+
+        // the FINGERPRINT of the request is echoed in the response, in place
+        final Message fingerprinted = request();
+        fingerprinted.addAttribute(new FingerPrint());
+
+        final long start = threads.getThreadAllocatedBytes(worker);
+
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+          fingerprinted.getHeader().randomTransactionId();
+          st.doBindAsync(fingerprinted).get();
+        }
+
+        assertBudget("stun.alloc.server.fingerprint", 16L,
+            (threads.getThreadAllocatedBytes(worker) - start) / ROUND_TRIPS - plain);
+      }
+    }
+  }
+
+}
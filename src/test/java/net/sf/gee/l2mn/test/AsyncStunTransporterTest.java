@@ -0,0 +1,158 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class AsyncStunTransporterTest {
+
+  private static final int REQUESTS = 64;
+
+  @Test
+  public void testPipelinedRequests() throws Exception {
+
+    try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        AsyncStunTransporter st = new AsyncStunTransporter(null,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));) {
+
+      List<Message> requests = new ArrayList<>();
+      List<CompletableFuture<Message>> futures = new ArrayList<>();
+
+      for (int i = 0; i < REQUESTS; i++) {
+        Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+        request.getHeader().randomTransactionId();
+
+        requests.add(request);
+        futures.add(st.doBindAsync(request));
+      }
+
+      // receive all the requests, then answer in reverse order
+      List<DatagramPacket> received = new ArrayList<>();
+
+      for (int i = 0; i < REQUESTS; i++) {
+        DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+        server.receive(packet);
+        received.add(packet);
+      }
+
+      for (int i = received.size() - 1; i >= 0; i--) {
+        DatagramPacket packet = received.get(i);
+
+        ByteBuffer data = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+        Message response = new Message(Message.decode(data).getHeader());
+        response.getHeader().setType(MessageTypeEnum.BINDINGRESPONSE);
+
+        ByteBuffer out = ByteBuffer.allocate(64);
+        response.encodeTo(out);
+        server.send(new DatagramPacket(out.array(), out.position(), packet.getSocketAddress()));
+      }
+
+      for (int i = 0; i < REQUESTS; i++) {
+        Message response = futures.get(i).get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, response.getHeader().getType());
+        Assert.assertEquals(requests.get(i).getHeader().getTransactionIdHigh(),
+            response.getHeader().getTransactionIdHigh());
+        Assert.assertEquals(requests.get(i).getHeader().getTransactionIdLow(),
+            response.getHeader().getTransactionIdLow());
+      }
+
+      Assert.assertEquals(0, st.getPendingCount());
+    }
+  }
+
+  @Test
+  public void testRetransmission() throws Exception {
+
+    try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        AsyncStunTransporter st = new AsyncStunTransporter(null,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));) {
+
+      st.setRetransmissionPolicy(new RetransmissionPolicy(50, 7, 16));
+
+      Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      request.getHeader().randomTransactionId();
+
+      CompletableFuture<Message> future = st.doBindAsync(request);
+
+      // drop the first request, answer the retransmission
+      DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+      server.receive(packet);
+      server.receive(packet);
+
+      Message response = new Message(
+          Message.decode(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())).getHeader());
+      response.getHeader().setType(MessageTypeEnum.BINDINGRESPONSE);
+
+      ByteBuffer out = ByteBuffer.allocate(64);
+      response.encodeTo(out);
+      server.send(new DatagramPacket(out.array(), out.position(), packet.getSocketAddress()));
+
+      Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE,
+          future.get(5, TimeUnit.SECONDS).getHeader().getType());
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+
+    try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        AsyncStunTransporter st = new AsyncStunTransporter(null,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));) {
+
+      st.setRetransmissionPolicy(new RetransmissionPolicy(20, 3, 2));
+
+      Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      request.getHeader().randomTransactionId();
+
+      try {
+        st.doBindAsync(request).get(5, TimeUnit.SECONDS);
+
+        Assert.fail("timeout expected");
+      }
+      catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+      }
+
+      Assert.assertEquals(0, st.getPendingCount());
+    }
+  }
+
+}
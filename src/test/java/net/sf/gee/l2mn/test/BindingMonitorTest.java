@@ -0,0 +1,207 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.monitor.BindingListener;
+import net.sf.gee.l2mn.stun.monitor.BindingMonitor;
+import net.sf.gee.l2mn.stun.monitor.BindingResult;
+import net.sf.gee.l2mn.stun.monitor.BindingWatch;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class BindingMonitorTest {
+
+  /**
+   * Listener that queues its signals.
+   */
+  private static final class QueueListener implements BindingListener {
+
+    final BlockingQueue<BindingResult> results = new LinkedBlockingQueue<>();
+
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    final CountDownLatch done = new CountDownLatch(1);
+
+    @Override
+    public void onResult(BindingResult result) {
+      results.add(result);
+    }
+
+    @Override
+    public void onError(Throwable cause) {
+      error.set(cause);
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      done.countDown();
+    }
+
+  }
+
+  private static StunServer server() throws Exception {
+    StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    server.start();
+
+    return server;
+  }
+
+  @Test
+  public void testDemand() throws Exception {
+
+    try (StunServer server = server(); BindingMonitor monitor = new BindingMonitor()) {
+      QueueListener listener = new QueueListener();
+      BindingWatch watch = monitor.watch(server.getLocalAddress(), 10L, listener);
+
+      // nothing before the first request
+      Thread.sleep(150);
+      Assert.assertEquals(0L, server.getRequestCount());
+
+      watch.request(3);
+
+      for (int i = 0; i < 3; i++) {
+        BindingResult result = listener.results.poll(5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(monitor.getTransporter().getLocalAddress().getPort(),
+            result.getMappedAddress().getPort());
+        Assert.assertFalse(result.isChanged());
+      }
+
+      // no demand: the transactions pause
+      Thread.sleep(200);
+      Assert.assertTrue(listener.results.isEmpty());
+      Assert.assertEquals(3L, server.getRequestCount());
+      Assert.assertEquals(0L, watch.getDemand());
+
+      watch.request(2);
+
+      Assert.assertNotNull(listener.results.poll(5, TimeUnit.SECONDS));
+      Assert.assertNotNull(listener.results.poll(5, TimeUnit.SECONDS));
+
+      watch.cancel();
+      Assert.assertTrue(watch.isDone());
+      Assert.assertEquals(0, monitor.getWatchCount());
+    }
+  }
+
+  @Test
+  public void testManyTargets() throws Exception {
+    final int watches = 50;
+
+    try (StunServer first = server(); StunServer second = server();
+        BindingMonitor monitor = new BindingMonitor()) {
+
+      QueueListener[] listeners = new QueueListener[watches];
+
+      for (int i = 0; i < watches; i++) {
+        listeners[i] = new QueueListener();
+
+        StunServer target = (i % 2 == 0) ? first : second;
+        monitor.watch(target.getLocalAddress(), 20L, listeners[i]).request(Long.MAX_VALUE);
+      }
+
+      for (QueueListener listener : listeners) {
+        for (int i = 0; i < 3; i++) {
+          Assert.assertTrue(listener.results.poll(5, TimeUnit.SECONDS).isSuccess());
+        }
+      }
+
+      Assert.assertEquals(watches, monitor.getWatchCount());
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+
+    try (DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        AsyncStunTransporter transporter = new AsyncStunTransporter(null, null);
+        BindingMonitor monitor =
+            new BindingMonitor(transporter, HashedTimerWheel.getDefault(), 10L)) {
+
+      transporter.setRetransmissionPolicy(new RetransmissionPolicy(20, 2, 2));
+
+      QueueListener listener = new QueueListener();
+      monitor.watch((InetSocketAddress) silent.getLocalSocketAddress(), 10L, listener)
+          .request(2);
+
+      // a timeout is a result, the watch goes on
+      for (int i = 0; i < 2; i++) {
+        BindingResult result = listener.results.poll(5, TimeUnit.SECONDS);
+
+        Assert.assertFalse(result.isSuccess());
+        Assert.assertNull(result.getMappedAddress());
+      }
+
+      Assert.assertEquals(1L, listener.done.getCount());
+    }
+  }
+
+  @Test
+  public void testTermination() throws Exception {
+    QueueListener invalid = new QueueListener();
+    QueueListener completed = new QueueListener();
+
+    try (StunServer server = server()) {
+      BindingMonitor monitor = new BindingMonitor();
+
+      monitor.watch(server.getLocalAddress(), 10L, invalid).request(0);
+
+      Assert.assertTrue(invalid.done.await(1, TimeUnit.SECONDS));
+      Assert.assertTrue(invalid.error.get() instanceof IllegalArgumentException);
+
+      BindingWatch watch = monitor.watch(server.getLocalAddress(), 10L, completed);
+      watch.request(Long.MAX_VALUE);
+      Assert.assertNotNull(completed.results.poll(5, TimeUnit.SECONDS));
+
+      monitor.close();
+
+      Assert.assertTrue(completed.done.await(1, TimeUnit.SECONDS));
+      Assert.assertNull(completed.error.get());
+      Assert.assertTrue(watch.isDone());
+
+      try {
+        monitor.watch(server.getLocalAddress(), 10L, new QueueListener());
+        Assert.fail("monitor closed");
+      }
+      catch (IllegalStateException e) {
+        // expected
+      }
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.StunTransporter;
+import net.sf.gee.l2mn.stun.util.ThreadLocalBufferPool;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class BufferPoolTest {
+
+  @Test
+  public void testReuse() {
+    ThreadLocalBufferPool pool = new ThreadLocalBufferPool(false, 128);
+
+    ByteBuffer first = pool.acquire();
+    Assert.assertFalse(first.isDirect());
+    Assert.assertEquals(128, first.remaining());
+
+    first.putInt(42);
+    pool.release(first);
+
+    ByteBuffer second = pool.acquire();
+    Assert.assertSame(first, second);
+    Assert.assertEquals(0, second.position());
+    Assert.assertEquals(1, pool.getAllocatedCount());
+
+    // foreign buffers are ignored
+    pool.release(second);
+    pool.release(ByteBuffer.allocate(64));
+    pool.release(ByteBuffer.allocateDirect(128));
+    Assert.assertSame(second, pool.acquire());
+  }
+
+  @Test
+  public void testSharedQueue() throws Exception {
+    ThreadLocalBufferPool pool = new ThreadLocalBufferPool(true, 128, 0, 4);
+
+    ByteBuffer buffer = pool.acquire();
+    Assert.assertTrue(buffer.isDirect());
+
+    // released by another thread, acquired again through the shared queue
+    Thread other = new Thread(() -> pool.release(buffer));
+    other.start();
+    other.join();
+
+    Assert.assertSame(buffer, pool.acquire());
+    Assert.assertEquals(1, pool.getAllocatedCount());
+  }
+
+  @Test
+  public void testSteadyStateBinding() throws Exception {
+    ThreadLocalBufferPool pool = new ThreadLocalBufferPool(false, 2048);
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        StunTransporter st = new StunTransporter(
+            InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalAddress().getPort(),
+            pool);) {
+
+      server.start();
+
+      for (int i = 0; i < 100; i++) {
+        Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+        request.getHeader().randomTransactionId();
+
+        Message response = st.doBind(request);
+        Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, response.getHeader().getType());
+      }
+
+      // one send and one receive buffer, reused by every request
+      Assert.assertEquals(2, pool.getAllocatedCount());
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.ChannelData;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class ChannelDataTest {
+
+  private static final byte[] PAYLOAD = "relayed".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void testEncodeDecode() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+
+    Assert.assertEquals(4 + PAYLOAD.length,
+        ChannelData.encode(buffer, 0x4001, ByteBuffer.wrap(PAYLOAD), false));
+    buffer.flip();
+
+    Assert.assertTrue(ChannelData.isChannelData(buffer, 0));
+    Assert.assertEquals(0x4001, ChannelData.getChannel(buffer, 0));
+    Assert.assertEquals(PAYLOAD.length, ChannelData.getLength(buffer, 0));
+
+    Assert.assertEquals(0x4001, ChannelData.decode(buffer));
+    Assert.assertEquals(4, buffer.position());
+    Assert.assertEquals(PAYLOAD.length, buffer.remaining());
+
+    byte[] decoded = new byte[buffer.remaining()];
+    buffer.get(decoded);
+    Assert.assertArrayEquals(PAYLOAD, decoded);
+  }
+
+  @Test
+  public void testPadding() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+
+    // 7 bytes of data, padded to 8 over TCP
+    Assert.assertEquals(12, ChannelData.encode(buffer, 0x7FFF, PAYLOAD, 0, PAYLOAD.length, true));
+    buffer.flip();
+
+    Assert.assertEquals(0x7FFF, ChannelData.decode(buffer));
+    Assert.assertEquals(PAYLOAD.length, buffer.remaining());
+  }
+
+  @Test
+  public void testInvalid() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+
+    try {
+      ChannelData.encode(buffer, 0x3FFF, PAYLOAD, 0, PAYLOAD.length, false);
+      Assert.fail("channel out of range");
+    }
+    catch (IOException e) {
+      Assert.assertEquals(0, buffer.position());
+    }
+
+    // STUN header: first two bits are 0b00
+    buffer.putShort((short) 0x0001).putShort((short) 0).flip();
+    Assert.assertFalse(ChannelData.isChannelData(buffer, 0));
+
+    // length beyond the datagram
+    buffer.clear();
+    buffer.putShort((short) 0x4000).putShort((short) 100).flip();
+
+    try {
+      ChannelData.decode(buffer);
+      Assert.fail("truncated");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+}
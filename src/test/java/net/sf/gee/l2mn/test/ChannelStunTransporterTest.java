@@ -0,0 +1,200 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.ChannelStunTransporter;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+import net.sf.gee.l2mn.stun.transport.RtoCache;
+import net.sf.gee.l2mn.stun.util.BufferPool;
+import net.sf.gee.l2mn.stun.util.StunThreads;
+import net.sf.gee.l2mn.stun.util.ThreadLocalBufferPool;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class ChannelStunTransporterTest {
+
+  private static Message request() {
+    Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    request.getHeader().randomTransactionId();
+
+    return request;
+  }
+
+  @Test
+  public void testBinding() throws Exception {
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1)) {
+      server.start();
+
+      try (ChannelStunTransporter st = new ChannelStunTransporter(server.getLocalAddress())) {
+        Message request = request();
+        Message response = st.doBind(request);
+
+        Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, response.getHeader().getType());
+        Assert.assertEquals(request.getHeader().getTransactionId(),
+            response.getHeader().getTransactionId());
+
+        XorMappedAddress mapped = (XorMappedAddress) response
+            .getAttribute(MessageAttributeType.XOR_MAPPED_ADDRESS);
+        Assert.assertEquals(st.getLocalAddress().getPort(),
+            mapped.getSocketAddress(response.getHeader()).getPort());
+      }
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+
+    try (DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        ChannelStunTransporter st = new ChannelStunTransporter(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), silent.getLocalPort()))) {
+
+      st.setRetransmissionPolicy(new RetransmissionPolicy(20, 3, 2));
+
+      long start = System.nanoTime();
+
+      try {
+        st.doBind(request());
+        Assert.fail("no response expected");
+      }
+      catch (SocketTimeoutException e) {
+        // 20 + 40 + 40 ms
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentChecks() throws Exception {
+    final int count = 200;
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2)) {
+      server.start();
+
+      ExecutorService executor = StunThreads.newPerTaskExecutor("stun-check");
+
+      try {
+        List<Future<Message>> results = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+          results.add(executor.submit(() -> {
+            try (ChannelStunTransporter st =
+                new ChannelStunTransporter(server.getLocalAddress())) {
+              return st.doBind(request());
+            }
+          }));
+        }
+
+        for (Future<Message> result : results) {
+          Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE,
+              result.get(10, TimeUnit.SECONDS).getHeader().getType());
+        }
+
+        Assert.assertEquals(count, server.getResponseCount());
+      }
+      finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testSharedPool() throws Exception {
+    final ThreadLocalBufferPool pool = new ThreadLocalBufferPool(false, 2048, 0, 16);
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1)) {
+      server.start();
+
+      ExecutorService executor = StunThreads.newPerTaskExecutor("stun-check");
+
+      try {
+        // one thread per check: the buffers go back to the shared queue, not to the thread
+        for (int i = 0; i < 50; i++) {
+          executor.submit(() -> {
+            try (ChannelStunTransporter st =
+                new ChannelStunTransporter(server.getLocalAddress(), pool)) {
+              return st.doBind(request());
+            }
+          }).get(10, TimeUnit.SECONDS);
+        }
+
+        Assert.assertEquals(2, pool.getAllocatedCount());
+      }
+      finally {
+        executor.shutdown();
+      }
+
+      try {
+        new ChannelStunTransporter(server.getLocalAddress(), BufferPool.DEFAULT_DIRECT).close();
+        Assert.fail("direct buffer pool");
+      }
+      catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testRtoCache() throws Exception {
+    final RtoCache cache = new RtoCache(64, 60000L, 10L, 3000L);
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1)) {
+      server.start();
+
+      try (ChannelStunTransporter st = new ChannelStunTransporter(server.getLocalAddress())) {
+        Assert.assertNotNull(st.getRtoCache());
+
+        st.setRtoCache(cache);
+        st.doBind(request());
+
+        // the loopback answered the first request: the RTO is learned
+        Assert.assertTrue(cache.getSmoothedRtt(server.getLocalAddress()) >= 0L);
+        Assert.assertTrue(cache.getRto(server.getLocalAddress(), 500L) < 500L);
+
+        // without a cache every transaction starts from the policy
+        st.setRtoCache(null);
+        Assert.assertNotNull(st.doBind(request()));
+      }
+    }
+  }
+
+}
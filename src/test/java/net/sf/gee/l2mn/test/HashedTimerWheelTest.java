@@ -0,0 +1,111 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel.Timeout;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class HashedTimerWheelTest {
+
+  @Test
+  public void testOrder() throws Exception {
+
+    try (HashedTimerWheel wheel = new HashedTimerWheel("test", 5, TimeUnit.MILLISECONDS, 8)) {
+      BlockingQueue<Integer> fired = new LinkedBlockingQueue<>();
+
+      // scheduled in reverse order, some in the same bucket
+      for (int i = 5; i >= 1; i--) {
+        final int index = i;
+        wheel.schedule(() -> fired.add(index), i * 20L, TimeUnit.MILLISECONDS);
+      }
+
+      for (int i = 1; i <= 5; i++) {
+        Assert.assertEquals(Integer.valueOf(i), fired.poll(5, TimeUnit.SECONDS));
+      }
+    }
+  }
+
+  @Test
+  public void testRounds() throws Exception {
+
+    // 4 buckets of 10 ms: 200 ms is 5 rounds, a timeout never fires early
+    try (HashedTimerWheel wheel = new HashedTimerWheel("test", 10, TimeUnit.MILLISECONDS, 4)) {
+      BlockingQueue<Long> fired = new LinkedBlockingQueue<>();
+      long start = System.nanoTime();
+
+      wheel.schedule(() -> fired.add(System.nanoTime()), 200, TimeUnit.MILLISECONDS);
+
+      Long time = fired.poll(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(time);
+      Assert.assertTrue(time - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+
+    try (HashedTimerWheel wheel = new HashedTimerWheel("test", 5, TimeUnit.MILLISECONDS, 4)) {
+      AtomicInteger cancelled = new AtomicInteger();
+      BlockingQueue<Boolean> fired = new LinkedBlockingQueue<>();
+
+      // cancelled before and after the transfer in the wheel
+      Timeout first = wheel.schedule(cancelled::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+      first.cancel();
+
+      Timeout second = wheel.schedule(cancelled::incrementAndGet, 100, TimeUnit.MILLISECONDS);
+      TimeUnit.MILLISECONDS.sleep(30);
+      second.cancel();
+
+      Assert.assertTrue(first.isCancelled());
+      Assert.assertTrue(second.isCancelled());
+
+      // a later timeout of the same buckets fires: the cancelled ones are behind it
+      wheel.schedule(() -> fired.add(Boolean.TRUE), 150, TimeUnit.MILLISECONDS);
+
+      Assert.assertEquals(Boolean.TRUE, fired.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals(0, cancelled.get());
+    }
+  }
+
+  @Test
+  public void testClosed() {
+    HashedTimerWheel wheel = new HashedTimerWheel("test", 5, TimeUnit.MILLISECONDS, 4);
+    wheel.close();
+
+    try {
+      wheel.schedule(() -> {
+      }, 10, TimeUnit.MILLISECONDS);
+      Assert.fail("schedule on a closed wheel");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.nat.MappingDiscovery;
+import net.sf.gee.l2mn.stun.nat.MappingResult;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class MappingDiscoveryTest {
+
+  /**
+   * Server that answers every Binding request with a fixed mapping, as seen behind a NAT with
+   * a different port for each destination.
+   */
+  private static final class FixedResponder extends Thread implements AutoCloseable {
+
+    final DatagramSocket socket;
+
+    final InetSocketAddress mapping;
+
+    FixedResponder(InetSocketAddress mapping) throws IOException {
+      super("fixed-responder");
+
+      this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+      this.mapping = mapping;
+
+      setDaemon(true);
+      start();
+    }
+
+    InetSocketAddress getLocalAddress() {
+      return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void run() {
+      final byte[] data = new byte[1500];
+
+      try {
+        while (true) {
+          DatagramPacket packet = new DatagramPacket(data, data.length);
+          socket.receive(packet);
+
+          ByteBuffer in = ByteBuffer.wrap(data, 0, packet.getLength());
+          long txHigh = in.getLong(8);
+          int txLow = in.getInt(16);
+
+          ByteBuffer out = ByteBuffer.allocate(64);
+          out.putShort((short) MessageTypeEnum.BINDINGRESPONSE.getValue());
+          out.putShort((short) 12);
+          out.putInt((int) MessageHeader.MAGIC_COOKIE);
+          out.putLong(txHigh);
+          out.putInt(txLow);
+          XorMappedAddress.encode(out, MessageAttributeType.XOR_MAPPED_ADDRESS.getCode(),
+              mapping.getAddress(), mapping.getPort(), txHigh, txLow);
+
+          socket.send(new DatagramPacket(out.array(), out.position(), packet.getSocketAddress()));
+        }
+      }
+      catch (IOException e) {
+        // closed
+      }
+    }
+
+    @Override
+    public void close() {
+      socket.close();
+    }
+
+  }
+
+  private static StunServer server() throws Exception {
+    StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    server.start();
+
+    return server;
+  }
+
+  @Test
+  public void testQuorum() throws Exception {
+
+    try (StunServer first = server(); StunServer second = server(); StunServer third = server();
+        AsyncStunTransporter transporter = new AsyncStunTransporter(null, null)) {
+
+      MappingDiscovery discovery = new MappingDiscovery(transporter);
+
+      MappingResult result = discovery.discover(Arrays.asList(first.getLocalAddress(),
+          second.getLocalAddress(), third.getLocalAddress()), 2);
+
+      Assert.assertEquals(transporter.getLocalAddress().getPort(),
+          result.getMappedAddress().getPort());
+      Assert.assertEquals(2, result.getServers().size());
+      Assert.assertTrue(result.getResponses() >= 2);
+      Assert.assertTrue(result.getElapsedNanos() > 0L);
+    }
+  }
+
+  @Test
+  public void testSilentServerCancelled() throws Exception {
+
+    try (StunServer first = server(); StunServer second = server();
+        DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        AsyncStunTransporter transporter = new AsyncStunTransporter(null, null)) {
+
+      MappingDiscovery discovery = new MappingDiscovery(transporter);
+
+      long start = System.nanoTime();
+
+      MappingResult result = discovery.discover(
+          Arrays.asList((InetSocketAddress) silent.getLocalSocketAddress(),
+              first.getLocalAddress(), second.getLocalAddress()),
+          2);
+
+      // well before the first retransmission timeout of the silent server
+      Assert.assertTrue(System.nanoTime() - start < 5_000_000_000L);
+      Assert.assertEquals(2, result.getServers().size());
+      Assert.assertFalse(result.getServers().contains(silent.getLocalSocketAddress()));
+
+      // the silent transaction is cancelled, not left to time out
+      Assert.assertEquals(0, transporter.getPendingCount());
+    }
+  }
+
+  @Test
+  public void testNoQuorum() throws Exception {
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+
+    try (FixedResponder first = new FixedResponder(new InetSocketAddress(loopback, 40001));
+        FixedResponder second = new FixedResponder(new InetSocketAddress(loopback, 40002));
+        DatagramSocket silent = new DatagramSocket(0, loopback);
+        AsyncStunTransporter transporter = new AsyncStunTransporter(null, null)) {
+
+      transporter.setRetransmissionPolicy(new RetransmissionPolicy(20, 2, 2));
+
+      MappingDiscovery discovery = new MappingDiscovery(transporter);
+
+      try {
+        discovery.discover(Arrays.asList(first.getLocalAddress(), second.getLocalAddress(),
+            (InetSocketAddress) silent.getLocalSocketAddress()), 2);
+        Assert.fail("different mappings");
+      }
+      catch (IOException e) {
+        Assert.assertTrue(e.getMessage().startsWith("No quorum"));
+      }
+
+      try {
+        discovery.discover(Arrays.asList(first.getLocalAddress()), 2);
+        Assert.fail("quorum larger than the servers");
+      }
+      catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+}
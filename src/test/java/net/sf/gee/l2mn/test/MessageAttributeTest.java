@@ -17,6 +17,10 @@
 package net.sf.gee.l2mn.test;
 
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -24,10 +28,22 @@ import org.junit.Test;
 import net.sf.gee.l2mn.stun.message.Message;
 import net.sf.gee.l2mn.stun.message.MessageHeader;
 import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.ChangeRequest;
+import net.sf.gee.l2mn.stun.message.attribute.ErrorCode;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.message.attribute.MappedAddress;
 import net.sf.gee.l2mn.stun.message.attribute.MessageAttribute;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
 import net.sf.gee.l2mn.stun.message.attribute.MessageIntegrity;
+import net.sf.gee.l2mn.stun.message.attribute.OtherAddress;
+import net.sf.gee.l2mn.stun.message.attribute.RawAttribute;
+import net.sf.gee.l2mn.stun.message.attribute.Realm;
+import net.sf.gee.l2mn.stun.message.attribute.ResponseOrigin;
 import net.sf.gee.l2mn.stun.message.attribute.Software;
+import net.sf.gee.l2mn.stun.message.attribute.UnknowAttribute;
 import net.sf.gee.l2mn.stun.message.attribute.Username;
+import net.sf.gee.l2mn.stun.util.CredentialKey;
 
 /**
  * @author Giorgio Desideri - giorgio.desideri@gmail.com
@@ -35,6 +51,30 @@ import net.sf.gee.l2mn.stun.message.attribute.Username;
  */
 public class MessageAttributeTest {
 
+  /**
+   * RFC-5769 section 2.1: sample request with short-term credentials.
+   */
+  static final int[] SAMPLE_REQUEST = {0x00, 0x01, 0x00, 0x58, 0x21, 0x12, 0xa4, 0x42, 0xb7, 0xe7,
+      0xa7, 0x01, 0xbc, 0x34, 0xd6, 0x86, 0xfa, 0x87, 0xdf, 0xae, 0x80, 0x22, 0x00, 0x10, 0x53,
+      0x54, 0x55, 0x4e, 0x20, 0x74, 0x65, 0x73, 0x74, 0x20, 0x63, 0x6c, 0x69, 0x65, 0x6e, 0x74,
+      0x00, 0x24, 0x00, 0x04, 0x6e, 0x00, 0x01, 0xff, 0x80, 0x29, 0x00, 0x08, 0x93, 0x2f, 0xf9,
+      0xb1, 0x51, 0x26, 0x3b, 0x36, 0x00, 0x06, 0x00, 0x09, 0x65, 0x76, 0x74, 0x6a, 0x3a, 0x68,
+      0x36, 0x76, 0x59, 0x20, 0x20, 0x20, 0x00, 0x08, 0x00, 0x14, 0x9a, 0xea, 0xa7, 0x0c, 0xbf,
+      0xd8, 0xcb, 0x56, 0x78, 0x1e, 0xf2, 0xb5, 0xb2, 0xd3, 0xf2, 0x49, 0xc1, 0xb5, 0x71, 0xa2,
+      0x80, 0x28, 0x00, 0x04, 0xe5, 0x7a, 0x3b, 0xcf};
+
+  static final String SAMPLE_PASSWORD = "VOkJxbRl1RmTxUk/WvJxBt";
+
+  static byte[] sampleRequest() {
+    byte[] data = new byte[SAMPLE_REQUEST.length];
+
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) SAMPLE_REQUEST[i];
+    }
+
+    return data;
+  }
+
   @Test
   public void testMessageIntegrity() {
 
@@ -80,4 +120,174 @@ public class MessageAttributeTest {
     Assert.assertNotNull(attr.getValue());
   }
 
+  @Test
+  public void testParseAllAttributes() throws IOException {
+    Message msg = new Message(new MessageHeader(MessageTypeEnum.BINDINGERRORRESPONSE));
+    msg.getHeader().randomTransactionId();
+
+    msg.addAttribute(new MappedAddress(
+        (Inet4Address) InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), 3478));
+    msg.addAttribute(new ErrorCode(ErrorCode.UNKNOWN_ATTRIBUTE, "Unknown Attribute"));
+    msg.addAttribute(new UnknowAttribute(0x0031, 0x0032));
+    msg.addAttribute(new Realm("example.org"));
+    // unknown comprehension-optional: skipped
+    msg.addAttribute(new RawAttribute(0x8FF0, new byte[] {1, 2, 3}));
+    // unknown comprehension-required: kept
+    msg.addAttribute(new RawAttribute(0x0031, new byte[] {4}));
+    msg.addAttribute(new Software());
+
+    ByteBuffer buffer = ByteBuffer.allocate(512);
+    msg.encodeTo(buffer);
+    buffer.flip();
+
+    Message decoded = Message.decode(buffer);
+
+    Assert.assertEquals(6, decoded.getAttributes().size());
+
+    MappedAddress mapped = (MappedAddress) decoded.getAttributes().get(0);
+    Assert.assertEquals(3478, mapped.getPort());
+    Assert.assertEquals(InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), mapped.getAddress());
+
+    ErrorCode error = (ErrorCode) decoded.getAttributes().get(1);
+    Assert.assertEquals(ErrorCode.UNKNOWN_ATTRIBUTE, error.getCode());
+    Assert.assertEquals("Unknown Attribute", error.getReason());
+
+    UnknowAttribute unknown = (UnknowAttribute) decoded.getAttributes().get(2);
+    Assert.assertEquals(0x0032, unknown.getTypes()[1]);
+
+    Assert.assertEquals("example.org", ((Realm) decoded.getAttributes().get(3)).getRealm());
+    Assert.assertTrue(decoded.getAttributes().get(4) instanceof RawAttribute);
+    Assert.assertEquals(MessageAttributeType.SOFTWARE.getCode(),
+        decoded.getAttributes().get(5).getType());
+    Assert.assertTrue(decoded.getAttributes().get(5) instanceof Software);
+  }
+
+  @Test
+  public void testTypeLookup() {
+    Assert.assertEquals(MessageAttributeType.FINGERPRINT,
+        MessageAttributeType.getAttributeType(0x8028));
+    Assert.assertEquals(MessageAttributeType.USERNAME, MessageAttributeType.getAttributeType(6));
+    Assert.assertNull(MessageAttributeType.getAttributeType(0x7FFF));
+    Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, MessageTypeEnum.getValueByValue(0x0101));
+    Assert.assertNull(MessageTypeEnum.getValueByValue(0x3FFF));
+  }
+
+  @Test
+  public void testMessageIntegrityVerify() {
+    byte[] data = sampleRequest();
+    MessageView view = new MessageView().wrap(data, 0, data.length);
+
+    Assert.assertTrue(view.isStun());
+    Assert.assertTrue(MessageIntegrity.verify(view, CredentialKey.shortTerm(SAMPLE_PASSWORD)));
+    Assert.assertFalse(MessageIntegrity.verify(view, CredentialKey.shortTerm("wrong")));
+  }
+
+  @Test
+  public void testCredentialKeyKind() {
+    CredentialKey shortTerm = CredentialKey.shortTerm("secret");
+    CredentialKey longTerm = CredentialKey.longTerm(null, null, "secret");
+
+    // same (username, realm, password), other kind: other cache entry
+    Assert.assertNotEquals(shortTerm, longTerm);
+    Assert.assertSame(shortTerm, CredentialKey.shortTerm("secret"));
+    Assert.assertSame(longTerm, CredentialKey.longTerm(null, null, "secret"));
+  }
+
+  @Test
+  public void testMessageIntegrityEncode() throws IOException {
+    CredentialKey key = CredentialKey.longTerm("user", "realm", "pass");
+
+    // RFC-5389 section 15.4 example
+    Assert.assertEquals("8493fbc53ba582fb4c044c456bdc40eb", key.toHex());
+    Assert.assertSame(key, CredentialKey.longTerm("user", "realm", "pass"));
+
+    Message msg = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    msg.getHeader().randomTransactionId();
+    msg.addAttribute(new Username("user"));
+    msg.addAttribute(new MessageIntegrity(key));
+
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    int size = msg.encodeTo(buffer);
+
+    MessageView view = new MessageView().wrap(buffer.array(), 0, size);
+    Assert.assertTrue(MessageIntegrity.verify(view, key));
+
+    // any change breaks the integrity
+    buffer.array()[MessageHeader.HEADER_LENGTH + 4] ^= 1;
+    Assert.assertFalse(MessageIntegrity.verify(view, key));
+  }
+
+  @Test
+  public void testFingerPrintVerify() {
+    byte[] data = sampleRequest();
+
+    Assert.assertTrue(FingerPrint.verify(ByteBuffer.wrap(data), 0, data.length));
+
+    data[30] ^= 1;
+    Assert.assertFalse(FingerPrint.verify(ByteBuffer.wrap(data), 0, data.length));
+  }
+
+  @Test
+  public void testFingerPrintEncode() throws IOException {
+    CredentialKey key = CredentialKey.shortTerm(SAMPLE_PASSWORD);
+
+    Message msg = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    msg.getHeader().randomTransactionId();
+    msg.addAttribute(new Software());
+    msg.addAttribute(new MessageIntegrity(key));
+    msg.addAttribute(new FingerPrint());
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+    int size = msg.encodeTo(buffer);
+
+    Assert.assertTrue(FingerPrint.verify(buffer, 0, size));
+
+    buffer.flip();
+
+    MessageView view = new MessageView().wrap(buffer);
+    Assert.assertTrue(FingerPrint.verify(view));
+    Assert.assertTrue(MessageIntegrity.verify(view, key));
+
+    Message decoded = Message.decode(buffer);
+    FingerPrint fp = (FingerPrint) decoded.getAttributes().get(2);
+    Assert.assertEquals(((FingerPrint) msg.getAttributes().get(2)).getCrc(), fp.getCrc());
+  }
+
+  @Test
+  public void testBehaviorAttributes() throws IOException {
+    Inet4Address address = (Inet4Address) InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+
+    Message msg = new Message(new MessageHeader(MessageTypeEnum.BINDINGRESPONSE));
+    msg.getHeader().randomTransactionId();
+    msg.addAttribute(new ChangeRequest(true, false));
+    msg.addAttribute(new ResponseOrigin(address, 3478));
+    msg.addAttribute(new OtherAddress(address, 3479));
+
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    msg.encodeTo(buffer);
+    buffer.flip();
+
+    Message decoded = Message.decode(buffer);
+
+    ChangeRequest change = (ChangeRequest) decoded.getAttribute(MessageAttributeType.CHANGE_ADDRES);
+    Assert.assertTrue(change.isChangeIp());
+    Assert.assertFalse(change.isChangePort());
+
+    Assert.assertEquals(new InetSocketAddress(address, 3478),
+        ((ResponseOrigin) decoded.getAttribute(MessageAttributeType.RESPONSE_ORIGIN))
+            .getSocketAddress());
+    Assert.assertEquals(new InetSocketAddress(address, 3479),
+        ((OtherAddress) decoded.getAttribute(MessageAttributeType.OTHER_ADDRESS))
+            .getSocketAddress());
+
+    // same bytes as the attribute object
+    ByteBuffer direct = ByteBuffer.allocate(16);
+    MappedAddress.encode(direct, MessageAttributeType.OTHER_ADDRESS.getCode(), address, 3479);
+
+    ByteBuffer encoded = ByteBuffer.allocate(16);
+    new OtherAddress(address, 3479).encodeTo(encoded);
+
+    Assert.assertArrayEquals(encoded.array(), direct.array());
+  }
+
 }
@@ -17,11 +17,16 @@
 package net.sf.gee.l2mn.test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import org.junit.Assert;
 import org.junit.Test;
 
+import net.sf.gee.l2mn.stun.message.Message;
 import net.sf.gee.l2mn.stun.message.MessageHeader;
 import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttribute;
+import net.sf.gee.l2mn.stun.message.attribute.Software;
 import net.sf.gee.l2mn.stun.util.StunUtil;
 
 /**
@@ -50,4 +55,50 @@ public class MessageHeaderTest {
 
   }
 
+  @Test
+  public void testEncodeDecode() throws IOException {
+    Message msg = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    msg.getHeader().setTransactionId("TEST");
+    msg.addAttribute(new Software());
+
+    ByteBuffer buffer = ByteBuffer.allocate(512);
+    int size = msg.encodeTo(buffer);
+
+    Assert.assertEquals(MessageHeader.HEADER_LENGTH + msg.getAttributesLength(), size);
+    Assert.assertEquals(0, size % 4);
+
+    buffer.flip();
+    Message decoded = Message.decode(buffer);
+
+    Assert.assertEquals(size, buffer.position());
+    Assert.assertEquals(MessageTypeEnum.BINDINGREQUEST, decoded.getHeader().getType());
+    Assert.assertEquals(MessageHeader.MAGIC_COOKIE, decoded.getHeader().getMagicCookie());
+    Assert.assertEquals("TEST", decoded.getHeader().getTransactionId());
+    Assert.assertEquals(1, decoded.getAttributes().size());
+
+    MessageAttribute attr = decoded.getAttributes().get(0);
+    Assert.assertEquals(msg.getAttributes().get(0).getType(), attr.getType());
+    Assert.assertArrayEquals(msg.getAttributes().get(0).getValue(), attr.getValue());
+  }
+
+  @Test
+  public void testBinaryTransactionId() throws IOException {
+    MessageHeader mh = new MessageHeader(MessageTypeEnum.BINDINGREQUEST);
+    mh.setTransactionId(0x0011223300000000L, 0x00AA00BB);
+
+    ByteBuffer buffer = ByteBuffer.allocate(MessageHeader.HEADER_LENGTH);
+    mh.encodeTo(buffer);
+    buffer.flip();
+
+    MessageHeader decoded = MessageHeader.decode(buffer);
+
+    Assert.assertEquals(mh, decoded);
+    Assert.assertEquals(mh.hashCode(), decoded.hashCode());
+    Assert.assertEquals(0x0011223300000000L, decoded.getTransactionIdHigh());
+    Assert.assertEquals(0x00AA00BB, decoded.getTransactionIdLow());
+
+    MessageHeader other = new MessageHeader(MessageTypeEnum.BINDINGREQUEST).randomTransactionId();
+    Assert.assertNotEquals(mh, other);
+  }
+
 }
@@ -0,0 +1,171 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTemplate;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.MessageIntegrity;
+import net.sf.gee.l2mn.stun.message.attribute.Software;
+import net.sf.gee.l2mn.stun.message.attribute.Username;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.util.CredentialKey;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class MessageTemplateTest {
+
+  private static Message request(CredentialKey key) throws IOException {
+    Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    request.addAttribute(new Username("user"));
+    request.addAttribute(new Software());
+
+    if (key != null) {
+      request.addAttribute(new MessageIntegrity(key));
+    }
+
+    request.addAttribute(new FingerPrint());
+
+    return request;
+  }
+
+  private static byte[] bytes(ByteBuffer buffer, int from, int to) {
+    byte[] data = new byte[to - from];
+
+    for (int i = from; i < to; i++) {
+      data[i - from] = buffer.get(i);
+    }
+
+    return data;
+  }
+
+  @Test
+  public void testSameBytesAsMessage() throws IOException {
+    CredentialKey key = CredentialKey.shortTerm("VOkJxbRl1RmTxUk/WvJxBt");
+
+    Message request = request(key);
+    MessageTemplate template = new MessageTemplate(request);
+
+    ByteBuffer expected = ByteBuffer.allocate(256);
+    ByteBuffer actual = ByteBuffer.allocateDirect(256);
+
+    for (int i = 0; i < 10; i++) {
+      request.getHeader().randomTransactionId();
+
+      expected.clear();
+      int length = request.encodeTo(expected);
+
+      // not at the start of the buffer
+      actual.clear();
+      actual.position(12);
+      Assert.assertEquals(length, template.encodeTo(actual,
+          request.getHeader().getTransactionIdHigh(), request.getHeader().getTransactionIdLow()));
+
+      Assert.assertEquals(12 + length, actual.position());
+      Assert.assertArrayEquals(Arrays.copyOf(expected.array(), length),
+          bytes(actual, 12, 12 + length));
+
+      MessageView view = new MessageView().wrap(bytes(actual, 12, 12 + length), 0, length);
+      Assert.assertTrue(FingerPrint.verify(view));
+      Assert.assertTrue(MessageIntegrity.verify(view, key));
+      Assert.assertEquals(request.getHeader().getTransactionIdLow(), view.getTransactionIdLow());
+    }
+  }
+
+  @Test
+  public void testWithoutIntegrity() throws IOException {
+    MessageTemplate template = new MessageTemplate(request(null));
+
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    int length = template.encodeTo(buffer, 1L, 2);
+    buffer.flip();
+
+    Assert.assertEquals(template.getLength(), length);
+    Assert.assertEquals(MessageTypeEnum.BINDINGREQUEST, template.getType());
+    Assert.assertTrue(FingerPrint.verify(buffer, 0, length));
+
+    Message decoded = Message.decode(buffer);
+    Assert.assertEquals(1L, decoded.getHeader().getTransactionIdHigh());
+    Assert.assertEquals(2, decoded.getHeader().getTransactionIdLow());
+    Assert.assertNotNull(decoded.getAttribute(MessageAttributeType.SOFTWARE));
+
+    try {
+      template.encodeTo(ByteBuffer.allocate(length - 1), 1L, 2);
+      Assert.fail("buffer too short");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testIntegrityWithoutKey() throws IOException {
+    Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    request.addAttribute(new MessageIntegrity(CredentialKey.HMAC_LENGTH,
+        new byte[CredentialKey.HMAC_LENGTH]));
+
+    try {
+      new MessageTemplate(request);
+      Assert.fail("no key to compute the HMAC");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTransporter() throws Exception {
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        AsyncStunTransporter transporter = new AsyncStunTransporter(null, null)) {
+
+      server.start();
+
+      MessageTemplate template = new MessageTemplate(request(null));
+
+      for (int i = 0; i < 3; i++) {
+        Message response = transporter.doBindAsync(template, server.getLocalAddress()).get();
+
+        XorMappedAddress mapped =
+            (XorMappedAddress) response.getAttribute(MessageAttributeType.XOR_MAPPED_ADDRESS);
+        Assert.assertEquals(transporter.getLocalAddress().getPort(),
+            mapped.getSocketAddress(response.getHeader()).getPort());
+      }
+
+      Assert.assertEquals(3L, server.getResponseCount());
+    }
+  }
+
+}
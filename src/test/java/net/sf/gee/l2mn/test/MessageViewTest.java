@@ -0,0 +1,107 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class MessageViewTest {
+
+  @Test
+  public void testBindingResponse() throws Exception {
+    byte[] address = InetAddress.getByName("192.0.2.1").getAddress();
+    int port = 32853;
+
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    buffer.putShort((short) MessageTypeEnum.BINDINGRESPONSE.getValue());
+    buffer.putShort((short) 12);
+    buffer.putInt((int) MessageHeader.MAGIC_COOKIE);
+    buffer.put("0123456789AB".getBytes("US-ASCII"));
+
+    // XOR-MAPPED-ADDRESS
+    buffer.putShort((short) MessageAttributeType.XOR_MAPPED_ADDRESS.getCode());
+    buffer.putShort((short) 8);
+    buffer.put((byte) 0);
+    buffer.put((byte) 0x01);
+    buffer.putShort((short) (port ^ (MessageHeader.MAGIC_COOKIE >>> 16)));
+    buffer.putInt((int) (ByteBuffer.wrap(address).getInt() ^ MessageHeader.MAGIC_COOKIE));
+
+    MessageView view = new MessageView().wrap(buffer.array(), 0, buffer.position());
+
+    Assert.assertTrue(view.isStun());
+    Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, view.getMessageType());
+    Assert.assertEquals(12, view.getLength());
+    Assert.assertEquals('0', view.getTransactionIdByte(0));
+
+    int attr = view.firstAttribute();
+    Assert.assertEquals(MessageHeader.HEADER_LENGTH, attr);
+    Assert.assertEquals(attr, view.findXorMappedAddress());
+    Assert.assertEquals(port, view.getXorPort(attr));
+    Assert.assertEquals(InetAddress.getByAddress(address), view.getXorAddress(attr));
+    Assert.assertEquals(-1, view.nextAttribute(attr));
+  }
+
+  @Test
+  public void testTruncatedAddress() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    buffer.putShort((short) MessageTypeEnum.BINDINGRESPONSE.getValue());
+    buffer.putShort((short) 12);
+    buffer.putInt((int) MessageHeader.MAGIC_COOKIE);
+    buffer.put("0123456789AB".getBytes("US-ASCII"));
+
+    // XOR-MAPPED-ADDRESS of family IPv6 with the length of IPv4
+    buffer.putShort((short) MessageAttributeType.XOR_MAPPED_ADDRESS.getCode());
+    buffer.putShort((short) 8);
+    buffer.put((byte) 0);
+    buffer.put((byte) 0x02);
+    buffer.putShort((short) 1);
+    buffer.putInt(0);
+
+    MessageView view = new MessageView().wrap(buffer.array(), 0, buffer.position());
+
+    try {
+      view.getXorAddress(view.findXorMappedAddress());
+      Assert.fail("truncated IPv6 address");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testNotStun() {
+    byte[] data = new byte[] {(byte) 0x80, 0x60, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0};
+
+    Assert.assertFalse(new MessageView().wrap(data, 0, data.length).isStun());
+    Assert.assertFalse(new MessageView().wrap(data, 0, 10).isStun());
+  }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.ChangeRequest;
+import net.sf.gee.l2mn.stun.message.attribute.MappedAddress;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.OtherAddress;
+import net.sf.gee.l2mn.stun.message.attribute.ResponseOrigin;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.nat.NatBehavior;
+import net.sf.gee.l2mn.stun.nat.NatBehaviorDiscovery;
+import net.sf.gee.l2mn.stun.server.NatBehaviorServer;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class NatBehaviorDiscoveryTest {
+
+  /**
+   * Server that announces an OTHER-ADDRESS but never answers a CHANGE-REQUEST, as seen behind a
+   * NAT with address and port dependent filtering.
+   */
+  private static final class FilteredResponder extends Thread implements AutoCloseable {
+
+    final DatagramSocket socket;
+
+    FilteredResponder() throws IOException {
+      super("filtered-responder");
+
+      this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+
+      setDaemon(true);
+      start();
+    }
+
+    InetSocketAddress getLocalAddress() {
+      return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void run() {
+      final byte[] data = new byte[1500];
+
+      try {
+        while (true) {
+          DatagramPacket packet = new DatagramPacket(data, data.length);
+          socket.receive(packet);
+
+          ByteBuffer in = ByteBuffer.wrap(data, 0, packet.getLength());
+          long txHigh = in.getLong(8);
+          int txLow = in.getInt(16);
+
+          if (in.getShort(2) > 0) {
+            // CHANGE-REQUEST: filtered
+            continue;
+          }
+
+          InetSocketAddress source = (InetSocketAddress) packet.getSocketAddress();
+
+          ByteBuffer out = ByteBuffer.allocate(64);
+          out.putShort((short) MessageTypeEnum.BINDINGRESPONSE.getValue());
+          out.putShort((short) 24);
+          out.putInt((int) MessageHeader.MAGIC_COOKIE);
+          out.putLong(txHigh);
+          out.putInt(txLow);
+          XorMappedAddress.encode(out, MessageAttributeType.XOR_MAPPED_ADDRESS.getCode(),
+              source.getAddress(), source.getPort(), txHigh, txLow);
+          MappedAddress.encode(out, MessageAttributeType.OTHER_ADDRESS.getCode(),
+              InetAddress.getByAddress(new byte[] {127, 0, 0, 9}), 9);
+
+          socket.send(new DatagramPacket(out.array(), out.position(), source));
+        }
+      }
+      catch (IOException e) {
+        // closed
+      }
+    }
+
+    @Override
+    public void close() {
+      socket.close();
+    }
+
+  }
+
+  /**
+   * Behavior server on 127.0.0.1 and 127.0.0.2, skipped where the second loopback address is not
+   * available.
+   */
+  private static NatBehaviorServer behaviorServer() throws Exception {
+    NatBehaviorServer server;
+
+    try {
+      server = new NatBehaviorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+          new InetSocketAddress(InetAddress.getByAddress(new byte[] {127, 0, 0, 2}), 0));
+    }
+    catch (IOException e) {
+      Assume.assumeNoException(e);
+
+      throw e;
+    }
+
+    server.start();
+
+    return server;
+  }
+
+  @Test
+  public void testServer() throws Exception {
+
+    try (NatBehaviorServer server = behaviorServer();
+        AsyncStunTransporter transporter = new AsyncStunTransporter(null, null)) {
+
+      InetSocketAddress primary = server.getPrimaryAddress();
+      InetSocketAddress alternate = server.getAlternateAddress();
+
+      Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      request.getHeader().randomTransactionId();
+      request.addAttribute(new ChangeRequest(true, false));
+
+      Message response = transporter.doBindAsync(request, primary, true).get();
+
+      Assert.assertEquals(new InetSocketAddress(alternate.getAddress(), primary.getPort()),
+          ((ResponseOrigin) response.getAttribute(MessageAttributeType.RESPONSE_ORIGIN))
+              .getSocketAddress());
+      Assert.assertEquals(alternate,
+          ((OtherAddress) response.getAttribute(MessageAttributeType.OTHER_ADDRESS))
+              .getSocketAddress());
+      Assert.assertEquals(transporter.getLocalAddress().getPort(),
+          ((XorMappedAddress) response.getAttribute(MessageAttributeType.XOR_MAPPED_ADDRESS))
+              .getSocketAddress(response.getHeader()).getPort());
+
+      // without anySource the answer from the alternate address is discarded
+      transporter.setRetransmissionPolicy(new RetransmissionPolicy(20, 2, 2));
+
+      Message strict = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      strict.getHeader().randomTransactionId();
+      strict.addAttribute(new ChangeRequest(false, true));
+
+      try {
+        transporter.doBindAsync(strict, primary).get();
+        Assert.fail("response from another port");
+      }
+      catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+      }
+
+      // first request, then the strict one and its retransmission
+      Assert.assertEquals(3L, server.getResponseCount());
+    }
+  }
+
+  @Test
+  public void testNoNat() throws Exception {
+
+    try (NatBehaviorServer server = behaviorServer();
+        NatBehaviorDiscovery discovery = new NatBehaviorDiscovery()) {
+
+      NatBehavior behavior = discovery.discover(server.getPrimaryAddress());
+
+      Assert.assertEquals(NatBehavior.Mapping.NO_NAT, behavior.getMapping());
+      Assert.assertEquals(NatBehavior.Filtering.ENDPOINT_INDEPENDENT, behavior.getFiltering());
+      Assert.assertEquals(server.getAlternateAddress(), behavior.getOtherAddress());
+
+      // no test waits for a timeout
+      Assert.assertTrue(behavior.getElapsedNanos()
+          < NatBehaviorDiscovery.FILTERING_POLICY.getRto() * 1_000_000L);
+    }
+  }
+
+  @Test
+  public void testFilteringInParallel() throws Exception {
+
+    try (FilteredResponder server = new FilteredResponder();
+        AsyncStunTransporter mapping = new AsyncStunTransporter(null, null);
+        AsyncStunTransporter filtering = new AsyncStunTransporter(null, null)) {
+
+      filtering.setRetransmissionPolicy(new RetransmissionPolicy(100, 2, 2));
+
+      NatBehaviorDiscovery discovery = new NatBehaviorDiscovery(mapping, filtering);
+
+      NatBehavior behavior = discovery.discover(server.getLocalAddress());
+
+      Assert.assertEquals(NatBehavior.Mapping.NO_NAT, behavior.getMapping());
+      Assert.assertEquals(NatBehavior.Filtering.ADDRESS_AND_PORT_DEPENDENT,
+          behavior.getFiltering());
+
+      // both filtering tests time out together: 100 + 200 ms, not twice
+      Assert.assertTrue(behavior.getElapsedNanos() < 550_000_000L);
+      Assert.assertEquals(0, filtering.getPendingCount());
+    }
+  }
+
+  @Test
+  public void testUnsupportedServer() throws Exception {
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        NatBehaviorDiscovery discovery = new NatBehaviorDiscovery()) {
+
+      server.start();
+
+      NatBehavior behavior = discovery.discover(server.getLocalAddress());
+
+      Assert.assertEquals(NatBehavior.Mapping.NO_NAT, behavior.getMapping());
+      Assert.assertEquals(NatBehavior.Filtering.UNKNOWN, behavior.getFiltering());
+      Assert.assertNull(behavior.getOtherAddress());
+    }
+  }
+
+}
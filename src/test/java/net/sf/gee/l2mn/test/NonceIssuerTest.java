@@ -0,0 +1,132 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.net.InetAddress;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.attribute.Nonce;
+import net.sf.gee.l2mn.stun.util.NonceIssuer;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class NonceIssuerTest {
+
+  private static final long NOW = 1_700_000_000_000L;
+
+  private static InetAddress address(int last) throws Exception {
+    return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last});
+  }
+
+  @Test
+  public void testValidate() throws Exception {
+    NonceIssuer issuer = new NonceIssuer(3, NonceIssuer.randomKey(), 60L);
+    InetAddress client = address(1);
+
+    String nonce = issuer.issue(client, NOW);
+
+    // fits the attribute, qdtext only
+    Assert.assertEquals(nonce, new Nonce(nonce).getNonce());
+    Assert.assertTrue(nonce.matches("[0-9a-f]+"));
+
+    Assert.assertTrue(issuer.validate(nonce, client, NOW));
+    Assert.assertTrue(issuer.validate(nonce, client, NOW + 59_999L));
+
+    // expired, issued in the future, other client
+    Assert.assertFalse(issuer.validate(nonce, client, NOW + 60_000L));
+    Assert.assertFalse(issuer.validate(nonce, client, NOW - 60_000L));
+    Assert.assertFalse(issuer.validate(nonce, address(2), NOW));
+
+    // IPv6 client
+    InetAddress v6 = InetAddress.getByName("::1");
+    Assert.assertTrue(issuer.validate(issuer.issue(v6, NOW), v6, NOW));
+    Assert.assertFalse(issuer.validate(issuer.issue(v6, NOW), client, NOW));
+  }
+
+  @Test
+  public void testTampered() throws Exception {
+    NonceIssuer issuer = new NonceIssuer(0, NonceIssuer.randomKey(), 60L);
+    InetAddress client = address(1);
+
+    String nonce = issuer.issue(client, NOW);
+    char[] text = nonce.toCharArray();
+
+    for (int i = 0; i < text.length; i++) {
+      char original = text[i];
+
+      text[i] = (original == '0') ? '1' : '0';
+      Assert.assertFalse("digit " + i, issuer.validate(new String(text), client, NOW));
+
+      text[i] = 'X';
+      Assert.assertFalse("digit " + i, issuer.validate(new String(text), client, NOW));
+
+      text[i] = original;
+    }
+
+    Assert.assertFalse(issuer.validate(null, client, NOW));
+    Assert.assertFalse(issuer.validate("", client, NOW));
+    Assert.assertFalse(issuer.validate(nonce + "0", client, NOW));
+    Assert.assertFalse(issuer.validate(nonce.toUpperCase(), client, NOW));
+
+    // another server key
+    NonceIssuer other = new NonceIssuer(0, NonceIssuer.randomKey(), 60L);
+    Assert.assertFalse(other.validate(nonce, client, NOW));
+  }
+
+  @Test
+  public void testCluster() throws Exception {
+    byte[] first = NonceIssuer.randomKey();
+    byte[] second = NonceIssuer.randomKey();
+    InetAddress client = address(1);
+
+    // two servers, no shared state but the key
+    NonceIssuer one = new NonceIssuer(1, first, 60L);
+    NonceIssuer two = new NonceIssuer(1, first, 60L);
+
+    String old = one.issue(client, NOW);
+    Assert.assertTrue(two.validate(old, client, NOW));
+
+    // rotation: the new key is known everywhere before it is used
+    one.addKey(2, second);
+    two.addKey(2, second);
+    one.rotate(2, second);
+    Assert.assertEquals(2, one.getCurrentKeyId());
+
+    String fresh = one.issue(client, NOW);
+    Assert.assertNotEquals(old, fresh);
+    Assert.assertTrue(two.validate(fresh, client, NOW));
+    Assert.assertTrue(one.validate(old, client, NOW));
+
+    // the old key is removed
+    one.removeKey(1);
+    Assert.assertFalse(one.validate(old, client, NOW));
+    Assert.assertTrue(one.validate(fresh, client, NOW));
+
+    try {
+      one.removeKey(2);
+      Assert.fail("current key removed");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.ChannelData;
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.PacketDemultiplexer;
+import net.sf.gee.l2mn.stun.transport.PacketDemultiplexer.PacketType;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class PacketDemultiplexerTest {
+
+  private static final InetSocketAddress SOURCE =
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), 5000);
+
+  private static ByteBuffer stun(boolean fingerprint) throws Exception {
+    Message message = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    message.getHeader().randomTransactionId();
+
+    if (fingerprint) {
+      message.addAttribute(new FingerPrint());
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(128);
+    message.encodeTo(buffer);
+    buffer.flip();
+
+    return buffer;
+  }
+
+  @Test
+  public void testClassify() throws Exception {
+    int[][] ranges = { {0, 3}, {16, 19}, {20, 63}, {64, 79}, {128, 191}};
+    PacketType[] types = {PacketType.STUN, PacketType.ZRTP, PacketType.DTLS,
+        PacketType.CHANNEL_DATA, PacketType.RTP};
+
+    ByteBuffer buffer = ByteBuffer.allocate(1);
+
+    for (int i = 0; i < ranges.length; i++) {
+      for (int b = ranges[i][0]; b <= ranges[i][1]; b++) {
+        buffer.put(0, (byte) b);
+        Assert.assertEquals(types[i], PacketDemultiplexer.classify(buffer, 0));
+      }
+    }
+
+    for (int b : new int[] {4, 15, 80, 127, 192, 255}) {
+      buffer.put(0, (byte) b);
+      Assert.assertEquals(PacketType.UNKNOWN, PacketDemultiplexer.classify(buffer, 0));
+    }
+  }
+
+  @Test
+  public void testStunChecks() throws Exception {
+    PacketDemultiplexer demux = new PacketDemultiplexer();
+    PacketDemultiplexer strict = new PacketDemultiplexer(true);
+
+    ByteBuffer plain = stun(false);
+    ByteBuffer signed = stun(true);
+
+    Assert.assertEquals(PacketType.STUN, demux.classify(plain, 0, plain.remaining()));
+    Assert.assertEquals(PacketType.UNKNOWN, strict.classify(plain, 0, plain.remaining()));
+    Assert.assertEquals(PacketType.STUN, strict.classify(signed, 0, signed.remaining()));
+
+    // corrupted FINGERPRINT
+    signed.put(signed.limit() - 1, (byte) (signed.get(signed.limit() - 1) ^ 1));
+    Assert.assertEquals(PacketType.UNKNOWN, strict.classify(signed, 0, signed.remaining()));
+
+    // wrong magic cookie
+    plain.put(4, (byte) 0);
+    Assert.assertEquals(PacketType.UNKNOWN, demux.classify(plain, 0, plain.remaining()));
+
+    // truncated
+    Assert.assertEquals(PacketType.UNKNOWN, demux.classify(stun(false), 0, 12));
+  }
+
+  @Test
+  public void testRouting() throws Exception {
+    final ByteBuffer[] received = new ByteBuffer[PacketType.values().length];
+
+    PacketDemultiplexer demux = new PacketDemultiplexer(true)
+        .register(PacketType.STUN, (data, source) -> received[0] = data)
+        .register(PacketType.CHANNEL_DATA, (data, source) -> received[3] = data)
+        .register(PacketType.UNKNOWN, (data, source) -> received[5] = data);
+
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    buffer.position(10);
+    ChannelData.encode(buffer, 0x4001, new byte[] {1, 2, 3}, 0, 3, false);
+    buffer.flip().position(10);
+
+    demux.onDatagram(buffer, SOURCE);
+
+    // same buffer, same bounds
+    Assert.assertSame(buffer, received[3]);
+    Assert.assertEquals(10, buffer.position());
+
+    ByteBuffer signed = stun(true);
+    demux.onDatagram(signed, SOURCE);
+    Assert.assertSame(signed, received[0]);
+
+    // DTLS without handler goes to UNKNOWN
+    ByteBuffer dtls = ByteBuffer.wrap(new byte[] {22, (byte) 0xFE, (byte) 0xFD});
+    demux.onDatagram(dtls, SOURCE);
+    Assert.assertSame(dtls, received[5]);
+
+    demux.register(PacketType.UNKNOWN, null);
+    demux.onDatagram(dtls, SOURCE);
+    Assert.assertEquals(1, demux.getDroppedCount());
+  }
+
+  @Test
+  public void testBehindTransporter() throws Exception {
+    final BlockingQueue<Integer> channels = new ArrayBlockingQueue<>(4);
+    final BlockingQueue<Integer> rtp = new ArrayBlockingQueue<>(4);
+
+    PacketDemultiplexer demux = new PacketDemultiplexer()
+        .register(PacketType.CHANNEL_DATA,
+            (data, source) -> channels.add(ChannelData.getChannel(data, data.position())))
+        .register(PacketType.RTP, (data, source) -> rtp.add(data.remaining()));
+
+    try (AsyncStunTransporter st = new AsyncStunTransporter(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null);
+        DatagramSocket peer = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+
+      st.setDatagramHandler(demux);
+
+      ByteBuffer buffer = ByteBuffer.allocate(64);
+      ChannelData.encode(buffer, 0x4002, new byte[] {9}, 0, 1, false);
+
+      peer.send(new DatagramPacket(buffer.array(), buffer.position(), st.getLocalAddress()));
+      peer.send(new DatagramPacket(new byte[] {(byte) 0x80, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0}, 12,
+          st.getLocalAddress()));
+
+      Assert.assertEquals(Integer.valueOf(0x4002), channels.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals(Integer.valueOf(12), rtp.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class RetransmissionPolicyTest {
+
+  @Test
+  public void testDefaultSchedule() {
+    RetransmissionPolicy policy = RetransmissionPolicy.DEFAULT;
+
+    // requests at 0, 500, 1500, 3500, 7500, 15500 and 31500 ms, failure at 39500 ms
+    long[] expected = {500L, 1000L, 2000L, 4000L, 8000L, 16000L, 8000L};
+    long elapsed = 0L;
+
+    for (int attempt = 1; attempt <= policy.getRc(); attempt++) {
+      Assert.assertEquals("attempt " + attempt, expected[attempt - 1],
+          policy.getWait(policy.getRto(), attempt));
+
+      elapsed += policy.getWait(policy.getRto(), attempt);
+    }
+
+    Assert.assertEquals(39500L, elapsed);
+  }
+
+  @Test
+  public void testLearnedRto() {
+    RetransmissionPolicy policy = new RetransmissionPolicy(500, 3, 4);
+
+    // the RTO of the transaction, not the one of the policy
+    Assert.assertEquals(120L, policy.getWait(120L, 1));
+    Assert.assertEquals(240L, policy.getWait(120L, 2));
+    Assert.assertEquals(480L, policy.getWait(120L, 3));
+    Assert.assertEquals(480L, policy.getWait(120L, 10));
+  }
+
+  @Test
+  public void testOverflow() {
+    RetransmissionPolicy policy = new RetransmissionPolicy(1, 100, 1);
+
+    // the shift is capped: no overflow to negative waits
+    Assert.assertEquals(1L << 30, policy.getWait(1L, 31));
+    Assert.assertEquals(1L << 30, policy.getWait(1L, 99));
+  }
+
+  @Test
+  public void testInvalid() {
+
+    try {
+      new RetransmissionPolicy(0, 7, 16);
+      Assert.fail("RTO must be positive");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+import net.sf.gee.l2mn.stun.transport.RtoCache;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class RtoCacheTest {
+
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static InetSocketAddress server(int last, int port) throws Exception {
+    return new InetSocketAddress(InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last}),
+        port);
+  }
+
+  @Test
+  public void testEstimate() throws Exception {
+    RtoCache cache = new RtoCache(64, 60000L, 10L, 3000L);
+    InetSocketAddress server = server(1, 3478);
+
+    Assert.assertEquals(500L, cache.getRto(server, 500L));
+    Assert.assertEquals(-1L, cache.getSmoothedRtt(server));
+
+    // SRTT = 40 ms, RTTVAR = 20 ms: RTO = 40 + 4 * 20
+    cache.onResponse(server, 40 * MILLIS, 1, 500L);
+    Assert.assertEquals(120L, cache.getRto(server, 500L));
+    Assert.assertEquals(40000L, cache.getSmoothedRtt(server));
+
+    // RTTVAR = 3/4 * 20 + 1/4 * 0, SRTT = 40 ms: RTO = 40 + 4 * 15
+    cache.onResponse(server, 40 * MILLIS, 1, 500L);
+    Assert.assertEquals(100L, cache.getRto(server, 500L));
+
+    // same IP address, another port
+    Assert.assertEquals(100L, cache.getRto(server(1, 5349), 500L));
+    Assert.assertEquals(500L, cache.getRto(server(2, 3478), 500L));
+  }
+
+  @Test
+  public void testKarnAndBackoff() throws Exception {
+    RtoCache cache = new RtoCache(64, 60000L, 10L, 1000L);
+    InetSocketAddress server = server(1, 3478);
+
+    cache.onResponse(server, 40 * MILLIS, 1, 500L);
+    Assert.assertEquals(120L, cache.getRto(server, 500L));
+
+    // the response of a retransmitted request is not a measurement
+    cache.onResponse(server, 900 * MILLIS, 3, 120L);
+    Assert.assertEquals(120L, cache.getRto(server, 500L));
+    Assert.assertEquals(40000L, cache.getSmoothedRtt(server));
+
+    cache.onTimeout(server, 120L);
+    Assert.assertEquals(240L, cache.getRto(server, 500L));
+
+    for (int i = 0; i < 10; i++) {
+      cache.onTimeout(server, 240L);
+    }
+
+    Assert.assertEquals(1000L, cache.getRto(server, 500L));
+
+    // the backed off value holds until a valid measurement
+    cache.onResponse(server, 40 * MILLIS, 2, 1000L);
+    Assert.assertEquals(1000L, cache.getRto(server, 500L));
+
+    cache.onResponse(server, 40 * MILLIS, 1, 1000L);
+    Assert.assertTrue(cache.getRto(server, 500L) < 1000L);
+
+    // lower bound
+    cache.onResponse(server(2, 3478), 100000L, 1, 500L);
+    Assert.assertEquals(10L, cache.getRto(server(2, 3478), 500L));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    RtoCache cache = new RtoCache(16, 50L, 10L, 3000L);
+
+    for (int i = 1; i <= 200; i++) {
+      cache.onResponse(server(i, 3478), 40 * MILLIS, 1, 500L);
+    }
+
+    // bounded
+    Assert.assertTrue(cache.size() <= 16);
+    Assert.assertEquals(120L, cache.getRto(server(200, 3478), 500L));
+
+    Thread.sleep(100);
+
+    // idle
+    Assert.assertEquals(500L, cache.getRto(server(200, 3478), 500L));
+    Assert.assertTrue(cache.evictIdle() > 0);
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testConcurrent() throws Exception {
+    final RtoCache cache = new RtoCache(64, 60000L, 10L, 3000L);
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+
+          for (int i = 0; i < 20000; i++) {
+            InetSocketAddress server = server(random.nextInt(1, 120), 3478);
+
+            long rto = cache.getRto(server, 500L);
+            Assert.assertTrue(rto >= 10L && rto <= 3000L);
+
+            if (random.nextInt(10) == 0) {
+              cache.onTimeout(server, rto);
+            }
+            else {
+              cache.onResponse(server, random.nextLong(1, 200) * MILLIS, 1, rto);
+            }
+          }
+
+          return null;
+        }));
+      }
+
+      for (Future<?> current : futures) {
+        current.get(30, TimeUnit.SECONDS);
+      }
+
+      Assert.assertTrue(cache.size() <= 64);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testTransporter() throws Exception {
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        AsyncStunTransporter transporter = new AsyncStunTransporter(null, null)) {
+
+      server.start();
+
+      RtoCache cache = new RtoCache(64, 60000L, 10L, 3000L);
+      transporter.setRtoCache(cache);
+
+      for (int i = 0; i < 20; i++) {
+        Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+        request.getHeader().randomTransactionId();
+        transporter.doBindAsync(request, server.getLocalAddress()).get();
+      }
+
+      Assert.assertTrue(cache.getSmoothedRtt(server.getLocalAddress()) >= 0L);
+
+      final long learned = cache.getRto(server.getLocalAddress(), 500L);
+      Assert.assertTrue(learned < 500L);
+
+      // the silent socket shares the loopback address: it starts from the learned RTO
+      transporter.setRetransmissionPolicy(new RetransmissionPolicy(500, 2, 2));
+
+      Message lost = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      lost.getHeader().randomTransactionId();
+
+      long start = System.nanoTime();
+
+      try {
+        transporter.doBindAsync(lost, (InetSocketAddress) silent.getLocalSocketAddress()).get();
+        Assert.fail("no response");
+      }
+      catch (ExecutionException e) {
+        // 3 * RTO, below the 1500 ms of the policy
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+      }
+
+      // timed out: backed off
+      Assert.assertEquals(Math.min(3000L, 2 * learned),
+          cache.getRto(server.getLocalAddress(), 500L));
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.ChannelData;
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.transport.StreamFramer;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class StreamFramerTest {
+
+  private static byte[] request() throws IOException {
+    Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    request.getHeader().randomTransactionId();
+
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    request.encodeTo(buffer);
+    buffer.flip();
+
+    byte[] data = new byte[buffer.remaining()];
+    buffer.get(data);
+
+    return data;
+  }
+
+  @Test
+  public void testPartial() throws Exception {
+    byte[] message = request();
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    // one byte at a time: no frame until the last byte
+    for (int i = 0; i < message.length - 1; i++) {
+      buffer.put(message[i]);
+      buffer.flip();
+
+      Assert.assertEquals(0, StreamFramer.frameLength(buffer));
+      Assert.assertEquals(0, buffer.position());
+
+      buffer.compact();
+    }
+
+    buffer.put(message[message.length - 1]);
+    buffer.flip();
+
+    Assert.assertEquals(message.length, StreamFramer.frameLength(buffer));
+  }
+
+  @Test
+  public void testCoalesced() throws Exception {
+    byte[] first = request();
+    byte[] second = request();
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    buffer.put(first).put(second);
+    ChannelData.encode(buffer, 0x4000, new byte[5], 0, 5, true);
+    buffer.put(second, 0, 10);
+    buffer.flip();
+
+    int length = StreamFramer.frameLength(buffer);
+    Assert.assertEquals(first.length, length);
+    buffer.position(buffer.position() + length);
+
+    length = StreamFramer.frameLength(buffer);
+    Assert.assertEquals(second.length, length);
+    buffer.position(buffer.position() + length);
+
+    // ChannelData padded to 4 + 8 bytes
+    length = StreamFramer.frameLength(buffer);
+    Assert.assertEquals(12, length);
+    buffer.position(buffer.position() + length);
+
+    Assert.assertEquals(0, StreamFramer.frameLength(buffer));
+    Assert.assertEquals(10, buffer.remaining());
+  }
+
+  @Test
+  public void testOutOfSync() throws Exception {
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[] {(byte) 0x80, 0, 0, 4, 0, 0, 0, 0});
+
+    try {
+      StreamFramer.frameLength(buffer);
+      Assert.fail("not a STUN stream");
+    }
+    catch (IOException e) {
+      // expected
+    }
+
+    byte[] message = request();
+    message[4] = 0;
+
+    try {
+      StreamFramer.frameLength(ByteBuffer.wrap(message));
+      Assert.fail("wrong magic cookie");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTooLarge() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    buffer.put(request());
+    buffer.putShort(2, (short) 0x0400);
+    buffer.flip();
+
+    try {
+      StreamFramer.frameLength(buffer);
+      Assert.fail("frame larger than the buffer");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,242 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.transport.StreamStunTransporter;
+
+/**
+ * Loopback tests of {@link StreamStunTransporter} against a blocking TCP responder.
+ * 
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class StreamStunTransporterTest {
+
+  private static Message request() {
+    Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+    request.getHeader().randomTransactionId();
+
+    return request;
+  }
+
+  /**
+   * Read one request from the stream and encode its response.
+   */
+  private static byte[] respond(DataInputStream in) throws IOException {
+    byte[] data = new byte[MessageHeader.HEADER_LENGTH];
+    in.readFully(data);
+
+    int length = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    byte[] message = new byte[MessageHeader.HEADER_LENGTH + length];
+    System.arraycopy(data, 0, message, 0, data.length);
+    in.readFully(message, data.length, length);
+
+    Message response = new Message(Message.decode(ByteBuffer.wrap(message)).getHeader());
+    response.getHeader().setType(MessageTypeEnum.BINDINGRESPONSE);
+
+    ByteBuffer out = ByteBuffer.allocate(64);
+    response.encodeTo(out);
+    out.flip();
+
+    byte[] encoded = new byte[out.remaining()];
+    out.get(encoded);
+
+    return encoded;
+  }
+
+  @Test
+  public void testCoalescedResponses() throws Exception {
+    final int count = 32;
+
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+
+      // answer all the requests in reverse order with a single write
+      Thread responder = new Thread(() -> {
+        try (Socket socket = server.accept()) {
+          DataInputStream in = new DataInputStream(socket.getInputStream());
+          List<byte[]> responses = new ArrayList<>();
+
+          for (int i = 0; i < count; i++) {
+            responses.add(respond(in));
+          }
+
+          Collections.reverse(responses);
+
+          ByteBuffer all = ByteBuffer.allocate(count * 64);
+          for (byte[] response : responses) {
+            all.put(response);
+          }
+
+          socket.getOutputStream().write(all.array(), 0, all.position());
+          socket.getOutputStream().flush();
+
+          in.read();
+        }
+        catch (IOException e) {
+          // connection closed by the client
+        }
+      });
+      responder.start();
+
+      try (StreamStunTransporter st = new StreamStunTransporter(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), null)) {
+
+        List<Message> requests = new ArrayList<>();
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+          Message request = request();
+          requests.add(request);
+          futures.add(st.doBindAsync(request));
+        }
+
+        for (int i = 0; i < count; i++) {
+          Message response = futures.get(i).get(5, TimeUnit.SECONDS);
+
+          Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, response.getHeader().getType());
+          Assert.assertEquals(requests.get(i).getHeader().getTransactionId(),
+              response.getHeader().getTransactionId());
+        }
+
+        Assert.assertEquals(0, st.getPendingCount());
+      }
+
+      responder.join(5000);
+    }
+  }
+
+  @Test
+  public void testSplitResponse() throws Exception {
+
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+
+      // deliver the response in three segments
+      Thread responder = new Thread(() -> {
+        try (Socket socket = server.accept()) {
+          socket.setTcpNoDelay(true);
+
+          byte[] response = respond(new DataInputStream(socket.getInputStream()));
+          OutputStream out = socket.getOutputStream();
+
+          out.write(response, 0, 3);
+          out.flush();
+          Thread.sleep(50);
+
+          out.write(response, 3, 14);
+          out.flush();
+          Thread.sleep(50);
+
+          out.write(response, 17, response.length - 17);
+          out.flush();
+
+          socket.getInputStream().read();
+        }
+        catch (IOException | InterruptedException e) {
+          // connection closed by the client
+        }
+      });
+      responder.start();
+
+      try (StreamStunTransporter st = new StreamStunTransporter(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), null)) {
+
+        Message request = request();
+        Message response = st.doBind(request);
+
+        Assert.assertEquals(request.getHeader().getTransactionId(),
+            response.getHeader().getTransactionId());
+      }
+
+      responder.join(5000);
+    }
+  }
+
+  @Test
+  public void testTimeoutAndClose() throws Exception {
+
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+
+      // read the requests without answering, then close the connection
+      Thread responder = new Thread(() -> {
+        try (Socket socket = server.accept()) {
+          DataInputStream in = new DataInputStream(socket.getInputStream());
+
+          respond(in);
+          respond(in);
+        }
+        catch (IOException e) {
+          // connection closed by the client
+        }
+      });
+      responder.start();
+
+      try (StreamStunTransporter st = new StreamStunTransporter(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), null)) {
+
+        st.setTimeout(200L);
+
+        try {
+          st.doBind(request());
+          Assert.fail("no response expected");
+        }
+        catch (SocketTimeoutException e) {
+          Assert.assertEquals(0, st.getPendingCount());
+        }
+
+        // the server closes after the second request: the transaction fails before Ti
+        st.setTimeout(StreamStunTransporter.DEFAULT_TIMEOUT);
+
+        CompletableFuture<Message> future = st.doBindAsync(request());
+
+        try {
+          future.get(5, TimeUnit.SECONDS);
+          Assert.fail("connection closed");
+        }
+        catch (ExecutionException e) {
+          Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+
+        Assert.assertTrue(st.doBindAsync(request()).isCompletedExceptionally());
+      }
+
+      responder.join(5000);
+    }
+  }
+
+}
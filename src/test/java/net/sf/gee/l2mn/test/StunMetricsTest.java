@@ -0,0 +1,217 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.ErrorCode;
+import net.sf.gee.l2mn.stun.metrics.RttHistogram;
+import net.sf.gee.l2mn.stun.metrics.StunMetrics;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class StunMetricsTest {
+
+  private static final InetSocketAddress SERVER =
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), 3478);
+
+  @Test
+  public void testHistogram() throws Exception {
+    RttHistogram histogram = new RttHistogram();
+
+    Assert.assertEquals(0L, histogram.getP50Micros());
+
+    // 90 samples of 3 ms, 10 of 150 ms
+    for (int i = 0; i < 90; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    Assert.assertEquals(100L, histogram.getCount());
+    Assert.assertEquals(5000L, histogram.getP50Micros());
+    Assert.assertEquals(5000L, histogram.getP90Micros());
+    Assert.assertEquals(150000L, histogram.getP99Micros());
+    Assert.assertEquals(150000L, histogram.getMaxMicros());
+    Assert.assertEquals((90 * 3000L + 10 * 150000L) / 100, histogram.getMeanMicros());
+
+    long[] counts = histogram.getBucketCounts();
+    Assert.assertEquals(histogram.getBucketBoundsMicros().length + 1, counts.length);
+
+    // beyond the last bound
+    histogram.record(TimeUnit.SECONDS.toNanos(60));
+    Assert.assertEquals(1L, histogram.getBucketCounts()[counts.length - 1]);
+  }
+
+  @Test
+  public void testCounters() throws Exception {
+    StunMetrics metrics = new StunMetrics();
+
+    metrics.onRequest();
+    metrics.onRequest();
+    metrics.onRetransmit();
+    metrics.onTimeout();
+    metrics.onResponse(SERVER, 1000000L, -1);
+    metrics.onResponse(SERVER, 1000000L, ErrorCode.STALE_NONCE);
+    metrics.onResponse(null, 1000000L, 999);
+
+    Assert.assertEquals(2L, metrics.getRequestCount());
+    Assert.assertEquals(1L, metrics.getRetransmitCount());
+    Assert.assertEquals(1L, metrics.getTimeoutCount());
+    Assert.assertEquals(3L, metrics.getResponseCount());
+    Assert.assertEquals(2L, metrics.getErrorResponseCount());
+    Assert.assertEquals(1L, metrics.getErrorCodeCount(ErrorCode.STALE_NONCE));
+    Assert.assertEquals(1, metrics.getErrorCodeCounts().size());
+    Assert.assertEquals(3L, metrics.getRtt().getCount());
+    Assert.assertEquals(2L, metrics.getRtt(SERVER).getCount());
+    Assert.assertArrayEquals(new String[] {"127.0.0.1:3478"}, metrics.getServers());
+  }
+
+  @Test
+  public void testMaxServers() throws Exception {
+    StunMetrics metrics = new StunMetrics(2);
+
+    for (int port = 1; port <= 10; port++) {
+      metrics.onResponse(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1000L, -1);
+    }
+
+    // a server with a histogram is still recorded, the others are in the aggregate only
+    metrics.onResponse(new InetSocketAddress(InetAddress.getLoopbackAddress(), 1), 1000L, -1);
+
+    Assert.assertEquals(11L, metrics.getRtt().getCount());
+    Assert.assertEquals(2, metrics.getServers().length);
+    Assert.assertEquals(2L,
+        metrics.getRtt(new InetSocketAddress(InetAddress.getLoopbackAddress(), 1)).getCount());
+    Assert.assertNull(metrics.getRtt(new InetSocketAddress(InetAddress.getLoopbackAddress(), 3)));
+
+    try {
+      new StunMetrics(-1);
+      Assert.fail("negative maximum");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    StunMetrics metrics = new StunMetrics();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    metrics.onResponse(SERVER, 2000000L, ErrorCode.UNAUTHORIZED);
+    metrics.register("jmx-test");
+
+    try {
+      ObjectName name = metrics.getObjectName();
+
+      Assert.assertEquals(1L, server.getAttribute(name, "ResponseCount"));
+      Assert.assertEquals(1,
+          ((TabularData) server.getAttribute(name, "ErrorCodeCounts")).size());
+
+      // histogram of a server known at registration, and of a new one
+      metrics.onResponse(new InetSocketAddress(InetAddress.getLoopbackAddress(), 3479), 1L, -1);
+
+      ObjectName servers = new ObjectName(name.getCanonicalName() + ",server=*");
+      Assert.assertEquals(2, server.queryNames(servers, null).size());
+
+      ObjectName first = new ObjectName(
+          name.getCanonicalName() + ",server=" + ObjectName.quote("127.0.0.1:3478"));
+      Assert.assertEquals(2000L, server.getAttribute(first, "MaxMicros"));
+    }
+    finally {
+      metrics.unregister();
+    }
+
+    Assert.assertTrue(server
+        .queryNames(new ObjectName(StunMetrics.DOMAIN + ":name=\"jmx-test\",*"), null).isEmpty());
+  }
+
+  @Test
+  public void testAsyncTransporter() throws Exception {
+    StunMetrics metrics = new StunMetrics();
+
+    try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        AsyncStunTransporter st = new AsyncStunTransporter(null,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()))) {
+
+      st.setMetrics(metrics);
+      st.setRetransmissionPolicy(new RetransmissionPolicy(30, 3, 2));
+
+      // answer the retransmission with an error response
+      Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      request.getHeader().randomTransactionId();
+
+      st.doBindAsync(request);
+
+      DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+      server.receive(packet);
+      server.receive(packet);
+
+      Message response = new Message(
+          Message.decode(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())).getHeader());
+      response.getHeader().setType(MessageTypeEnum.BINDINGERRORRESPONSE);
+      response.addAttribute(new ErrorCode(ErrorCode.SERVER_ERROR, "Server Error"));
+
+      ByteBuffer out = ByteBuffer.allocate(128);
+      response.encodeTo(out);
+      server.send(new DatagramPacket(out.array(), out.position(), packet.getSocketAddress()));
+
+      // no answer
+      Message lost = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      lost.getHeader().randomTransactionId();
+
+      try {
+        st.doBindAsync(lost).get(5, TimeUnit.SECONDS);
+        Assert.fail("no response expected");
+      }
+      catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+      }
+    }
+
+    Assert.assertEquals(2L, metrics.getRequestCount());
+    Assert.assertTrue(metrics.getRetransmitCount() >= 2L);
+    Assert.assertEquals(1L, metrics.getTimeoutCount());
+    Assert.assertEquals(1L, metrics.getResponseCount());
+    Assert.assertEquals(1L, metrics.getErrorCodeCount(ErrorCode.SERVER_ERROR));
+    Assert.assertEquals(1L, metrics.getRtt().getCount());
+  }
+
+}
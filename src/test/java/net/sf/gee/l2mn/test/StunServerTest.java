@@ -0,0 +1,123 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.FingerPrint;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttribute;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.server.StunServer;
+import net.sf.gee.l2mn.stun.transport.AsyncStunTransporter;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class StunServerTest {
+
+  private static final byte[] COOKIE = {0x21, 0x12, (byte) 0xA4, 0x42};
+
+  private static final int REQUESTS = 256;
+
+  @Test
+  public void testBindingResponse() throws Exception {
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+        AsyncStunTransporter st = new AsyncStunTransporter(null, server.getLocalAddress());) {
+
+      server.start();
+
+      List<CompletableFuture<Message>> futures = new ArrayList<>();
+
+      for (int i = 0; i < REQUESTS; i++) {
+        Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+        request.getHeader().randomTransactionId();
+
+        futures.add(st.doBindAsync(request));
+      }
+
+      for (CompletableFuture<Message> future : futures) {
+        Message response = future.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, response.getHeader().getType());
+        Assert.assertEquals(1, response.getAttributes().size());
+
+        MessageAttribute attr = response.getAttributes().get(0);
+        Assert.assertTrue(attr instanceof XorMappedAddress);
+
+        XorMappedAddress mapped = (XorMappedAddress) attr;
+        Assert.assertEquals(st.getLocalAddress().getPort(), mapped.getPort(COOKIE));
+        Assert.assertEquals(InetAddress.getLoopbackAddress(), mapped.getAddress(COOKIE));
+      }
+
+      Assert.assertTrue(server.getResponseCount() >= REQUESTS);
+    }
+  }
+
+  @Test
+  public void testFingerPrintEcho() throws Exception {
+
+    try (StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        DatagramSocket client = new DatagramSocket(0, InetAddress.getLoopbackAddress());) {
+
+      server.start();
+      client.setSoTimeout(5000);
+
+      Message request = new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST));
+      request.getHeader().randomTransactionId();
+      request.addAttribute(new FingerPrint());
+
+      ByteBuffer out = ByteBuffer.allocate(64);
+      request.encodeTo(out);
+      client.send(new DatagramPacket(out.array(), out.position(), server.getLocalAddress()));
+
+      DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+      client.receive(packet);
+
+      MessageView view = new MessageView().wrap(packet.getData(), 0, packet.getLength());
+
+      Assert.assertTrue(view.isStun());
+      Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, view.getMessageType());
+      Assert.assertEquals(request.getHeader().getTransactionIdHigh(), view.getTransactionIdHigh());
+      Assert.assertEquals(request.getHeader().getTransactionIdLow(), view.getTransactionIdLow());
+
+      int attr = view.findXorMappedAddress();
+      Assert.assertEquals(client.getLocalPort(), view.getXorPort(attr));
+      Assert.assertEquals(InetAddress.getLoopbackAddress(), view.getXorAddress(attr));
+      Assert.assertTrue(FingerPrint.verify(view));
+    }
+  }
+
+}
@@ -0,0 +1,309 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.attribute.ErrorCode;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.MessageIntegrity;
+import net.sf.gee.l2mn.stun.message.attribute.Nonce;
+import net.sf.gee.l2mn.stun.message.attribute.Realm;
+import net.sf.gee.l2mn.stun.message.attribute.RequestedTransport;
+import net.sf.gee.l2mn.stun.message.attribute.Username;
+import net.sf.gee.l2mn.stun.message.attribute.XorPeerAddress;
+import net.sf.gee.l2mn.stun.message.attribute.XorRelayedAddress;
+import net.sf.gee.l2mn.stun.server.TurnServer;
+import net.sf.gee.l2mn.stun.transport.TurnTransporter;
+import net.sf.gee.l2mn.stun.util.CredentialKey;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+import net.sf.gee.l2mn.stun.util.NonceIssuer;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class TurnServerTest {
+
+  private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+  private static TurnServer newServer() throws IOException {
+    TurnServer server = new TurnServer(new InetSocketAddress(LOOPBACK, 0), LOOPBACK, "test");
+    server.addUser("user", "pass");
+    server.start();
+
+    return server;
+  }
+
+  private static TurnTransporter newClient(TurnServer server, String password)
+      throws IOException {
+    return new TurnTransporter(null, server.getLocalAddress(), "user", password,
+        HashedTimerWheel.getDefault());
+  }
+
+  @Test
+  public void testRelay() throws Exception {
+
+    try (TurnServer server = newServer();
+        TurnTransporter turn = newClient(server, "pass");
+        DatagramSocket peer = new DatagramSocket(0, LOOPBACK);) {
+
+      BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+      turn.setRelayListener((from, payload) -> {
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        received.add(from.getPort() + ":" + new String(data, StandardCharsets.UTF_8));
+      });
+
+      InetSocketAddress relayed = turn.allocate();
+      Assert.assertEquals(LOOPBACK, relayed.getAddress());
+      Assert.assertEquals(1, server.getAllocationCount());
+
+      // Data indication
+      turn.createPermission(LOOPBACK);
+      send(peer, "one", relayed);
+      Assert.assertEquals(peer.getLocalPort() + ":one", received.poll(5, TimeUnit.SECONDS));
+
+      // ChannelData, both directions
+      InetSocketAddress peerAddress = new InetSocketAddress(LOOPBACK, peer.getLocalPort());
+      turn.channelBind(0x4001, peerAddress);
+
+      send(peer, "two", relayed);
+      Assert.assertEquals(peer.getLocalPort() + ":two", received.poll(5, TimeUnit.SECONDS));
+
+      turn.sendChannelData(0x4001, ByteBuffer.wrap("three".getBytes(StandardCharsets.UTF_8)));
+
+      DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+      peer.setSoTimeout(5000);
+      peer.receive(packet);
+
+      Assert.assertEquals("three",
+          new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+      Assert.assertEquals(relayed, packet.getSocketAddress());
+
+      // delete
+      turn.refresh(0L);
+      Assert.assertEquals(0, server.getAllocationCount());
+    }
+  }
+
+  @Test
+  public void testPermissionRequired() throws Exception {
+
+    try (TurnServer server = newServer();
+        TurnTransporter turn = newClient(server, "pass");
+        DatagramSocket peer = new DatagramSocket(0, LOOPBACK);) {
+
+      BlockingQueue<String> received = new LinkedBlockingQueue<>();
+      turn.setRelayListener((from, payload) -> received.add(from.toString()));
+
+      send(peer, "dropped", turn.allocate());
+
+      Assert.assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @Test
+  public void testAllocationMismatch() throws Exception {
+
+    try (TurnServer server = newServer(); TurnTransporter turn = newClient(server, "pass");) {
+
+      turn.allocate();
+
+      try {
+        turn.allocate();
+        Assert.fail("second allocation on the same 5-tuple");
+      }
+      catch (IOException e) {
+        Assert.assertTrue(e.getMessage().contains("437"));
+      }
+
+      Assert.assertEquals(1, server.getAllocationCount());
+    }
+  }
+
+  @Test
+  public void testAllocateRetransmission() throws Exception {
+
+    try (TurnServer server = newServer();
+        DatagramSocket client = new DatagramSocket(0, LOOPBACK);) {
+      client.setSoTimeout(5000);
+
+      Message challenge = exchange(client, server, allocateRequest(null, null));
+      Assert.assertEquals(ErrorCode.UNAUTHORIZED, errorCode(challenge));
+
+      String nonce = ((Nonce) challenge.getAttribute(MessageAttributeType.NONCE)).getNonce();
+      Message request = allocateRequest(nonce, CredentialKey.longTerm("user", "test", "pass"));
+
+      // the response is lost: the same request again gets the same allocation
+      Message first = exchange(client, server, request);
+      Message second = exchange(client, server, request);
+
+      Assert.assertEquals(MessageTypeEnum.ALLOCATERESPONSE, first.getHeader().getType());
+      Assert.assertEquals(MessageTypeEnum.ALLOCATERESPONSE, second.getHeader().getType());
+      Assert.assertEquals(relayed(first), relayed(second));
+      Assert.assertEquals(1, server.getAllocationCount());
+
+      // another transaction on the same 5-tuple
+      Message other = exchange(client, server,
+          allocateRequest(nonce, CredentialKey.longTerm("user", "test", "pass")));
+      Assert.assertEquals(ErrorCode.ALLOCATION_MISMATCH, errorCode(other));
+    }
+  }
+
+  @Test
+  public void testMalformedSendIndication() throws Exception {
+
+    try (TurnServer server = newServer();
+        DatagramSocket client = new DatagramSocket(0, LOOPBACK);) {
+      client.setSoTimeout(5000);
+
+      Message challenge = exchange(client, server, allocateRequest(null, null));
+      String nonce = ((Nonce) challenge.getAttribute(MessageAttributeType.NONCE)).getNonce();
+      CredentialKey credential = CredentialKey.longTerm("user", "test", "pass");
+
+      Message allocated = exchange(client, server, allocateRequest(nonce, credential));
+      Assert.assertEquals(MessageTypeEnum.ALLOCATERESPONSE, allocated.getHeader().getType());
+
+      Message permission = new Message(
+          new MessageHeader(MessageTypeEnum.CREATEPERMISSIONREQUEST).randomTransactionId());
+      permission.addAttribute(new XorPeerAddress(new InetSocketAddress(LOOPBACK, 9)));
+      permission.addAttribute(new Username("user"));
+      permission.addAttribute(new Realm("test"));
+      permission.addAttribute(new Nonce(nonce));
+      permission.addAttribute(new MessageIntegrity(credential));
+
+      Assert.assertEquals(MessageTypeEnum.CREATEPERMISSIONRESPONSE,
+          exchange(client, server, permission).getHeader().getType());
+
+      // XOR-PEER-ADDRESS of a permitted peer, 8 bytes long but of family IPv6
+      ByteBuffer indication = ByteBuffer.allocate(36);
+      indication.putShort((short) MessageTypeEnum.SENDINDICATION.getValue());
+      indication.putShort((short) 16);
+      indication.putInt((int) MessageHeader.MAGIC_COOKIE);
+      indication.put("0123456789AB".getBytes(StandardCharsets.US_ASCII));
+      indication.putShort((short) MessageAttributeType.XOR_PEER_ADDRESS.getCode());
+      indication.putShort((short) 8);
+      indication.putShort((short) 0x0002);
+      indication.putShort((short) (9 ^ (MessageHeader.MAGIC_COOKIE >>> 16)));
+      indication.putInt(
+          ByteBuffer.wrap(LOOPBACK.getAddress()).getInt() ^ (int) MessageHeader.MAGIC_COOKIE);
+      indication.putShort((short) MessageAttributeType.DATA.getCode());
+      indication.putShort((short) 0);
+
+      client.send(new DatagramPacket(indication.array(), 36, server.getLocalAddress()));
+
+      // the server is still running
+      Message binding =
+          exchange(client, server, new Message(new MessageHeader(MessageTypeEnum.BINDINGREQUEST)
+              .randomTransactionId()));
+      Assert.assertEquals(MessageTypeEnum.BINDINGRESPONSE, binding.getHeader().getType());
+    }
+  }
+
+  @Test
+  public void testUnauthorized() throws Exception {
+
+    try (TurnServer server = newServer(); TurnTransporter turn = newClient(server, "wrong");) {
+
+      turn.allocate();
+      Assert.fail("wrong password");
+    }
+    catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("401"));
+    }
+  }
+
+  @Test
+  public void testNonceKeyRotation() throws Exception {
+
+    try (TurnServer server = newServer(); TurnTransporter turn = newClient(server, "pass");) {
+
+      turn.allocate();
+
+      // the nonce of the client is stale: 438, then accepted with the new one
+      server.getNonceIssuer().rotate(1, NonceIssuer.randomKey());
+      server.getNonceIssuer().removeKey(0);
+
+      Assert.assertEquals(1200L, turn.refresh(1200L));
+      Assert.assertEquals(1, server.getAllocationCount());
+    }
+  }
+
+  private static Message allocateRequest(String nonce, CredentialKey credential)
+      throws IOException {
+
+    Message request = new Message(
+        new MessageHeader(MessageTypeEnum.ALLOCATEREQUEST).randomTransactionId());
+    request.addAttribute(new RequestedTransport(RequestedTransport.UDP));
+
+    if (credential != null) {
+      request.addAttribute(new Username("user"));
+      request.addAttribute(new Realm("test"));
+      request.addAttribute(new Nonce(nonce));
+      request.addAttribute(new MessageIntegrity(credential));
+    }
+
+    return request;
+  }
+
+  private static Message exchange(DatagramSocket socket, TurnServer server, Message request)
+      throws IOException {
+
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    request.encodeTo(buffer);
+    socket.send(new DatagramPacket(buffer.array(), buffer.position(), server.getLocalAddress()));
+
+    DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+    socket.receive(packet);
+
+    return Message.decode(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+  }
+
+  private static int errorCode(Message response) {
+    return ((ErrorCode) response.getAttribute(MessageAttributeType.ERROR_CODE)).getCode();
+  }
+
+  private static InetSocketAddress relayed(Message response) throws IOException {
+    return ((XorRelayedAddress) response.getAttribute(MessageAttributeType.XOR_RELAYED_ADDRESS))
+        .getSocketAddress(response.getHeader());
+  }
+
+  private static void send(DatagramSocket socket, String text, InetSocketAddress destination)
+      throws IOException {
+    byte[] data = text.getBytes(StandardCharsets.UTF_8);
+
+    socket.send(new DatagramPacket(data, data.length, destination));
+  }
+
+}
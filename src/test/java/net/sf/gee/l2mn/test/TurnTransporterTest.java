@@ -0,0 +1,382 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.message.ChannelData;
+import net.sf.gee.l2mn.stun.message.Message;
+import net.sf.gee.l2mn.stun.message.MessageHeader;
+import net.sf.gee.l2mn.stun.message.MessageTypeEnum;
+import net.sf.gee.l2mn.stun.message.MessageView;
+import net.sf.gee.l2mn.stun.message.attribute.ChannelNumber;
+import net.sf.gee.l2mn.stun.message.attribute.Data;
+import net.sf.gee.l2mn.stun.message.attribute.ErrorCode;
+import net.sf.gee.l2mn.stun.message.attribute.Lifetime;
+import net.sf.gee.l2mn.stun.message.attribute.MessageAttributeType;
+import net.sf.gee.l2mn.stun.message.attribute.MessageIntegrity;
+import net.sf.gee.l2mn.stun.message.attribute.Nonce;
+import net.sf.gee.l2mn.stun.message.attribute.Realm;
+import net.sf.gee.l2mn.stun.message.attribute.XorMappedAddress;
+import net.sf.gee.l2mn.stun.message.attribute.XorPeerAddress;
+import net.sf.gee.l2mn.stun.message.attribute.XorRelayedAddress;
+import net.sf.gee.l2mn.stun.transport.RetransmissionPolicy;
+import net.sf.gee.l2mn.stun.transport.TurnTransporter;
+import net.sf.gee.l2mn.stun.util.CredentialKey;
+import net.sf.gee.l2mn.stun.util.HashedTimerWheel;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class TurnTransporterTest {
+
+  private static final String USERNAME = "user";
+
+  private static final String PASSWORD = "pass";
+
+  private static final String REALM = "example.org";
+
+  private static final InetSocketAddress RELAYED =
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), 50000);
+
+  private static final InetSocketAddress PEER =
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), 6000);
+
+  @Test
+  public void testAllocation() throws Exception {
+
+    try (FakeTurnServer server = new FakeTurnServer();) {
+
+      final TurnTransporter closed;
+
+      try (TurnTransporter turn = new TurnTransporter(null, server.getAddress(), USERNAME,
+          PASSWORD, HashedTimerWheel.getDefault());) {
+
+        Assert.assertEquals(RELAYED, turn.allocate());
+        Assert.assertEquals(turn.getLocalAddress().getPort(), turn.getMappedAddress().getPort());
+        Assert.assertEquals(TurnTransporter.DEFAULT_LIFETIME, turn.getLifetime());
+
+        // the nonce changes after the allocation: 438, then accepted
+        turn.createPermission(PEER.getAddress());
+        turn.channelBind(0x4000, PEER);
+
+        closed = turn;
+      }
+
+      // close deletes the allocation
+      Assert.assertEquals(MessageTypeEnum.ALLOCATEREQUEST, server.next());
+      Assert.assertEquals(MessageTypeEnum.CREATEPERMISSIONREQUEST, server.next());
+      Assert.assertEquals(MessageTypeEnum.CHANNELBINDREQUEST, server.next());
+      Assert.assertEquals(MessageTypeEnum.REFRESHREQUEST, server.next());
+      Assert.assertEquals(0L, server.lastLifetime);
+      Assert.assertEquals(0x4000, server.lastChannel);
+      Assert.assertNull(closed.getRelayedAddress());
+      Assert.assertFalse(server.failure);
+    }
+  }
+
+  @Test
+  public void testAutomaticRefresh() throws Exception {
+
+    try (FakeTurnServer server = new FakeTurnServer();
+        TurnTransporter turn = new TurnTransporter(null, server.getAddress(), USERNAME, PASSWORD,
+            HashedTimerWheel.getDefault());) {
+
+      turn.allocate(2L);
+      turn.createPermission(PEER.getAddress());
+
+      Assert.assertEquals(MessageTypeEnum.ALLOCATEREQUEST, server.next());
+      Assert.assertEquals(MessageTypeEnum.CREATEPERMISSIONREQUEST, server.next());
+
+      // refreshed after half of the lifetime, with its permission
+      Assert.assertEquals(MessageTypeEnum.REFRESHREQUEST, server.next());
+      Assert.assertEquals(2L, server.lastLifetime);
+      Assert.assertEquals(MessageTypeEnum.CREATEPERMISSIONREQUEST, server.next());
+      Assert.assertFalse(server.failure);
+    }
+  }
+
+  @Test
+  public void testLostRefresh() throws Exception {
+
+    try (FakeTurnServer server = new FakeTurnServer();
+        TurnTransporter turn = new TurnTransporter(null, server.getAddress(), USERNAME, PASSWORD,
+            HashedTimerWheel.getDefault());) {
+
+      turn.setRetransmissionPolicy(new RetransmissionPolicy(100L, 2, 2));
+      server.dropRefresh = true;
+
+      turn.allocate(2L);
+      turn.createPermission(PEER.getAddress());
+
+      Assert.assertEquals(MessageTypeEnum.ALLOCATEREQUEST, server.next());
+      Assert.assertEquals(MessageTypeEnum.CREATEPERMISSIONREQUEST, server.next());
+
+      // the first Refresh times out, its permission is refreshed
+      Assert.assertEquals(MessageTypeEnum.CREATEPERMISSIONREQUEST, server.next());
+
+      // the refresh is sent again
+      Assert.assertEquals(MessageTypeEnum.REFRESHREQUEST, server.next());
+      Assert.assertEquals(RELAYED, turn.getRelayedAddress());
+      Assert.assertFalse(server.failure);
+    }
+  }
+
+  @Test
+  public void testChannelData() throws Exception {
+
+    try (FakeTurnServer server = new FakeTurnServer();
+        TurnTransporter turn = new TurnTransporter(null, server.getAddress(), USERNAME, PASSWORD,
+            HashedTimerWheel.getDefault());) {
+
+      BlockingQueue<String> relayed = new LinkedBlockingQueue<>();
+
+      turn.setRelayListener((peer, payload) -> {
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        relayed.add(peer.getPort() + ":" + new String(data, StandardCharsets.UTF_8));
+      });
+
+      turn.allocate();
+
+      try {
+        turn.sendChannelData(0x4000, ByteBuffer.wrap(new byte[1]));
+        Assert.fail("channel not bound");
+      }
+      catch (IOException e) {
+        // expected
+      }
+
+      turn.channelBind(0x4000, PEER);
+      Assert.assertEquals(PEER, turn.getChannelPeer(0x4000));
+
+      turn.sendChannelData(0x4000, ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+
+      // the server echoes the ChannelData message and sends a Data indication
+      Assert.assertEquals(PEER.getPort() + ":hello", relayed.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals(PEER.getPort() + ":indication", relayed.poll(5, TimeUnit.SECONDS));
+      Assert.assertFalse(server.failure);
+    }
+  }
+
+  @Test
+  public void testWrongPassword() throws Exception {
+
+    try (FakeTurnServer server = new FakeTurnServer();
+        TurnTransporter turn = new TurnTransporter(null, server.getAddress(), USERNAME, "wrong",
+            HashedTimerWheel.getDefault());) {
+
+      turn.allocate();
+      Assert.fail("Allocate must fail");
+    }
+    catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("401"));
+    }
+  }
+
+  /**
+   * Minimal TURN server: it challenges every request without MESSAGE-INTEGRITY and changes the
+   * nonce after the first allocation.
+   */
+  private static final class FakeTurnServer implements AutoCloseable {
+
+    private final DatagramSocket socket;
+
+    private final Thread thread;
+
+    private final BlockingQueue<MessageTypeEnum> accepted = new LinkedBlockingQueue<>();
+
+    private final CredentialKey key = CredentialKey.longTerm(USERNAME, REALM, PASSWORD);
+
+    private String nonce = "n1";
+
+    private volatile boolean failure = false;
+
+    private volatile long lastLifetime = -1L;
+
+    private volatile int lastChannel = -1;
+
+    /**
+     * Drop every request of the first Refresh transaction.
+     */
+    private volatile boolean dropRefresh = false;
+
+    private MessageHeader dropped = null;
+
+    private FakeTurnServer() throws SocketException {
+      socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+      thread = new Thread(this::loop);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private InetSocketAddress getAddress() {
+      return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    private MessageTypeEnum next() throws InterruptedException {
+      return accepted.poll(5, TimeUnit.SECONDS);
+    }
+
+    private void loop() {
+      final byte[] data = new byte[2048];
+
+      while (!socket.isClosed()) {
+        try {
+          DatagramPacket packet = new DatagramPacket(data, data.length);
+          socket.receive(packet);
+
+          if ((data[0] & 0xC0) == 0x40) {
+            relay(packet);
+            continue;
+          }
+
+          Message request = Message.decode(ByteBuffer.wrap(data, 0, packet.getLength()));
+          Message response = answer(request, new MessageView().wrap(data, 0, packet.getLength()),
+              (InetSocketAddress) packet.getSocketAddress());
+
+          if (response == null) {
+            continue;
+          }
+
+          ByteBuffer out = ByteBuffer.allocate(512);
+          response.encodeTo(out);
+          socket.send(new DatagramPacket(out.array(), out.position(), packet.getSocketAddress()));
+        }
+        catch (IOException e) {
+          // closed
+        }
+      }
+    }
+
+    private Message answer(Message request, MessageView view, InetSocketAddress source)
+        throws IOException {
+      final MessageTypeEnum type = request.getHeader().getType();
+      final int method = type.getValue();
+      final Message response = new Message(new MessageHeader(type));
+      response.getHeader().setTransactionId(request.getHeader().getTransactionIdHigh(),
+          request.getHeader().getTransactionIdLow());
+
+      final Nonce requestNonce = (Nonce) request.getAttribute(MessageAttributeType.NONCE);
+
+      if (request.getAttribute(MessageAttributeType.MESSAGE_INTEGRITY) == null
+          || !MessageIntegrity.verify(view, key)) {
+        return error(response, method, ErrorCode.UNAUTHORIZED);
+      }
+
+      if (!nonce.equals(requestNonce.getNonce())) {
+        return error(response, method, ErrorCode.STALE_NONCE);
+      }
+
+      response.getHeader().setType(MessageTypeEnum.getValueByValue(method | 0x0100));
+
+      if (type == MessageTypeEnum.ALLOCATEREQUEST) {
+        Lifetime lifetime = (Lifetime) request.getAttribute(MessageAttributeType.LIFETIME);
+
+        response.addAttribute(new XorRelayedAddress(RELAYED));
+        response.addAttribute(new XorMappedAddress(source));
+        response.addAttribute(new Lifetime(lifetime.getSeconds()));
+
+        nonce = "n2";
+      }
+      else if (type == MessageTypeEnum.REFRESHREQUEST) {
+        if (dropRefresh && lostRefresh(request.getHeader())) {
+          return null;
+        }
+
+        lastLifetime =
+            ((Lifetime) request.getAttribute(MessageAttributeType.LIFETIME)).getSeconds();
+        response.addAttribute(new Lifetime(lastLifetime));
+      }
+      else if (type == MessageTypeEnum.CHANNELBINDREQUEST) {
+        lastChannel =
+            ((ChannelNumber) request.getAttribute(MessageAttributeType.CHANNEL_NUMBER))
+                .getChannel();
+
+        XorPeerAddress peer =
+            (XorPeerAddress) request.getAttribute(MessageAttributeType.XOR_PEER_ADDRESS);
+
+        if (!PEER.equals(peer.getSocketAddress(request.getHeader()))) {
+          failure = true;
+        }
+      }
+
+      accepted.add(type);
+
+      return response;
+    }
+
+    private boolean lostRefresh(MessageHeader header) {
+      if (dropped == null) {
+        dropped = header;
+      }
+
+      return dropped.getTransactionIdHigh() == header.getTransactionIdHigh()
+          && dropped.getTransactionIdLow() == header.getTransactionIdLow();
+    }
+
+    private void relay(DatagramPacket packet) throws IOException {
+      ByteBuffer frame = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+
+      if (ChannelData.decode(frame) != lastChannel) {
+        failure = true;
+      }
+
+      // echo the ChannelData message as if it came from the peer
+      socket.send(new DatagramPacket(packet.getData(), packet.getLength(),
+          packet.getSocketAddress()));
+
+      Message indication = new Message(new MessageHeader(MessageTypeEnum.DATAINDICATION));
+      indication.getHeader().randomTransactionId();
+      indication.addAttribute(new XorPeerAddress(PEER));
+      indication.addAttribute(new Data("indication".getBytes(StandardCharsets.UTF_8)));
+
+      ByteBuffer out = ByteBuffer.allocate(128);
+      indication.encodeTo(out);
+      socket.send(new DatagramPacket(out.array(), out.position(), packet.getSocketAddress()));
+    }
+
+    private Message error(Message response, int method, int code) throws IOException {
+      response.getHeader().setType(MessageTypeEnum.getValueByValue(method | 0x0110));
+      response.addAttribute(new ErrorCode(code, (code == 401) ? "Unauthorized" : "Stale Nonce"));
+      response.addAttribute(new Realm(REALM));
+      response.addAttribute(new Nonce(nonce));
+
+      return response;
+    }
+
+    @Override
+    public void close() {
+      socket.close();
+    }
+  }
+
+}
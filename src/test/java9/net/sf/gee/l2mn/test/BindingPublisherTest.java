@@ -0,0 +1,198 @@
+/**
+ * ------------------------------------------------------------------------------------------------
+ *
+ * Copyright 2015 - Giorgio Desideri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ **/
+package net.sf.gee.l2mn.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.gee.l2mn.stun.monitor.BindingMonitor;
+import net.sf.gee.l2mn.stun.monitor.BindingResult;
+import net.sf.gee.l2mn.stun.server.StunServer;
+
+/**
+ * @author Giorgio Desideri - giorgio.desideri@gmail.com
+ *
+ */
+public class BindingPublisherTest {
+
+  /**
+   * Subscriber that records the order of its signals and queues the results.
+   */
+  private static final class RecordingSubscriber implements Flow.Subscriber<BindingResult> {
+
+    final List<String> signals = new CopyOnWriteArrayList<>();
+
+    final BlockingQueue<BindingResult> results = new LinkedBlockingQueue<>();
+
+    final CountDownLatch done = new CountDownLatch(1);
+
+    private final Consumer<Flow.Subscription> onSubscribe;
+
+    volatile Flow.Subscription subscription = null;
+
+    RecordingSubscriber(Consumer<Flow.Subscription> onSubscribe) {
+      this.onSubscribe = onSubscribe;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      signals.add("onSubscribe");
+      this.subscription = subscription;
+      onSubscribe.accept(subscription);
+    }
+
+    @Override
+    public void onNext(BindingResult item) {
+      results.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      signals.add("onError");
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      signals.add("onComplete");
+      done.countDown();
+    }
+
+  }
+
+  private static StunServer server() throws Exception {
+    StunServer server =
+        new StunServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    server.start();
+
+    return server;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Flow.Publisher<BindingResult> publisher(BindingMonitor monitor,
+      StunServer server) throws IOException {
+    return monitor.publisher(Flow.Publisher.class, server.getLocalAddress(), 10L);
+  }
+
+  @Test
+  public void testDemand() throws Exception {
+
+    try (StunServer server = server(); BindingMonitor monitor = new BindingMonitor()) {
+      Flow.Publisher<BindingResult> publisher = publisher(monitor, server);
+
+      // requested in onSubscribe, before the watch exists
+      RecordingSubscriber subscriber = new RecordingSubscriber(s -> s.request(3));
+      publisher.subscribe(subscriber);
+
+      for (int i = 0; i < 3; i++) {
+        Assert.assertTrue(subscriber.results.poll(5, TimeUnit.SECONDS).isSuccess());
+      }
+
+      // no more than requested
+      Thread.sleep(200);
+      Assert.assertTrue(subscriber.results.isEmpty());
+      Assert.assertEquals(3L, server.getRequestCount());
+
+      subscriber.subscription.request(1);
+      Assert.assertNotNull(subscriber.results.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+
+    try (StunServer server = server(); BindingMonitor monitor = new BindingMonitor()) {
+      Flow.Publisher<BindingResult> publisher = publisher(monitor, server);
+
+      RecordingSubscriber subscriber = new RecordingSubscriber(s -> s.request(Long.MAX_VALUE));
+      publisher.subscribe(subscriber);
+
+      Assert.assertNotNull(subscriber.results.poll(5, TimeUnit.SECONDS));
+      Assert.assertNotNull(subscriber.results.poll(5, TimeUnit.SECONDS));
+
+      subscriber.subscription.cancel();
+      Assert.assertEquals(0, monitor.getWatchCount());
+
+      // at most the transaction in flight ends after the cancel
+      Thread.sleep(100);
+      long requests = server.getRequestCount();
+      Thread.sleep(200);
+      Assert.assertEquals(requests, server.getRequestCount());
+
+      // cancelled in onSubscribe: no watch at all
+      publisher.subscribe(new RecordingSubscriber(s -> s.cancel()));
+      Assert.assertEquals(0, monitor.getWatchCount());
+    }
+  }
+
+  @Test
+  public void testComplete() throws Exception {
+
+    try (StunServer server = server()) {
+      BindingMonitor monitor = new BindingMonitor();
+      Flow.Publisher<BindingResult> publisher = publisher(monitor, server);
+
+      RecordingSubscriber subscriber = new RecordingSubscriber(s -> s.request(1));
+      publisher.subscribe(subscriber);
+
+      monitor.close();
+
+      Assert.assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals("onSubscribe", subscriber.signals.get(0));
+      Assert.assertEquals("onComplete", subscriber.signals.get(subscriber.signals.size() - 1));
+
+      // closed while subscribing: the error follows onSubscribe
+      RecordingSubscriber closing = new RecordingSubscriber(s -> {
+        // nothing
+      });
+      publisher.subscribe(closing);
+
+      Assert.assertTrue(closing.done.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(List.of("onSubscribe", "onError"), closing.signals);
+    }
+  }
+
+  @Test
+  public void testWrongType() throws Exception {
+
+    try (StunServer server = server(); BindingMonitor monitor = new BindingMonitor()) {
+
+      try {
+        monitor.publisher(String.class, server.getLocalAddress(), 10L);
+        Assert.fail("not a publisher");
+      }
+      catch (IllegalArgumentException e) {
+        Assert.assertTrue(e.getMessage().contains("java.lang.String"));
+      }
+
+      Assert.assertEquals(0, monitor.getWatchCount());
+    }
+  }
+
+}